@@ -39,6 +39,11 @@ public interface Config {
     public boolean isMediaDebug();
     public String getMediaFile();
     public int getRtpPort();
+    public int getIoThreads();
+    public int getDispatchThreads();
+    public int getTransactionThreads();
+    public int getUdpChannels();
+    public boolean isOverloadControl();
     public void setLocalInetAddress(InetAddress inetAddress);
     public void setPublicInetAddress(InetAddress inetAddress);
     public void setUserPart(String userPart);
@@ -49,5 +54,10 @@ public interface Config {
     public void setMediaDebug(boolean mediaDebug);
     public void setMediaFile(String mediaFile);
     public void setRtpPort(int rtpPort);
+    public void setIoThreads(int ioThreads);
+    public void setDispatchThreads(int dispatchThreads);
+    public void setTransactionThreads(int transactionThreads);
+    public void setUdpChannels(int udpChannels);
+    public void setOverloadControl(boolean overloadControl);
 
 }
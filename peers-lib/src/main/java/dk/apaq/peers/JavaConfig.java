@@ -38,6 +38,11 @@ public class JavaConfig implements Config {
     private boolean mediaDebug;
     private String mediaFile;
     private int rtpPort;
+    private int ioThreads;
+    private int dispatchThreads;
+    private int transactionThreads;
+    private int udpChannels;
+    private boolean overloadControl;
 
     @Override
     public void save() {
@@ -144,4 +149,54 @@ public class JavaConfig implements Config {
         this.mediaFile = mediaFile;
     }
 
+    @Override
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    @Override
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    @Override
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    @Override
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    @Override
+    public int getTransactionThreads() {
+        return transactionThreads;
+    }
+
+    @Override
+    public void setTransactionThreads(int transactionThreads) {
+        this.transactionThreads = transactionThreads;
+    }
+
+    @Override
+    public int getUdpChannels() {
+        return udpChannels;
+    }
+
+    @Override
+    public void setUdpChannels(int udpChannels) {
+        this.udpChannels = udpChannels;
+    }
+
+    @Override
+    public boolean isOverloadControl() {
+        return overloadControl;
+    }
+
+    @Override
+    public void setOverloadControl(boolean overloadControl) {
+        this.overloadControl = overloadControl;
+    }
+
 }
@@ -66,6 +66,11 @@ public class XmlConfig implements Config {
     private boolean mediaDebug;
     private String mediaFile;
     private int rtpPort;
+    private int ioThreads;
+    private int dispatchThreads;
+    private int transactionThreads;
+    private int udpChannels;
+    private boolean overloadControl;
     
     // corresponding DOM nodes
     
@@ -79,6 +84,11 @@ public class XmlConfig implements Config {
     private Node mediaDebugNode;
     private Node mediaFileNode;
     private Node rtpPortNode;
+    private Node ioThreadsNode;
+    private Node dispatchThreadsNode;
+    private Node transactionThreadsNode;
+    private Node udpChannelsNode;
+    private Node overloadControlNode;
 
     // non-persistent variables
 
@@ -171,6 +181,30 @@ public class XmlConfig implements Config {
                         + " rtp port must be even");
             }
         }
+        ioThreadsNode = getFirstChild(documentElement, "ioThreads");
+        if (!isNullOrEmpty(ioThreadsNode)) {
+            ioThreads = Integer.parseInt(ioThreadsNode.getTextContent());
+        }
+        dispatchThreadsNode = getFirstChild(documentElement, "dispatchThreads");
+        if (!isNullOrEmpty(dispatchThreadsNode)) {
+            dispatchThreads = Integer.parseInt(
+                    dispatchThreadsNode.getTextContent());
+        }
+        transactionThreadsNode = getFirstChild(documentElement,
+                "transactionThreads");
+        if (!isNullOrEmpty(transactionThreadsNode)) {
+            transactionThreads = Integer.parseInt(
+                    transactionThreadsNode.getTextContent());
+        }
+        udpChannelsNode = getFirstChild(documentElement, "udpChannels");
+        if (!isNullOrEmpty(udpChannelsNode)) {
+            udpChannels = Integer.parseInt(udpChannelsNode.getTextContent());
+        }
+        overloadControlNode = getFirstChild(documentElement, "overloadControl");
+        if (!isNullOrEmpty(overloadControlNode)) {
+            overloadControl = Boolean.parseBoolean(
+                    overloadControlNode.getTextContent());
+        }
     }
 
     private boolean isNullOrEmpty(Node node) {
@@ -332,4 +366,72 @@ public class XmlConfig implements Config {
         this.mediaFile = mediaFile;
     }
 
+    @Override
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    @Override
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+        if (ioThreadsNode != null) {
+            ioThreadsNode.setTextContent(Integer.toString(ioThreads));
+        }
+    }
+
+    @Override
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    @Override
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+        if (dispatchThreadsNode != null) {
+            dispatchThreadsNode.setTextContent(
+                    Integer.toString(dispatchThreads));
+        }
+    }
+
+    @Override
+    public int getTransactionThreads() {
+        return transactionThreads;
+    }
+
+    @Override
+    public void setTransactionThreads(int transactionThreads) {
+        this.transactionThreads = transactionThreads;
+        if (transactionThreadsNode != null) {
+            transactionThreadsNode.setTextContent(
+                    Integer.toString(transactionThreads));
+        }
+    }
+
+    @Override
+    public int getUdpChannels() {
+        return udpChannels;
+    }
+
+    @Override
+    public void setUdpChannels(int udpChannels) {
+        this.udpChannels = udpChannels;
+        if (udpChannelsNode != null) {
+            udpChannelsNode.setTextContent(Integer.toString(udpChannels));
+        }
+    }
+
+    @Override
+    public boolean isOverloadControl() {
+        return overloadControl;
+    }
+
+    @Override
+    public void setOverloadControl(boolean overloadControl) {
+        this.overloadControl = overloadControl;
+        if (overloadControlNode != null) {
+            overloadControlNode.setTextContent(
+                    Boolean.toString(overloadControl));
+        }
+    }
+
 }
@@ -22,22 +22,18 @@ package dk.apaq.peers.sip;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * States hold no data and are shared by all state machines of a given kind,
+ * the machine is passed to each event method instead.
+ */
 public abstract class AbstractState {
     
     private static final Logger LOG = LoggerFactory.getLogger(AbstractState.class);
-    protected String id;
-    
-    public AbstractState(String id) {
-        this.id = id;
-    }
 
-    public void log(AbstractState state) {
-        StringBuffer buf = new StringBuffer();
-        buf.append("SM ").append(id).append(" [");
-        buf.append(JavaUtils.getShortClassName(this.getClass())).append(" -> ");
-        buf.append(JavaUtils.getShortClassName(state.getClass())).append("] ");
-        buf.append(new Exception().getStackTrace()[1].getMethodName());
-        LOG.debug(buf.toString());
+    public void log(String id, AbstractState state) {
+        LOG.debug("SM {} [{} -> {}]", id,
+                JavaUtils.getShortClassName(this.getClass()),
+                JavaUtils.getShortClassName(state.getClass()));
     }
     
 }
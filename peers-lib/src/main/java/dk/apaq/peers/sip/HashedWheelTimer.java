@@ -0,0 +1,290 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timer service for all library timers: transaction timers, keep-alives,
+ * ack retransmissions and registration refreshes.
+ *
+ * Pending tasks are spread over a wheel of buckets, one per tick. Scheduling
+ * and cancellation only enqueue the timeout, the timer thread moves it into
+ * or out of its bucket at next tick, so both are constant time whatever the
+ * number of pending tasks. Precision is one tick. Tasks run on the timer
+ * thread and must not block.
+ *
+ * A single shared instance, {@link #getDefault()}, is used unless another
+ * one is injected.
+ */
+public class HashedWheelTimer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+    public static final long DEFAULT_TICK_DURATION = 10; // milliseconds
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static HashedWheelTimer defaultTimer;
+
+    private Bucket[] wheel;
+    private int mask;
+    private long tickDuration;
+    private long startTime;
+    private Queue<Timeout> newTimeouts;
+    private Queue<Timeout> cancelledTimeouts;
+    private AtomicInteger pending;
+    private Thread thread;
+    private volatile boolean running;
+
+    public static synchronized HashedWheelTimer getDefault() {
+        if (defaultTimer == null) {
+            defaultTimer = new HashedWheelTimer(
+                    HashedWheelTimer.class.getSimpleName(),
+                    DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL);
+        }
+        return defaultTimer;
+    }
+
+    /**
+     * @param tickDuration  milliseconds
+     * @param ticksPerWheel rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, long tickDuration, int ticksPerWheel) {
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException("tick duration must be positive");
+        }
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+        cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+        pending = new AtomicInteger();
+        startTime = System.nanoTime();
+        running = true;
+        thread = new Thread(new Worker(), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param delay milliseconds
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        return schedule(task, delay, 0);
+    }
+
+    /**
+     * Runs task every period milliseconds, until its timeout is cancelled.
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long delay, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return schedule(task, delay,
+                TimeUnit.MILLISECONDS.toNanos(period));
+    }
+
+    private Timeout schedule(Runnable task, long delay, long period) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (!running) {
+            throw new IllegalStateException("timer stopped");
+        }
+        long deadline = System.nanoTime() - startTime
+            + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+        Timeout timeout = new Timeout(this, task, deadline, period);
+        pending.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    void cancelled(Timeout timeout) {
+        pending.decrementAndGet();
+        cancelledTimeouts.add(timeout);
+    }
+
+    /**
+     * Stops the timer thread, pending tasks are dropped. The default timer
+     * cannot be stopped.
+     */
+    public void stop() {
+        if (this == defaultTimer) {
+            throw new IllegalStateException("default timer cannot be stopped");
+        }
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * @return number of tasks scheduled and neither run nor cancelled,
+     *         periodic tasks count once.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    static class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = timeout;
+                tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+    }
+
+    class Worker implements Runnable {
+
+        private long tick;
+
+        @Override
+        public void run() {
+            while (running) {
+                long deadline = tickDuration * (tick + 1);
+                long sleep = deadline - (System.nanoTime() - startTime);
+                if (sleep > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        if (!running) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                removeCancelled();
+                transferNew();
+                expire(wheel[(int)(tick & mask)]);
+                ++tick;
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferNew() {
+            Timeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                if (timeout.state.get() == Timeout.ST_PENDING) {
+                    insert(timeout, tick);
+                }
+            }
+        }
+
+        /**
+         * @param minTick a late timeout expires at this tick
+         */
+        private void insert(Timeout timeout, long minTick) {
+            long expirationTick = Math.max(timeout.deadline / tickDuration,
+                    minTick);
+            timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+            wheel[(int)(expirationTick & mask)].add(timeout);
+        }
+
+        private void expire(Bucket bucket) {
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                if (timeout.remainingRounds > 0) {
+                    --timeout.remainingRounds;
+                    timeout = timeout.next;
+                    continue;
+                }
+                Timeout next = bucket.remove(timeout);
+                if (timeout.period > 0) {
+                    // may have been cancelled since cancellations were drained
+                    if (timeout.state.get() != Timeout.ST_PENDING) {
+                        timeout = next;
+                        continue;
+                    }
+                    run(timeout);
+                    if (timeout.state.get() == Timeout.ST_PENDING) {
+                        timeout.deadline += timeout.period;
+                        // not in the bucket being expired
+                        insert(timeout, tick + 1);
+                    }
+                } else if (timeout.state.compareAndSet(Timeout.ST_PENDING,
+                        Timeout.ST_EXPIRED)) {
+                    pending.decrementAndGet();
+                    run(timeout);
+                }
+                timeout = next;
+            }
+        }
+
+        private void run(Timeout timeout) {
+            try {
+                timeout.task.run();
+            } catch (Throwable t) {
+                // a failing task must not stop other timers
+                LOG.error("timer task " + timeout.task + " failed", t);
+            }
+        }
+
+    }
+
+}
@@ -47,6 +47,7 @@ public final class RFC3261 {
     public static final String HDR_FROM                = "From";
     public static final String HDR_MAX_FORWARDS        = "Max-Forwards";
     public static final String HDR_RECORD_ROUTE        = "Record-Route";
+    public static final String HDR_RETRY_AFTER         = "Retry-After";
     public static final String HDR_PROXY_AUTHENTICATE  = "Proxy-Authenticate";
     public static final String HDR_PROXY_AUTHORIZATION = "Proxy-Authorization";
     public static final String HDR_ROUTE               = "Route";
@@ -71,6 +72,7 @@ public final class RFC3261 {
     
         //Parameters
     
+    public static final String PARAM_ALIAS      = "alias";
     public static final String PARAM_BRANCH     = "branch";
     public static final String PARAM_EXPIRES    = "expires";
     public static final String PARAM_MADDR      = "maddr";
@@ -105,19 +107,26 @@ public final class RFC3261 {
     public static final int CODE_100_TRYING                          = 100;
     public static final int CODE_180_RINGING                         = 180;
     public static final int CODE_200_OK                              = 200;
+    public static final int CODE_400_BAD_REQUEST                     = 400;
     public static final int CODE_401_UNAUTHORIZED                    = 401;
     public static final int CODE_405_METHOD_NOT_ALLOWED              = 405;
     public static final int CODE_407_PROXY_AUTHENTICATION_REQUIRED   = 407;
+    public static final int CODE_413_REQUEST_ENTITY_TOO_LARGE        = 413;
     public static final int CODE_481_CALL_TRANSACTION_DOES_NOT_EXIST = 481;
     public static final int CODE_486_BUSYHERE                        = 486;
     public static final int CODE_487_REQUEST_TERMINATED              = 487;
     public static final int CODE_500_SERVER_INTERNAL_ERROR           = 500;
+    public static final int CODE_503_SERVICE_UNAVAILABLE             = 503;
+    public static final int CODE_513_MESSAGE_TOO_LARGE               = 513;
     
       //REASON PHRASES
     public static final String REASON_180_RINGING  = "Ringing";
     public static final String REASON_200_OK       = "OK";
+    public static final String REASON_400_BAD_REQUEST = "Bad Request";
     public static final String REASON_405_METHOD_NOT_ALLOWED =
         "Method Not Allowed";
+    public static final String REASON_413_REQUEST_ENTITY_TOO_LARGE =
+        "Request Entity Too Large";
     public static final String REASON_481_CALL_TRANSACTION_DOES_NOT_EXIST =
         "Call/Transaction Does Not Exist";
     public static final String REASON_486_BUSYHERE = "Busy Here";
@@ -125,6 +134,10 @@ public final class RFC3261 {
         "Request Terminated";
     public static final String REASON_500_SERVER_INTERNAL_ERROR =
         "Server Internal Error";
+    public static final String REASON_503_SERVICE_UNAVAILABLE =
+        "Service Unavailable";
+    public static final String REASON_513_MESSAGE_TOO_LARGE =
+        "Message Too Large";
     
     //TRANSPORT
     
@@ -0,0 +1,35 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip;
+
+public final class RFC7339 {
+
+    // Via header parameters
+
+    public static final String PARAM_OC          = "oc";
+    public static final String PARAM_OC_VALIDITY = "oc-validity";
+    public static final String PARAM_OC_SEQ      = "oc-seq";
+    public static final String PARAM_OC_ALGO     = "oc-algo";
+
+    // algorithms
+
+    public static final String ALGO_LOSS = "loss";
+
+}
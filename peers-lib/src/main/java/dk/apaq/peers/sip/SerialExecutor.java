@@ -0,0 +1,117 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mailbox running its tasks one at a time, in submission order, so that
+ * the state they share needs no lock.
+ *
+ * Tasks run on an executor shared by many serial executors, a thread pool
+ * for instance. Without executor, they run on the submitting thread, unless
+ * another thread is already running tasks of this mailbox: they are then
+ * queued and run by that thread before it returns. A task submitted by a
+ * running task of the same mailbox runs after it, never nested.
+ */
+public class SerialExecutor implements Executor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerialExecutor.class);
+    // tasks run before giving the thread back to the shared executor
+    public static final int MAX_BATCH = 64;
+
+    private Executor executor;
+    private Queue<Runnable> tasks;
+    private AtomicBoolean running;
+    private Runnable drain;
+
+    /**
+     * @param executor shared executor, or null to run tasks on submitting
+     *                 threads
+     */
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        running = new AtomicBoolean();
+        drain = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        if (executor == null) {
+            drain();
+            return;
+        }
+        try {
+            executor.execute(drain);
+        } catch (RejectedExecutionException e) {
+            // shared executor shut down, tasks must still run
+            drain();
+        }
+    }
+
+    private void drain() {
+        do {
+            int count = 0;
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // one faulty task must not block the mailbox
+                    LOG.error("task failed", e);
+                }
+                if (executor != null && ++count >= MAX_BATCH
+                        && !tasks.isEmpty() && resubmit()) {
+                    return;
+                }
+            }
+            running.set(false);
+            // a task may have been added after the last poll by a thread
+            // which saw this mailbox running
+        } while (!tasks.isEmpty() && running.compareAndSet(false, true));
+    }
+
+    private boolean resubmit() {
+        try {
+            executor.execute(drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+}
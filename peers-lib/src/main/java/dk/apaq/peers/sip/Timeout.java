@@ -0,0 +1,81 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle on a task scheduled with a {@link HashedWheelTimer}.
+ */
+public class Timeout {
+
+    static final int ST_PENDING = 0;
+    static final int ST_CANCELLED = 1;
+    static final int ST_EXPIRED = 2;
+
+    final HashedWheelTimer timer;
+    final Runnable task;
+    final long period;
+    // nanoseconds, relative to timer start
+    long deadline;
+    long remainingRounds;
+    final AtomicInteger state;
+
+    // bucket linked list, only touched by the timer thread
+    Timeout next;
+    Timeout prev;
+    HashedWheelTimer.Bucket bucket;
+
+    Timeout(HashedWheelTimer timer, Runnable task, long deadline,
+            long period) {
+        this.timer = timer;
+        this.task = task;
+        this.deadline = deadline;
+        this.period = period;
+        state = new AtomicInteger(ST_PENDING);
+    }
+
+    /**
+     * Cancels the task, it will not run any more. Constant time: the
+     * timeout is unlinked from its bucket by the timer thread at next tick.
+     *
+     * @return false if the task had already been cancelled or has expired.
+     */
+    public boolean cancel() {
+        if (!state.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+            return false;
+        }
+        timer.cancelled(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return state.get() == ST_CANCELLED;
+    }
+
+    public boolean isExpired() {
+        return state.get() == ST_EXPIRED;
+    }
+
+    public Runnable getTask() {
+        return task;
+    }
+
+}
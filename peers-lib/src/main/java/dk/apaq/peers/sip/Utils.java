@@ -26,8 +26,11 @@ import dk.apaq.peers.sip.core.useragent.UAS;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldMultiValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
 import dk.apaq.peers.sip.transport.SipMessage;
+import dk.apaq.peers.sip.transport.SipRequest;
+import dk.apaq.peers.sip.transport.SipResponse;
 
 
 public class Utils {
@@ -37,7 +40,7 @@ public class Utils {
 
     public final static SipHeaderFieldValue getTopVia(SipMessage sipMessage) {
         SipHeaders sipHeaders = sipMessage.getSipHeaders();
-        SipHeaderFieldName viaName = new SipHeaderFieldName(RFC3261.HDR_VIA);
+        SipHeaderFieldName viaName = SipHeaderFieldName.VIA;
         SipHeaderFieldValue via = sipHeaders.get(viaName);
         if (via instanceof SipHeaderFieldMultiValue) {
             via = ((SipHeaderFieldMultiValue)via).getValues().get(0);
@@ -56,7 +59,8 @@ public class Utils {
         buf.append('-');
         buf.append(String.valueOf(System.currentTimeMillis()));
         buf.append('@');
-        buf.append(inetAddress.getHostName());
+        // no reverse dns lookup
+        buf.append(inetAddress.getHostAddress());
         return buf.toString();
     }
     
@@ -70,7 +74,7 @@ public class Utils {
     
     public final static String getMessageCallId(SipMessage sipMessage) {
         SipHeaderFieldValue callId = sipMessage.getSipHeaders().get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID));
+                SipHeaderFieldName.CALLID);
         return callId.getValue();
     }
     
@@ -87,13 +91,42 @@ public class Utils {
     }
     
     public final static void copyHeader(SipMessage src, SipMessage dst, String name) {
-        SipHeaderFieldName sipHeaderFieldName = new SipHeaderFieldName(name);
+        SipHeaderFieldName sipHeaderFieldName = SipHeaderFieldName.valueOf(name);
         SipHeaderFieldValue sipHeaderFieldValue = src.getSipHeaders().get(sipHeaderFieldName);
         if (sipHeaderFieldValue != null) {
             dst.getSipHeaders().add(sipHeaderFieldName, sipHeaderFieldValue);
         }
     }
     
+    /**
+     * Generates a response to a request processed without transaction:
+     * Via, From, To, Call-ID and CSeq are copied, a To tag is added.
+     * 
+     * @return null if one of those headers is missing in sipRequest
+     */
+    public final static SipResponse generateStatelessResponse(
+            SipRequest sipRequest, int statusCode, String reasonPhrase) {
+        SipHeaders requestHeaders = sipRequest.getSipHeaders();
+        SipHeaderFieldName[] names = { SipHeaderFieldName.VIA,
+                SipHeaderFieldName.FROM, SipHeaderFieldName.TO,
+                SipHeaderFieldName.CALLID, SipHeaderFieldName.CSEQ };
+        SipResponse sipResponse = new SipResponse(statusCode, reasonPhrase);
+        SipHeaders responseHeaders = sipResponse.getSipHeaders();
+        for (SipHeaderFieldName name: names) {
+            SipHeaderFieldValue value = requestHeaders.get(name);
+            if (value == null) {
+                return null;
+            }
+            responseHeaders.add(name, value);
+        }
+        SipHeaderFieldValue to = responseHeaders.get(SipHeaderFieldName.TO);
+        SipHeaderParamName tagName = new SipHeaderParamName(RFC3261.PARAM_TAG);
+        if (to.getParam(tagName) == null) {
+            to.addParam(tagName, generateTag());
+        }
+        return sipResponse;
+    }
+
     public final static String getUserPart(String sipUri) {
         int start = sipUri.indexOf(RFC3261.SCHEME_SEPARATOR);
         int end = sipUri.indexOf(RFC3261.AT);
@@ -107,7 +140,7 @@ public class Utils {
     public final static void addCommonHeaders(SipHeaders headers) {
         //Max-Forwards
         
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_MAX_FORWARDS),
+        headers.add(SipHeaderFieldName.MAX_FORWARDS,
                 new SipHeaderFieldValue(
                         String.valueOf(RFC3261.DEFAULT_MAXFORWARDS)));
         
@@ -113,15 +113,13 @@ public class ChallengeManager implements MessageInterceptor {
         SipHeaders responseHeaders = sipResponse.getSipHeaders();
         SipHeaders requestHeaders = sipRequest.getSipHeaders();
         contact = requestHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CONTACT));
+                SipHeaderFieldName.CONTACT);
         SipHeaderFieldValue authenticate;
         SipHeaderFieldName authenticateHeaderName;
         if (statusCode == RFC3261.CODE_401_UNAUTHORIZED) {
-            authenticateHeaderName = new SipHeaderFieldName(
-                    RFC3261.HDR_WWW_AUTHENTICATE);
+            authenticateHeaderName = SipHeaderFieldName.WWW_AUTHENTICATE;
         } else if (statusCode == RFC3261.CODE_407_PROXY_AUTHENTICATION_REQUIRED) {
-            authenticateHeaderName = new SipHeaderFieldName(
-                    RFC3261.HDR_PROXY_AUTHENTICATE);
+            authenticateHeaderName = SipHeaderFieldName.PROXY_AUTHENTICATE;
         } else {
             return;
         }
@@ -150,14 +148,14 @@ public class ChallengeManager implements MessageInterceptor {
         // FIXME message should be copied "as is" not created anew from scratch
         // and this technique is not clean
         String callId = responseHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID)).getValue();
+                SipHeaderFieldName.CALLID).getValue();
         Dialog dialog = dialogManager.getDialog(callId);
         if (dialog != null) {
         	midDialogRequestManager.generateMidDialogRequest(
                     dialog, RFC3261.METHOD_BYE, this);
         } else {
             SipHeaderFieldValue from = requestHeaders.get(
-                    new SipHeaderFieldName(RFC3261.HDR_FROM));
+                    SipHeaderFieldName.FROM);
             String fromTag = from.getParam(new SipHeaderParamName(
                     RFC3261.PARAM_TAG));
         	try {
@@ -235,7 +233,7 @@ public class ChallengeManager implements MessageInterceptor {
         }
         SipHeaders sipHeaders = sipMessage.getSipHeaders();
         String cseq = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CSEQ)).getValue();
+                SipHeaderFieldName.CSEQ).getValue();
         String method = cseq.substring(cseq.trim().lastIndexOf(' ') + 1);
         digest = getRequestDigest(method);
         StringBuffer buf = new StringBuffer();
@@ -263,11 +261,9 @@ public class ChallengeManager implements MessageInterceptor {
         }
         SipHeaderFieldName authorizationName;
         if (statusCode == RFC3261.CODE_401_UNAUTHORIZED) {
-            authorizationName = new SipHeaderFieldName(
-                    RFC3261.HDR_AUTHORIZATION);
+            authorizationName = SipHeaderFieldName.AUTHORIZATION;
         } else if (statusCode == RFC3261.CODE_407_PROXY_AUTHENTICATION_REQUIRED) {
-            authorizationName = new SipHeaderFieldName(
-                    RFC3261.HDR_PROXY_AUTHORIZATION);
+            authorizationName = SipHeaderFieldName.PROXY_AUTHORIZATION;
         } else {
             return;
         }
@@ -280,7 +276,7 @@ public class ChallengeManager implements MessageInterceptor {
             String expiresString = contact.getParam(expiresName);
             if (expiresString != null && Integer.parseInt(expiresString) == 0) {
                 SipHeaderFieldValue requestContact =
-                    sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CONTACT));
+                    sipHeaders.get(SipHeaderFieldName.CONTACT);
                 requestContact.addParam(expiresName, expiresString);
             }
         }
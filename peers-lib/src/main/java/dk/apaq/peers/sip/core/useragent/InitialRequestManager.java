@@ -19,6 +19,9 @@
 
 package dk.apaq.peers.sip.core.useragent;
 
+import java.io.IOException;
+import java.util.List;
+
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.Utils;
 import dk.apaq.peers.sip.core.useragent.handlers.ByeHandler;
@@ -26,6 +29,8 @@ import dk.apaq.peers.sip.core.useragent.handlers.CancelHandler;
 import dk.apaq.peers.sip.core.useragent.handlers.InviteHandler;
 import dk.apaq.peers.sip.core.useragent.handlers.OptionsHandler;
 import dk.apaq.peers.sip.core.useragent.handlers.RegisterHandler;
+import dk.apaq.peers.sip.resolver.SipResolverCallback;
+import dk.apaq.peers.sip.resolver.SipTarget;
 import dk.apaq.peers.sip.syntaxencoding.NameAddress;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
@@ -68,7 +73,7 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
             String profileUri, String callId, String fromTag)
             throws SipUriSyntaxException {
         //8.1.1
-        SipRequest request = new SipRequest(method, new SipURI(requestUri));
+        SipRequest request = new SipRequest(method, SipURI.valueOf(requestUri));
         SipHeaders headers = request.getSipHeaders();
         //String hostAddress = utils.getMyAddress().getHostAddress();
         
@@ -84,14 +89,14 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
 //        SipHeaderFieldValue via = new SipHeaderFieldValue(viaBuf.toString());
 //        via.addParam(new SipHeaderParamName(RFC3261.PARAM_BRANCHID),
 //                utils.generateBranchId());
-//        headers.add(new SipHeaderFieldName(RFC3261.HDR_VIA), via);
+//        headers.add(SipHeaderFieldName.VIA, via);
         
         Utils.addCommonHeaders(headers);
         
         //To
         
         NameAddress to = new NameAddress(requestUri);
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_TO),
+        headers.add(SipHeaderFieldName.TO,
                 new SipHeaderFieldValue(to.toString()));
         
         //From
@@ -105,12 +110,12 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
             localFromTag = Utils.generateTag();
         }
         from.addParam(new SipHeaderParamName(RFC3261.PARAM_TAG), localFromTag);
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_FROM), from);
+        headers.add(SipHeaderFieldName.FROM, from);
         
         //Call-ID
         
         SipHeaderFieldName callIdName =
-            new SipHeaderFieldName(RFC3261.HDR_CALLID);
+            SipHeaderFieldName.CALLID;
         String localCallId;
         if (callId != null) {
             localCallId = callId;
@@ -122,7 +127,7 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
         
         //CSeq
         
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_CSEQ),
+        headers.add(SipHeaderFieldName.CSEQ,
                 new SipHeaderFieldValue(userAgent.generateCSeq(method)));
         
         return request;
@@ -140,6 +145,11 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
                 null, null);
     }
     
+    /**
+     * The request is returned as soon as it is built. Its destination is
+     * resolved using RFC 3263, without blocking the caller on dns lookups,
+     * the client transaction is started once the destination is known.
+     */
     public SipRequest createInitialRequest(String requestUri, String method,
             String profileUri, String callId, String fromTag,
             MessageInterceptor messageInterceptor)
@@ -154,19 +164,32 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
         if (outboundProxy != null) {
             NameAddress outboundProxyNameAddress =
                 new NameAddress(outboundProxy.toString());
-            sipRequest.getSipHeaders().add(new SipHeaderFieldName(RFC3261.HDR_ROUTE),
+            sipRequest.getSipHeaders().add(SipHeaderFieldName.ROUTE,
                     new SipHeaderFieldValue(outboundProxyNameAddress.toString()), 0);
         }
-        ClientTransaction clientTransaction = null;
-        if (RFC3261.METHOD_INVITE.equals(method)) {
-            clientTransaction = inviteHandler.preProcessInvite(sipRequest);
-        } else if (RFC3261.METHOD_REGISTER.equals(method)) {
-            clientTransaction = registerHandler.preProcessRegister(sipRequest);
+        if (!RFC3261.METHOD_INVITE.equals(method)
+                && !RFC3261.METHOD_REGISTER.equals(method)) {
+            createInitialRequestEnd(sipRequest, null, profileUri,
+                    messageInterceptor, true);
+            return sipRequest;
+        }
+        SipURI sipUri = userAgent.getConfig().getOutboundProxy();
+        if (sipUri == null) {
+            sipUri = getDestinationUri(sipRequest);
         }
-        createInitialRequestEnd(sipRequest, clientTransaction, profileUri,
-                messageInterceptor, true);
+        transportManager.getSipResolver().resolve(sipUri,
+                new InitialRequestResolverCallback(sipRequest, profileUri,
+                        messageInterceptor));
         return sipRequest;
     }
+
+    private ClientTransaction preProcessInitialRequest(SipRequest sipRequest,
+            SipTarget sipTarget) throws SipUriSyntaxException {
+        if (RFC3261.METHOD_INVITE.equals(sipRequest.getMethod())) {
+            return inviteHandler.preProcessInvite(sipRequest, sipTarget);
+        }
+        return registerHandler.preProcessRegister(sipRequest, sipTarget);
+    }
     
     private void createInitialRequestEnd(SipRequest sipRequest,
             ClientTransaction clientTransaction, String profileUri,
@@ -189,7 +212,7 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
             MidDialogRequestManager midDialogRequestManager, String profileUri) {
         SipHeaders inviteHeaders = inviteRequest.getSipHeaders();
         SipHeaderFieldValue callId = inviteHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID));
+                SipHeaderFieldName.CALLID);
         SipRequest sipRequest;
         try {
             sipRequest = getGenericRequest(
@@ -225,13 +248,13 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
                     RFC3261.CODE_405_METHOD_NOT_ALLOWED,
                     RFC3261.REASON_405_METHOD_NOT_ALLOWED);
             SipHeaders sipHeaders = sipResponse.getSipHeaders();
-            sipHeaders.add(new SipHeaderFieldName(RFC3261.HDR_ALLOW),
+            sipHeaders.add(SipHeaderFieldName.ALLOW,
                     new SipHeaderFieldValue(Utils.generateAllowHeader()));
         }
 
         
         SipHeaderFieldValue contentType =
-            headers.get(new SipHeaderFieldName(RFC3261.HDR_CONTENT_TYPE));
+            headers.get(SipHeaderFieldName.CONTENT_TYPE);
         if (contentType != null) {
             if (!RFC3261.CONTENT_TYPE_SDP.equals(contentType.getValue())) {
                 //TODO generate 415 with a Accept header listing supported content types
@@ -282,10 +305,82 @@ public class InitialRequestManager extends RequestManager implements ServerTrans
         NameAddress contactNA = new NameAddress(contactBuf.toString());
         SipHeaderFieldValue contact =
             new SipHeaderFieldValue(contactNA.toString());
-        sipHeaders.add(new SipHeaderFieldName(RFC3261.HDR_CONTACT),
+        sipHeaders.add(SipHeaderFieldName.CONTACT,
                 new SipHeaderFieldValue(contact.toString()));
     }
 
+    class InitialRequestResolverCallback implements SipResolverCallback {
+
+        private SipRequest sipRequest;
+        private String profileUri;
+        private MessageInterceptor messageInterceptor;
+
+        public InitialRequestResolverCallback(SipRequest sipRequest,
+                String profileUri, MessageInterceptor messageInterceptor) {
+            this.sipRequest = sipRequest;
+            this.profileUri = profileUri;
+            this.messageInterceptor = messageInterceptor;
+        }
+
+        @Override
+        public void resolved(List<SipTarget> sipTargets) {
+            ClientTransaction clientTransaction;
+            try {
+                clientTransaction = preProcessInitialRequest(sipRequest,
+                        sipTargets.get(0));
+            } catch (SipUriSyntaxException e) {
+                LOG.error("syntax error", e);
+                return;
+            }
+            createInitialRequestEnd(sipRequest, clientTransaction, profileUri,
+                    messageInterceptor, true);
+        }
+
+        @Override
+        public void failed(String host, IOException cause) {
+            LOG.error("cannot resolve " + host, cause);
+            SipListener sipListener = userAgent.getSipListener();
+            if (sipListener == null) {
+                return;
+            }
+            SipResponse sipResponse = createLocalResponse(cause);
+            if (RFC3261.METHOD_INVITE.equals(sipRequest.getMethod())) {
+                sipListener.error(sipResponse);
+            } else {
+                sipListener.registerFailed(sipResponse);
+            }
+        }
+
+        /**
+         * A request that cannot be sent is answered locally with a 503
+         * (RFC3263 4.3), its reason phrase carries the cause.
+         */
+        private SipResponse createLocalResponse(IOException cause) {
+            StringBuffer reasonPhrase = new StringBuffer(
+                    RFC3261.REASON_503_SERVICE_UNAVAILABLE);
+            if (cause.getMessage() != null) {
+                reasonPhrase.append(" (").append(cause.getMessage());
+                reasonPhrase.append(")");
+            }
+            SipResponse sipResponse = new SipResponse(
+                    RFC3261.CODE_503_SERVICE_UNAVAILABLE,
+                    reasonPhrase.toString());
+            SipHeaders requestHeaders = sipRequest.getSipHeaders();
+            SipHeaders responseHeaders = sipResponse.getSipHeaders();
+            SipHeaderFieldName[] names = { SipHeaderFieldName.FROM,
+                    SipHeaderFieldName.TO, SipHeaderFieldName.CALLID,
+                    SipHeaderFieldName.CSEQ };
+            for (SipHeaderFieldName name: names) {
+                SipHeaderFieldValue value = requestHeaders.get(name);
+                if (value != null) {
+                    responseHeaders.add(name, value);
+                }
+            }
+            return sipResponse;
+        }
+
+    }
+
     ///////////////////////////////////////////////////////////
     // ServerTransactionUser methods
     ///////////////////////////////////////////////////////////
@@ -21,7 +21,7 @@ package dk.apaq.peers.sip.core.useragent;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
+import java.util.Map;
 
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.core.useragent.handlers.ByeHandler;
@@ -96,7 +96,7 @@ public class MidDialogRequestManager extends RequestManager implements ClientTra
 
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
         String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
+        Map<String, String> params = destinationUri.getUriParameters();
         if (params != null) {
             String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
             if (reqUriTransport != null) {
@@ -141,7 +141,7 @@ public class MidDialogRequestManager extends RequestManager implements ClientTra
     public void manageMidDialogRequest(SipRequest sipRequest, Dialog dialog) {
         SipHeaders sipHeaders = sipRequest.getSipHeaders();
         SipHeaderFieldValue cseq =
-            sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CSEQ));
+            sipHeaders.get(SipHeaderFieldName.CSEQ);
         String cseqStr = cseq.getValue();
         int pos = cseqStr.indexOf(' ');
         if (pos < 0) {
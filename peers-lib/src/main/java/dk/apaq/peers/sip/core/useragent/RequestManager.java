@@ -50,10 +50,10 @@ public abstract class RequestManager {
         SipHeaders requestHeaders = sipRequest.getSipHeaders();
         SipURI destinationUri = null;
         SipHeaderFieldValue route = requestHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_ROUTE));
+                SipHeaderFieldName.ROUTE);
         if (route != null) {
             try {
-                destinationUri = new SipURI(
+                destinationUri = SipURI.valueOf(
                         NameAddress.nameAddressToUri(route.toString()));
             } catch (SipUriSyntaxException e) {
                 LOG.error("syntax error", e);
@@ -71,15 +71,15 @@ public abstract class RequestManager {
         SipResponse sipResponse = new SipResponse(statusCode, reasonPhrase);
         SipHeaders requestHeaders = sipRequest.getSipHeaders();
         SipHeaders responseHeaders = sipResponse.getSipHeaders();
-        SipHeaderFieldName fromName = new SipHeaderFieldName(RFC3261.HDR_FROM);
+        SipHeaderFieldName fromName = SipHeaderFieldName.FROM;
         responseHeaders.add(fromName, requestHeaders.get(fromName));
-        SipHeaderFieldName callIdName = new SipHeaderFieldName(RFC3261.HDR_CALLID);
+        SipHeaderFieldName callIdName = SipHeaderFieldName.CALLID;
         responseHeaders.add(callIdName, requestHeaders.get(callIdName));
-        SipHeaderFieldName cseqName = new SipHeaderFieldName(RFC3261.HDR_CSEQ);
+        SipHeaderFieldName cseqName = SipHeaderFieldName.CSEQ;
         responseHeaders.add(cseqName, requestHeaders.get(cseqName));
-        SipHeaderFieldName viaName = new SipHeaderFieldName(RFC3261.HDR_VIA);
+        SipHeaderFieldName viaName = SipHeaderFieldName.VIA;
         responseHeaders.add(viaName, requestHeaders.get(viaName));//TODO check ordering
-        SipHeaderFieldName toName = new SipHeaderFieldName(RFC3261.HDR_TO);
+        SipHeaderFieldName toName = SipHeaderFieldName.TO;
         SipHeaderFieldValue toValue = requestHeaders.get(toName);
         SipHeaderParamName toTagParamName = new SipHeaderParamName(RFC3261.PARAM_TAG);
         String toTag = toValue.getParam(toTagParamName);
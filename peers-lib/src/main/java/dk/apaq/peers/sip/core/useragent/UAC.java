@@ -106,7 +106,7 @@ public class UAC {
                     initialRequestManager.registerHandler.unregister();
                     SipHeaders sipHeaders = sipMessage.getSipHeaders();
                     SipHeaderFieldValue contact = sipHeaders.get(
-                            new SipHeaderFieldName(RFC3261.HDR_CONTACT));
+                            SipHeaderFieldName.CONTACT);
                     contact.addParam(new SipHeaderParamName(RFC3261.PARAM_EXPIRES),
                             "0");
                 }
@@ -138,12 +138,10 @@ public class UAC {
                 (InviteClientTransaction)clientTransaction;
             SipRequest sipRequest = inviteClientTransaction.getRequest();
             SipHeaders sipHeaders = sipRequest.getSipHeaders();
-            SipHeaderFieldName authorization = new SipHeaderFieldName(
-                    RFC3261.HDR_AUTHORIZATION);
+            SipHeaderFieldName authorization = SipHeaderFieldName.AUTHORIZATION;
             SipHeaderFieldValue value = sipHeaders.get(authorization);
             if (value == null) {
-                SipHeaderFieldName proxyAuthorization = new SipHeaderFieldName(
-                        RFC3261.HDR_PROXY_AUTHORIZATION);
+                SipHeaderFieldName proxyAuthorization = SipHeaderFieldName.PROXY_AUTHORIZATION;
                 value = sipHeaders.get(proxyAuthorization);
             }
             if (value != null) {
@@ -173,10 +171,10 @@ public class UAC {
             if (clientTransaction != null) {
                 synchronized (clientTransaction) {
                     DialogState dialogState = dialog.getState();
-                    if (dialog.EARLY.equals(dialogState)) {
+                    if (Dialog.EARLY.equals(dialogState)) {
                         initialRequestManager.createCancel(inviteWithAuth,
                                 midDialogRequestManager, profileUri);
-                    } else if (dialog.CONFIRMED.equals(dialogState)) {
+                    } else if (Dialog.CONFIRMED.equals(dialogState)) {
                         // clientTransaction not yet removed
                         midDialogRequestManager.generateMidDialogRequest(
                                 dialog, RFC3261.METHOD_BYE, null);
@@ -191,9 +189,12 @@ public class UAC {
                 guiClosedCallIds.remove(callId);
             }
         } else {
-            InviteClientTransaction inviteClientTransaction =
-                (InviteClientTransaction)transactionManager
-                    .getClientTransaction(inviteWithAuth);
+            InviteClientTransaction inviteClientTransaction = null;
+            if (inviteWithAuth != null) {
+                // null once the transaction has terminated
+                inviteClientTransaction = (InviteClientTransaction)
+                    transactionManager.getClientTransaction(inviteWithAuth);
+            }
             if (inviteClientTransaction == null) {
                 LOG.error("cannot find invite client transaction" +
                         " for call " + callId);
@@ -23,10 +23,6 @@ import java.net.SocketException;
 import java.util.ArrayList;
 
 import dk.apaq.peers.sip.RFC3261;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
 import dk.apaq.peers.sip.transaction.TransactionManager;
 import dk.apaq.peers.sip.transactionuser.Dialog;
 import dk.apaq.peers.sip.transactionuser.DialogManager;
@@ -35,9 +31,13 @@ import dk.apaq.peers.sip.transport.SipRequest;
 import dk.apaq.peers.sip.transport.SipResponse;
 import dk.apaq.peers.sip.transport.SipServerTransportUser;
 import dk.apaq.peers.sip.transport.TransportManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class UAS implements SipServerTransportUser {
 
+    private static final Logger LOG = LoggerFactory.getLogger(UAS.class);
+
     public final static ArrayList<String> SUPPORTED_METHODS;
     
     static {
@@ -69,6 +69,14 @@ public class UAS implements SipServerTransportUser {
         transportManager.setSipServerTransportUser(this);
         transportManager.createServerTransport(
                 RFC3261.TRANSPORT_UDP, userAgent.getConfig().getSipPort());
+        // same port as udp, which may have been chosen by the system
+        try {
+            transportManager.createServerTransport(
+                    RFC3261.TRANSPORT_TCP, transportManager.getSipPort());
+        } catch (SocketException e) {
+            LOG.error("cannot listen on tcp port "
+                    + transportManager.getSipPort(), e);
+        }
     }
     
     public void messageReceived(SipMessage sipMessage) {
@@ -90,12 +98,8 @@ public class UAS implements SipServerTransportUser {
         
         //TODO JTA to make request processing atomic
         
-        SipHeaders headers = sipRequest.getSipHeaders();
-        
         //TODO find whether the request is within an existing dialog or not
-        SipHeaderFieldValue to =
-            headers.get(new SipHeaderFieldName(RFC3261.HDR_TO));
-        String toTag = to.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
+        String toTag = sipRequest.getTo().getTag();
         if (toTag != null) {
             Dialog dialog = dialogManager.getDialog(sipRequest);
             if (dialog != null) {
@@ -23,6 +23,11 @@ import java.io.File;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import dk.apaq.peers.Config;
 import dk.apaq.peers.XmlConfig;
@@ -31,6 +36,7 @@ import dk.apaq.peers.media.MediaManager;
 import dk.apaq.peers.media.DefaultSoundManager;
 import dk.apaq.peers.media.SoundManager;
 import dk.apaq.peers.sdp.SDPManager;
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.Utils;
 import dk.apaq.peers.sip.core.useragent.handlers.ByeHandler;
 import dk.apaq.peers.sip.core.useragent.handlers.CancelHandler;
@@ -72,6 +78,8 @@ public class UserAgent {
     private DialogManager dialogManager;
     private TransactionManager transactionManager;
     private TransportManager transportManager;
+    // only set when created from config, shut down on close
+    private ExecutorService transactionExecutor;
 
     private int cseqCounter;
     private SipListener sipListener;
@@ -85,18 +93,33 @@ public class UserAgent {
     }
 
     public UserAgent(SipListener sipListener, Config config) throws SocketException {
-        this(sipListener, config, null, null);
+        this(sipListener, config, null, (SoundManager) null);
     }
     
     public UserAgent(SipListener sipListener, Config config, SoundManager soundManager) throws SocketException {
         this(sipListener, config, null, soundManager);
     }
+
+    /**
+     * Processes transaction events on the given executor, for example one
+     * creating a virtual thread per task. The executor is not shut down
+     * by {@link #close()}, config transactionThreads is ignored.
+     */
+    public UserAgent(SipListener sipListener, Config config, SoundManager soundManager,
+            Executor transactionExecutor) throws SocketException {
+        this(sipListener, config, null, soundManager, transactionExecutor);
+    }
     
     private UserAgent(SipListener sipListener, Config config, String peersHome) throws SocketException {
         this(sipListener, config, peersHome, null);
     }
 
     private UserAgent(SipListener sipListener, Config config, String peersHome, SoundManager soundManager) throws SocketException {
+        this(sipListener, config, peersHome, soundManager, null);
+    }
+
+    private UserAgent(SipListener sipListener, Config config, String peersHome, SoundManager soundManager,
+            Executor executor) throws SocketException {
         this.sipListener = sipListener;
         if (peersHome == null) {
             peersHome = Utils.DEFAULT_PEERS_HOME;
@@ -127,7 +150,22 @@ public class UserAgent {
         
         //transaction
         
-        transactionManager = new TransactionManager();
+        if (executor == null && config.getTransactionThreads() > 0) {
+            transactionExecutor = Executors.newFixedThreadPool(
+                    config.getTransactionThreads(), new ThreadFactory() {
+                private AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            "Transaction " + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor = transactionExecutor;
+        }
+        transactionManager = new TransactionManager(
+                HashedWheelTimer.getDefault(), executor);
         
         //transport
         
@@ -170,6 +208,9 @@ public class UserAgent {
     public void close() {
         transportManager.closeTransports();
         config.setPublicInetAddress(null);
+        if (transactionExecutor != null) {
+            transactionExecutor.shutdown();
+        }
     }
 
     /**
@@ -118,7 +118,7 @@ public class CancelHandler extends DialogMethodHandler implements ServerTransact
         SipHeaders inviteHeaders = inviteRequest.getSipHeaders();
         
         //cseq
-        SipHeaderFieldName cseqName = new SipHeaderFieldName(RFC3261.HDR_CSEQ);
+        SipHeaderFieldName cseqName = SipHeaderFieldName.CSEQ;
         SipHeaderFieldValue cancelCseq = cancelHeaders.get(cseqName);
         SipHeaderFieldValue inviteCseq = inviteHeaders.get(cseqName);
         cancelCseq.setValue(inviteCseq.getValue().replace(RFC3261.METHOD_INVITE,
@@ -126,7 +126,7 @@ public class CancelHandler extends DialogMethodHandler implements ServerTransact
 
         
         //from
-        SipHeaderFieldName fromName = new SipHeaderFieldName(RFC3261.HDR_FROM);
+        SipHeaderFieldName fromName = SipHeaderFieldName.FROM;
         SipHeaderFieldValue cancelFrom = cancelHeaders.get(fromName);
         SipHeaderFieldValue inviteFrom = inviteHeaders.get(fromName);
         cancelFrom.setValue(inviteFrom.getValue());
@@ -135,13 +135,13 @@ public class CancelHandler extends DialogMethodHandler implements ServerTransact
         cancelFrom.addParam(tagParam, inviteFrom.getParam(tagParam));
         
         //top-via
-//        cancelHeaders.add(new SipHeaderFieldName(RFC3261.HDR_VIA),
+//        cancelHeaders.add(SipHeaderFieldName.VIA,
 //                Utils.getInstance().getTopVia(inviteRequest));
         SipHeaderFieldValue topVia = Utils.getTopVia(inviteRequest);
         String branchId = topVia.getParam(new SipHeaderParamName(RFC3261.PARAM_BRANCH));
         
         //route
-        SipHeaderFieldName routeName = new SipHeaderFieldName(RFC3261.HDR_ROUTE);
+        SipHeaderFieldName routeName = SipHeaderFieldName.ROUTE;
         SipHeaderFieldValue inviteRoute = inviteHeaders.get(routeName);
         if (inviteRoute != null) {
             cancelHeaders.add(routeName, inviteRoute);
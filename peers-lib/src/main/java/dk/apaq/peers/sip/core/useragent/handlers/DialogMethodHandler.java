@@ -22,15 +22,14 @@ package dk.apaq.peers.sip.core.useragent.handlers;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.TimerTask;
 
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.core.useragent.UserAgent;
+import dk.apaq.peers.sip.syntaxencoding.AddressHeader;
 import dk.apaq.peers.sip.syntaxencoding.NameAddress;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldMultiValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
 import dk.apaq.peers.sip.transaction.Transaction;
 import dk.apaq.peers.sip.transaction.TransactionManager;
@@ -64,7 +63,7 @@ public abstract class DialogMethodHandler extends MethodHandler {
         SipHeaders respHeaders = sipResponse.getSipHeaders();
         
           //copy record-route
-        SipHeaderFieldName recordRouteName = new SipHeaderFieldName(RFC3261.HDR_RECORD_ROUTE);
+        SipHeaderFieldName recordRouteName = SipHeaderFieldName.RECORD_ROUTE;
         SipHeaderFieldValue reqRecRoute = reqHeaders.get(recordRouteName);
         if (reqRecRoute != null) {
         	respHeaders.add(recordRouteName, reqRecRoute);
@@ -72,14 +71,14 @@ public abstract class DialogMethodHandler extends MethodHandler {
 
         //FIXME Contact header should probably added in response here.
 
-        SipHeaderFieldName contactName = new SipHeaderFieldName(RFC3261.HDR_CONTACT);
+        SipHeaderFieldName contactName = SipHeaderFieldName.CONTACT;
         
         Dialog dialog = dialogManager.createDialog(sipResponse);
         
         //build dialog state
         
           //route set
-        SipHeaderFieldValue recordRoute = respHeaders.get(new SipHeaderFieldName(RFC3261.HDR_RECORD_ROUTE));
+        SipHeaderFieldValue recordRoute = respHeaders.get(SipHeaderFieldName.RECORD_ROUTE);
         ArrayList<String> routeSet = new ArrayList<String>();
         if (recordRoute != null) {
             if (recordRoute instanceof SipHeaderFieldMultiValue) {
@@ -103,44 +102,28 @@ public abstract class DialogMethodHandler extends MethodHandler {
         dialog.setRemoteTarget(remoteTarget);
         
           //remote cseq
-        SipHeaderFieldName cseqName = new SipHeaderFieldName(RFC3261.HDR_CSEQ);
-        SipHeaderFieldValue cseq = reqHeaders.get(cseqName);
-        String remoteCseq = cseq.getValue().substring(0, cseq.getValue().indexOf(' '));
-        dialog.setRemoteCSeq(Integer.parseInt(remoteCseq));
+        dialog.setRemoteCSeq(sipRequest.getCSeq().getNumber());
         
           //callid
-        SipHeaderFieldName callidName = new SipHeaderFieldName(RFC3261.HDR_CALLID);
+        SipHeaderFieldName callidName = SipHeaderFieldName.CALLID;
         SipHeaderFieldValue callid = reqHeaders.get(callidName);
         dialog.setCallId(callid.getValue());
         
           //local tag
-        SipHeaderFieldName toName = new SipHeaderFieldName(RFC3261.HDR_TO);
-        SipHeaderFieldValue to = respHeaders.get(toName);
-        SipHeaderParamName tagName = new SipHeaderParamName(RFC3261.PARAM_TAG);
-        String toTag = to.getParam(tagName);
-        dialog.setLocalTag(toTag);
+        AddressHeader to = sipResponse.getTo();
+        dialog.setLocalTag(to.getTag());
         
           //remote tag
-        SipHeaderFieldName fromName = new SipHeaderFieldName(RFC3261.HDR_FROM);
-        SipHeaderFieldValue from = reqHeaders.get(fromName);
-        String fromTag = from.getParam(tagName);
-        dialog.setRemoteTag(fromTag);
+        AddressHeader from = sipRequest.getFrom();
+        dialog.setRemoteTag(from.getTag());
         
           //remote uri
         
-        String remoteUri = from.getValue();
-        if (remoteUri.indexOf(RFC3261.LEFT_ANGLE_BRACKET) > -1) {
-            remoteUri = NameAddress.nameAddressToUri(remoteUri);
-        }
-        dialog.setRemoteUri(remoteUri);
+        dialog.setRemoteUri(from.getUri());
         
           //local uri
         
-        String localUri = to.getValue();
-        if (localUri.indexOf(RFC3261.LEFT_ANGLE_BRACKET) > -1) {
-            localUri = NameAddress.nameAddressToUri(localUri);
-        }
-        dialog.setLocalUri(localUri);
+        dialog.setLocalUri(to.getUri());
         
         return dialog;
     }
@@ -168,34 +151,31 @@ public abstract class DialogMethodHandler extends MethodHandler {
         
         //remote target
         
-        SipHeaderFieldValue contact = headers.get(new SipHeaderFieldName(RFC3261.HDR_CONTACT));
+        SipHeaderFieldValue contact = headers.get(SipHeaderFieldName.CONTACT);
         LOG.debug("Contact: " + contact);
         if (contact != null) {
             String remoteTarget = NameAddress.nameAddressToUri(contact.toString());
             dialog.setRemoteTarget(remoteTarget);
         }
         
-        SipHeaders requestSipHeaders = transaction.getRequest().getSipHeaders();
+        SipRequest request = transaction.getRequest();
         
         //local cseq
         
-        String requestCSeq = requestSipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-        requestCSeq = requestCSeq.substring(0, requestCSeq.indexOf(' '));
-        dialog.setLocalCSeq(Integer.parseInt(requestCSeq));
+        dialog.setLocalCSeq(request.getCSeq().getNumber());
         
         //callID
         
         //already done in createDialog()
 //        String requestCallID = requestSipHeaders.get(
-//                new SipHeaderFieldName(RFC3261.HDR_CALLID)).toString();
+//                SipHeaderFieldName.CALLID).toString();
 //        dialog.setCallId(requestCallID);
         
         //local tag
         
         //already done in createDialog()
 //        SipHeaderFieldValue requestFrom = requestSipHeaders.get(
-//                new SipHeaderFieldName(RFC3261.HDR_FROM));
+//                SipHeaderFieldName.FROM);
 //        String requestFromTag =
 //            requestFrom.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
 //        dialog.setLocalTag(requestFromTag);
@@ -207,30 +187,20 @@ public abstract class DialogMethodHandler extends MethodHandler {
         
           //remote uri
         
-        SipHeaderFieldValue to = headers.get(new SipHeaderFieldName(RFC3261.HDR_TO));
+        AddressHeader to = sipResponse.getTo();
         if (to != null) {
-            String remoteUri = to.getValue();
-            if (remoteUri.indexOf(RFC3261.LEFT_ANGLE_BRACKET) > -1) {
-                remoteUri = NameAddress.nameAddressToUri(remoteUri);
-            }
-            dialog.setRemoteUri(remoteUri);
+            dialog.setRemoteUri(to.getUri());
         }
         
           //local uri
-        SipHeaderFieldValue requestFrom = requestSipHeaders.get(
-              new SipHeaderFieldName(RFC3261.HDR_FROM));
-        String localUri = requestFrom.getValue();
-        if (localUri.indexOf(RFC3261.LEFT_ANGLE_BRACKET) > -1) {
-            localUri = NameAddress.nameAddressToUri(localUri);
-        }
-        dialog.setLocalUri(localUri);
+        dialog.setLocalUri(request.getFrom().getUri());
         
         return dialog;
     }
 
     protected ArrayList<String> computeRouteSet(SipHeaders headers) {
         SipHeaderFieldValue recordRoute =
-            headers.get(new SipHeaderFieldName(RFC3261.HDR_RECORD_ROUTE));
+            headers.get(SipHeaderFieldName.RECORD_ROUTE);
         ArrayList<String> routeSet = new ArrayList<String>();
         if (recordRoute != null) {
             if (recordRoute instanceof SipHeaderFieldMultiValue) {
@@ -248,7 +218,7 @@ public abstract class DialogMethodHandler extends MethodHandler {
     }
     
     //TODO see if AckHandler is usable
-    class AckTimerTask extends TimerTask {
+    class AckTimerTask implements Runnable {
 
         private String toUri;
         
@@ -264,7 +234,7 @@ public abstract class DialogMethodHandler extends MethodHandler {
             for (Dialog dialog : dialogs) {
                 String remoteUri = dialog.getRemoteUri();
                 if (remoteUri.equals(toUri) &&
-                        !dialog.CONFIRMED.equals(dialog.getState())) {
+                        !Dialog.CONFIRMED.equals(dialog.getState())) {
                     dialog.receivedOrSentBye();
                     purgedDialogs.add(dialog);
                 }
@@ -21,24 +21,23 @@ package dk.apaq.peers.sip.core.useragent.handlers;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.SocketException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Timer;
 
 import dk.apaq.peers.media.MediaManager;
 import dk.apaq.peers.sdp.Codec;
 import dk.apaq.peers.sdp.MediaDestination;
 import dk.apaq.peers.sdp.NoCodecException;
 import dk.apaq.peers.sdp.SessionDescription;
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.Utils;
 import dk.apaq.peers.sip.core.useragent.RequestManager;
 import dk.apaq.peers.sip.core.useragent.SipListener;
 import dk.apaq.peers.sip.core.useragent.UserAgent;
+import dk.apaq.peers.sip.resolver.SipResolverCallback;
+import dk.apaq.peers.sip.resolver.SipTarget;
 import dk.apaq.peers.sip.syntaxencoding.NameAddress;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
@@ -69,13 +68,13 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
     public static final int TIMEOUT = 100;
 
     private MediaDestination mediaDestination;
-    private Timer ackTimer;
+    private HashedWheelTimer ackTimer;
     private boolean initialIncomingInvite;
     
     public InviteHandler(UserAgent userAgent, DialogManager dialogManager, TransactionManager transactionManager, 
             TransportManager transportManager) {
         super(userAgent, dialogManager, transactionManager, transportManager);
-        ackTimer = new Timer(getClass().getSimpleName() + " Ack " + Timer.class.getSimpleName());
+        ackTimer = transactionManager.getTimer();
     }
     
     
@@ -109,7 +108,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
 
         List<String> peers = userAgent.getPeers();
         String responseTo = sipRequest.getSipHeaders().get(
-                new SipHeaderFieldName(RFC3261.HDR_FROM)).getValue();
+                SipHeaderFieldName.FROM).getValue();
         if (!peers.contains(responseTo)) {
             peers.add(responseTo);
         }
@@ -123,7 +122,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
 
         // 12.2.2 update dialog
         SipHeaderFieldValue contact =
-            sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CONTACT));
+            sipHeaders.get(SipHeaderFieldName.CONTACT);
         if (contact != null) {
             String contactStr = contact.getValue();
             if (contactStr.indexOf(RFC3261.LEFT_ANGLE_BRACKET) > -1) {
@@ -170,7 +169,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
     private synchronized void sendSuccessfulResponse(SipRequest sipRequest, Dialog dialog) {
         SipHeaders reqHeaders = sipRequest.getSipHeaders();
         SipHeaderFieldValue contentType =
-            reqHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CONTENT_TYPE));
+            reqHeaders.get(SipHeaderFieldName.CONTENT_TYPE);
         
         
         if (RFC3261.CONTENT_TYPE_SDP.equals(contentType)) {
@@ -231,12 +230,12 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         }
         
         SipHeaders respHeaders = sipResponse.getSipHeaders();
-        respHeaders.add(new SipHeaderFieldName(RFC3261.HDR_CONTENT_TYPE),
+        respHeaders.add(SipHeaderFieldName.CONTENT_TYPE,
                 new SipHeaderFieldValue(RFC3261.CONTENT_TYPE_SDP));
         
         ArrayList<String> routeSet = dialog.getRouteSet();
         if (routeSet != null) {
-            SipHeaderFieldName recordRoute = new SipHeaderFieldName(RFC3261.HDR_RECORD_ROUTE);
+            SipHeaderFieldName recordRoute = SipHeaderFieldName.RECORD_ROUTE;
             for (String route : routeSet) {
                 respHeaders.add(recordRoute, new SipHeaderFieldValue(route));
             }
@@ -282,7 +281,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         //TODO generate 486, etc.
         SipHeaders reqHeaders = sipRequest.getSipHeaders();
         SipHeaderFieldValue callId = reqHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID));
+                SipHeaderFieldName.CALLID);
         
         Dialog dialog = dialogManager.getDialog(callId.getValue());
         
@@ -317,38 +316,20 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
     // UAC methods
     //////////////////////////////////////////////////////////
     
-    public ClientTransaction preProcessInvite(SipRequest sipRequest)
-            throws SipUriSyntaxException {
+    /**
+     * @param sipTarget destination resolved from the outbound proxy, or
+     *                  from the request destination uri.
+     */
+    public ClientTransaction preProcessInvite(SipRequest sipRequest,
+            SipTarget sipTarget) {
         
         //8.1.2
         SipHeaders requestHeaders = sipRequest.getSipHeaders();
-        SipURI destinationUri = RequestManager.getDestinationUri(sipRequest);
 
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
 
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport; 
-            }
-        }
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
-        SipURI sipUri = userAgent.getConfig().getOutboundProxy();
-        if (sipUri == null) {
-            sipUri = destinationUri;
-        }
-        InetAddress inetAddress;
-        try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
-        } catch (UnknownHostException e) {
-            throw new SipUriSyntaxException("unknown host: " + sipUri.getHost(), e);
-        }
-        ClientTransaction clientTransaction = transactionManager.createClientTransaction(sipRequest, inetAddress, port, transport, null, this);
+        ClientTransaction clientTransaction = transactionManager.createClientTransaction(sipRequest,
+                sipTarget.getInetAddress(), sipTarget.getPort(), sipTarget.getTransport(), null, this);
         DatagramSocket datagramSocket;
         synchronized (this) {
             datagramSocket = getDatagramSocket();
@@ -359,7 +340,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         } catch (IOException e) {
             LOG.error(e.getMessage(), e);
         }
-        requestHeaders.add(new SipHeaderFieldName(RFC3261.HDR_CONTENT_TYPE), new SipHeaderFieldValue(RFC3261.CONTENT_TYPE_SDP));
+        requestHeaders.add(SipHeaderFieldName.CONTENT_TYPE, new SipHeaderFieldValue(RFC3261.CONTENT_TYPE_SDP));
         return clientTransaction;
     }
     
@@ -408,7 +389,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         Dialog dialog = dialogManager.getDialog(sipResponse);
         boolean isFirstProvRespWithToTag = false;
         if (dialog == null) {
-            SipHeaderFieldValue to = sipResponse.getSipHeaders().get(new SipHeaderFieldName(RFC3261.HDR_TO));
+            SipHeaderFieldValue to = sipResponse.getSipHeaders().get(SipHeaderFieldName.TO);
             String toTag = to.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
             if (toTag != null) {
                 dialog = dialogManager.createDialog(sipResponse);
@@ -427,7 +408,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
 //            LOG.debug("dialog not found for prov response");
 //            isFirstProvRespWithToTag = true;
 //            SipHeaderFieldValue to = sipResponse.getSipHeaders()
-//                .get(new SipHeaderFieldName(RFC3261.HDR_TO));
+//                .get(SipHeaderFieldName.TO);
 //            String toTag = to.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
 //            if (toTag != null) {
 //                dialog = buildOrUpdateDialogForUac(sipResponse, transaction);
@@ -455,7 +436,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
     public void successResponseReceived(SipResponse sipResponse, Transaction transaction) {
         SipHeaders responseHeaders = sipResponse.getSipHeaders();
         String cseq = responseHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CSEQ)).getValue();
+                SipHeaderFieldName.CSEQ).getValue();
         String method = cseq.substring(cseq.trim().lastIndexOf(' ') + 1);
         if (!RFC3261.METHOD_INVITE.equals(method)) {
             return;
@@ -472,7 +453,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
 
         List<String> peers = userAgent.getPeers();
         String responseTo = responseHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_TO)).getValue();
+                SipHeaderFieldName.TO).getValue();
         if (!peers.contains(responseTo)) {
             peers.add(responseTo);
             //timer used to purge dialogs which are not confirmed
@@ -522,7 +503,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         //update CSeq
         
         SipHeaders ackHeaders = ack.getSipHeaders();
-        SipHeaderFieldName cseqName = new SipHeaderFieldName(RFC3261.HDR_CSEQ);
+        SipHeaderFieldName cseqName = SipHeaderFieldName.CSEQ;
         SipHeaderFieldValue ackCseq = ackHeaders.get(cseqName);
         
         SipRequest request = transaction.getRequest();
@@ -537,7 +518,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         SipHeaderParamName branchIdName = new SipHeaderParamName(RFC3261.PARAM_BRANCH);
         via.addParam(branchIdName, Utils.generateBranchId());
         
-        ackHeaders.add(new SipHeaderFieldName(RFC3261.HDR_VIA), via, 0);
+        ackHeaders.add(SipHeaderFieldName.VIA, via, 0);
 
         //TODO authentication headers
         
@@ -552,37 +533,30 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
         challengeManager.postProcess(ack);
 
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
-        
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport; 
-            }
-        }
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
 
         SipURI sipUri = userAgent.getConfig().getOutboundProxy();
         if (sipUri == null) {
             sipUri = destinationUri;
         }
-        InetAddress inetAddress;
-        try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
-        } catch (UnknownHostException e) {
-            LOG.error("unknown host: " + sipUri.getHost(), e);
-            return;
-        }
-        try {
-            MessageSender sender = transportManager.createClientTransport(ack, inetAddress, port, transport);
-            sender.sendMessage(ack);
-        } catch (IOException e) {
-            LOG.error("input/output error", e);
-        }
+        transportManager.getSipResolver().resolve(sipUri,
+                new SipResolverCallback() {
+            @Override
+            public void resolved(List<SipTarget> sipTargets) {
+                SipTarget sipTarget = sipTargets.get(0);
+                try {
+                    MessageSender sender = transportManager.createClientTransport(
+                            ack, sipTarget.getInetAddress(), sipTarget.getPort(),
+                            sipTarget.getTransport());
+                    sender.sendMessage(ack);
+                } catch (IOException e) {
+                    LOG.error("input/output error", e);
+                }
+            }
+            @Override
+            public void failed(String host, IOException cause) {
+                LOG.error("unknown host: " + host, cause);
+            }
+        });
         
         
         
@@ -604,7 +578,7 @@ public class InviteHandler extends DialogMethodHandler implements ServerTransact
 
         if (mediaDestination == null) {
             SipHeaders reqHeaders = ack.getSipHeaders();
-            SipHeaderFieldValue contentType = reqHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CONTENT_TYPE));
+            SipHeaderFieldValue contentType = reqHeaders.get(SipHeaderFieldName.CONTENT_TYPE);
             byte[] offerBytes = ack.getBody();
 
             if (offerBytes != null && contentType != null &&
@@ -54,15 +54,15 @@ public abstract class MethodHandler {
         SipResponse sipResponse = new SipResponse(statusCode, reasonPhrase);
         SipHeaders respHeaders = sipResponse.getSipHeaders();
         SipHeaders reqHeaders = sipRequest.getSipHeaders();
-        SipHeaderFieldName fromName = new SipHeaderFieldName(RFC3261.HDR_FROM);
+        SipHeaderFieldName fromName = SipHeaderFieldName.FROM;
         respHeaders.add(fromName, reqHeaders.get(fromName));
-        SipHeaderFieldName callIdName = new SipHeaderFieldName(RFC3261.HDR_CALLID);
+        SipHeaderFieldName callIdName = SipHeaderFieldName.CALLID;
         respHeaders.add(callIdName, reqHeaders.get(callIdName));
-        SipHeaderFieldName cseqName = new SipHeaderFieldName(RFC3261.HDR_CSEQ);
+        SipHeaderFieldName cseqName = SipHeaderFieldName.CSEQ;
         respHeaders.add(cseqName, reqHeaders.get(cseqName));
-        SipHeaderFieldName viaName = new SipHeaderFieldName(RFC3261.HDR_VIA);
+        SipHeaderFieldName viaName = SipHeaderFieldName.VIA;
         respHeaders.add(viaName, reqHeaders.get(viaName));
-        SipHeaderFieldName toName = new SipHeaderFieldName(RFC3261.HDR_TO);
+        SipHeaderFieldName toName = SipHeaderFieldName.TO;
         String to = reqHeaders.get(toName).getValue();
         SipHeaderFieldValue toValue = new SipHeaderFieldValue(to);
         toValue.addParam(new SipHeaderParamName(RFC3261.PARAM_TAG), Utils.randomString(10));// TODO 19.3
@@ -58,8 +58,8 @@ public class OptionsHandler extends MethodHandler implements ServerTransactionUs
             LOG.error(e.getMessage(), e);
         }
         SipHeaders sipHeaders = sipResponse.getSipHeaders();
-        sipHeaders.add(new SipHeaderFieldName(RFC3261.HDR_CONTENT_TYPE), new SipHeaderFieldValue(RFC3261.CONTENT_TYPE_SDP));
-        sipHeaders.add(new SipHeaderFieldName(RFC3261.HDR_ALLOW), new SipHeaderFieldValue(Utils.generateAllowHeader()));
+        sipHeaders.add(SipHeaderFieldName.CONTENT_TYPE, new SipHeaderFieldValue(RFC3261.CONTENT_TYPE_SDP));
+        sipHeaders.add(SipHeaderFieldName.ALLOW, new SipHeaderFieldValue(Utils.generateAllowHeader()));
         ServerTransaction serverTransaction = transactionManager.createServerTransaction(sipResponse, userAgent.getSipPort(), 
                 RFC3261.TRANSPORT_UDP, this, sipRequest);
         serverTransaction.start();
@@ -21,16 +21,15 @@ package dk.apaq.peers.sip.core.useragent.handlers;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import dk.apaq.peers.Config;
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Timeout;
 import dk.apaq.peers.sip.core.useragent.InitialRequestManager;
 import dk.apaq.peers.sip.core.useragent.RequestManager;
 import dk.apaq.peers.sip.core.useragent.SipListener;
 import dk.apaq.peers.sip.core.useragent.UserAgent;
+import dk.apaq.peers.sip.resolver.SipTarget;
 import dk.apaq.peers.sip.syntaxencoding.NameAddress;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
@@ -38,6 +37,7 @@ import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
 import dk.apaq.peers.sip.syntaxencoding.SipURI;
 import dk.apaq.peers.sip.syntaxencoding.SipUriSyntaxException;
+import dk.apaq.peers.sip.syntaxencoding.ViaHeader;
 import dk.apaq.peers.sip.transaction.ClientTransaction;
 import dk.apaq.peers.sip.transaction.ClientTransactionUser;
 import dk.apaq.peers.sip.transaction.NonInviteClientTransaction;
@@ -56,7 +56,7 @@ public class RegisterHandler extends MethodHandler implements ClientTransactionU
 
     private InitialRequestManager initialRequestManager;
 
-    private Timer timer;
+    private Timeout refreshTimeout;
 
     private String requestUriStr;
     private String profileUriStr;
@@ -71,55 +71,38 @@ public class RegisterHandler extends MethodHandler implements ClientTransactionU
     }
 
     //TODO factorize common code here and in invitehandler
-    public synchronized ClientTransaction preProcessRegister(SipRequest sipRequest)
-            throws SipUriSyntaxException {
+    /**
+     * @param sipTarget registrar address, resolved from the outbound proxy
+     *                  or from the request destination uri.
+     */
+    public synchronized ClientTransaction preProcessRegister(SipRequest sipRequest,
+            SipTarget sipTarget) throws SipUriSyntaxException {
         registered = false;
         unregisterInvoked = false;
         SipHeaders sipHeaders = sipRequest.getSipHeaders();
         SipURI destinationUri = RequestManager.getDestinationUri(sipRequest);
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport; 
-            }
-        }
-        SipURI sipUri = userAgent.getConfig().getOutboundProxy();
-        if (sipUri == null) {
-            sipUri = destinationUri;
-        }
-        InetAddress inetAddress;
-        try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
-        } catch (UnknownHostException e) {
-            throw new SipUriSyntaxException("unknown host: "
-                    + sipUri.getHost(), e);
-        }
         ClientTransaction clientTransaction = transactionManager
-            .createClientTransaction(sipRequest, inetAddress, port,
-                    transport, null, this);
+            .createClientTransaction(sipRequest, sipTarget.getInetAddress(),
+                    sipTarget.getPort(), sipTarget.getTransport(), null, this);
         //TODO 10.2
         SipHeaderFieldValue to = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_TO));
+                SipHeaderFieldName.TO);
         SipHeaderFieldValue from = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_FROM));
+                SipHeaderFieldName.FROM);
         String fromValue = from.getValue();
         to.setValue(fromValue);
         requestUriStr = destinationUri.toString();
         profileUriStr = NameAddress.nameAddressToUri(fromValue);
-        callIDStr = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CALLID))
+        callIDStr = sipHeaders.get(SipHeaderFieldName.CALLID)
             .toString();
         return clientTransaction;
     }
 
     public void unregister() {
-        timer.cancel();
+        if (refreshTimeout != null) {
+            refreshTimeout.cancel();
+        }
         unregisterInvoked = true;
         challenged = false;
     }
@@ -147,29 +130,10 @@ public class RegisterHandler extends MethodHandler implements ClientTransactionU
                     challengeManager.handleChallenge(sipRequest, sipResponse);
                 }
             } else { // not 401 nor 407
-                SipHeaders sipHeaders = sipResponse.getSipHeaders();
-                SipHeaderFieldName viaName = new SipHeaderFieldName(
-                        RFC3261.HDR_VIA);
-                SipHeaderFieldValue via = sipHeaders.get(viaName);
-                SipHeaderParamName receivedName = new SipHeaderParamName(
-                        RFC3261.PARAM_RECEIVED);
-                String viaValue = via.getValue();
-                int pos = viaValue.indexOf(" ");
-                if (pos > -1) {
-                    viaValue = viaValue.substring(pos + 1);
-                    pos = viaValue.indexOf(RFC3261.TRANSPORT_PORT_SEP);
-                    if (pos > -1) {
-                        viaValue = viaValue.substring(0, pos);
-                    } else {
-                        pos = viaValue.indexOf(RFC3261.PARAM_SEPARATOR);
-                        if (pos > -1) {
-                            viaValue = viaValue.substring(0, pos);
-                        }
-                    }
-                }
-                String received = via.getParam(receivedName);
+                ViaHeader via = sipResponse.getTopVia();
+                String received = via.getReceived();
                 if (received != null && !"".equals(received.trim())) {
-                    if (viaValue.equals(received)) {
+                    if (received.equals(via.getHost())) {
                         notifyListener(sipResponse);
                     } else { // received != via ip address
                         try {
@@ -215,8 +179,7 @@ public class RegisterHandler extends MethodHandler implements ClientTransactionU
         //    and start register refresh timer
         // 3. notify sip listener of register success event.
         SipRequest sipRequest = transaction.getRequest();
-        SipHeaderFieldName contactName = new SipHeaderFieldName(
-                RFC3261.HDR_CONTACT);
+        SipHeaderFieldName contactName = SipHeaderFieldName.CONTACT;
         SipHeaderFieldValue requestContact = sipRequest.getSipHeaders()
                 .get(contactName);
         SipHeaderParamName expiresParam = new SipHeaderParamName(
@@ -242,9 +205,8 @@ public class RegisterHandler extends MethodHandler implements ClientTransactionU
             	if (delay == -1) {
             		delay = Integer.parseInt(expires) - REFRESH_MARGIN;
             	}
-                timer = new Timer(getClass().getSimpleName()
-                        + " refresh timer");
-                timer.schedule(new RefreshTimerTask(), delay * 1000);
+                refreshTimeout = transactionManager.getTimer().schedule(
+                        new RefreshTimerTask(), delay * 1000);
             }
         }
         SipListener sipListener = userAgent.getSipListener();
@@ -269,10 +231,10 @@ public class RegisterHandler extends MethodHandler implements ClientTransactionU
     }
     
     //////////////////////////////////////////////////////////
-    // TimerTask
+    // Timer task
     //////////////////////////////////////////////////////////
 
-    class RefreshTimerTask extends TimerTask {
+    class RefreshTimerTask implements Runnable {
         @Override
         public void run() {
             try {
@@ -0,0 +1,173 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.resolver;
+
+import java.net.InetAddress;
+
+/**
+ * Dns resource record, only the fields of its type are set.
+ */
+public class DnsRecord {
+
+    public static final int TYPE_A = 1;
+    public static final int TYPE_AAAA = 28;
+    public static final int TYPE_SRV = 33;
+    public static final int TYPE_NAPTR = 35;
+
+    private int type;
+    private String name;
+    private int ttl;
+
+    // A, AAAA
+    private InetAddress address;
+
+    // SRV
+    private int priority;
+    private int weight;
+    private int port;
+    private String target;
+
+    // NAPTR
+    private int order;
+    private int preference;
+    private String flags;
+    private String service;
+    private String replacement;
+
+    private DnsRecord(int type, String name, int ttl) {
+        this.type = type;
+        this.name = name;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param address A or AAAA record depending on address family
+     */
+    public static DnsRecord address(String name, int ttl,
+            InetAddress address) {
+        int type = address.getAddress().length == 4 ? TYPE_A : TYPE_AAAA;
+        DnsRecord dnsRecord = new DnsRecord(type, name, ttl);
+        dnsRecord.address = address;
+        return dnsRecord;
+    }
+
+    public static DnsRecord srv(String name, int ttl, int priority,
+            int weight, int port, String target) {
+        DnsRecord dnsRecord = new DnsRecord(TYPE_SRV, name, ttl);
+        dnsRecord.priority = priority;
+        dnsRecord.weight = weight;
+        dnsRecord.port = port;
+        dnsRecord.target = target;
+        return dnsRecord;
+    }
+
+    public static DnsRecord naptr(String name, int ttl, int order,
+            int preference, String flags, String service,
+            String replacement) {
+        DnsRecord dnsRecord = new DnsRecord(TYPE_NAPTR, name, ttl);
+        dnsRecord.order = order;
+        dnsRecord.preference = preference;
+        dnsRecord.flags = flags;
+        dnsRecord.service = service;
+        dnsRecord.replacement = replacement;
+        return dnsRecord;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return time to live, seconds
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public int getPreference() {
+        return preference;
+    }
+
+    public String getFlags() {
+        return flags;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getReplacement() {
+        return replacement;
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append(name).append(' ').append(ttl).append(' ');
+        switch (type) {
+        case TYPE_A:
+        case TYPE_AAAA:
+            buf.append(type == TYPE_A ? "A " : "AAAA ");
+            buf.append(address.getHostAddress());
+            break;
+        case TYPE_SRV:
+            buf.append("SRV ").append(priority).append(' ').append(weight);
+            buf.append(' ').append(port).append(' ').append(target);
+            break;
+        case TYPE_NAPTR:
+            buf.append("NAPTR ").append(order).append(' ').append(preference);
+            buf.append(" \"").append(flags).append("\" \"").append(service);
+            buf.append("\" \"\" ").append(replacement);
+            break;
+        default:
+            buf.append(type);
+        }
+        return buf.toString();
+    }
+
+}
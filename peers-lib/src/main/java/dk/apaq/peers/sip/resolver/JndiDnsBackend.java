@@ -0,0 +1,190 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.resolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * Dns backend using the jdk JNDI dns provider, with system dns servers or
+ * the provided ones. JNDI does not expose records time to live, all
+ * records are given DEFAULT_TTL.
+ */
+public class JndiDnsBackend implements DnsBackend {
+
+    public static final String DNS_CONTEXT_FACTORY =
+        "com.sun.jndi.dns.DnsContextFactory";
+    public static final int DEFAULT_TTL = 60; // seconds
+
+    private String providerUrl;
+
+    /**
+     * Uses system dns servers.
+     */
+    public JndiDnsBackend() {
+        this("dns:");
+    }
+
+    /**
+     * @param providerUrl for example dns://192.168.1.1
+     */
+    public JndiDnsBackend(String providerUrl) {
+        this.providerUrl = providerUrl;
+    }
+
+    @Override
+    public List<DnsRecord> lookup(String name, int type) throws IOException {
+        String typeName = getTypeName(type);
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, DNS_CONTEXT_FACTORY);
+        env.put(Context.PROVIDER_URL, providerUrl);
+        List<DnsRecord> dnsRecords = new ArrayList<DnsRecord>();
+        DirContext dirContext = null;
+        try {
+            dirContext = new InitialDirContext(env);
+            Attributes attributes = dirContext.getAttributes(name,
+                    new String[] { typeName });
+            Attribute attribute = attributes.get(typeName);
+            if (attribute == null) {
+                return dnsRecords;
+            }
+            NamingEnumeration<?> values = attribute.getAll();
+            while (values.hasMore()) {
+                DnsRecord dnsRecord = parse(name, type,
+                        values.next().toString());
+                if (dnsRecord != null) {
+                    dnsRecords.add(dnsRecord);
+                }
+            }
+        } catch (NameNotFoundException e) {
+            return dnsRecords;
+        } catch (NamingException e) {
+            IOException ioException = new IOException("dns lookup failed: "
+                    + typeName + " " + name);
+            ioException.initCause(e);
+            throw ioException;
+        } finally {
+            if (dirContext != null) {
+                try {
+                    dirContext.close();
+                } catch (NamingException e) {
+                    // nothing to release
+                }
+            }
+        }
+        return dnsRecords;
+    }
+
+    private String getTypeName(int type) {
+        switch (type) {
+        case DnsRecord.TYPE_A: return "A";
+        case DnsRecord.TYPE_AAAA: return "AAAA";
+        case DnsRecord.TYPE_SRV: return "SRV";
+        case DnsRecord.TYPE_NAPTR: return "NAPTR";
+        default: throw new IllegalArgumentException("unsupported type " + type);
+        }
+    }
+
+    /**
+     * @return null if the record text cannot be parsed
+     */
+    DnsRecord parse(String name, int type, String text) throws IOException {
+        switch (type) {
+        case DnsRecord.TYPE_A:
+        case DnsRecord.TYPE_AAAA:
+            // literal, no lookup
+            return DnsRecord.address(name, DEFAULT_TTL,
+                    InetAddress.getByName(text.trim()));
+        case DnsRecord.TYPE_SRV: {
+            StringTokenizer st = new StringTokenizer(text);
+            if (st.countTokens() != 4) {
+                return null;
+            }
+            int priority = Integer.parseInt(st.nextToken());
+            int weight = Integer.parseInt(st.nextToken());
+            int port = Integer.parseInt(st.nextToken());
+            return DnsRecord.srv(name, DEFAULT_TTL, priority, weight, port,
+                    stripDot(st.nextToken()));
+        }
+        case DnsRecord.TYPE_NAPTR: {
+            // order preference "flags" "service" "regexp" replacement
+            List<String> fields = splitQuoted(text);
+            if (fields.size() != 6) {
+                return null;
+            }
+            return DnsRecord.naptr(name, DEFAULT_TTL,
+                    Integer.parseInt(fields.get(0)),
+                    Integer.parseInt(fields.get(1)), fields.get(2),
+                    fields.get(3), stripDot(fields.get(5)));
+        }
+        default:
+            return null;
+        }
+    }
+
+    private List<String> splitQuoted(String text) {
+        List<String> fields = new ArrayList<String>();
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\t') {
+                ++i;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(text.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < length && text.charAt(end) != ' '
+                        && text.charAt(end) != '\t') {
+                    ++end;
+                }
+                fields.add(text.substring(i, end));
+                i = end;
+            }
+        }
+        return fields;
+    }
+
+    private String stripDot(String name) {
+        if (name.endsWith(".") && name.length() > 1) {
+            return name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+}
@@ -0,0 +1,472 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.resolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.SipURI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Locates sip servers as described in RFC3263: NAPTR records select the
+ * transport, SRV records the host and port, and A or AAAA records the
+ * address. Only UDP and TCP transports are considered.
+ *
+ * Resolution never blocks the calling thread: if every record needed is
+ * cached, or if the host is an ip address, the callback is called before
+ * {@link #resolve(SipURI, SipResolverCallback)} returns, otherwise dns
+ * queries are run on resolver threads and the callback is called from
+ * there. Answers are cached for their time to live, and names without
+ * records for negativeTtl.
+ */
+public class SipResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SipResolver.class);
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_NEGATIVE_TTL = 30; // seconds
+    public static final int DEFAULT_MAX_TTL = 3600; // seconds
+    public static final int MAX_CACHE_SIZE = 10000;
+    public static final int THREAD_KEEP_ALIVE = 60; // seconds
+
+    public static final String SERVICE_UDP = "SIP+D2U";
+    public static final String SERVICE_TCP = "SIP+D2T";
+    public static final String SRV_UDP = "_sip._udp.";
+    public static final String SRV_TCP = "_sip._tcp.";
+
+    private DnsBackend dnsBackend;
+    private ThreadPoolExecutor executor;
+    private Map<String, CacheEntry> cache;
+    private volatile int negativeTtl;
+    private volatile int maxTtl;
+    private Random random;
+
+    public SipResolver(DnsBackend dnsBackend) {
+        this(dnsBackend, DEFAULT_THREADS);
+    }
+
+    public SipResolver(DnsBackend dnsBackend, int threads) {
+        this.dnsBackend = dnsBackend;
+        cache = new ConcurrentHashMap<String, CacheEntry>();
+        negativeTtl = DEFAULT_NEGATIVE_TTL;
+        maxTtl = DEFAULT_MAX_TTL;
+        random = new Random();
+        // threads are only started when dns queries are needed
+        executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                SipResolver.class.getSimpleName() + " "
+                                + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void resolve(final SipURI sipUri,
+            final SipResolverCallback sipResolverCallback) {
+        List<SipTarget> sipTargets;
+        try {
+            sipTargets = resolve(sipUri, true);
+        } catch (IOException e) {
+            sipResolverCallback.failed(sipUri.getHost(), e);
+            return;
+        }
+        if (sipTargets != null) {
+            callback(sipUri, sipTargets, sipResolverCallback);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<SipTarget> sipTargets;
+                try {
+                    sipTargets = resolve(sipUri, false);
+                } catch (IOException e) {
+                    sipResolverCallback.failed(sipUri.getHost(), e);
+                    return;
+                }
+                callback(sipUri, sipTargets, sipResolverCallback);
+            }
+        });
+    }
+
+    private void callback(SipURI sipUri, List<SipTarget> sipTargets,
+            SipResolverCallback sipResolverCallback) {
+        if (sipTargets.isEmpty()) {
+            sipResolverCallback.failed(sipUri.getHost(),
+                    new UnknownHostException(sipUri.getHost()));
+        } else {
+            sipResolverCallback.resolved(sipTargets);
+        }
+    }
+
+    /**
+     * @param cacheOnly no dns query is sent
+     * @return null if cacheOnly and a record was not in cache
+     */
+    private List<SipTarget> resolve(SipURI sipUri, boolean cacheOnly)
+            throws IOException {
+        String host = sipUri.getHost();
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        String transport = null;
+        Map<String, String> params = sipUri.getUriParameters();
+        if (params != null) {
+            transport = params.get(RFC3261.PARAM_TRANSPORT);
+            if (transport != null) {
+                transport = transport.toUpperCase();
+            }
+        }
+        int port = sipUri.getPort();
+
+        // RFC3263 4.1 and 4.2
+        InetAddress inetAddress = getNumericAddress(host);
+        if (inetAddress != null) {
+            if (port == SipURI.DEFAULT_PORT) {
+                port = RFC3261.TRANSPORT_DEFAULT_PORT;
+            }
+            if (transport == null) {
+                transport = RFC3261.TRANSPORT_UDP;
+            }
+            List<SipTarget> sipTargets = new ArrayList<SipTarget>();
+            sipTargets.add(new SipTarget(inetAddress, port, transport));
+            return sipTargets;
+        }
+        if (port != SipURI.DEFAULT_PORT) {
+            if (transport == null) {
+                transport = RFC3261.TRANSPORT_UDP;
+            }
+            return getAddressTargets(host, port, transport, cacheOnly);
+        }
+        if (transport != null) {
+            String srvPrefix = RFC3261.TRANSPORT_TCP.equals(transport)
+                ? SRV_TCP : SRV_UDP;
+            List<SipTarget> sipTargets = getSrvTargets(srvPrefix + host,
+                    transport, cacheOnly);
+            if (sipTargets == null || !sipTargets.isEmpty()) {
+                return sipTargets;
+            }
+            return getAddressTargets(host, RFC3261.TRANSPORT_DEFAULT_PORT,
+                    transport, cacheOnly);
+        }
+        List<SipTarget> sipTargets = getNaptrTargets(host, cacheOnly);
+        if (sipTargets == null || !sipTargets.isEmpty()) {
+            return sipTargets;
+        }
+        sipTargets = getSrvTargets(SRV_UDP + host, RFC3261.TRANSPORT_UDP,
+                cacheOnly);
+        if (sipTargets == null) {
+            return null;
+        }
+        List<SipTarget> tcpTargets = getSrvTargets(SRV_TCP + host,
+                RFC3261.TRANSPORT_TCP, cacheOnly);
+        if (tcpTargets == null) {
+            return null;
+        }
+        sipTargets.addAll(tcpTargets);
+        if (!sipTargets.isEmpty()) {
+            return sipTargets;
+        }
+        return getAddressTargets(host, RFC3261.TRANSPORT_DEFAULT_PORT,
+                RFC3261.TRANSPORT_UDP, cacheOnly);
+    }
+
+    private List<SipTarget> getNaptrTargets(String host, boolean cacheOnly)
+            throws IOException {
+        List<DnsRecord> naptrRecords = lookup(host, DnsRecord.TYPE_NAPTR,
+                cacheOnly);
+        if (naptrRecords == null) {
+            return null;
+        }
+        List<DnsRecord> sorted = new ArrayList<DnsRecord>(naptrRecords);
+        Collections.sort(sorted, new Comparator<DnsRecord>() {
+            @Override
+            public int compare(DnsRecord r1, DnsRecord r2) {
+                if (r1.getOrder() != r2.getOrder()) {
+                    return r1.getOrder() < r2.getOrder() ? -1 : 1;
+                }
+                return r1.getPreference() < r2.getPreference() ? -1
+                    : r1.getPreference() == r2.getPreference() ? 0 : 1;
+            }
+        });
+        List<SipTarget> sipTargets = new ArrayList<SipTarget>();
+        for (DnsRecord naptrRecord: sorted) {
+            String transport;
+            if (SERVICE_UDP.equalsIgnoreCase(naptrRecord.getService())) {
+                transport = RFC3261.TRANSPORT_UDP;
+            } else if (SERVICE_TCP.equalsIgnoreCase(naptrRecord.getService())) {
+                transport = RFC3261.TRANSPORT_TCP;
+            } else {
+                continue;
+            }
+            if (!"s".equalsIgnoreCase(naptrRecord.getFlags())) {
+                continue;
+            }
+            List<SipTarget> srvTargets = getSrvTargets(
+                    naptrRecord.getReplacement(), transport, cacheOnly);
+            if (srvTargets == null) {
+                return null;
+            }
+            sipTargets.addAll(srvTargets);
+        }
+        return sipTargets;
+    }
+
+    private List<SipTarget> getSrvTargets(String name, String transport,
+            boolean cacheOnly) throws IOException {
+        List<DnsRecord> srvRecords = lookup(name, DnsRecord.TYPE_SRV,
+                cacheOnly);
+        if (srvRecords == null) {
+            return null;
+        }
+        List<SipTarget> sipTargets = new ArrayList<SipTarget>();
+        for (DnsRecord srvRecord: orderSrvRecords(srvRecords)) {
+            if (".".equals(srvRecord.getTarget())) {
+                // service decidedly not available
+                continue;
+            }
+            List<SipTarget> addressTargets = getAddressTargets(
+                    srvRecord.getTarget(), srvRecord.getPort(), transport,
+                    cacheOnly);
+            if (addressTargets == null) {
+                return null;
+            }
+            sipTargets.addAll(addressTargets);
+        }
+        return sipTargets;
+    }
+
+    /**
+     * Ascending priority, and weighted random order among records of same
+     * priority, see RFC2782.
+     */
+    List<DnsRecord> orderSrvRecords(List<DnsRecord> srvRecords) {
+        List<DnsRecord> sorted = new ArrayList<DnsRecord>(srvRecords);
+        Collections.sort(sorted, new Comparator<DnsRecord>() {
+            @Override
+            public int compare(DnsRecord r1, DnsRecord r2) {
+                if (r1.getPriority() != r2.getPriority()) {
+                    return r1.getPriority() < r2.getPriority() ? -1 : 1;
+                }
+                // zero weight first
+                return r1.getWeight() == r2.getWeight() ? 0
+                    : r1.getWeight() == 0 ? -1 : r2.getWeight() == 0 ? 1 : 0;
+            }
+        });
+        List<DnsRecord> ordered = new ArrayList<DnsRecord>();
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start;
+            int weightSum = 0;
+            while (end < sorted.size() && sorted.get(end).getPriority()
+                    == sorted.get(start).getPriority()) {
+                weightSum += sorted.get(end).getWeight();
+                ++end;
+            }
+            List<DnsRecord> group = new ArrayList<DnsRecord>(
+                    sorted.subList(start, end));
+            while (!group.isEmpty()) {
+                int threshold = weightSum > 0 ? random.nextInt(weightSum + 1)
+                    : 0;
+                int runningSum = 0;
+                Iterator<DnsRecord> iterator = group.iterator();
+                while (iterator.hasNext()) {
+                    DnsRecord srvRecord = iterator.next();
+                    runningSum += srvRecord.getWeight();
+                    if (runningSum >= threshold || !iterator.hasNext()) {
+                        ordered.add(srvRecord);
+                        weightSum -= srvRecord.getWeight();
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        return ordered;
+    }
+
+    /**
+     * Ipv4 addresses are used if available, ipv6 addresses otherwise.
+     */
+    private List<SipTarget> getAddressTargets(String host, int port,
+            String transport, boolean cacheOnly) throws IOException {
+        List<DnsRecord> addressRecords = lookup(host, DnsRecord.TYPE_A,
+                cacheOnly);
+        if (addressRecords != null && addressRecords.isEmpty()) {
+            addressRecords = lookup(host, DnsRecord.TYPE_AAAA, cacheOnly);
+        }
+        if (addressRecords == null) {
+            return null;
+        }
+        List<SipTarget> sipTargets = new ArrayList<SipTarget>();
+        for (DnsRecord addressRecord: addressRecords) {
+            sipTargets.add(new SipTarget(addressRecord.getAddress(), port,
+                    transport));
+        }
+        return sipTargets;
+    }
+
+    private List<DnsRecord> lookup(String name, int type, boolean cacheOnly)
+            throws IOException {
+        String key = type + " " + name.toLowerCase();
+        CacheEntry cacheEntry = cache.get(key);
+        long now = System.nanoTime();
+        if (cacheEntry != null && now - cacheEntry.expires < 0) {
+            return cacheEntry.dnsRecords;
+        }
+        if (cacheOnly) {
+            return null;
+        }
+        List<DnsRecord> dnsRecords = dnsBackend.lookup(name, type);
+        int ttl = negativeTtl;
+        if (!dnsRecords.isEmpty()) {
+            ttl = maxTtl;
+            for (DnsRecord dnsRecord: dnsRecords) {
+                ttl = Math.min(ttl, dnsRecord.getTtl());
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("dns " + key + ": " + dnsRecords + " ttl " + ttl);
+        }
+        if (cache.size() >= MAX_CACHE_SIZE) {
+            purge(now);
+        }
+        cache.put(key, new CacheEntry(Collections.unmodifiableList(
+                dnsRecords), now + TimeUnit.SECONDS.toNanos(ttl)));
+        return dnsRecords;
+    }
+
+    private void purge(long now) {
+        Iterator<CacheEntry> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().expires >= 0) {
+                iterator.remove();
+            }
+        }
+        if (cache.size() >= MAX_CACHE_SIZE) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Parses an ip address literal, without any dns query.
+     *
+     * @return null if host is not an ip address.
+     */
+    public static InetAddress getNumericAddress(String host) {
+        if (host.indexOf(':') < 0) {
+            String[] bytes = host.split("\\.", -1);
+            if (bytes.length != 4) {
+                return null;
+            }
+            for (String b: bytes) {
+                if (b.length() < 1 || b.length() > 3) {
+                    return null;
+                }
+                for (int i = 0; i < b.length(); ++i) {
+                    if (!Character.isDigit(b.charAt(i))) {
+                        return null;
+                    }
+                }
+                if (Integer.parseInt(b) > 255) {
+                    return null;
+                }
+            }
+        }
+        try {
+            return InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops resolver threads, pending resolutions are abandoned.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public void setNegativeTtl(int negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    public int getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public void setMaxTtl(int maxTtl) {
+        this.maxTtl = maxTtl;
+    }
+
+    public int getMaxTtl() {
+        return maxTtl;
+    }
+
+    public DnsBackend getDnsBackend() {
+        return dnsBackend;
+    }
+
+    static class CacheEntry {
+
+        private List<DnsRecord> dnsRecords;
+        // System.nanoTime()
+        private long expires;
+
+        CacheEntry(List<DnsRecord> dnsRecords, long expires) {
+            this.dnsRecords = dnsRecords;
+            this.expires = expires;
+        }
+
+    }
+
+}
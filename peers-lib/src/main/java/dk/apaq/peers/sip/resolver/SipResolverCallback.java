@@ -0,0 +1,38 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.resolver;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the result of a {@link SipResolver} resolution, on a resolver
+ * thread, or on the calling thread if the answer was already known.
+ */
+public interface SipResolverCallback {
+
+    /**
+     * @param sipTargets targets in order of preference, never empty.
+     */
+    public void resolved(List<SipTarget> sipTargets);
+
+    public void failed(String host, IOException cause);
+
+}
@@ -0,0 +1,66 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+import dk.apaq.peers.sip.RFC3261;
+
+/**
+ * Typed view of a From, To or Contact header value. The uri is extracted
+ * on first access and again only if the value is replaced.
+ */
+public class AddressHeader {
+
+    public static final SipHeaderParamName TAG =
+        new SipHeaderParamName(RFC3261.PARAM_TAG);
+
+    private SipHeaderFieldValue fieldValue;
+    private volatile String parsedValue;
+    private String uri;
+
+    public AddressHeader(SipHeaderFieldValue fieldValue) {
+        this.fieldValue = fieldValue;
+    }
+
+    public SipHeaderFieldValue getFieldValue() {
+        return fieldValue;
+    }
+
+    /**
+     * @return uri, without display name nor angle brackets
+     */
+    public String getUri() {
+        String value = fieldValue.getValue();
+        if (value != parsedValue) {
+            uri = NameAddress.nameAddressToUri(value).trim();
+            parsedValue = value;
+        }
+        return uri;
+    }
+
+    public String getTag() {
+        return fieldValue.getParam(TAG);
+    }
+
+    @Override
+    public String toString() {
+        return fieldValue.toString();
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+/**
+ * Typed view of a CSeq header value, parsed on first access and parsed
+ * again only if the value is replaced.
+ */
+public class CSeqHeader {
+
+    private SipHeaderFieldValue fieldValue;
+    private volatile String parsedValue;
+    private int number;
+    private String method;
+
+    public CSeqHeader(SipHeaderFieldValue fieldValue) {
+        this.fieldValue = fieldValue;
+    }
+
+    private void parse() {
+        String value = fieldValue.getValue();
+        if (value == parsedValue) {
+            return;
+        }
+        String trimmed = value.trim();
+        int spacePos = 0;
+        while (spacePos < trimmed.length() && trimmed.charAt(spacePos) != ' '
+                && trimmed.charAt(spacePos) != '\t') {
+            ++spacePos;
+        }
+        try {
+            number = Integer.parseInt(trimmed.substring(0, spacePos));
+        } catch (NumberFormatException e) {
+            number = -1;
+        }
+        method = trimmed.substring(spacePos).trim();
+        parsedValue = value;
+    }
+
+    public SipHeaderFieldValue getFieldValue() {
+        return fieldValue;
+    }
+
+    /**
+     * @return sequence number, -1 if invalid
+     */
+    public int getNumber() {
+        parse();
+        return number;
+    }
+
+    public String getMethod() {
+        parse();
+        return method;
+    }
+
+    @Override
+    public String toString() {
+        return fieldValue.toString();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+import java.nio.charset.Charset;
+
+/**
+ * Writes message parts directly to bytes. Sip messages are mostly
+ * US-ASCII, characters are then copied without any intermediate string,
+ * other strings are encoded in UTF-8.
+ */
+public class SipEncoder {
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final byte[] CRLF = { '\r', '\n' };
+
+    public static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] getBytes(String s) {
+        if (!isAscii(s)) {
+            return s.getBytes(UTF_8);
+        }
+        byte[] bytes = new byte[s.length()];
+        write(s, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Copies an US-ASCII string in buffer.
+     * 
+     * @return position after last written byte
+     */
+    public static int write(String s, byte[] buffer, int pos) {
+        int length = s.length();
+        for (int i = 0; i < length; ++i) {
+            buffer[pos++] = (byte)s.charAt(i);
+        }
+        return pos;
+    }
+
+    /**
+     * @return position after last written byte
+     */
+    public static int write(byte[] bytes, byte[] buffer, int pos) {
+        System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+}
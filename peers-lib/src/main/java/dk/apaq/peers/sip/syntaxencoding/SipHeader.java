@@ -19,16 +19,28 @@
 
 package dk.apaq.peers.sip.syntaxencoding;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class SipHeader {
 
     private SipHeaderFieldName name;
     private SipHeaderFieldValue value;
+    // received values not decoded yet, in order of appearance, null once
+    // value has been decoded
+    private volatile List<RawValue> rawValues;
     
     SipHeader(SipHeaderFieldName name, SipHeaderFieldValue value) {
         super();
         this.name = name;
         this.value = value;
     }
+
+    SipHeader(SipHeaderFieldName name, byte[] data, int start, int end) {
+        this.name = name;
+        rawValues = new ArrayList<RawValue>(1);
+        rawValues.add(new RawValue(data, start, end));
+    }
     
     @Override
     public boolean equals(Object obj) {
@@ -44,11 +56,66 @@ public class SipHeader {
     }
 
     public SipHeaderFieldValue getValue() {
+        if (rawValues != null) {
+            decode();
+        }
         return value;
     }
 
     public void setValue(SipHeaderFieldValue value) {
         this.value = value;
+        rawValues = null;
+    }
+
+    void addValue(byte[] data, int start, int end) {
+        List<RawValue> rawValues = this.rawValues;
+        if (rawValues != null) {
+            rawValues.add(new RawValue(data, start, end));
+        } else {
+            setValue(SipHeaders.merge(value, SipParser.parseValue(name,
+                    SipParser.getString(data, start, end))));
+        }
+    }
+
+    /**
+     * Values are merged as if they had been added one after the other.
+     */
+    private synchronized void decode() {
+        List<RawValue> rawValues = this.rawValues;
+        if (rawValues == null) {
+            return;
+        }
+        SipHeaderFieldValue decoded = null;
+        for (RawValue rawValue: rawValues) {
+            SipHeaderFieldValue sipHeaderFieldValue = SipParser.parseValue(
+                    name, rawValue.toString());
+            if (decoded == null) {
+                decoded = sipHeaderFieldValue;
+            } else {
+                decoded = SipHeaders.merge(decoded, sipHeaderFieldValue);
+            }
+        }
+        value = decoded;
+        this.rawValues = null;
+    }
+
+    static class RawValue {
+
+        private byte[] data;
+        private int start;
+        private int end;
+
+        RawValue(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return SipParser.getString(data, start, end);
+        }
+
     }
     
 }
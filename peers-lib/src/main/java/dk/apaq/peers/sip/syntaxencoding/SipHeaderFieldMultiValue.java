@@ -23,7 +23,12 @@ import java.util.List;
 
 public class SipHeaderFieldMultiValue extends SipHeaderFieldValue {
 
+    private static final byte[] SEPARATOR = { ',', ' ' };
+
     private List<SipHeaderFieldValue> values;
+    // wire form and bytes of each value it was built from, values can be
+    // modified or added directly
+    private volatile byte[][] encoded;
     
     private static String toString(List<SipHeaderFieldValue> list) {
         if (list == null) {
@@ -42,6 +47,45 @@ public class SipHeaderFieldMultiValue extends SipHeaderFieldValue {
         return values;
     }
     
+    /**
+     * @return same bytes as toString(), built again only if a value has
+     *         been modified, added or removed.
+     */
+    @Override
+    public byte[] getBytes() {
+        byte[][] encoded = this.encoded;
+        int size = values.size();
+        if (encoded != null && encoded.length == size + 1) {
+            int i = 0;
+            while (i < size && values.get(i).getBytes() == encoded[i + 1]) {
+                ++i;
+            }
+            if (i == size) {
+                return encoded[0];
+            }
+        }
+        encoded = new byte[size + 1][];
+        int length = 0;
+        for (int i = 0; i < size; ++i) {
+            encoded[i + 1] = values.get(i).getBytes();
+            length += encoded[i + 1].length;
+        }
+        if (size > 1) {
+            length += SEPARATOR.length * (size - 1);
+        }
+        byte[] bytes = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                pos = SipEncoder.write(SEPARATOR, bytes, pos);
+            }
+            pos = SipEncoder.write(encoded[i + 1], bytes, pos);
+        }
+        encoded[0] = bytes;
+        this.encoded = encoded;
+        return bytes;
+    }
+
     @Override
     public String toString() {
         return toString(values);
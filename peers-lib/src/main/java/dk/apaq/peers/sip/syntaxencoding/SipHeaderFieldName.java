@@ -17,44 +17,186 @@
     Copyright 2007, 2008, 2009, 2010 Yohann Martineau 
 */
 
+
 package dk.apaq.peers.sip.syntaxencoding;
 
+import java.util.HashMap;
+
+import dk.apaq.peers.sip.RFC3261;
+
+/**
+ * Header names are compared case-insensitively. Headers defined in
+ * RFC3261 are interned: they have a small id and a constant instance,
+ * which should be used instead of creating new names.
+ */
 public class SipHeaderFieldName {
 
     private final static SipHeadersTable SIP_HEADER_TABLE =
         new SipHeadersTable();
 
+    // id of names which are not interned
+    public static final int UNKNOWN_ID = -1;
+
+    private static final SipHeaderFieldName[] KNOWN = new SipHeaderFieldName[20];
+    private static int knownCount = 0;
+    // lower case name to interned name
+    private static final HashMap<String, SipHeaderFieldName> REGISTRY =
+        new HashMap<String, SipHeaderFieldName>();
+
+    public static final SipHeaderFieldName ALLOW = intern(RFC3261.HDR_ALLOW);
+    public static final SipHeaderFieldName AUTHORIZATION = intern(RFC3261.HDR_AUTHORIZATION);
+    public static final SipHeaderFieldName CALLID = intern(RFC3261.HDR_CALLID);
+    public static final SipHeaderFieldName CONTACT = intern(RFC3261.HDR_CONTACT);
+    public static final SipHeaderFieldName CONTENT_ENCODING = intern(RFC3261.HDR_CONTENT_ENCODING);
+    public static final SipHeaderFieldName CONTENT_LENGTH = intern(RFC3261.HDR_CONTENT_LENGTH);
+    public static final SipHeaderFieldName CONTENT_TYPE = intern(RFC3261.HDR_CONTENT_TYPE);
+    public static final SipHeaderFieldName CSEQ = intern(RFC3261.HDR_CSEQ);
+    public static final SipHeaderFieldName FROM = intern(RFC3261.HDR_FROM);
+    public static final SipHeaderFieldName MAX_FORWARDS = intern(RFC3261.HDR_MAX_FORWARDS);
+    public static final SipHeaderFieldName RECORD_ROUTE = intern(RFC3261.HDR_RECORD_ROUTE);
+    public static final SipHeaderFieldName RETRY_AFTER = intern(RFC3261.HDR_RETRY_AFTER);
+    public static final SipHeaderFieldName PROXY_AUTHENTICATE = intern(RFC3261.HDR_PROXY_AUTHENTICATE);
+    public static final SipHeaderFieldName PROXY_AUTHORIZATION = intern(RFC3261.HDR_PROXY_AUTHORIZATION);
+    public static final SipHeaderFieldName ROUTE = intern(RFC3261.HDR_ROUTE);
+    public static final SipHeaderFieldName SUBJECT = intern(RFC3261.HDR_SUBJECT);
+    public static final SipHeaderFieldName SUPPORTED = intern(RFC3261.HDR_SUPPORTED);
+    public static final SipHeaderFieldName TO = intern(RFC3261.HDR_TO);
+    public static final SipHeaderFieldName VIA = intern(RFC3261.HDR_VIA);
+    public static final SipHeaderFieldName WWW_AUTHENTICATE = intern(RFC3261.HDR_WWW_AUTHENTICATE);
+
+    private static SipHeaderFieldName intern(String name) {
+        SipHeaderFieldName sipHeaderFieldName =
+            new SipHeaderFieldName(name, knownCount);
+        KNOWN[knownCount++] = sipHeaderFieldName;
+        REGISTRY.put(name.toLowerCase(), sipHeaderFieldName);
+        return sipHeaderFieldName;
+    }
+
+    /**
+     * @return number of interned names, ids range from 0 to this count
+     *         minus one.
+     */
+    public static int getKnownCount() {
+        return knownCount;
+    }
+
+    /**
+     * @return interned name if name is defined in RFC3261, in long or
+     *         compact form, a new name otherwise.
+     */
+    public static SipHeaderFieldName valueOf(String name) {
+        if (name.length() == 1) {
+            String longForm = SIP_HEADER_TABLE.getLongForm(name.charAt(0));
+            if (longForm == null) {
+                longForm = SIP_HEADER_TABLE.getLongForm(
+                        Character.toLowerCase(name.charAt(0)));
+            }
+            if (longForm != null) {
+                name = longForm;
+            }
+        }
+        SipHeaderFieldName sipHeaderFieldName =
+            REGISTRY.get(name.toLowerCase());
+        if (sipHeaderFieldName != null) {
+            return sipHeaderFieldName;
+        }
+        return new SipHeaderFieldName(name, UNKNOWN_ID);
+    }
+
+    /**
+     * Same as {@link #valueOf(String)}, without decoding interned names.
+     */
+    static SipHeaderFieldName valueOf(byte[] data, int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            return valueOf(SipParser.getString(data, start, end));
+        }
+        for (int i = 0; i < knownCount; ++i) {
+            String name = KNOWN[i].name;
+            if (name.length() != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && toLowerCase(data[start + j])
+                    == toLowerCase((byte)name.charAt(j))) {
+                ++j;
+            }
+            if (j == length) {
+                return KNOWN[i];
+            }
+        }
+        return new SipHeaderFieldName(SipParser.getString(data, start, end),
+                UNKNOWN_ID);
+    }
+
+    private static byte toLowerCase(byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return (byte)(b - 'A' + 'a');
+        }
+        return b;
+    }
+
     private String name;
+    private int id;
+    private int hash;
+    private volatile byte[] bytes;
 
     public SipHeaderFieldName(String name) {
         super();
-        if (name.length() == 1) {
-            this.name = SIP_HEADER_TABLE.getLongForm(name.charAt(0));
-        } else {
-            this.name = name;
-        }
+        SipHeaderFieldName interned = valueOf(name);
+        this.name = interned.name;
+        id = interned.id;
+        hash = interned.hash;
+    }
+
+    private SipHeaderFieldName(String name, int id) {
+        this.name = name;
+        this.id = id;
+        hash = name.toLowerCase().hashCode();
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
+        if (!(obj instanceof SipHeaderFieldName)) {
             return false;
         }
-        String objName = ((SipHeaderFieldName)obj).getName();
-        if (name.equalsIgnoreCase(objName)) {
-            return true;
+        SipHeaderFieldName sipHeaderFieldName = (SipHeaderFieldName)obj;
+        if (id != UNKNOWN_ID || sipHeaderFieldName.id != UNKNOWN_ID) {
+            return id == sipHeaderFieldName.id;
         }
-        return false;
+        return name.equalsIgnoreCase(sipHeaderFieldName.name);
     }
 
+    /**
+     * Case-insensitive, consistent with equals.
+     */
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return hash;
+    }
+
+    /**
+     * @return id of this interned name, or {@link #UNKNOWN_ID}
+     */
+    public int getId() {
+        return id;
     }
     
     public String getName() {
         return name;
     }
+
+    /**
+     * @return name encoded for the wire, must not be modified
+     */
+    public byte[] getBytes() {
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            bytes = SipEncoder.getBytes(name);
+            this.bytes = bytes;
+        }
+        return bytes;
+    }
     
     @Override
     public String toString() {
@@ -19,8 +19,6 @@
 
 package dk.apaq.peers.sip.syntaxencoding;
 
-import java.util.HashMap;
-
 import dk.apaq.peers.sip.RFC3261;
 
 
@@ -28,71 +26,164 @@ public class SipHeaderFieldValue {
 
     private String value;
     
-    private HashMap<SipHeaderParamName, String> params;
+    // parameters in received or added order, null until a parameter is
+    // set. Values rarely have more than a few parameters, a linear search
+    // is faster than hashing and much smaller than a map.
+    private SipHeaderParamName[] paramNames;
+    private String[] paramValues;
+    private int paramCount;
+    // wire form, null when this value has been modified
+    private volatile byte[] encoded;
     
     public SipHeaderFieldValue(String value) {
         int startPos = value.indexOf(RFC3261.RIGHT_ANGLE_BRACKET);
-        int pos;
-        if (startPos > -1) {
-            pos = value.indexOf(RFC3261.PARAM_SEPARATOR, startPos);
-        } else {
-            pos = value.indexOf(RFC3261.PARAM_SEPARATOR);
-        }
-        String paramsString;
-        if (pos > -1) {
-            this.value = value.substring(0,pos);
-            paramsString = value.substring(pos);
-        } else {
+        char separator = RFC3261.PARAM_SEPARATOR.charAt(0);
+        int pos = value.indexOf(separator, startPos > -1 ? startPos : 0);
+        if (pos < 0) {
             this.value = value;
-            paramsString = "";
+            return;
         }
-        params = new HashMap<SipHeaderParamName, String>();
-        if (paramsString.contains(RFC3261.PARAM_SEPARATOR)) {
-            String[] arr = paramsString.split(RFC3261.PARAM_SEPARATOR);
-            if (arr.length > 1) {
-                for (int i = 1; i < arr.length; ++i) {
-                    String paramName = arr[i];
-                    String paramValue = "";
-                    pos = paramName.indexOf(RFC3261.PARAM_ASSIGNMENT);
-                    if (pos > -1) {
-                        paramName = arr[i].substring(0, pos);
-                        paramValue = arr[i].substring(pos + 1);
-                    }
-                    params.put(new SipHeaderParamName(paramName), paramValue);
-                }
+        this.value = value.substring(0, pos);
+        int length = value.length();
+        while (pos < length) {
+            int paramStart = pos + 1;
+            pos = value.indexOf(separator, paramStart);
+            if (pos < 0) {
+                pos = length;
+            }
+            if (paramStart == pos) {
+                continue;
             }
+            int assignmentPos = value.indexOf(
+                    RFC3261.PARAM_ASSIGNMENT.charAt(0), paramStart);
+            String paramName;
+            String paramValue;
+            if (assignmentPos > -1 && assignmentPos < pos) {
+                paramName = value.substring(paramStart, assignmentPos);
+                paramValue = value.substring(assignmentPos + 1, pos);
+            } else {
+                paramName = value.substring(paramStart, pos);
+                paramValue = "";
+            }
+            addParam(SipHeaderParamName.valueOf(paramName), paramValue);
         }
     }
 
     public String getParam(SipHeaderParamName name) {
-        return params.get(name);
+        int index = indexOf(name);
+        return index < 0 ? null : paramValues[index];
     }
     
     public void addParam(SipHeaderParamName name, String value) {
-        params.put(name, value);
+        encoded = null;
+        int index = indexOf(name);
+        if (index > -1) {
+            paramValues[index] = value;
+            return;
+        }
+        if (paramNames == null) {
+            paramNames = new SipHeaderParamName[2];
+            paramValues = new String[2];
+        } else if (paramCount == paramNames.length) {
+            int newLength = paramCount * 2;
+            SipHeaderParamName[] newNames = new SipHeaderParamName[newLength];
+            String[] newValues = new String[newLength];
+            System.arraycopy(paramNames, 0, newNames, 0, paramCount);
+            System.arraycopy(paramValues, 0, newValues, 0, paramCount);
+            paramNames = newNames;
+            paramValues = newValues;
+        }
+        paramNames[paramCount] = name;
+        paramValues[paramCount] = value;
+        ++paramCount;
     }
     
     public void removeParam(SipHeaderParamName name) {
-        params.remove(name);
+        encoded = null;
+        int index = indexOf(name);
+        if (index < 0) {
+            return;
+        }
+        --paramCount;
+        System.arraycopy(paramNames, index + 1, paramNames, index,
+                paramCount - index);
+        System.arraycopy(paramValues, index + 1, paramValues, index,
+                paramCount - index);
+        paramNames[paramCount] = null;
+        paramValues[paramCount] = null;
     }
-    
+
+    private int indexOf(SipHeaderParamName name) {
+        for (int i = 0; i < paramCount; ++i) {
+            if (paramNames[i] == name || paramNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public String getValue() {
         return value;
     }
 
     public void setValue(String value) {
         this.value = value;
+        encoded = null;
+    }
+
+    /**
+     * @return same bytes as toString(), computed once until this value
+     *         is modified. The returned array must not be modified.
+     */
+    public byte[] getBytes() {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+            bytes = encode();
+            encoded = bytes;
+        }
+        return bytes;
+    }
+
+    private byte[] encode() {
+        if (!SipEncoder.isAscii(value)) {
+            return toString().getBytes(SipEncoder.UTF_8);
+        }
+        int length = value.length();
+        for (int i = 0; i < paramCount; ++i) {
+            String paramName = paramNames[i].getName();
+            String paramValue = paramValues[i];
+            if (!SipEncoder.isAscii(paramName)
+                    || !SipEncoder.isAscii(paramValue)) {
+                return toString().getBytes(SipEncoder.UTF_8);
+            }
+            length += 1 + paramName.length();
+            if (!"".equals(paramValue.trim())) {
+                length += 1 + paramValue.length();
+            }
+        }
+        byte[] bytes = new byte[length];
+        int pos = SipEncoder.write(value, bytes, 0);
+        for (int i = 0; i < paramCount; ++i) {
+            bytes[pos++] = (byte)RFC3261.PARAM_SEPARATOR.charAt(0);
+            pos = SipEncoder.write(paramNames[i].getName(), bytes, pos);
+            String paramValue = paramValues[i];
+            if (!"".equals(paramValue.trim())) {
+                bytes[pos++] = (byte)RFC3261.PARAM_ASSIGNMENT.charAt(0);
+                pos = SipEncoder.write(paramValue, bytes, pos);
+            }
+        }
+        return bytes;
     }
 
     @Override
     public String toString() {
-        if (params == null || params.isEmpty()) {
+        if (paramCount == 0) {
             return value;
         }
         StringBuffer buf = new StringBuffer(value);
-        for (SipHeaderParamName name: params.keySet()) {
-            buf.append(RFC3261.PARAM_SEPARATOR).append(name);
-            String value = params.get(name);
+        for (int i = 0; i < paramCount; ++i) {
+            buf.append(RFC3261.PARAM_SEPARATOR).append(paramNames[i]);
+            String value = paramValues[i];
             if (!"".equals(value.trim())) {
                 buf.append(RFC3261.PARAM_ASSIGNMENT).append(value);
             }
@@ -19,12 +19,43 @@
 
 package dk.apaq.peers.sip.syntaxencoding;
 
+import dk.apaq.peers.sip.RFC3261;
+
 public class SipHeaderParamName {
 
+    // names shared by all parsed values instead of one instance per value
+    private static final SipHeaderParamName[] KNOWN = {
+        new SipHeaderParamName(RFC3261.PARAM_BRANCH),
+        new SipHeaderParamName(RFC3261.PARAM_TAG),
+        new SipHeaderParamName(RFC3261.PARAM_RPORT),
+        new SipHeaderParamName(RFC3261.PARAM_RECEIVED),
+        new SipHeaderParamName(RFC3261.PARAM_TRANSPORT),
+        new SipHeaderParamName(RFC3261.PARAM_EXPIRES),
+        new SipHeaderParamName(RFC3261.PARAM_ALIAS),
+        new SipHeaderParamName(RFC3261.PARAM_MADDR),
+        new SipHeaderParamName(RFC3261.PARAM_TTL)
+    };
+
+    /**
+     * @return a shared instance for well-known names, a new one otherwise,
+     *         so that names are written back with their received case.
+     */
+    public static SipHeaderParamName valueOf(String name) {
+        for (SipHeaderParamName known: KNOWN) {
+            if (known.name.equals(name)) {
+                return known;
+            }
+        }
+        return new SipHeaderParamName(name);
+    }
+
     private String name;
+    // case-insensitive, computed once as names are used as map keys
+    private int hash;
     
     public SipHeaderParamName(String name) {
         this.name = name;
+        hash = name.toLowerCase().hashCode();
     }
     
     
@@ -46,7 +77,7 @@ public class SipHeaderParamName {
     
     @Override
     public int hashCode() {
-        return name.toLowerCase().hashCode();
+        return hash;
     }
     
     @Override
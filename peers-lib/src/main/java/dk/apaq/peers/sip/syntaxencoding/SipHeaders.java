@@ -20,17 +20,29 @@
 package dk.apaq.peers.sip.syntaxencoding;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import dk.apaq.peers.sip.RFC3261;
 
 
-
+/**
+ * Headers are kept in order of insertion. Interned header names are
+ * looked up by id, other names in a map created when the first of them
+ * is added.
+ */
 public class SipHeaders {
     
     private ArrayList<SipHeader> headers;
+    // headers with interned names, indexed by name id
+    private SipHeader[] slots;
+    private HashMap<SipHeaderFieldName, SipHeader> overflow;
+    // wire form followed by bytes of each header value it was built from,
+    // null when a header has been added or removed
+    private volatile byte[][] encoded;
     
     public SipHeaders() {
         headers = new ArrayList<SipHeader>();
+        slots = new SipHeader[SipHeaderFieldName.getKnownCount()];
     }
     
     /**
@@ -40,53 +52,151 @@ public class SipHeaders {
      * @param index -1 to add at the end
      */
     public void add(SipHeaderFieldName name, SipHeaderFieldValue value, int index) {
-        SipHeader header = new SipHeader(name, value);
-        if (headers.contains(header)) {
-            header =  headers.get(headers.indexOf(header));
-            SipHeaderFieldValue oldValue = header.getValue();
-            //TODO check is header can be multi valued
-            if (oldValue instanceof SipHeaderFieldMultiValue) {
-                SipHeaderFieldMultiValue oldMultiVal = (SipHeaderFieldMultiValue) oldValue;
-                oldMultiVal.getValues().add(value);
-            } else {
-                ArrayList<SipHeaderFieldValue> arr = new ArrayList<SipHeaderFieldValue>();
-                arr.add(oldValue);
-                arr.add(value);
-                header.setValue(new SipHeaderFieldMultiValue(arr));
-            }
+        SipHeader header = getHeader(name);
+        if (header != null) {
+            header.setValue(merge(header.getValue(), value));
         } else {
+            header = new SipHeader(name, value);
             if (index == -1) {
                 headers.add(header);
             } else {
                 headers.add(index, header);
             }
+            putHeader(header);
+            encoded = null;
         }
     }
     
     public void add(SipHeaderFieldName name, SipHeaderFieldValue value) {
         add(name, value, -1);
     }
+
+    /**
+     * Adds a value, from start to end in data, that will be decoded only
+     * if this header is read.
+     */
+    void add(SipHeaderFieldName name, byte[] data, int start, int end) {
+        SipHeader header = getHeader(name);
+        if (header == null) {
+            header = new SipHeader(name, data, start, end);
+            headers.add(header);
+            putHeader(header);
+            encoded = null;
+        } else {
+            header.addValue(data, start, end);
+        }
+    }
+
+    private SipHeader getHeader(SipHeaderFieldName name) {
+        int id = name.getId();
+        if (id != SipHeaderFieldName.UNKNOWN_ID) {
+            return slots[id];
+        }
+        if (overflow == null) {
+            return null;
+        }
+        return overflow.get(name);
+    }
+
+    private void putHeader(SipHeader header) {
+        SipHeaderFieldName name = header.getName();
+        int id = name.getId();
+        if (id != SipHeaderFieldName.UNKNOWN_ID) {
+            slots[id] = header;
+        } else {
+            if (overflow == null) {
+                overflow = new HashMap<SipHeaderFieldName, SipHeader>();
+            }
+            overflow.put(name, header);
+        }
+    }
+
+    static SipHeaderFieldValue merge(SipHeaderFieldValue oldValue,
+            SipHeaderFieldValue value) {
+        //TODO check is header can be multi valued
+        if (oldValue instanceof SipHeaderFieldMultiValue) {
+            SipHeaderFieldMultiValue oldMultiVal = (SipHeaderFieldMultiValue) oldValue;
+            oldMultiVal.getValues().add(value);
+            return oldMultiVal;
+        }
+        ArrayList<SipHeaderFieldValue> arr = new ArrayList<SipHeaderFieldValue>();
+        arr.add(oldValue);
+        arr.add(value);
+        return new SipHeaderFieldMultiValue(arr);
+    }
     
     public void remove(SipHeaderFieldName name) {
-        headers.remove(name);
+        SipHeader header = getHeader(name);
+        if (header == null) {
+            return;
+        }
+        headers.remove(header);
+        encoded = null;
+        int id = name.getId();
+        if (id != SipHeaderFieldName.UNKNOWN_ID) {
+            slots[id] = null;
+        } else {
+            overflow.remove(name);
+        }
     }
     
     public boolean contains(SipHeaderFieldName name) {
-        return headers.contains(new SipHeader(name, null));
+        return getHeader(name) != null;
     }
     
     public SipHeaderFieldValue get(SipHeaderFieldName name) {
-        int index = headers.indexOf(new SipHeader(name, null));
-        if (index < 0) {
+        SipHeader header = getHeader(name);
+        if (header == null) {
             return null;
         }
-        return headers.get(index).getValue();
+        return header.getValue();
     }
     
     public int getCount() {
         return headers.size();
     }
 
+    /**
+     * @return same bytes as toString(), built again only if a header or
+     *         a header value has changed. The returned array must not be
+     *         modified.
+     */
+    public byte[] getBytes() {
+        byte[][] encoded = this.encoded;
+        int size = headers.size();
+        if (encoded != null && encoded.length == size + 1) {
+            int i = 0;
+            while (i < size
+                    && headers.get(i).getValue().getBytes() == encoded[i + 1]) {
+                ++i;
+            }
+            if (i == size) {
+                return encoded[0];
+            }
+        }
+        encoded = new byte[size + 1][];
+        int length = 0;
+        for (int i = 0; i < size; ++i) {
+            SipHeader header = headers.get(i);
+            encoded[i + 1] = header.getValue().getBytes();
+            length += header.getName().getBytes().length + 2
+                + encoded[i + 1].length + SipEncoder.CRLF.length;
+        }
+        byte[] bytes = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < size; ++i) {
+            pos = SipEncoder.write(headers.get(i).getName().getBytes(), bytes,
+                    pos);
+            bytes[pos++] = ':';
+            bytes[pos++] = ' ';
+            pos = SipEncoder.write(encoded[i + 1], bytes, pos);
+            pos = SipEncoder.write(SipEncoder.CRLF, bytes, pos);
+        }
+        encoded[0] = bytes;
+        this.encoded = encoded;
+        return bytes;
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer();
@@ -17,173 +17,439 @@
     Copyright 2007, 2008, 2009, 2010 Yohann Martineau 
 */
 
+
 package dk.apaq.peers.sip.syntaxencoding;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.transport.SipMessage;
 import dk.apaq.peers.sip.transport.SipRequest;
 import dk.apaq.peers.sip.transport.SipResponse;
 
-
+/**
+ * Parses sip messages directly from bytes: lines and header separators are
+ * located by scanning the buffer, only header names and values are
+ * decoded. A parser keeps no state between messages, a single instance
+ * can be used by several threads at the same time.
+ * 
+ * Messages exceeding {@link SipParserLimits} are rejected while they are
+ * scanned. The exception carries the status code of the response to send
+ * and the headers read before the limit was reached.
+ */
 public class SipParser {
 
-    private BufferedReader reader;
-    
     private final static int BUFF_SIZE = 1024;
-    
-    private List<SipHeaderFieldName> singleValueHeaders;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] SIP_VERSION =
+        RFC3261.DEFAULT_SIP_VERSION.getBytes();
+    private static final String[] METHODS = {
+        RFC3261.METHOD_INVITE, RFC3261.METHOD_ACK, RFC3261.METHOD_REGISTER,
+        RFC3261.METHOD_BYE, RFC3261.METHOD_OPTIONS, RFC3261.METHOD_CANCEL
+    };
+    private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+    // headers which values can contain commas, never modified
+    private static final List<SipHeaderFieldName> SINGLE_VALUE_HEADERS =
+        new ArrayList<SipHeaderFieldName>();
+
+    static {
+        for (int i = 0; i < METHODS.length; ++i) {
+            METHOD_BYTES[i] = METHODS[i].getBytes();
+        }
+        SINGLE_VALUE_HEADERS.add(SipHeaderFieldName.WWW_AUTHENTICATE);
+        SINGLE_VALUE_HEADERS.add(SipHeaderFieldName.AUTHORIZATION);
+        SINGLE_VALUE_HEADERS.add(SipHeaderFieldName.PROXY_AUTHENTICATE);
+        SINGLE_VALUE_HEADERS.add(SipHeaderFieldName.PROXY_AUTHORIZATION);
+        SINGLE_VALUE_HEADERS.add(SipHeaderFieldName.SUPPORTED);
+        SINGLE_VALUE_HEADERS.add(SipHeaderFieldName.SUBJECT);
+    }
+
+    private volatile SipParserLimits limits;
+    private AtomicLong rejected;
 
     public SipParser() {
-        singleValueHeaders = new ArrayList<SipHeaderFieldName>();
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_WWW_AUTHENTICATE));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_AUTHORIZATION));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_PROXY_AUTHENTICATE));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_PROXY_AUTHORIZATION));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_SUPPORTED));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_SUBJECT));
-    }
-
-    public synchronized SipMessage parse(InputStream in)
+        limits = new SipParserLimits();
+        rejected = new AtomicLong();
+    }
+
+    /**
+     * Reads in until the end of the stream, and parses the bytes read.
+     */
+    public SipMessage parse(InputStream in)
             throws IOException, SipParserException {
-        
-        InputStreamReader inputStreamReader = new InputStreamReader(in);
-        reader = new BufferedReader(inputStreamReader);
-        
-        String startLine = reader.readLine();
-        while (startLine == null || startLine.equals("")) {
-            startLine = reader.readLine();
+        // one byte more than the limit is enough to reject the message
+        int maxLength = limits.getMaxMessageSize() + 1;
+        byte[] data = new byte[Math.min(BUFF_SIZE, maxLength)];
+        int length = 0;
+        int read;
+        while (length < maxLength && (read = in.read(data, length,
+                data.length - length)) != -1) {
+            length += read;
+            if (length == data.length && length < maxLength) {
+                byte[] aux = new byte[Math.min(data.length * 2, maxLength)];
+                System.arraycopy(data, 0, aux, 0, length);
+                data = aux;
+            }
         }
+        return parse(data, 0, length);
+    }
+
+    /**
+     * Parses the bytes between buffer position and limit, the position is
+     * not modified. Those bytes are copied at once, so that buffer can be
+     * reused once this method returns.
+     */
+    public SipMessage parse(ByteBuffer buffer) throws SipParserException {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * Header values and body of the returned message are not copied, they
+     * refer to data and are decoded on first access: data must not be
+     * modified as long as the message is used.
+     */
+    public SipMessage parse(byte[] data, int offset, int length)
+            throws SipParserException {
+        SipParserLimits limits = this.limits;
+        // headers of a message too large are still read, within the limit,
+        // so that a response can be sent
+        boolean tooLarge = length > limits.getMaxMessageSize();
+        int end = offset + (tooLarge ? limits.getMaxMessageSize() : length);
+        int pos = offset;
+        while (pos < end && isLineEnd(data[pos])) {
+            ++pos;
+        }
+        if (pos == end) {
+            if (tooLarge) {
+                throw limitExceeded("message too large",
+                        RFC3261.CODE_513_MESSAGE_TOO_LARGE, null);
+            }
+            throw new SipParserException("empty message");
+        }
+        int lineEnd = findLineEnd(data, pos, end);
+        if (lineEnd - pos > limits.getMaxLineLength()) {
+            throw limitExceeded("start line too long",
+                    RFC3261.CODE_400_BAD_REQUEST, null);
+        }
+        int startLineEnd = trimEnd(data, pos, lineEnd);
         SipMessage sipMessage;
-        if (startLine.toUpperCase().startsWith(RFC3261.DEFAULT_SIP_VERSION)) {
-            sipMessage = parseSipResponse(startLine);
+        if (startsWithIgnoreCase(data, pos, startLineEnd, SIP_VERSION)) {
+            sipMessage = parseSipResponse(data, pos, startLineEnd);
+        } else {
+            sipMessage = parseSipRequest(data, pos, startLineEnd);
         }
-        else {
-            sipMessage = parseSipRequest(startLine);
+        try {
+            pos = parseHeaders(sipMessage, data, nextLine(data, lineEnd, end),
+                    end, limits);
+            if (tooLarge) {
+                throw limitExceeded("message too large",
+                        RFC3261.CODE_513_MESSAGE_TOO_LARGE, sipMessage);
+            }
+            parseBody(sipMessage, data, pos, end, limits);
+        } catch (SipParserException e) {
+            if (e.getSipMessage() == null) {
+                if (tooLarge) {
+                    // headers have been cut by the size limit
+                    throw limitExceeded("message too large",
+                            RFC3261.CODE_513_MESSAGE_TOO_LARGE, sipMessage);
+                }
+                e.setSipMessage(sipMessage);
+            }
+            throw e;
         }
-        parseHeaders(sipMessage);
-        parseBody(sipMessage);
         return sipMessage;
     }
-    
-    private SipRequest parseSipRequest(String startLine) throws SipParserException {
-        String[] params = startLine.split(" ");
-        if (params.length != 3) {
+
+    private SipParserException limitExceeded(String message, int statusCode,
+            SipMessage sipMessage) {
+        rejected.incrementAndGet();
+        SipParserException sipParserException =
+            new SipParserException(message, statusCode);
+        sipParserException.setSipMessage(sipMessage);
+        return sipParserException;
+    }
+
+    private SipRequest parseSipRequest(byte[] data, int start, int end)
+            throws SipParserException {
+        int methodEnd = indexOf(data, start, end, (byte)' ');
+        int uriEnd = -1;
+        if (methodEnd > -1) {
+            uriEnd = indexOf(data, methodEnd + 1, end, (byte)' ');
+        }
+        if (uriEnd < 0 || indexOf(data, uriEnd + 1, end, (byte)' ') > -1) {
             throw new SipParserException("invalid request line");
         }
-        if (!RFC3261.DEFAULT_SIP_VERSION.equals(params[2].toUpperCase())) {
+        if (!startsWithIgnoreCase(data, uriEnd + 1, end, SIP_VERSION)
+                || end - uriEnd - 1 != SIP_VERSION.length) {
             throw new SipParserException("unsupported SIP version");
         }
         SipURI requestUri;
         try {
-            requestUri = new SipURI(params[1]);
+            requestUri = SipURI.valueOf(getString(data, methodEnd + 1, uriEnd));
         } catch (SipUriSyntaxException e) {
             throw new SipParserException(e);
         }
-        return new SipRequest(params[0], requestUri);
+        return new SipRequest(getMethod(data, start, methodEnd), requestUri);
     }
-    
-    private SipResponse parseSipResponse(String startLine) throws SipParserException {
-        String[] params = startLine.split(" ");
-        if (params.length < 3) {
+
+    private SipResponse parseSipResponse(byte[] data, int start, int end)
+            throws SipParserException {
+        int versionEnd = indexOf(data, start, end, (byte)' ');
+        int codeEnd = -1;
+        if (versionEnd > -1) {
+            codeEnd = indexOf(data, versionEnd + 1, end, (byte)' ');
+        }
+        if (codeEnd < 0) {
             throw new SipParserException("incorrect status line");
         }
-        if (!RFC3261.DEFAULT_SIP_VERSION.equals(params[0].toUpperCase())) {
+        if (versionEnd - start != SIP_VERSION.length) {
             throw new SipParserException("unsupported SIP version");
         }
-        StringBuffer buf = new StringBuffer();
-        for (int i = 2; i < params.length; ++i) {
-            buf.append(params[i]).append(" ");
+        if (codeEnd == versionEnd + 1) {
+            throw new SipParserException("incorrect status code");
+        }
+        int statusCode = 0;
+        for (int i = versionEnd + 1; i < codeEnd; ++i) {
+            if (data[i] < '0' || data[i] > '9') {
+                throw new SipParserException("incorrect status code");
+            }
+            statusCode = statusCode * 10 + data[i] - '0';
         }
-        buf.deleteCharAt(buf.length() - 1);
-        return new SipResponse(Integer.parseInt(params[1]), buf.toString());
+        return new SipResponse(statusCode,
+                getString(data, codeEnd + 1, end));
     }
-    
-    private void parseHeaders(SipMessage sipMessage) throws IOException, SipParserException {
+
+    /**
+     * @return index following the empty line ending headers
+     */
+    private int parseHeaders(SipMessage sipMessage, byte[] data, int pos,
+            int end, SipParserLimits limits) throws SipParserException {
         SipHeaders sipHeaders = new SipHeaders();
-        String headerLine = reader.readLine();
-        if (headerLine == null) {
-            throw new SipParserException(sipMessage.toString());
-        }
-        while (!"".equals(headerLine)) {
-            String nextLine = reader.readLine();
-            if (nextLine != null &&
-                    (nextLine.startsWith(" ") || nextLine.startsWith("\t"))) {
-                StringBuffer buf = new StringBuffer(headerLine);
-                while (nextLine != null &&
-                        (nextLine.startsWith(" ") || nextLine.startsWith("\t"))) {
-                    buf.append(' ');
-                    buf.append(nextLine.trim());
-                    nextLine = reader.readLine();
-                }
-                headerLine = buf.toString();
+        sipMessage.setSipHeaders(sipHeaders);
+        int maxLineLength = limits.getMaxLineLength();
+        int headers = 0;
+        while (true) {
+            if (pos >= end) {
+                throw new SipParserException("end of headers not found");
             }
-            if (headerLine == null) {
-                throw new SipParserException(sipMessage.toString());
+            int lineEnd = findLineEnd(data, pos, end);
+            if (lineEnd == pos) {
+                return nextLine(data, lineEnd, end);
             }
-            int columnPos = headerLine.indexOf(RFC3261.FIELD_NAME_SEPARATOR);
+            if (lineEnd - pos > maxLineLength) {
+                throw limitExceeded("header line too long",
+                        RFC3261.CODE_400_BAD_REQUEST, sipMessage);
+            }
+            if (++headers > limits.getMaxHeaders()) {
+                throw limitExceeded("too many headers",
+                        RFC3261.CODE_400_BAD_REQUEST, sipMessage);
+            }
+            int columnPos = indexOf(data, pos, lineEnd,
+                    (byte)RFC3261.FIELD_NAME_SEPARATOR);
             if (columnPos < 0) {
                 throw new SipParserException("Invalid header line");
             }
-            SipHeaderFieldName sipHeaderName = new SipHeaderFieldName(
-                    headerLine.substring(0, columnPos).trim());
-            String value = headerLine.substring(columnPos + 1).trim();
-            SipHeaderFieldValue sipHeaderValue;
-            if (!singleValueHeaders.contains(sipHeaderName) &&
-                    value.indexOf(RFC3261.HEADER_SEPARATOR) > -1) {
-                String[] values = value.split(RFC3261.HEADER_SEPARATOR);
-                List<SipHeaderFieldValue> list =
-                    new ArrayList<SipHeaderFieldValue>();
-                for (String s: values) {
-                    list.add(new SipHeaderFieldValue(s));
+            while (pos < columnPos && isWhiteSpace(data[pos])) {
+                ++pos;
+            }
+            SipHeaderFieldName sipHeaderName = SipHeaderFieldName.valueOf(
+                    data, pos, trimEnd(data, pos, columnPos));
+            int valueStart = columnPos + 1;
+            while (valueStart < lineEnd && isWhiteSpace(data[valueStart])) {
+                ++valueStart;
+            }
+            int valueEnd = trimEnd(data, valueStart, lineEnd);
+            pos = nextLine(data, lineEnd, end);
+            if (pos < end && isWhiteSpace(data[pos])) {
+                // folded header, continuation lines start with whitespace
+                StringBuffer buf = new StringBuffer(
+                        getString(data, valueStart, valueEnd));
+                while (pos < end && isWhiteSpace(data[pos])) {
+                    lineEnd = findLineEnd(data, pos, end);
+                    if (buf.length() + lineEnd - pos > maxLineLength) {
+                        throw limitExceeded("header line too long",
+                                RFC3261.CODE_400_BAD_REQUEST, sipMessage);
+                    }
+                    buf.append(' ');
+                    buf.append(getTrimmedString(data, pos, lineEnd));
+                    pos = nextLine(data, lineEnd, end);
                 }
-                sipHeaderValue = new SipHeaderFieldMultiValue(list);
+                sipHeaders.add(sipHeaderName, parseValue(sipHeaderName,
+                        buf.toString().trim()));
             } else {
-                sipHeaderValue = new SipHeaderFieldValue(value);
+                // decoded on first access
+                sipHeaders.add(sipHeaderName, data, valueStart, valueEnd);
             }
-            sipHeaders.add(sipHeaderName, sipHeaderValue);
-            headerLine = nextLine;
         }
-        sipMessage.setSipHeaders(sipHeaders);
     }
-    
-    public void parseBody(SipMessage sipMessage) throws IOException, SipParserException {
+
+    /**
+     * Decodes a header value, comma separated values are split.
+     */
+    static SipHeaderFieldValue parseValue(SipHeaderFieldName name,
+            String value) {
+        if (!SINGLE_VALUE_HEADERS.contains(name) &&
+                value.indexOf(RFC3261.HEADER_SEPARATOR) > -1) {
+            String[] values = value.split(RFC3261.HEADER_SEPARATOR);
+            List<SipHeaderFieldValue> list =
+                new ArrayList<SipHeaderFieldValue>();
+            for (String s: values) {
+                list.add(new SipHeaderFieldValue(s));
+            }
+            return new SipHeaderFieldMultiValue(list);
+        }
+        return new SipHeaderFieldValue(value);
+    }
+
+    private void parseBody(SipMessage sipMessage, byte[] data, int pos,
+            int end, SipParserLimits limits) throws SipParserException {
         SipHeaderFieldValue contentLengthValue =
-            sipMessage.getSipHeaders().get(new SipHeaderFieldName(
-                    RFC3261.HDR_CONTENT_LENGTH));
+            sipMessage.getSipHeaders().get(SipHeaderFieldName.CONTENT_LENGTH);
         if (contentLengthValue == null) {
             return;
         }
-        int length = Integer.parseInt(contentLengthValue.toString());
-        byte[] buff = new byte[BUFF_SIZE];
-        int i;
-        int count = 0;
-        while (count < length && (i = reader.read()) != -1) {
-            if (count >= buff.length) {
-                byte[] aux = new byte[buff.length + BUFF_SIZE];
-                System.arraycopy(buff, 0, aux, 0, buff.length);
-                buff = aux;
-                
+        int length;
+        try {
+            length = Integer.parseInt(contentLengthValue.toString());
+        } catch (NumberFormatException e) {
+            throw new SipParserException("invalid content length", e);
+        }
+        if (length < 0) {
+            throw limitExceeded("invalid content length: " + length,
+                    RFC3261.CODE_400_BAD_REQUEST, sipMessage);
+        }
+        if (length > limits.getMaxBodySize()) {
+            throw limitExceeded("body too large: " + length,
+                    RFC3261.CODE_413_REQUEST_ENTITY_TOO_LARGE, sipMessage);
+        }
+        // a truncated body is kept as is
+        int count = Math.min(length, end - pos);
+        sipMessage.setBody(data, pos, count);
+    }
+
+    public void setLimits(SipParserLimits limits) {
+        this.limits = limits;
+    }
+
+    public SipParserLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * @return number of messages rejected for exceeding limits since
+     *         creation.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private String getMethod(byte[] data, int start, int end) {
+        // known methods are not decoded, methods are case-sensitive
+        for (int i = 0; i < METHOD_BYTES.length; ++i) {
+            byte[] method = METHOD_BYTES[i];
+            if (method.length != end - start) {
+                continue;
+            }
+            int j = 0;
+            while (j < method.length && data[start + j] == method[j]) {
+                ++j;
+            }
+            if (j == method.length) {
+                return METHODS[i];
+            }
+        }
+        return getString(data, start, end);
+    }
+
+    static String getString(byte[] data, int start, int end) {
+        return new String(data, start, end - start, UTF_8);
+    }
+
+    private static String getTrimmedString(byte[] data, int start, int end) {
+        while (start < end && isWhiteSpace(data[start])) {
+            ++start;
+        }
+        return getString(data, start, trimEnd(data, start, end));
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && isWhiteSpace(data[end - 1])) {
+            --end;
+        }
+        return end;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] data, int start,
+            int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (toUpperCase(data[start + i]) != prefix[i]) {
+                return false;
             }
-            buff[count++] = (byte)i;
         }
-        if (count != buff.length) {
-            byte[] aux = new byte[count];
-            System.arraycopy(buff, 0, aux, 0, count);
-            buff = aux;
+        return true;
+    }
+
+    private static int indexOf(byte[] data, int start, int end, byte b) {
+        for (int i = start; i < end; ++i) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the CR or LF ending the line starting at start, or
+     *         end if there is none.
+     */
+    private static int findLineEnd(byte[] data, int start, int end) {
+        int i = start;
+        while (i < end && !isLineEnd(data[i])) {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Lines end with CRLF, CR or LF.
+     */
+    private static int nextLine(byte[] data, int lineEnd, int end) {
+        if (lineEnd >= end) {
+            return end;
+        }
+        if (data[lineEnd] == '\r' && lineEnd + 1 < end
+                && data[lineEnd + 1] == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    private static byte toUpperCase(byte b) {
+        if (b >= 'a' && b <= 'z') {
+            return (byte)(b - 'a' + 'A');
         }
-        sipMessage.setBody(buff);
+        return b;
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\r' || b == '\n';
     }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
 }
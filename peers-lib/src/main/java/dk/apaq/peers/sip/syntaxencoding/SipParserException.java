@@ -19,10 +19,16 @@
 
 package dk.apaq.peers.sip.syntaxencoding;
 
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.transport.SipMessage;
+
 public class SipParserException extends Exception {
 
     private static final long serialVersionUID = 1L;
 
+    private int statusCode = RFC3261.CODE_400_BAD_REQUEST;
+    private transient SipMessage sipMessage;
+
     public SipParserException() {
         super();
     }
@@ -39,4 +45,28 @@ public class SipParserException extends Exception {
         super(cause);
     }
 
+    /**
+     * @param statusCode response code sent back for a rejected request
+     */
+    public SipParserException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return message parsed before the error, with the start line and the
+     *         headers read so far, null if the start line is invalid.
+     */
+    public SipMessage getSipMessage() {
+        return sipMessage;
+    }
+
+    public void setSipMessage(SipMessage sipMessage) {
+        this.sipMessage = sipMessage;
+    }
+
 }
@@ -0,0 +1,99 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+import dk.apaq.peers.sip.RFC3261;
+
+/**
+ * Sizes beyond which {@link SipParser} rejects a message. Limits are
+ * checked while bytes are scanned, before anything is decoded or
+ * allocated for the offending part.
+ */
+public class SipParserLimits {
+
+    public static final int DEFAULT_MAX_MESSAGE_SIZE =
+        RFC3261.TRANSPORT_UDP_MAX_SIZE;
+    public static final int DEFAULT_MAX_HEADERS = 128;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 8192;
+    public static final int DEFAULT_MAX_BODY_SIZE =
+        RFC3261.TRANSPORT_UDP_MAX_SIZE;
+
+    private volatile int maxMessageSize;
+    private volatile int maxHeaders;
+    private volatile int maxLineLength;
+    private volatile int maxBodySize;
+
+    public SipParserLimits() {
+        maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+        maxHeaders = DEFAULT_MAX_HEADERS;
+        maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+        maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    }
+
+    /**
+     * @param maxMessageSize in bytes, start line, headers and body
+     *        included. Larger messages are rejected with 513.
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * @param maxHeaders number of header lines, folded lines count as
+     *        one. Messages with more headers are rejected with 400.
+     */
+    public void setMaxHeaders(int maxHeaders) {
+        this.maxHeaders = maxHeaders;
+    }
+
+    public int getMaxHeaders() {
+        return maxHeaders;
+    }
+
+    /**
+     * @param maxLineLength in bytes, for the start line and for each
+     *        header, continuation lines included. Longer lines are
+     *        rejected with 400.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * @param maxBodySize in bytes, as announced by Content-Length. Larger
+     *        bodies are rejected with 413.
+     */
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+}
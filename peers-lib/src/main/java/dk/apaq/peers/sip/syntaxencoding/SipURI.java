@@ -19,97 +19,144 @@
 
 package dk.apaq.peers.sip.syntaxencoding;
 
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import dk.apaq.peers.sip.RFC3261;
 
 
-
+/**
+ * Immutable, instances can be shared. Use {@link #valueOf(String)} for
+ * uris that are parsed often, such as request uris and remote targets.
+ */
 public class SipURI {
 
     public final static int DEFAULT_PORT = -1;
+
+    // number of uris kept by valueOf
+    public final static int INTERN_CACHE_SIZE = 1024;
+
+    private final static String SCHEME =
+        RFC3261.SIP_SCHEME + RFC3261.SCHEME_SEPARATOR;
+
+    // lookups from all parsing threads never lock, uris are evicted in
+    // insertion order: a frequently used uri is parsed again once evicted
+    private final static ConcurrentHashMap<String, SipURI> INTERN_CACHE =
+        new ConcurrentHashMap<String, SipURI>();
+    private final static Queue<String> INTERN_ORDER =
+        new ConcurrentLinkedQueue<String>();
+
+    /**
+     * @return a shared instance, parsed only if this uri has not been
+     *         used recently.
+     */
+    public static SipURI valueOf(String sipUri) throws SipUriSyntaxException {
+        SipURI uri = INTERN_CACHE.get(sipUri);
+        if (uri == null) {
+            uri = new SipURI(sipUri);
+            SipURI previous = INTERN_CACHE.putIfAbsent(sipUri, uri);
+            if (previous != null) {
+                return previous;
+            }
+            INTERN_ORDER.add(sipUri);
+            while (INTERN_CACHE.size() > INTERN_CACHE_SIZE) {
+                String eldest = INTERN_ORDER.poll();
+                if (eldest == null) {
+                    break;
+                }
+                INTERN_CACHE.remove(eldest);
+            }
+        }
+        return uri;
+    }
     
-    private String stringRepresentation;
+    private final String stringRepresentation;
     /**
      * telephone-subscriber and optional port are not managed
      */
-    private String userinfo;
-    private String host;
-    private int port = DEFAULT_PORT;
+    private final String userinfo;
+    private final String host;
+    private final int port;
     /**
      * Use empty strings in value if the parameter has no value
      */
-    private Hashtable<String, String> uriParameters;
+    private final Map<String, String> uriParameters;
     //headers not implemented
-    //private Hashtable<String, String> headers;
 
     public SipURI(String sipUri)
             throws SipUriSyntaxException {
         stringRepresentation = sipUri;
-        StringBuffer buf = new StringBuffer(sipUri);
-        String scheme = RFC3261.SIP_SCHEME + RFC3261.SCHEME_SEPARATOR;
-        if (!sipUri.startsWith(scheme)) {
-            throw new SipUriSyntaxException("SIP URI must start with " + scheme);
+        if (!sipUri.startsWith(SCHEME)) {
+            throw new SipUriSyntaxException("SIP URI must start with " + SCHEME);
         }
-        buf.delete(0, scheme.length());
-        int atPos = buf.indexOf("@");
-        if (atPos == 0) {
+        int pos = SCHEME.length();
+        int length = sipUri.length();
+        int atPos = sipUri.indexOf('@', pos);
+        if (atPos == pos) {
             throw new SipUriSyntaxException("userinfo cannot start with a '@'");
         }
         if (atPos > 0) {
-            userinfo = buf.substring(0, atPos);
-            buf.delete(0, atPos + 1);
+            userinfo = sipUri.substring(pos, atPos);
+            pos = atPos + 1;
+        } else {
+            userinfo = null;
         }
-        int endHostport = buf.indexOf(";");
-        if (endHostport == 0) {
+        int endHostport = sipUri.indexOf(';', pos);
+        if (endHostport == pos) {
             throw new SipUriSyntaxException("hostport not present or it cannot start with ';'");
         }
         if (endHostport < 0) {
-            endHostport = buf.length();
+            endHostport = length;
+        }
+        int colonPos = pos;
+        if (sipUri.startsWith("[", pos)) {
+            // IPv6 reference
+            colonPos = sipUri.indexOf(']', pos);
         }
-        String hostport = buf.substring(0, endHostport);
-        buf.delete(0, endHostport);
-        int colonPos = hostport.indexOf(':');
-        if (colonPos > -1) {
-            if (colonPos == hostport.length() - 1) {
+        colonPos = colonPos < 0 ? -1 : sipUri.indexOf(':', colonPos);
+        if (colonPos > -1 && colonPos < endHostport) {
+            if (colonPos == endHostport - 1) {
                 throw new SipUriSyntaxException("hostport cannot terminate with a ':'");
             }
-            port = Integer.parseInt(hostport.substring(colonPos + 1));
+            try {
+                port = Integer.parseInt(sipUri.substring(colonPos + 1,
+                        endHostport));
+            } catch (NumberFormatException e) {
+                throw new SipUriSyntaxException("invalid port in " + sipUri);
+            }
         } else {
-            colonPos = hostport.length();
-        }
-        host = hostport.substring(0, colonPos);
-        if (buf.length() == 1) {
-            //if there is only one ';' at the end of the uri => do not
-            //parse uri-parameters and headers
-            buf.deleteCharAt(0);
+            colonPos = endHostport;
+            port = DEFAULT_PORT;
         }
-        if (buf.length() <= 0) {
+        host = sipUri.substring(pos, colonPos);
+        pos = endHostport;
+        //if there is only one ';' at the end of the uri => do not
+        //parse uri-parameters and headers
+        if (length - pos <= 1) {
+            uriParameters = null;
             return;
         }
-        uriParameters = new Hashtable<String, String>();
-        while (buf.length() > 0) {
-            buf.deleteCharAt(0);//delete the first ';'
-            int nextSemicolon = buf.indexOf(";");
+        Map<String, String> params = new HashMap<String, String>();
+        while (pos < length) {
+            ++pos;//skip ';'
+            int nextSemicolon = sipUri.indexOf(';', pos);
             if (nextSemicolon < 0) {
-                nextSemicolon = buf.length();
+                nextSemicolon = length;
             }
-            int nextEquals = buf.indexOf("=");
-            if (nextEquals < 0) {
-                nextEquals = nextSemicolon;
-            }
-            if (nextEquals > nextSemicolon) {
-                nextEquals = nextSemicolon;
-            }
-            int afterEquals;
-            if (nextEquals + 1 > nextSemicolon) {
-                afterEquals = nextSemicolon;
+            int equalsPos = sipUri.indexOf('=', pos);
+            if (equalsPos < 0 || equalsPos > nextSemicolon) {
+                params.put(sipUri.substring(pos, nextSemicolon), "");
             } else {
-                afterEquals = nextEquals + 1;
+                params.put(sipUri.substring(pos, equalsPos),
+                        sipUri.substring(equalsPos + 1, nextSemicolon));
             }
-            uriParameters.put(buf.substring(0, nextEquals), buf.substring(afterEquals, nextSemicolon));
-            buf.delete(0, nextSemicolon);
+            pos = nextSemicolon;
         }
+        uriParameters = Collections.unmodifiableMap(params);
     }
     
     @Override
@@ -125,7 +172,10 @@ public class SipURI {
         return port;
     }
 
-    public Hashtable<String, String> getUriParameters() {
+    /**
+     * @return read-only parameters, null if there is none
+     */
+    public Map<String, String> getUriParameters() {
         return uriParameters;
     }
 
@@ -0,0 +1,159 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+import dk.apaq.peers.sip.RFC3261;
+
+/**
+ * Typed view of a Via header value. sent-protocol and sent-by are parsed
+ * on first access and parsed again only if the value is replaced,
+ * parameters are always read from the underlying value, which remains
+ * the reference.
+ */
+public class ViaHeader {
+
+    public static final SipHeaderParamName BRANCH =
+        new SipHeaderParamName(RFC3261.PARAM_BRANCH);
+    public static final SipHeaderParamName RECEIVED =
+        new SipHeaderParamName(RFC3261.PARAM_RECEIVED);
+    public static final SipHeaderParamName RPORT =
+        new SipHeaderParamName(RFC3261.PARAM_RPORT);
+    public static final SipHeaderParamName ALIAS =
+        new SipHeaderParamName(RFC3261.PARAM_ALIAS);
+
+    private SipHeaderFieldValue fieldValue;
+    // value from which fields below have been parsed
+    private volatile String parsedValue;
+    private String transport;
+    private String sentBy;
+    private String host;
+    private int port;
+
+    public ViaHeader(SipHeaderFieldValue fieldValue) {
+        this.fieldValue = fieldValue;
+    }
+
+    private void parse() {
+        String value = fieldValue.getValue();
+        if (value == parsedValue) {
+            return;
+        }
+        String raw = value;
+        value = value.trim();
+        int end = value.length();
+        int spacePos = 0;
+        while (spacePos < end && value.charAt(spacePos) != ' '
+                && value.charAt(spacePos) != '\t') {
+            ++spacePos;
+        }
+        int slashPos = value.lastIndexOf('/', spacePos);
+        if (slashPos > -1 && spacePos < end) {
+            transport = value.substring(slashPos + 1, spacePos).toUpperCase();
+            sentBy = value.substring(spacePos + 1).trim();
+        } else {
+            transport = null;
+            sentBy = null;
+        }
+        host = null;
+        port = -1;
+        if (sentBy != null) {
+            int colonPos;
+            if (sentBy.startsWith("[")) {
+                // IPv6 reference
+                int bracketPos = sentBy.indexOf(']');
+                host = sentBy.substring(1, bracketPos < 0 ? sentBy.length()
+                        : bracketPos);
+                colonPos = bracketPos < 0 ? -1
+                        : sentBy.indexOf(RFC3261.TRANSPORT_PORT_SEP,
+                                bracketPos);
+            } else {
+                colonPos = sentBy.indexOf(RFC3261.TRANSPORT_PORT_SEP);
+                host = colonPos < 0 ? sentBy : sentBy.substring(0, colonPos);
+            }
+            if (colonPos > -1) {
+                try {
+                    port = Integer.parseInt(sentBy.substring(colonPos + 1)
+                            .trim());
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+            }
+        }
+        parsedValue = raw;
+    }
+
+    public SipHeaderFieldValue getFieldValue() {
+        return fieldValue;
+    }
+
+    /**
+     * @return transport of sent-protocol, upper case, or null
+     */
+    public String getTransport() {
+        parse();
+        return transport;
+    }
+
+    /**
+     * @return host and optional port, as found in header, or null
+     */
+    public String getSentBy() {
+        parse();
+        return sentBy;
+    }
+
+    /**
+     * @return sent-by host, without brackets for IPv6 references
+     */
+    public String getHost() {
+        parse();
+        return host;
+    }
+
+    /**
+     * @return sent-by port, -1 if not present
+     */
+    public int getPort() {
+        parse();
+        return port;
+    }
+
+    public String getBranch() {
+        return fieldValue.getParam(BRANCH);
+    }
+
+    public String getReceived() {
+        return fieldValue.getParam(RECEIVED);
+    }
+
+    /**
+     * @return rport value, empty if requested but not filled, null if
+     *         not present
+     */
+    public String getRport() {
+        return fieldValue.getParam(RPORT);
+    }
+
+    @Override
+    public String toString() {
+        return fieldValue.toString();
+    }
+
+}
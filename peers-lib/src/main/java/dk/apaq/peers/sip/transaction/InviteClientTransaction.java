@@ -21,10 +21,10 @@ package dk.apaq.peers.sip.transaction;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.Timer;
-import java.util.TimerTask;
 
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Timeout;
 import dk.apaq.peers.sip.Utils;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
@@ -42,11 +42,16 @@ import org.slf4j.LoggerFactory;
 public class InviteClientTransaction extends InviteTransaction implements ClientTransaction, SipClientTransportUser {
 
     private static final Logger LOG = LoggerFactory.getLogger(InviteClientTransaction.class);
-    public final InviteClientTransactionState INIT;
-    public final InviteClientTransactionState CALLING;
-    public final InviteClientTransactionState PROCEEDING;
-    public final InviteClientTransactionState COMPLETED;
-    public final InviteClientTransactionState TERMINATED;
+    public static final InviteClientTransactionState INIT =
+        new InviteClientTransactionStateInit();
+    public static final InviteClientTransactionState CALLING =
+        new InviteClientTransactionStateCalling();
+    public static final InviteClientTransactionState PROCEEDING =
+        new InviteClientTransactionStateProceeding();
+    public static final InviteClientTransactionState COMPLETED =
+        new InviteClientTransactionStateCompleted();
+    public static final InviteClientTransactionState TERMINATED =
+        new InviteClientTransactionStateTerminated();
 
     protected ClientTransactionUser transactionUser;
     protected String transport;
@@ -58,25 +63,22 @@ public class InviteClientTransaction extends InviteTransaction implements Client
     private SipRequest ack;
     private int remotePort;
     private InetAddress remoteInetAddress;
+    // cancelled on termination so that the timer does not hold them
+    private Timeout timerA;
+    private Timeout timerB;
     
     InviteClientTransaction(String branchId, InetAddress inetAddress, int port, String transport, SipRequest sipRequest, 
-            ClientTransactionUser transactionUser, Timer timer, TransportManager transportManager, TransactionManager transactionManager) {
+            ClientTransactionUser transactionUser, HashedWheelTimer timer, TransportManager transportManager, TransactionManager transactionManager) {
         super(branchId, timer, transportManager, transactionManager);
         
         this.transport = transport;
         
         SipHeaderFieldValue via = new SipHeaderFieldValue("");
         via.addParam(new SipHeaderParamName(RFC3261.PARAM_BRANCH), branchId);
-        sipRequest.getSipHeaders().add(new SipHeaderFieldName(RFC3261.HDR_VIA), via, 0);
+        sipRequest.getSipHeaders().add(SipHeaderFieldName.VIA, via, 0);
         
         nbRetrans = 0;
-        
-        INIT = new InviteClientTransactionStateInit(getId(), this);
         state = INIT;
-        CALLING = new InviteClientTransactionStateCalling(getId(), this);
-        PROCEEDING = new InviteClientTransactionStateProceeding(getId(), this);
-        COMPLETED = new InviteClientTransactionStateCompleted(getId(), this);
-        TERMINATED = new InviteClientTransactionStateTerminated(getId(), this);
 
         //17.1.1.2
         
@@ -89,6 +91,8 @@ public class InviteClientTransaction extends InviteTransaction implements Client
         try {
             messageSender = transportManager.createClientTransport(
                     request, remoteInetAddress, remotePort, transport);
+            // large requests are switched to a reliable transport
+            this.transport = messageSender.getTransportName();
         } catch (IOException e) {
             LOG.error("input/output error", e);
             transportError();
@@ -97,16 +101,39 @@ public class InviteClientTransaction extends InviteTransaction implements Client
     }
     
     public void setState(InviteClientTransactionState state) {
-        this.state.log(state);
+        InviteClientTransactionState previous = this.state;
+        if (LOG.isDebugEnabled()) {
+            previous.log(getId(), state);
+        }
         this.state = state;
-        if(TERMINATED.equals(state)) {
-            //transactionManager.removeClientTransaction(branchId, method);
-            transactionManager = null;
+        if (state == COMPLETED && previous != COMPLETED) {
+            int delay = 0;
+            if (RFC3261.TRANSPORT_UDP.equals(transport)) {
+                delay = RFC3261.TIMER_INVITE_CLIENT_TRANSACTION;
+            }
+            timer.schedule(new TimerD(), delay);
+        } else if (state == TERMINATED) {
+            if (timerA != null) {
+                timerA.cancel();
+            }
+            if (timerB != null) {
+                timerB.cancel();
+            }
+            transactionManager.removeClientTransaction(this);
         }
     }
     
     public void start() {
-        state.start();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processStart();
+            }
+        });
+    }
+
+    private void processStart() {
+        state.start(this);
         //send request using transport information and sipRequest
 //        try {
 //            sipClientTransport = SipTransportFactory.getInstance()
@@ -120,6 +147,7 @@ public class InviteClientTransaction extends InviteTransaction implements Client
         
         try {
             messageSender.sendMessage(request);
+            sent(request, messageSender);
         } catch (IOException e) {
             LOG.error("input/output error", e);
             transportError();
@@ -128,32 +156,50 @@ public class InviteClientTransaction extends InviteTransaction implements Client
         
         if (RFC3261.TRANSPORT_UDP.equals(transport)) {
             //start timer A with value T1 for retransmission
-            timer.schedule(new TimerA(), RFC3261.TIMER_T1);
+            timerA = timer.schedule(new TimerA(), RFC3261.TIMER_T1);
         }
         
         //TODO start timer B with value 64*T1 for transaction timeout
-        timer.schedule(new TimerB(), 64 * RFC3261.TIMER_T1);
+        timerB = timer.schedule(new TimerB(), 64 * RFC3261.TIMER_T1);
     }
     
-    public synchronized void receivedResponse(SipResponse sipResponse) {
+    public void receivedResponse(final SipResponse sipResponse) {
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processResponse(sipResponse);
+            }
+        });
+    }
+
+    private void processResponse(SipResponse sipResponse) {
         responses.add(sipResponse);
         // 17.1.1
         int statusCode = sipResponse.getStatusCode();
         if (statusCode < RFC3261.CODE_MIN_PROV) {
             LOG.error("invalid response code");
         } else if (statusCode < RFC3261.CODE_MIN_SUCCESS) {
-            state.received1xx();
+            state.received1xx(this);
         } else if (statusCode < RFC3261.CODE_MIN_REDIR) {
-            state.received2xx();
+            state.received2xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received300To699();
+            state.received300To699(this);
         } else {
             LOG.error("invalid response code");
         }
     }
     
     public void transportError() {
-        state.transportError();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processTransportError();
+            }
+        });
+    }
+
+    private void processTransportError() {
+        state.transportError(this);
     }
     
     void createAndSendAck() {
@@ -164,13 +210,13 @@ public class InviteClientTransaction extends InviteTransaction implements Client
         ack = new SipRequest(RFC3261.METHOD_ACK, request.getRequestUri());
         SipHeaderFieldValue topVia = Utils.getTopVia(request);
         SipHeaders ackSipHeaders = ack.getSipHeaders();
-        ackSipHeaders.add(new SipHeaderFieldName(RFC3261.HDR_VIA), topVia);
+        ackSipHeaders.add(SipHeaderFieldName.VIA, topVia);
         Utils.copyHeader(request, ack, RFC3261.HDR_CALLID);
         Utils.copyHeader(request, ack, RFC3261.HDR_FROM);
         Utils.copyHeader(getLastResponse(), ack, RFC3261.HDR_TO);
         //TODO what happens if a prov response is received after a 200+ ...
         SipHeaders requestSipHeaders = request.getSipHeaders();
-        SipHeaderFieldName cseqName = new SipHeaderFieldName(RFC3261.HDR_CSEQ);
+        SipHeaderFieldName cseqName = SipHeaderFieldName.CSEQ;
         SipHeaderFieldValue cseq = requestSipHeaders.get(cseqName);
         cseq.setValue(cseq.toString().replace(RFC3261.METHOD_INVITE, RFC3261.METHOD_ACK));
         ackSipHeaders.add(cseqName, cseq);
@@ -183,8 +229,12 @@ public class InviteClientTransaction extends InviteTransaction implements Client
         //ack is passed to the transport layer...
         //TODO manage ACK retrans
         //sipClientTransport.send(ack);
+        if (resend(ack)) {
+            return;
+        }
         try {
             messageSender.sendMessage(ack);
+            sent(ack, messageSender);
         } catch (IOException e) {
             LOG.error("input/output error", e);
             transportError();
@@ -194,13 +244,16 @@ public class InviteClientTransaction extends InviteTransaction implements Client
     void sendRetrans() {
         ++nbRetrans;
         //sipClientTransport.send(request);
-        try {
-            messageSender.sendMessage(request);
-        } catch (IOException e) {
-            LOG.error("input/output error", e);
-            transportError();
+        if (!resend(request)) {
+            try {
+                messageSender.sendMessage(request);
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+                transportError();
+            }
         }
-        timer.schedule(new TimerA(), (long)Math.pow(2, nbRetrans) * RFC3261.TIMER_T1);
+        timerA = timer.schedule(new TimerA(),
+                (long)Math.pow(2, nbRetrans) * RFC3261.TIMER_T1);
     }
     
     public void requestTransportError(SipRequest sipRequest, Exception e) {
@@ -213,24 +266,24 @@ public class InviteClientTransaction extends InviteTransaction implements Client
         
     }
     
-    class TimerA extends TimerTask {
+    class TimerA extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerAFires();
+        void expired() {
+            state.timerAFires(InviteClientTransaction.this);
         }
     }
     
-    class TimerB extends TimerTask {
+    class TimerB extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerBFires();
+        void expired() {
+            state.timerBFires(InviteClientTransaction.this);
         }
     }
     
-    class TimerD extends TimerTask {
+    class TimerD extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerDFires();
+        void expired() {
+            state.timerDFires(InviteClientTransaction.this);
         }
     }
 
@@ -21,23 +21,16 @@ package dk.apaq.peers.sip.transaction;
 
 import dk.apaq.peers.sip.AbstractState;
 
-
 public abstract class InviteClientTransactionState extends AbstractState {
 
-    protected InviteClientTransaction inviteClientTransaction;
-    
-    public InviteClientTransactionState(String id, InviteClientTransaction inviteClientTransaction) {
-        super(id);
-        this.inviteClientTransaction = inviteClientTransaction;
-    }
     
-    public void start() {}
-    public void timerAFires() {}
-    public void timerBFires() {}
-    public void received2xx() {}
-    public void received1xx() {}
-    public void received300To699() {}
-    public void transportError() {}
-    public void timerDFires() {}
+    public void start(InviteClientTransaction inviteClientTransaction) {}
+    public void timerAFires(InviteClientTransaction inviteClientTransaction) {}
+    public void timerBFires(InviteClientTransaction inviteClientTransaction) {}
+    public void received2xx(InviteClientTransaction inviteClientTransaction) {}
+    public void received1xx(InviteClientTransaction inviteClientTransaction) {}
+    public void received300To699(InviteClientTransaction inviteClientTransaction) {}
+    public void transportError(InviteClientTransaction inviteClientTransaction) {}
+    public void timerDFires(InviteClientTransaction inviteClientTransaction) {}
     
 }
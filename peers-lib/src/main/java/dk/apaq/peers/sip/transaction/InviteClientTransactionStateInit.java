@@ -21,13 +21,9 @@ package dk.apaq.peers.sip.transaction;
 
 public class InviteClientTransactionStateInit extends InviteClientTransactionState {
 
-    public InviteClientTransactionStateInit(String id, InviteClientTransaction inviteClientTransaction) {
-        super(id, inviteClientTransaction);
-    }
-
     @Override
-    public void start() {
-        InviteClientTransactionState nextState = inviteClientTransaction.CALLING;
+    public void start(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.CALLING;
         inviteClientTransaction.setState(nextState);
     }
     
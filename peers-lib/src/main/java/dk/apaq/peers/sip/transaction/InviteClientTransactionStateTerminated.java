@@ -22,9 +22,4 @@ package dk.apaq.peers.sip.transaction;
 public class InviteClientTransactionStateTerminated extends
         InviteClientTransactionState {
 
-    public InviteClientTransactionStateTerminated(String id,
-            InviteClientTransaction inviteClientTransaction) {
-        super(id, inviteClientTransaction);
-    }
-
 }
@@ -20,10 +20,10 @@
 package dk.apaq.peers.sip.transaction;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.transport.MessageSender;
 import dk.apaq.peers.sip.transport.SipMessage;
 import dk.apaq.peers.sip.transport.SipRequest;
 import dk.apaq.peers.sip.transport.SipResponse;
@@ -36,11 +36,16 @@ import org.slf4j.LoggerFactory;
 public class InviteServerTransaction extends InviteTransaction implements ServerTransaction, SipServerTransportUser {
 
     private static final Logger LOG = LoggerFactory.getLogger(InviteServerTransaction.class);
-    public final InviteServerTransactionState INIT;
-    public final InviteServerTransactionState PROCEEDING;
-    public final InviteServerTransactionState COMPLETED;
-    public final InviteServerTransactionState CONFIRMED;
-    public final InviteServerTransactionState TERMINATED;
+    public static final InviteServerTransactionState INIT =
+        new InviteServerTransactionStateInit();
+    public static final InviteServerTransactionState PROCEEDING =
+        new InviteServerTransactionStateProceeding();
+    public static final InviteServerTransactionState COMPLETED =
+        new InviteServerTransactionStateCompleted();
+    public static final InviteServerTransactionState CONFIRMED =
+        new InviteServerTransactionStateConfirmed();
+    public static final InviteServerTransactionState TERMINATED =
+        new InviteServerTransactionStateTerminated();
     
     protected String transport;
     protected int nbRetrans;
@@ -51,15 +56,9 @@ public class InviteServerTransaction extends InviteTransaction implements Server
     private int port;
     
     InviteServerTransaction(String branchId, int port, String transport, SipResponse sipResponse, ServerTransactionUser serverTransactionUser,
-            SipRequest sipRequest, Timer timer, TransactionManager transactionManager, TransportManager transportManager) {
+            SipRequest sipRequest, HashedWheelTimer timer, TransactionManager transactionManager, TransportManager transportManager) {
         super(branchId, timer, transportManager, transactionManager);
-        
-        INIT = new InviteServerTransactionStateInit(getId(), this);
         state = INIT;
-        PROCEEDING = new InviteServerTransactionStateProceeding(getId(), this);
-        COMPLETED = new InviteServerTransactionStateCompleted(getId(), this);
-        CONFIRMED = new InviteServerTransactionStateConfirmed(getId(), this);
-        TERMINATED = new InviteServerTransactionStateTerminated(getId(), this);
         
         this.request = sipRequest;
         this.port = port;
@@ -71,7 +70,16 @@ public class InviteServerTransaction extends InviteTransaction implements Server
     }
 
     public void start() {
-        state.start();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processStart();
+            }
+        });
+    }
+
+    private void processStart() {
+        state.start(this);
         
 //        sipServerTransport = SipTransportFactory.getInstance()
 //            .createServerTransport(this, port, transport);
@@ -82,19 +90,37 @@ public class InviteServerTransaction extends InviteTransaction implements Server
         }
     }
     
-    public void receivedRequest(SipRequest sipRequest) {
+    public void receivedRequest(final SipRequest sipRequest) {
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processRequest(sipRequest);
+            }
+        });
+    }
+
+    private void processRequest(SipRequest sipRequest) {
         String method = sipRequest.getMethod();
         if (RFC3261.METHOD_INVITE.equals(method)) {
-            state.receivedInvite();
+            state.receivedInvite(this);
         } else {
             // if not INVITE, we consider that a ACK is received
             // in the case the call was not successful
-            state.receivedAck();
+            state.receivedAck(this);
         }
         
     }
 
-    public void sendReponse(SipResponse sipResponse) {
+    public void sendReponse(final SipResponse sipResponse) {
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processResponse(sipResponse);
+            }
+        });
+    }
+
+    private void processResponse(SipResponse sipResponse) {
         //TODO check that a retransmission response will be considered as
         //equal (for contains) to the first response
         if (!responses.contains(sipResponse)) {
@@ -104,19 +130,33 @@ public class InviteServerTransaction extends InviteTransaction implements Server
         if (statusCode == RFC3261.CODE_MIN_PROV) {
             // TODO 100 trying
         } else if (statusCode < RFC3261.CODE_MIN_SUCCESS) {
-            state.received101To199();
+            state.received101To199(this);
         } else if (statusCode < RFC3261.CODE_MIN_REDIR) {
-            state.received2xx();
+            state.received2xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received300To699();
+            state.received300To699(this);
         } else {
             LOG.error("invalid response code");
         }
     }
 
     public void setState(InviteServerTransactionState state) {
-        this.state.log(state);
+        if (LOG.isDebugEnabled()) {
+            this.state.log(getId(), state);
+        }
         this.state = state;
+        if (state == TERMINATED) {
+            SipResponse sipResponse = getLastResponse();
+            if (sipResponse != null
+                    && sipResponse.getStatusCode() >= RFC3261.CODE_MIN_SUCCESS
+                    && sipResponse.getStatusCode() < RFC3261.CODE_MIN_REDIR) {
+                // RFC6026 7.1, INVITE retransmissions must not reach the
+                // transaction user as new requests
+                timer.schedule(new TimerL(), 64 * RFC3261.TIMER_T1);
+            } else {
+                transactionManager.removeServerTransaction(this);
+            }
+        }
     }
 
     public void messageReceived(SipMessage sipMessage) {
@@ -126,13 +166,18 @@ public class InviteServerTransaction extends InviteTransaction implements Server
     
     void sendLastResponse() {
         //sipServerTransport.sendResponse(responses.get(responses.size() - 1));
-        int nbOfResponses = responses.size();
-        if (nbOfResponses > 0) {
-            try {
-                transportManager.sendResponse(responses.get(nbOfResponses - 1));
-            } catch (IOException e) {
-                LOG.error("input/output error", e);
+        SipResponse sipResponse = getLastResponse();
+        if (sipResponse == null || resend(sipResponse)) {
+            return;
+        }
+        try {
+            MessageSender messageSender = transportManager.sendResponse(
+                    sipResponse, request.getConnection());
+            if (messageSender != null) {
+                sent(sipResponse, messageSender);
             }
+        } catch (IOException e) {
+            LOG.error("input/output error", e);
         }
     }
     
@@ -153,24 +198,32 @@ public class InviteServerTransaction extends InviteTransaction implements Server
 //        sipServerTransport.stop();
 //    }
     
-    class TimerG extends TimerTask {
+    class TimerG extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerGFires();
+        void expired() {
+            state.timerGFires(InviteServerTransaction.this);
         }
     }
     
-    class TimerH extends TimerTask {
+    class TimerH extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerHFiresOrTransportError();
+        void expired() {
+            state.timerHFiresOrTransportError(InviteServerTransaction.this);
         }
     }
     
-    class TimerI extends TimerTask {
+    class TimerI extends TransactionTimer {
+        @Override
+        void expired() {
+            state.timerIFires(InviteServerTransaction.this);
+        }
+    }
+
+    class TimerL extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerIFires();
+        void expired() {
+            transactionManager.removeServerTransaction(
+                    InviteServerTransaction.this);
         }
     }
     
@@ -23,22 +23,15 @@ import dk.apaq.peers.sip.AbstractState;
 
 public abstract class InviteServerTransactionState extends AbstractState {
 
-    protected InviteServerTransaction inviteServerTransaction;
-    
-    public InviteServerTransactionState(String id, InviteServerTransaction inviteServerTransaction) {
-        super(id);
-        this.inviteServerTransaction = inviteServerTransaction;
-    }
-
-    public void start() {}
-    public void receivedInvite() {}
-    public void received101To199() {}
-    public void transportError() {}
-    public void received2xx() {}
-    public void received300To699() {}
-    public void timerGFires() {}
-    public void timerHFiresOrTransportError() {}
-    public void receivedAck() {}
-    public void timerIFires() {}
+    public void start(InviteServerTransaction inviteServerTransaction) {}
+    public void receivedInvite(InviteServerTransaction inviteServerTransaction) {}
+    public void received101To199(InviteServerTransaction inviteServerTransaction) {}
+    public void transportError(InviteServerTransaction inviteServerTransaction) {}
+    public void received2xx(InviteServerTransaction inviteServerTransaction) {}
+    public void received300To699(InviteServerTransaction inviteServerTransaction) {}
+    public void timerGFires(InviteServerTransaction inviteServerTransaction) {}
+    public void timerHFiresOrTransportError(InviteServerTransaction inviteServerTransaction) {}
+    public void receivedAck(InviteServerTransaction inviteServerTransaction) {}
+    public void timerIFires(InviteServerTransaction inviteServerTransaction) {}
     
 }
@@ -19,24 +19,13 @@
 
 package dk.apaq.peers.sip.transaction;
 
-
 public class InviteServerTransactionStateConfirmed extends InviteServerTransactionState {
 
-    public InviteServerTransactionStateConfirmed(String id, InviteServerTransaction inviteServerTransaction) {
-        super(id, inviteServerTransaction);
-    }
-
     @Override
-    public void timerIFires() {
+    public void timerIFires(InviteServerTransaction inviteServerTransaction) {
         InviteServerTransactionState nextState =
-            inviteServerTransaction.TERMINATED;
+            InviteServerTransaction.TERMINATED;
         inviteServerTransaction.setState(nextState);
-        // TODO destroy invite server transaction immediately
-        // (dereference it in transaction manager serverTransactions hashtable)
-        
-        inviteServerTransaction.transactionManager.removeServerTransaction(
-                inviteServerTransaction.branchId,
-                inviteServerTransaction.method);
     }
     
 }
@@ -21,13 +21,9 @@ package dk.apaq.peers.sip.transaction;
 
 public class InviteServerTransactionStateInit extends InviteServerTransactionState {
 
-    public InviteServerTransactionStateInit(String id, InviteServerTransaction inviteServerTransaction) {
-        super(id, inviteServerTransaction);
-    }
-
     @Override
-    public void start() {
-        InviteServerTransactionState nextState = inviteServerTransaction.PROCEEDING;
+    public void start(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.PROCEEDING;
         inviteServerTransaction.setState(nextState);
     }
 }
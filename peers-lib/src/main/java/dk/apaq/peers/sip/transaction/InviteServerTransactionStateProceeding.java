@@ -24,34 +24,30 @@ import dk.apaq.peers.sip.RFC3261;
 public class InviteServerTransactionStateProceeding extends
         InviteServerTransactionState {
 
-    public InviteServerTransactionStateProceeding(String id, InviteServerTransaction inviteServerTransaction) {
-        super(id, inviteServerTransaction);
-    }
-
     @Override
-    public void received101To199() {
-        InviteServerTransactionState nextState = inviteServerTransaction.PROCEEDING;
+    public void received101To199(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.PROCEEDING;
         inviteServerTransaction.setState(nextState);
         //TODO inviteServerTransaction.sendProvisionalResponse();
         inviteServerTransaction.sendLastResponse();
     }
     
     @Override
-    public void transportError() {
-        InviteServerTransactionState nextState = inviteServerTransaction.TERMINATED;
+    public void transportError(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.TERMINATED;
         inviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void received2xx() {
-        InviteServerTransactionState nextState = inviteServerTransaction.TERMINATED;
+    public void received2xx(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.TERMINATED;
         inviteServerTransaction.setState(nextState);
         inviteServerTransaction.sendLastResponse();
     }
     
     @Override
-    public void received300To699() {
-        InviteServerTransactionState nextState = inviteServerTransaction.COMPLETED;
+    public void received300To699(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.COMPLETED;
         inviteServerTransaction.setState(nextState);
         inviteServerTransaction.sendLastResponse();
         if (RFC3261.TRANSPORT_UDP.equals(inviteServerTransaction.transport)) {
@@ -63,8 +59,8 @@ public class InviteServerTransactionStateProceeding extends
     }
     
     @Override
-    public void receivedInvite() {
-        InviteServerTransactionState nextState = inviteServerTransaction.PROCEEDING;
+    public void receivedInvite(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.PROCEEDING;
         inviteServerTransaction.setState(nextState);
     }
     
@@ -22,8 +22,4 @@ package dk.apaq.peers.sip.transaction;
 public class InviteServerTransactionStateTerminated extends
         InviteServerTransactionState {
 
-    public InviteServerTransactionStateTerminated(String id, InviteServerTransaction inviteServerTransaction) {
-        super(id, inviteServerTransaction);
-    }
-
 }
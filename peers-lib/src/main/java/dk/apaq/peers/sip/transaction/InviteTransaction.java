@@ -19,14 +19,13 @@
 
 package dk.apaq.peers.sip.transaction;
 
-import java.util.Timer;
-
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.transport.TransportManager;
 
 public abstract class InviteTransaction extends Transaction {
     
-    protected InviteTransaction(String branchId, Timer timer, TransportManager transportManager, TransactionManager transactionManager) {
+    protected InviteTransaction(String branchId, HashedWheelTimer timer, TransportManager transportManager, TransactionManager transactionManager) {
         super(branchId, RFC3261.METHOD_INVITE, timer, transportManager, transactionManager);
     }
 
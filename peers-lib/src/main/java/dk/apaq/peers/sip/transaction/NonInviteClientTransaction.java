@@ -21,10 +21,10 @@ package dk.apaq.peers.sip.transaction;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.Timer;
-import java.util.TimerTask;
 
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Timeout;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
@@ -40,11 +40,16 @@ import org.slf4j.LoggerFactory;
 public class NonInviteClientTransaction extends NonInviteTransaction implements ClientTransaction, SipClientTransportUser {
 
     private static final Logger LOG = LoggerFactory.getLogger(NonInviteClientTransaction.class);
-    public final NonInviteClientTransactionState INIT;
-    public final NonInviteClientTransactionState TRYING;
-    public final NonInviteClientTransactionState PROCEEDING;
-    public final NonInviteClientTransactionState COMPLETED;
-    public final NonInviteClientTransactionState TERMINATED;
+    public static final NonInviteClientTransactionState INIT =
+        new NonInviteClientTransactionStateInit();
+    public static final NonInviteClientTransactionState TRYING =
+        new NonInviteClientTransactionStateTrying();
+    public static final NonInviteClientTransactionState PROCEEDING =
+        new NonInviteClientTransactionStateProceeding();
+    public static final NonInviteClientTransactionState COMPLETED =
+        new NonInviteClientTransactionStateCompleted();
+    public static final NonInviteClientTransactionState TERMINATED =
+        new NonInviteClientTransactionStateTerminated();
     
     protected ClientTransactionUser transactionUser;
     protected String transport;
@@ -55,25 +60,22 @@ public class NonInviteClientTransaction extends NonInviteTransaction implements
     private MessageSender messageSender;
     private int remotePort;
     private InetAddress remoteInetAddress;
+    // cancelled on termination so that the timer does not hold them
+    private Timeout timerE;
+    private Timeout timerF;
     
     NonInviteClientTransaction(String branchId, InetAddress inetAddress, int port, String transport, SipRequest sipRequest, 
-            ClientTransactionUser transactionUser, Timer timer, TransportManager transportManager, TransactionManager transactionManager) {
+            ClientTransactionUser transactionUser, HashedWheelTimer timer, TransportManager transportManager, TransactionManager transactionManager) {
         super(branchId, sipRequest.getMethod(), timer, transportManager, transactionManager);
         
         this.transport = transport;
         
         SipHeaderFieldValue via = new SipHeaderFieldValue("");
         via.addParam(new SipHeaderParamName(RFC3261.PARAM_BRANCH), branchId);
-        sipRequest.getSipHeaders().add(new SipHeaderFieldName(RFC3261.HDR_VIA), via, 0);
+        sipRequest.getSipHeaders().add(SipHeaderFieldName.VIA, via, 0);
         
         nbRetrans = 0;
-        
-        INIT = new NonInviteClientTransactionStateInit(getId(), this);
         state = INIT;
-        TRYING = new NonInviteClientTransactionStateTrying(getId(), this);
-        PROCEEDING = new NonInviteClientTransactionStateProceeding(getId(), this);
-        COMPLETED = new NonInviteClientTransactionStateCompleted(getId(), this);
-        TERMINATED = new NonInviteClientTransactionStateTerminated(getId(),  this);
         
         request = sipRequest;
         this.transactionUser = transactionUser;
@@ -84,6 +86,8 @@ public class NonInviteClientTransaction extends NonInviteTransaction implements
         try {
             messageSender = transportManager.createClientTransport(
                     request, remoteInetAddress, remotePort, transport);
+            // large requests are switched to a reliable transport
+            this.transport = messageSender.getTransportName();
         } catch (IOException e) {
             LOG.error("input/output error", e);
             transportError();
@@ -92,12 +96,39 @@ public class NonInviteClientTransaction extends NonInviteTransaction implements
     }
     
     public void setState(NonInviteClientTransactionState state) {
-        this.state.log(state);
+        NonInviteClientTransactionState previous = this.state;
+        if (LOG.isDebugEnabled()) {
+            previous.log(getId(), state);
+        }
         this.state = state;
+        if (state == COMPLETED && previous != COMPLETED) {
+            int delay = 0;
+            if (RFC3261.TRANSPORT_UDP.equals(transport)) {
+                delay = RFC3261.TIMER_T4;
+            }
+            timer.schedule(new TimerK(), delay);
+        } else if (state == TERMINATED) {
+            if (timerE != null) {
+                timerE.cancel();
+            }
+            if (timerF != null) {
+                timerF.cancel();
+            }
+            transactionManager.removeClientTransaction(this);
+        }
     }
 
     public void start() {
-        state.start();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processStart();
+            }
+        });
+    }
+
+    private void processStart() {
+        state.start(this);
         
         //17.1.2.2
         
@@ -112,6 +143,7 @@ public class NonInviteClientTransaction extends NonInviteTransaction implements
 //        }
         try {
             messageSender.sendMessage(request);
+            sent(request, messageSender);
         } catch (IOException e) {
             LOG.error("input/output error", e);
             transportError();
@@ -119,37 +151,57 @@ public class NonInviteClientTransaction extends NonInviteTransaction implements
         
         if (RFC3261.TRANSPORT_UDP.equals(transport)) {
             //start timer E with value T1 for retransmission
-            timer.schedule(new TimerE(), RFC3261.TIMER_T1);
+            timerE = timer.schedule(new TimerE(), RFC3261.TIMER_T1);
         }
     
-        timer.schedule(new TimerF(), 64 * RFC3261.TIMER_T1);
+        timerF = timer.schedule(new TimerF(), 64 * RFC3261.TIMER_T1);
     }
     
     void sendRetrans(long delay) {
         //sipClientTransport.send(request);
-        try {
-            messageSender.sendMessage(request);
-        } catch (IOException e) {
-            LOG.error("input/output error", e);
-            transportError();
+        if (!resend(request)) {
+            try {
+                messageSender.sendMessage(request);
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+                transportError();
+            }
         }
-        timer.schedule(new TimerE(), delay);
+        timerE = timer.schedule(new TimerE(), delay);
     }
     
     public void transportError() {
-        state.transportError();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processTransportError();
+            }
+        });
+    }
+
+    private void processTransportError() {
+        state.transportError(this);
     }
     
-    public synchronized void receivedResponse(SipResponse sipResponse) {
+    public void receivedResponse(final SipResponse sipResponse) {
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processResponse(sipResponse);
+            }
+        });
+    }
+
+    private void processResponse(SipResponse sipResponse) {
         responses.add(sipResponse);
         // 17.1.1
         int statusCode = sipResponse.getStatusCode();
         if (statusCode < RFC3261.CODE_MIN_PROV) {
             LOG.error("invalid response code");
         } else if (statusCode < RFC3261.CODE_MIN_SUCCESS) {
-            state.received1xx();
+            state.received1xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received200To699();
+            state.received200To699(this);
         } else {
             LOG.error("invalid response code");
         }
@@ -165,24 +217,24 @@ public class NonInviteClientTransaction extends NonInviteTransaction implements
         
     }
     
-    class TimerE extends TimerTask {
+    class TimerE extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerEFires();
+        void expired() {
+            state.timerEFires(NonInviteClientTransaction.this);
         }
     }
     
-    class TimerF extends TimerTask {
+    class TimerF extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerFFires();
+        void expired() {
+            state.timerFFires(NonInviteClientTransaction.this);
         }
     }
     
-    class TimerK extends TimerTask {
+    class TimerK extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerKFires();
+        void expired() {
+            state.timerKFires(NonInviteClientTransaction.this);
         }
     }
 
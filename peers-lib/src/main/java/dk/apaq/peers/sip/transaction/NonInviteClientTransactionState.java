@@ -23,19 +23,13 @@ import dk.apaq.peers.sip.AbstractState;
 
 public abstract class NonInviteClientTransactionState extends AbstractState {
 
-    protected NonInviteClientTransaction nonInviteClientTransaction;
     
-    public NonInviteClientTransactionState(String id, NonInviteClientTransaction nonInviteClientTransaction) {
-        super(id);
-        this.nonInviteClientTransaction = nonInviteClientTransaction;
-    }
-    
-    public void start() {}
-    public void timerEFires() {}
-    public void timerFFires() {}
-    public void transportError() {}
-    public void received1xx() {}
-    public void received200To699() {}
-    public void timerKFires() {}
+    public void start(NonInviteClientTransaction nonInviteClientTransaction) {}
+    public void timerEFires(NonInviteClientTransaction nonInviteClientTransaction) {}
+    public void timerFFires(NonInviteClientTransaction nonInviteClientTransaction) {}
+    public void transportError(NonInviteClientTransaction nonInviteClientTransaction) {}
+    public void received1xx(NonInviteClientTransaction nonInviteClientTransaction) {}
+    public void received200To699(NonInviteClientTransaction nonInviteClientTransaction) {}
+    public void timerKFires(NonInviteClientTransaction nonInviteClientTransaction) {}
     
 }
@@ -19,25 +19,12 @@
 
 package dk.apaq.peers.sip.transaction;
 
-import dk.apaq.peers.sip.RFC3261;
-
 public class NonInviteClientTransactionStateCompleted extends NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateCompleted(String id, NonInviteClientTransaction nonInviteClientTransaction ) {
-        super(id, nonInviteClientTransaction);
-        int delay = 0;
-        if (RFC3261.TRANSPORT_UDP.equals(
-                nonInviteClientTransaction.transport)) {
-            delay = RFC3261.TIMER_T4;
-        }
-        nonInviteClientTransaction.timer.schedule(
-                nonInviteClientTransaction.new TimerK(), delay);
-    }
-
     @Override
-    public void timerKFires() {
+    public void timerKFires(NonInviteClientTransaction nonInviteClientTransaction) {
         NonInviteClientTransactionState nextState =
-            nonInviteClientTransaction.TERMINATED;
+            NonInviteClientTransaction.TERMINATED;
         nonInviteClientTransaction.setState(nextState);
     }
     
@@ -21,13 +21,9 @@ package dk.apaq.peers.sip.transaction;
 
 public class NonInviteClientTransactionStateInit extends NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateInit(String id, NonInviteClientTransaction nonInviteClientTransaction) {
-        super(id, nonInviteClientTransaction);
-    }
-
     @Override
-    public void start() {
-        NonInviteClientTransactionState nextState = nonInviteClientTransaction.TRYING;
+    public void start(NonInviteClientTransaction nonInviteClientTransaction) {
+        NonInviteClientTransactionState nextState = NonInviteClientTransaction.TRYING;
         nonInviteClientTransaction.setState(nextState);
     }
 }
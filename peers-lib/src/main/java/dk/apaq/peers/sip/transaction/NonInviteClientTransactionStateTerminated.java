@@ -21,8 +21,4 @@ package dk.apaq.peers.sip.transaction;
 
 public class NonInviteClientTransactionStateTerminated extends NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateTerminated(String id, NonInviteClientTransaction nonInviteClientTransaction) {
-        super(id, nonInviteClientTransaction);
-    }
-
 }
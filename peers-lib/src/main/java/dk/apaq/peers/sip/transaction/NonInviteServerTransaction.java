@@ -20,10 +20,10 @@
 package dk.apaq.peers.sip.transaction;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.transport.MessageSender;
 import dk.apaq.peers.sip.transport.SipRequest;
 import dk.apaq.peers.sip.transport.SipResponse;
 import dk.apaq.peers.sip.transport.TransportManager;
@@ -34,27 +34,25 @@ import org.slf4j.LoggerFactory;
 public class NonInviteServerTransaction extends NonInviteTransaction implements ServerTransaction/*, SipServerTransportUser*/ {
 
     private static final Logger LOG = LoggerFactory.getLogger(NonInviteServerTransaction.class);
-    public final NonInviteServerTransactionState TRYING;
-    public final NonInviteServerTransactionState PROCEEDING;
-    public final NonInviteServerTransactionState COMPLETED;
-    public final NonInviteServerTransactionState TERMINATED;
+    public static final NonInviteServerTransactionState TRYING =
+        new NonInviteServerTransactionStateTrying();
+    public static final NonInviteServerTransactionState PROCEEDING =
+        new NonInviteServerTransactionStateProceeding();
+    public static final NonInviteServerTransactionState COMPLETED =
+        new NonInviteServerTransactionStateCompleted();
+    public static final NonInviteServerTransactionState TERMINATED =
+        new NonInviteServerTransactionStateTerminated();
     
     protected ServerTransactionUser serverTransactionUser;
-    protected Timer timer;
     protected String transport;
     
     private NonInviteServerTransactionState state;
     //private int port;
     
     NonInviteServerTransaction(String branchId, int port, String transport, String method, ServerTransactionUser serverTransactionUser,
-            SipRequest sipRequest, Timer timer, TransportManager transportManager, TransactionManager transactionManager) {
+            SipRequest sipRequest, HashedWheelTimer timer, TransportManager transportManager, TransactionManager transactionManager) {
         super(branchId, method, timer, transportManager, transactionManager);
-        
-        TRYING = new NonInviteServerTransactionStateTrying(getId(), this);
         state = TRYING;
-        PROCEEDING = new NonInviteServerTransactionStateProceeding(getId(), this);
-        COMPLETED = new NonInviteServerTransactionStateCompleted(getId(), this);
-        TERMINATED = new NonInviteServerTransactionStateTerminated(getId(), this);
         
         //this.port = port;
         this.transport = transport;
@@ -72,33 +70,61 @@ public class NonInviteServerTransaction extends NonInviteTransaction implements
     }
 
     public void setState(NonInviteServerTransactionState state) {
-        this.state.log(state);
+        if (LOG.isDebugEnabled()) {
+            this.state.log(getId(), state);
+        }
         this.state = state;
+        if (state == TERMINATED) {
+            transactionManager.removeServerTransaction(this);
+        }
     }
     
-    public void receivedRequest(SipRequest sipRequest) {
-        state.receivedRequest();
+    public void receivedRequest(final SipRequest sipRequest) {
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processRequest(sipRequest);
+            }
+        });
     }
 
-    public void sendReponse(SipResponse sipResponse) {
+    private void processRequest(SipRequest sipRequest) {
+        state.receivedRequest(this);
+    }
+
+    public void sendReponse(final SipResponse sipResponse) {
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                processResponse(sipResponse);
+            }
+        });
+    }
+
+    private void processResponse(SipResponse sipResponse) {
         responses.add(sipResponse);
         int statusCode = sipResponse.getStatusCode();
         if (statusCode < RFC3261.CODE_200_OK) {
-            state.received1xx();
+            state.received1xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received200To699();
+            state.received200To699(this);
         }
     }
     
     void sendLastResponse() {
         //sipServerTransport.sendResponse(responses.get(responses.size() - 1));
-        int nbOfResponses = responses.size();
-        if (nbOfResponses > 0) {
-            try {
-                transportManager.sendResponse(responses.get(nbOfResponses - 1));
-            } catch (IOException e) {
-                LOG.error("input/output error", e);
+        SipResponse sipResponse = getLastResponse();
+        if (sipResponse == null || resend(sipResponse)) {
+            return;
+        }
+        try {
+            MessageSender messageSender = transportManager.sendResponse(
+                    sipResponse, request.getConnection());
+            if (messageSender != null) {
+                sent(sipResponse, messageSender);
             }
+        } catch (IOException e) {
+            LOG.error("input/output error", e);
         }
     }
     
@@ -112,10 +138,10 @@ public class NonInviteServerTransaction extends NonInviteTransaction implements
 //        
 //    }
 
-    class TimerJ extends TimerTask {
+    class TimerJ extends TransactionTimer {
         @Override
-        public void run() {
-            state.timerJFires();
+        void expired() {
+            state.timerJFires(NonInviteServerTransaction.this);
         }
     }
     
@@ -24,17 +24,10 @@ import dk.apaq.peers.sip.AbstractState;
 //17.2.2
 public abstract class NonInviteServerTransactionState extends AbstractState {
 
-    protected NonInviteServerTransaction nonInviteServerTransaction;
-    
-    public NonInviteServerTransactionState(String id, NonInviteServerTransaction nonInviteServerTransaction) {
-        super(id);
-        this.nonInviteServerTransaction = nonInviteServerTransaction;
-    }
-
-    public void received200To699() {}
-    public void received1xx() {}
-    public void receivedRequest() {}
-    public void transportError() {}
-    public void timerJFires() {}
+    public void received200To699(NonInviteServerTransaction nonInviteServerTransaction) {}
+    public void received1xx(NonInviteServerTransaction nonInviteServerTransaction) {}
+    public void receivedRequest(NonInviteServerTransaction nonInviteServerTransaction) {}
+    public void transportError(NonInviteServerTransaction nonInviteServerTransaction) {}
+    public void timerJFires(NonInviteServerTransaction nonInviteServerTransaction) {}
 }
 
@@ -21,25 +21,21 @@ package dk.apaq.peers.sip.transaction;
 
 public class NonInviteServerTransactionStateCompleted extends NonInviteServerTransactionState {
 
-    public NonInviteServerTransactionStateCompleted(String id, NonInviteServerTransaction nonInviteServerTransaction) {
-        super(id, nonInviteServerTransaction);
-    }
-
     @Override
-    public void timerJFires() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.TERMINATED;
+    public void timerJFires(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.TERMINATED;
         nonInviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void transportError() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.TERMINATED;
+    public void transportError(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.TERMINATED;
         nonInviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void receivedRequest() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.COMPLETED;
+    public void receivedRequest(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.COMPLETED;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
     }
@@ -23,20 +23,16 @@ import dk.apaq.peers.sip.RFC3261;
 
 public class NonInviteServerTransactionStateProceeding extends NonInviteServerTransactionState {
 
-    public NonInviteServerTransactionStateProceeding(String id, NonInviteServerTransaction nonInviteServerTransaction) {
-        super(id, nonInviteServerTransaction);
-    }
-
     @Override
-    public void received1xx() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.PROCEEDING;
+    public void received1xx(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.PROCEEDING;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
     }
     
     @Override
-    public void received200To699() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.COMPLETED;
+    public void received200To699(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.COMPLETED;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
         int timeout;
@@ -49,14 +45,14 @@ public class NonInviteServerTransactionStateProceeding extends NonInviteServerTr
     }
     
     @Override
-    public void transportError() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.TERMINATED;
+    public void transportError(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.TERMINATED;
         nonInviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void receivedRequest() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.PROCEEDING;
+    public void receivedRequest(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.PROCEEDING;
         nonInviteServerTransaction.setState(nextState);
     }
     
@@ -22,8 +22,4 @@ package dk.apaq.peers.sip.transaction;
 public class NonInviteServerTransactionStateTerminated extends
         NonInviteServerTransactionState {
 
-    public NonInviteServerTransactionStateTerminated(String id, NonInviteServerTransaction nonInviteServerTransaction) {
-        super(id, nonInviteServerTransaction);
-    }
-
 }
@@ -19,23 +19,29 @@
 
 package dk.apaq.peers.sip.transaction;
 
-public class NonInviteServerTransactionStateTrying extends NonInviteServerTransactionState {
+import dk.apaq.peers.sip.RFC3261;
 
-    public NonInviteServerTransactionStateTrying(String id, NonInviteServerTransaction nonInviteServerTransaction) {
-        super(id, nonInviteServerTransaction);
-    }
+public class NonInviteServerTransactionStateTrying extends NonInviteServerTransactionState {
 
     @Override
-    public void received1xx() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.PROCEEDING;
+    public void received1xx(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.PROCEEDING;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
     }
     
     @Override
-    public void received200To699() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.COMPLETED;
+    public void received200To699(NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.COMPLETED;
         nonInviteServerTransaction.setState(nextState);
+        nonInviteServerTransaction.sendLastResponse();
+        int timeout;
+        if (RFC3261.TRANSPORT_UDP.equals(nonInviteServerTransaction.transport)) {
+            timeout = 64 * RFC3261.TIMER_T1;
+        } else {
+            timeout = 0;
+        }
+        nonInviteServerTransaction.timer.schedule(nonInviteServerTransaction.new TimerJ(), timeout);
     }
     
 }
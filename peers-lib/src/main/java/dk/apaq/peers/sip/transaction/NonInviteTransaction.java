@@ -19,13 +19,12 @@
 
 package dk.apaq.peers.sip.transaction;
 
-import java.util.Timer;
-
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.transport.TransportManager;
 
 public abstract class NonInviteTransaction extends Transaction {
 
-    protected NonInviteTransaction(String branchId, String method, Timer timer, TransportManager transportManager, 
+    protected NonInviteTransaction(String branchId, String method, HashedWheelTimer timer, TransportManager transportManager, 
             TransactionManager transactionManager) {
         super(branchId, method, timer, transportManager, transactionManager);
     }
@@ -19,11 +19,15 @@
 
 package dk.apaq.peers.sip.transaction;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
 
+import dk.apaq.peers.sip.HashedWheelTimer;
+import dk.apaq.peers.sip.SerialExecutor;
+import dk.apaq.peers.sip.transport.MessageSender;
+import dk.apaq.peers.sip.transport.SipMessage;
 import dk.apaq.peers.sip.transport.SipRequest;
 import dk.apaq.peers.sip.transport.SipResponse;
 import dk.apaq.peers.sip.transport.TransportManager;
@@ -39,17 +43,23 @@ public abstract class Transaction {
     protected SipRequest request;
     protected List<SipResponse> responses;
     
-    protected Timer timer;
+    protected HashedWheelTimer timer;
     protected TransportManager transportManager;
     protected TransactionManager transactionManager;
+    // received messages, timers and transaction user actions are queued
+    // here, so that state changes are never concurrent
+    protected SerialExecutor serialExecutor;
 
-    protected Transaction(String branchId, String method, Timer timer, TransportManager transportManager, 
+    private volatile SentMessage lastSent;
+
+    protected Transaction(String branchId, String method, HashedWheelTimer timer, TransportManager transportManager, 
             TransactionManager transactionManager) {
         this.branchId = branchId;
         this.method = method;
         this.timer = timer;
         this.transportManager = transportManager;
         this.transactionManager = transactionManager;
+        serialExecutor = new SerialExecutor(transactionManager.getExecutor());
         responses = Collections.synchronizedList(new ArrayList<SipResponse>());
     }
 
@@ -70,5 +80,70 @@ public abstract class Transaction {
     public SipRequest getRequest() {
         return request;
     }
+
+    /**
+     * Keeps bytes and sender of a message that has just been sent, so that
+     * it can be retransmitted as is.
+     */
+    protected void sent(SipMessage sipMessage, MessageSender messageSender) {
+        lastSent = new SentMessage(sipMessage, sipMessage.getBytes(),
+                messageSender);
+    }
+
+    /**
+     * Retransmits the message last sent, with the same bytes, to the same
+     * destination.
+     * 
+     * @return false if sipMessage is not the message last sent or if it
+     *         could not be sent again: it must then be sent normally.
+     */
+    protected boolean resend(SipMessage sipMessage) {
+        SentMessage lastSent = this.lastSent;
+        if (lastSent == null || lastSent.sipMessage != sipMessage) {
+            return false;
+        }
+        try {
+            lastSent.messageSender.resend(lastSent.bytes);
+        } catch (IOException e) {
+            // connection closed, for instance
+            this.lastSent = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Timer whose expiration is processed like any other transaction event.
+     */
+    abstract class TransactionTimer implements Runnable {
+
+        @Override
+        public final void run() {
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    expired();
+                }
+            });
+        }
+
+        abstract void expired();
+
+    }
+
+    static class SentMessage {
+
+        private SipMessage sipMessage;
+        private byte[] bytes;
+        private MessageSender messageSender;
+
+        SentMessage(SipMessage sipMessage, byte[] bytes,
+                MessageSender messageSender) {
+            this.sipMessage = sipMessage;
+            this.bytes = bytes;
+            this.messageSender = messageSender;
+        }
+
+    }
     
 }
@@ -21,15 +21,15 @@ package dk.apaq.peers.sip.transaction;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
+import java.util.concurrent.Executor;
 
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.Utils;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.transport.SipMessage;
 import dk.apaq.peers.sip.transport.SipRequest;
 import dk.apaq.peers.sip.transport.SipResponse;
@@ -38,20 +38,38 @@ import dk.apaq.peers.sip.transport.TransportManager;
 
 public class TransactionManager {
 
-    protected Timer timer;
+    protected HashedWheelTimer timer;
+    // runs transaction events, null to run them on the calling thread
+    private Executor executor;
 
-    // TODO remove client transactions when they reach terminated state
-    // TODO check that server transactions are removed in all transitions to terminated
-    private Hashtable<String, ClientTransaction> clientTransactions;
-    private Hashtable<String, ServerTransaction> serverTransactions;
+    // transactions are removed when they reach terminated state
+    private TransactionTable<ClientTransaction> clientTransactions;
+    private TransactionTable<ServerTransaction> serverTransactions;
+    // client transactions by Call-ID, guarded by itself
+    private HashMap<String, List<ClientTransaction>> clientTransactionsByCallId;
 
     private TransportManager transportManager;
     
     public TransactionManager() {
-        clientTransactions = new Hashtable<String, ClientTransaction>();
-        serverTransactions = new Hashtable<String, ServerTransaction>();
-        timer = new Timer(TransactionManager.class.getSimpleName()
-                + " " + Timer.class.getSimpleName());
+        this(HashedWheelTimer.getDefault());
+    }
+
+    public TransactionManager(HashedWheelTimer timer) {
+        this(timer, null);
+    }
+
+    /**
+     * @param executor shared by all transactions to process their events,
+     *                 one at a time for a given transaction. If null,
+     *                 events are processed on the thread raising them.
+     */
+    public TransactionManager(HashedWheelTimer timer, Executor executor) {
+        this.executor = executor;
+        clientTransactions = new TransactionTable<ClientTransaction>();
+        serverTransactions = new TransactionTable<ServerTransaction>();
+        clientTransactionsByCallId =
+            new HashMap<String, List<ClientTransaction>>();
+        this.timer = timer;
     }
     
     public ClientTransaction createClientTransaction(SipRequest sipRequest,
@@ -73,8 +91,19 @@ public class TransactionManager {
             clientTransaction = new NonInviteClientTransaction(branchId, inetAddress, port, transport, sipRequest, clientTransactionUser,
                     timer, transportManager, this);
         }
-        clientTransactions.put(getTransactionId(branchId, method),
-                clientTransaction);
+        clientTransactions.put(branchId, method, clientTransaction);
+        String callId = getCallId(sipRequest);
+        if (callId != null) {
+            synchronized (clientTransactionsByCallId) {
+                List<ClientTransaction> list =
+                    clientTransactionsByCallId.get(callId);
+                if (list == null) {
+                    list = new ArrayList<ClientTransaction>(2);
+                    clientTransactionsByCallId.put(callId, list);
+                }
+                list.add(clientTransaction);
+            }
+        }
         return clientTransaction;
     }
 
@@ -82,12 +111,8 @@ public class TransactionManager {
             int port, String transport,
             ServerTransactionUser serverTransactionUser,
             SipRequest sipRequest) {
-        SipHeaderFieldValue via = Utils.getTopVia(sipResponse);
-        String branchId = via.getParam(new SipHeaderParamName(
-                RFC3261.PARAM_BRANCH));
-        String cseq = sipResponse.getSipHeaders().get(
-                new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-        String method = cseq.substring(cseq.lastIndexOf(' ') + 1);
+        String branchId = sipResponse.getTopVia().getBranch();
+        String method = sipResponse.getCSeq().getMethod();
         ServerTransaction serverTransaction;
         // TODO create server transport user and pass it to server transaction
         if (RFC3261.METHOD_INVITE.equals(method)) {
@@ -98,41 +123,40 @@ public class TransactionManager {
             serverTransaction = new NonInviteServerTransaction(branchId, port, transport, method, serverTransactionUser, sipRequest, timer,
                     transportManager, this);
         }
-        serverTransactions.put(getTransactionId(branchId, method), serverTransaction);
+        serverTransactions.put(branchId, method, serverTransaction);
         return serverTransaction;
     }
 
     public ClientTransaction getClientTransaction(SipMessage sipMessage) {
-        SipHeaderFieldValue via = Utils.getTopVia(sipMessage);
-        String branchId = via.getParam(new SipHeaderParamName(RFC3261.PARAM_BRANCH));
-        String cseq = sipMessage.getSipHeaders().get(new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-        String method = cseq.substring(cseq.lastIndexOf(' ') + 1);
-        return clientTransactions.get(getTransactionId(branchId, method));
+        String branchId = sipMessage.getTopVia().getBranch();
+        String method = sipMessage.getCSeq().getMethod();
+        return clientTransactions.get(branchId, method);
     }
 
     public List<ClientTransaction> getClientTransactionsFromCallId(String callId, String method) {
         ArrayList<ClientTransaction> clientTransactionsFromCallId = new ArrayList<ClientTransaction>();
-        for (ClientTransaction clientTransaction: clientTransactions.values()) {
-            Transaction transaction = (Transaction)clientTransaction;
-            SipRequest sipRequest = transaction.getRequest();
-            String reqCallId = Utils.getMessageCallId(sipRequest);
-            String reqMethod = sipRequest.getMethod();
-            if (callId.equals(reqCallId) && method.equals(reqMethod)) {
-                clientTransactionsFromCallId.add(clientTransaction);
+        synchronized (clientTransactionsByCallId) {
+            List<ClientTransaction> list = clientTransactionsByCallId.get(callId);
+            if (list == null) {
+                return clientTransactionsFromCallId;
+            }
+            for (ClientTransaction clientTransaction: list) {
+                Transaction transaction = (Transaction)clientTransaction;
+                if (method.equals(transaction.getRequest().getMethod())) {
+                    clientTransactionsFromCallId.add(clientTransaction);
+                }
             }
         }
         return clientTransactionsFromCallId;
     }
 
     public ServerTransaction getServerTransaction(SipMessage sipMessage) {
-        SipHeaderFieldValue via = Utils.getTopVia(sipMessage);
-        String branchId = via.getParam(new SipHeaderParamName(RFC3261.PARAM_BRANCH));
+        String branchId = sipMessage.getTopVia().getBranch();
         String method;
         if (sipMessage instanceof SipRequest) {
             method = ((SipRequest)sipMessage).getMethod();
         } else {
-            String cseq = sipMessage.getSipHeaders().get(new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-            method = cseq.substring(cseq.lastIndexOf(' ') + 1);
+            method = sipMessage.getCSeq().getMethod();
         }
         if (RFC3261.METHOD_ACK.equals(method)) {
             method = RFC3261.METHOD_INVITE;
@@ -167,31 +191,64 @@ public class TransactionManager {
             // if it is the case, a new standalone transaction must be created
             // for the ACK
         }
-        return serverTransactions.get(getTransactionId(branchId, method));
+        return serverTransactions.get(branchId, method);
     }
 
     public ServerTransaction getServerTransaction(String branchId, String method) {
-        return serverTransactions.get(getTransactionId(branchId, method));
+        return serverTransactions.get(branchId, method);
     }
     
-    void removeServerTransaction(String branchId, String method) {
-        serverTransactions.remove(getTransactionId(branchId, method));
+    void removeServerTransaction(Transaction transaction) {
+        serverTransactions.remove(transaction.branchId, transaction.method,
+                (ServerTransaction)transaction);
     }
     
-    void removeClientTransaction(String branchId, String method) {
-        clientTransactions.remove(getTransactionId(branchId, method));
+    void removeClientTransaction(Transaction transaction) {
+        clientTransactions.remove(transaction.branchId, transaction.method,
+                (ClientTransaction)transaction);
+        String callId = getCallId(transaction.getRequest());
+        if (callId == null) {
+            return;
+        }
+        synchronized (clientTransactionsByCallId) {
+            List<ClientTransaction> list =
+                clientTransactionsByCallId.get(callId);
+            if (list != null && list.remove(transaction) && list.isEmpty()) {
+                clientTransactionsByCallId.remove(callId);
+            }
+        }
+    }
+
+    private String getCallId(SipMessage sipMessage) {
+        SipHeaderFieldValue callId = sipMessage.getSipHeaders().get(
+                SipHeaderFieldName.CALLID);
+        return callId == null ? null : callId.getValue();
+    }
+
+    /**
+     * @return number of client transactions not yet terminated
+     */
+    public int getClientTransactionCount() {
+        return clientTransactions.size();
     }
 
-    private String getTransactionId(String branchId, String method) {
-        StringBuffer buf = new StringBuffer();
-        buf.append(branchId);
-        buf.append(Transaction.ID_SEPARATOR);
-        buf.append(method);
-        return buf.toString();
+    /**
+     * @return number of server transactions not yet terminated
+     */
+    public int getServerTransactionCount() {
+        return serverTransactions.size();
     }
 
     public void setTransportManager(TransportManager transportManager) {
         this.transportManager = transportManager;
     }
 
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
 }
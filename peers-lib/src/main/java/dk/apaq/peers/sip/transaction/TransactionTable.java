@@ -0,0 +1,110 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Transactions indexed by method, then by branch id. Both keys are strings
+ * already held by messages, so that lookups neither build nor allocate a
+ * composite key. Methods are taken from the network, so a method table is
+ * dropped as soon as it is empty to keep the first level small.
+ */
+class TransactionTable<T> {
+
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, T>> tables;
+    private AtomicInteger size;
+
+    TransactionTable() {
+        tables = new ConcurrentHashMap<String, ConcurrentHashMap<String, T>>();
+        size = new AtomicInteger();
+    }
+
+    T get(String branchId, String method) {
+        if (branchId == null || method == null) {
+            return null;
+        }
+        ConcurrentHashMap<String, T> table = tables.get(method);
+        if (table == null) {
+            return null;
+        }
+        return table.get(branchId);
+    }
+
+    void put(final String branchId, String method, final T transaction) {
+        if (branchId == null || method == null) {
+            // RFC2543 requests without branch cannot be matched
+            return;
+        }
+        // atomic with remove, which may drop the method table meanwhile
+        tables.compute(method, new BiFunction<String,
+                ConcurrentHashMap<String, T>, ConcurrentHashMap<String, T>>() {
+            @Override
+            public ConcurrentHashMap<String, T> apply(String method,
+                    ConcurrentHashMap<String, T> table) {
+                if (table == null) {
+                    table = new ConcurrentHashMap<String, T>();
+                }
+                if (table.put(branchId, transaction) == null) {
+                    size.incrementAndGet();
+                }
+                return table;
+            }
+        });
+    }
+
+    /**
+     * Removes transaction only if it is still the one stored for branchId
+     * and method.
+     */
+    void remove(final String branchId, String method, final T transaction) {
+        if (branchId == null || method == null) {
+            return;
+        }
+        tables.computeIfPresent(method, new BiFunction<String,
+                ConcurrentHashMap<String, T>, ConcurrentHashMap<String, T>>() {
+            @Override
+            public ConcurrentHashMap<String, T> apply(String method,
+                    ConcurrentHashMap<String, T> table) {
+                if (table.remove(branchId, transaction)) {
+                    size.decrementAndGet();
+                }
+                return table.isEmpty() ? null : table;
+            }
+        });
+    }
+
+    List<T> values() {
+        List<T> values = new ArrayList<T>();
+        for (ConcurrentHashMap<String, T> table: tables.values()) {
+            values.addAll(table.values());
+        }
+        return values;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+}
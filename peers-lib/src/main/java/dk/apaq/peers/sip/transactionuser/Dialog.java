@@ -42,10 +42,10 @@ public class Dialog {
     public static final char ID_SEPARATOR = '|';
     public static final int EMPTY_CSEQ = -1;
     
-    public final DialogState INIT;
-    public final DialogState EARLY;
-    public final DialogState CONFIRMED;
-    public final DialogState TERMINATED;
+    public static final DialogState INIT = new DialogStateInit();
+    public static final DialogState EARLY = new DialogStateEarly();
+    public static final DialogState CONFIRMED = new DialogStateConfirmed();
+    public static final DialogState TERMINATED = new DialogStateTerminated();
 
     private DialogState state;
     
@@ -66,35 +66,32 @@ public class Dialog {
         this.callId = callId;
         this.localTag = localTag;
         this.remoteTag = remoteTag;
-        
-        INIT = new DialogStateInit(getId(), this);
         state = INIT;
-        EARLY = new DialogStateEarly(getId(), this);
-        CONFIRMED = new DialogStateConfirmed(getId(), this);
-        TERMINATED = new DialogStateTerminated(getId(), this);
         
         localCSeq = EMPTY_CSEQ;
         remoteCSeq = EMPTY_CSEQ;
     }
 
     public void receivedOrSent1xx() {
-        state.receivedOrSent101To199();
+        state.receivedOrSent101To199(this);
     }
     
     public void receivedOrSent2xx() {
-        state.receivedOrSent2xx();
+        state.receivedOrSent2xx(this);
     }
     
     public void receivedOrSent300To699() {
-        state.receivedOrSent300To699();
+        state.receivedOrSent300To699(this);
     }
     
     public void receivedOrSentBye() {
-        state.receivedOrSentBye();
+        state.receivedOrSentBye(this);
     }
     
     public void setState(DialogState state) {
-        this.state.log(state);
+        if (LOG.isDebugEnabled()) {
+            this.state.log(getId(), state);
+        }
         this.state = state;
     }
     
@@ -102,7 +99,7 @@ public class Dialog {
         //12.2.1.1
         SipURI sipUri;
         try {
-            sipUri = new SipURI(remoteTarget);
+            sipUri = SipURI.valueOf(remoteTarget);
         } catch (SipUriSyntaxException e) {
             throw new RuntimeException(e);
             //TODO check remote target when message is received
@@ -117,7 +114,7 @@ public class Dialog {
         if (remoteTag != null) {
             to.addParam(new SipHeaderParamName(RFC3261.PARAM_TAG), remoteTag);
         }
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_TO), to);
+        headers.add(SipHeaderFieldName.TO, to);
         
         //From
         
@@ -126,12 +123,12 @@ public class Dialog {
         if (localTag != null) {
             from.addParam(new SipHeaderParamName(RFC3261.PARAM_TAG), localTag);
         }
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_FROM), from);
+        headers.add(SipHeaderFieldName.FROM, from);
         
         //Call-ID
         
         SipHeaderFieldValue callIdValue = new SipHeaderFieldValue(callId);
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_CALLID), callIdValue);
+        headers.add(SipHeaderFieldName.CALLID, callIdValue);
         
         //CSeq
         
@@ -140,7 +137,7 @@ public class Dialog {
         } else {
             localCSeq++;
         }
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_CSEQ),
+        headers.add(SipHeaderFieldName.CSEQ,
                 new SipHeaderFieldValue(localCSeq + " " + method));
         
         //Route
@@ -151,7 +148,7 @@ public class Dialog {
                 for (String route : routeSet) {
                     routes.add(new SipHeaderFieldValue(route));
                 }
-                headers.add(new SipHeaderFieldName(RFC3261.HDR_ROUTE),
+                headers.add(SipHeaderFieldName.ROUTE,
                         new SipHeaderFieldMultiValue(routes));
             } else {
                 LOG.error("Trying to forward to a strict router, forbidden in this implementation");
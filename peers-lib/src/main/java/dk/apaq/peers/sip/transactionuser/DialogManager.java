@@ -19,13 +19,12 @@
 
 package dk.apaq.peers.sip.transactionuser;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
 
-import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
 import dk.apaq.peers.sip.transport.SipMessage;
 import dk.apaq.peers.sip.transport.SipResponse;
@@ -37,9 +36,12 @@ public class DialogManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(DialogManager.class);
     private Hashtable<String, Dialog> dialogs;
+    // several dialogs can share a Call-ID when a request forks
+    private Hashtable<String, List<Dialog>> dialogsByCallId;
     
     public DialogManager() {
         dialogs = new Hashtable<String, Dialog>();
+        dialogsByCallId = new Hashtable<String, List<Dialog>>();
     }
 
     /**
@@ -49,35 +51,50 @@ public class DialogManager {
      */
     public synchronized Dialog createDialog(SipResponse sipResponse) {
         SipHeaders sipHeaders = sipResponse.getSipHeaders();
-        String callID = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CALLID)).toString();
-        SipHeaderFieldValue from = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_FROM));
-        SipHeaderFieldValue to = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_TO));
-        String fromTag = from.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
-        String toTag = to.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
+        String callID = sipHeaders.get(SipHeaderFieldName.CALLID).toString();
+        String fromTag = sipResponse.getFrom().getTag();
+        String toTag = sipResponse.getTo().getTag();
         Dialog dialog;
-        if (sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_VIA)) == null) {
+        if (sipHeaders.get(SipHeaderFieldName.VIA) == null) {
             //createDialog is called from UAS side, in layer Transaction User
             dialog = new Dialog(callID, toTag, fromTag);
         } else {
             //createDialog is called from UAC side, in syntax encoding layer
             dialog = new Dialog(callID, fromTag, toTag);
         }
-        dialogs.put(dialog.getId(), dialog);
+        Dialog previous = dialogs.put(dialog.getId(), dialog);
+        if (previous != null) {
+            removeFromCallId(previous);
+        }
+        List<Dialog> list = dialogsByCallId.get(callID);
+        if (list == null) {
+            list = new ArrayList<Dialog>(1);
+            dialogsByCallId.put(callID, list);
+        }
+        list.add(dialog);
         return dialog;
     }
     
-    public void removeDialog(String dialogId) {
-        dialogs.remove(dialogId);
+    public synchronized void removeDialog(String dialogId) {
+        Dialog dialog = dialogs.remove(dialogId);
+        if (dialog != null) {
+            removeFromCallId(dialog);
+        }
+    }
+
+    private void removeFromCallId(Dialog dialog) {
+        String callId = dialog.getCallId();
+        List<Dialog> list = dialogsByCallId.get(callId);
+        if (list != null && list.remove(dialog) && list.isEmpty()) {
+            dialogsByCallId.remove(callId);
+        }
     }
 
     public synchronized Dialog getDialog(SipMessage sipMessage) {
         SipHeaders sipHeaders = sipMessage.getSipHeaders();
-        String callID = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_CALLID)).toString();
-        SipHeaderFieldValue from = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_FROM));
-        SipHeaderFieldValue to = sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_TO));
-        SipHeaderParamName tagName = new SipHeaderParamName(RFC3261.PARAM_TAG);
-        String fromTag = from.getParam(tagName);
-        String toTag = to.getParam(tagName);
+        String callID = sipHeaders.get(SipHeaderFieldName.CALLID).toString();
+        String fromTag = sipMessage.getFrom().getTag();
+        String toTag = sipMessage.getTo().getTag();
         Dialog dialog = dialogs.get(getDialogId(callID, fromTag, toTag));
         if (dialog != null) {
             return dialog;
@@ -85,13 +102,15 @@ public class DialogManager {
         return dialogs.get(getDialogId(callID, toTag, fromTag));
     }
 
+    /**
+     * @return first dialog created with this Call-ID and not yet removed
+     */
     public synchronized Dialog getDialog(String callId) {
-        for (Dialog dialog : dialogs.values()) {
-            if (dialog.getCallId().equals(callId)) {
-                return dialog;
-            }
+        List<Dialog> list = dialogsByCallId.get(callId);
+        if (list == null) {
+            return null;
         }
-        return null;
+        return list.get(0);
     }
     
     private String getDialogId(String callID, String localTag, String remoteTag) {
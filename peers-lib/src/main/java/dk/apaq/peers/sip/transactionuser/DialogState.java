@@ -23,17 +23,10 @@ import dk.apaq.peers.sip.AbstractState;
 
 public abstract class DialogState extends AbstractState {
 
-    protected Dialog dialog;
-
-    public DialogState(String id, Dialog dialog) {
-        super(id);
-        this.dialog = dialog;
-    }
-    
-    public void receivedOrSent101To199() {}
-    public void receivedOrSent2xx() {}
-    public void receivedOrSent300To699() {}
+    public void receivedOrSent101To199(Dialog dialog) {}
+    public void receivedOrSent2xx(Dialog dialog) {}
+    public void receivedOrSent300To699(Dialog dialog) {}
     //sent or received a BYE for RFC3261
-    public void receivedOrSentBye() {}
+    public void receivedOrSentBye(Dialog dialog) {}
     
 }
@@ -22,36 +22,31 @@ package dk.apaq.peers.sip.transactionuser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
 public class DialogStateConfirmed extends DialogState {
 
     private static final Logger LOG = LoggerFactory.getLogger(DialogStateConfirmed.class);
-    
-    public DialogStateConfirmed(String id, Dialog dialog) {
-        super(id, dialog);
-    }
 
     @Override
-    public void receivedOrSent101To199() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSent101To199(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
 
     @Override
-    public void receivedOrSent2xx() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSent2xx(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
 
     @Override
-    public void receivedOrSent300To699() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSent300To699(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
 
     @Override
-    public void receivedOrSentBye() {
-        DialogState nextState = dialog.TERMINATED;
+    public void receivedOrSentBye(Dialog dialog) {
+        DialogState nextState = Dialog.TERMINATED;
         dialog.setState(nextState);
     }
 
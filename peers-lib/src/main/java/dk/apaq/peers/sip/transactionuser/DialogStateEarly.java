@@ -22,36 +22,31 @@ package dk.apaq.peers.sip.transactionuser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
 public class DialogStateEarly extends DialogState {
     
     private static final Logger LOG = LoggerFactory.getLogger(DialogStateEarly.class);
     
-    public DialogStateEarly(String id, Dialog dialog) {
-        super(id, dialog);
-    }
-    
     @Override
-    public void receivedOrSent101To199() {
-        DialogState nextState = dialog.EARLY;
+    public void receivedOrSent101To199(Dialog dialog) {
+        DialogState nextState = Dialog.EARLY;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSent2xx() {
-        DialogState nextState = dialog.CONFIRMED;
+    public void receivedOrSent2xx(Dialog dialog) {
+        DialogState nextState = Dialog.CONFIRMED;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSent300To699() {
-        DialogState nextState = dialog.TERMINATED;
+    public void receivedOrSent300To699(Dialog dialog) {
+        DialogState nextState = Dialog.TERMINATED;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSentBye() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSentBye(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
 }
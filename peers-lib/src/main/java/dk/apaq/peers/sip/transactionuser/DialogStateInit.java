@@ -25,32 +25,28 @@ import org.slf4j.LoggerFactory;
 public class DialogStateInit extends DialogState {
     
     private static final Logger LOG = LoggerFactory.getLogger(DialogStateInit.class);
-    
-    public DialogStateInit(String id, Dialog dialog) {
-        super(id, dialog);
-    }
 
     @Override
-    public void receivedOrSent101To199() {
-        DialogState nextState = dialog.EARLY;
+    public void receivedOrSent101To199(Dialog dialog) {
+        DialogState nextState = Dialog.EARLY;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSent2xx() {
-        DialogState nextState = dialog.CONFIRMED;
+    public void receivedOrSent2xx(Dialog dialog) {
+        DialogState nextState = Dialog.CONFIRMED;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSent300To699() {
-        DialogState nextState = dialog.TERMINATED;
+    public void receivedOrSent300To699(Dialog dialog) {
+        DialogState nextState = Dialog.TERMINATED;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSentBye() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSentBye(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
 }
@@ -25,33 +25,29 @@ import org.slf4j.LoggerFactory;
 public class DialogStateTerminated extends DialogState {
 
     private static final Logger LOG = LoggerFactory.getLogger(DialogStateTerminated.class);
-    
-    public DialogStateTerminated(String id, Dialog dialog) {
-        super(id, dialog);
-    }
 
     @Override
-    public void receivedOrSent101To199() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSent101To199(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
     
     @Override
-    public void receivedOrSent2xx() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSent2xx(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
     
     @Override
-    public void receivedOrSent300To699() {
-        LOG.error(id + " invalid transition");
+    public void receivedOrSent300To699(Dialog dialog) {
+        LOG.error(dialog.getId() + " invalid transition");
         throw new IllegalStateException();
     }
     
     @Override
-    public void receivedOrSentBye() {
+    public void receivedOrSentBye(Dialog dialog) {
         //ignore bye retransmissions
-//        LOG.error(id + " invalid transition");
+//        LOG.error(dialog.getId() + " invalid transition");
 //        throw new IllegalStateException();
     }
 }
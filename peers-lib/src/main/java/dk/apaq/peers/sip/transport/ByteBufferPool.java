@@ -0,0 +1,91 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size receive buffers. Buffers are acquired by receivers,
+ * and released once the message they contain has been processed. At most
+ * maxPooled free buffers are kept, others are left to the garbage
+ * collector.
+ */
+public class ByteBufferPool {
+
+    private int bufferSize;
+    private int maxPooled;
+    private boolean direct;
+    private Queue<ByteBuffer> buffers;
+    private AtomicInteger pooled;
+    private AtomicInteger allocated;
+
+    public ByteBufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+        buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+        pooled = new AtomicInteger();
+        allocated = new AtomicInteger();
+    }
+
+    /**
+     * @return a cleared buffer of bufferSize capacity.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        if (direct) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers allocated since the pool creation, useful
+     *         to check that buffers are actually reused.
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+
+}
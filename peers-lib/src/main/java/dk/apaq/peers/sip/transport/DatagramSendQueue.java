@@ -0,0 +1,254 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound datagrams of a non-blocking channel. Sending threads only add
+ * datagrams to a bounded queue, and the I/O thread serving the channel
+ * sends all pending datagrams at once, so that senders never wait for
+ * each other nor for the socket. When the socket send buffer is full,
+ * sending resumes when the channel becomes writable.
+ */
+public class DatagramSendQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatagramSendQueue.class);
+    public static final int DEFAULT_CAPACITY = 16384;
+    // bounds the time spent on one channel before other channels registered
+    // on the same I/O thread get a chance to be served
+    public static final int MAX_SENDS_PER_FLUSH = 64;
+
+    public enum OverflowPolicy {
+        /** a datagram added to a full queue is dropped */
+        DROP_NEWEST,
+        /** the oldest pending datagram is dropped to make room */
+        DROP_OLDEST
+    }
+
+    private DatagramChannel datagramChannel;
+    private NioTransportEngine nioTransportEngine;
+    private BlockingQueue<Datagram> queue;
+    private volatile OverflowPolicy overflowPolicy;
+    // true while a flush is pending on the I/O thread
+    private AtomicBoolean scheduled;
+    // datagram which did not fit in the socket send buffer, I/O thread only
+    private Datagram unsent;
+    private Runnable flush;
+
+    private AtomicLong sent;
+    private AtomicLong dropped;
+    private AtomicLong totalLatency;
+    private volatile long maxLatency;
+
+    public DatagramSendQueue(DatagramChannel datagramChannel,
+            NioTransportEngine nioTransportEngine, int capacity,
+            OverflowPolicy overflowPolicy) {
+        this.datagramChannel = datagramChannel;
+        this.nioTransportEngine = nioTransportEngine;
+        this.overflowPolicy = overflowPolicy;
+        queue = new ArrayBlockingQueue<Datagram>(capacity);
+        scheduled = new AtomicBoolean();
+        sent = new AtomicLong();
+        dropped = new AtomicLong();
+        totalLatency = new AtomicLong();
+        flush = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Queues a datagram, it will be sent by the channel I/O thread. Never
+     * blocks: if the queue is full, a datagram is dropped according to the
+     * overflow policy, sip retransmissions will make up for it.
+     */
+    public void send(byte[] bytes, InetSocketAddress destination)
+            throws IOException {
+        if (!datagramChannel.isOpen()) {
+            throw new IOException("Cannot send data because socket is closed.");
+        }
+        Datagram datagram = new Datagram(ByteBuffer.wrap(bytes), destination);
+        while (!queue.offer(datagram)) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST
+                    || queue.poll() == null) {
+                dropped();
+                return;
+            }
+            dropped();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void dropped() {
+        if (dropped.incrementAndGet() % 1000 == 1) {
+            LOG.warn("send queue full on " + datagramChannel.socket()
+                    .getLocalSocketAddress() + ", " + dropped.get()
+                    + " datagrams dropped so far");
+        }
+    }
+
+    private void schedule() {
+        if (!nioTransportEngine.execute(datagramChannel, flush)) {
+            // not registered, or engine closed
+            queue.clear();
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the channel is writable again.
+     */
+    void writable(SelectionKey selectionKey) {
+        selectionKey.interestOps(selectionKey.interestOps()
+                & ~SelectionKey.OP_WRITE);
+        flush();
+    }
+
+    /**
+     * Sends pending datagrams, on the I/O thread.
+     */
+    void flush() {
+        try {
+            for (int i = 0; i < MAX_SENDS_PER_FLUSH; ++i) {
+                Datagram datagram = unsent;
+                unsent = null;
+                if (datagram == null) {
+                    datagram = queue.poll();
+                }
+                if (datagram == null) {
+                    break;
+                }
+                if (datagramChannel.send(datagram.buffer,
+                        datagram.destination) == 0) {
+                    // socket send buffer full, wait until it is writable
+                    unsent = datagram;
+                    SelectionKey selectionKey =
+                        nioTransportEngine.keyFor(datagramChannel);
+                    if (selectionKey != null && selectionKey.isValid()) {
+                        selectionKey.interestOps(selectionKey.interestOps()
+                                | SelectionKey.OP_WRITE);
+                    }
+                    return;
+                }
+                sent(datagram);
+            }
+        } catch (ClosedChannelException e) {
+            unsent = null;
+            queue.clear();
+            scheduled.set(false);
+            return;
+        } catch (IOException e) {
+            // datagram lost, as if it had been lost on the network
+            LOG.error("input/output error", e);
+        }
+        if (!queue.isEmpty()) {
+            // let other channels of this I/O thread be served first
+            schedule();
+            return;
+        }
+        scheduled.set(false);
+        // a datagram may have been added after the queue was found empty
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void sent(Datagram datagram) {
+        sent.incrementAndGet();
+        long latency = System.nanoTime() - datagram.queued;
+        totalLatency.addAndGet(latency);
+        if (latency > maxLatency) {
+            maxLatency = latency;
+        }
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return number of datagrams waiting to be sent.
+     */
+    public int getSize() {
+        return queue.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return average time spent in queue by sent datagrams, microseconds.
+     */
+    public long getAverageLatency() {
+        long count = sent.get();
+        if (count == 0) {
+            return 0;
+        }
+        return totalLatency.get() / count / 1000;
+    }
+
+    /**
+     * @return maximum time spent in queue by a sent datagram, microseconds.
+     */
+    public long getMaxLatency() {
+        return maxLatency / 1000;
+    }
+
+    static class Datagram {
+
+        private ByteBuffer buffer;
+        private InetSocketAddress destination;
+        private long queued;
+
+        Datagram(ByteBuffer buffer, InetSocketAddress destination) {
+            this.buffer = buffer;
+            this.destination = destination;
+            queued = System.nanoTime();
+        }
+
+    }
+
+}
@@ -0,0 +1,472 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands received messages over to a fixed set of worker threads, so that
+ * transaction and transaction user processing does not run on socket
+ * reading threads. Each worker has its own queue, and a message goes to the
+ * worker selected by the hash of its Call-ID, found on raw bytes before any
+ * parsing: messages of a given call are processed in order, by a single
+ * thread, while different calls are processed in parallel.
+ */
+public class MessageDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageDispatcher.class);
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final byte[] CALL_ID = "call-id".getBytes();
+    private static final byte[] CSEQ = "cseq".getBytes();
+    private static final byte[] VIA = "via".getBytes();
+    private static final byte[] BRANCH = "branch".getBytes();
+    private static final byte[] TO = "to".getBytes();
+    private static final byte[] TAG = "tag".getBytes();
+
+    private Worker[] workers;
+    private ByteBufferPool byteBufferPool;
+    private AtomicLong dropped;
+    private volatile boolean running;
+
+    /**
+     * @param byteBufferPool messages are copied into buffers taken from
+     *                       this pool, so that receivers can reuse their
+     *                       own buffer immediately.
+     */
+    public MessageDispatcher(int threads, int queueCapacity,
+            ByteBufferPool byteBufferPool) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("at least one thread needed");
+        }
+        this.byteBufferPool = byteBufferPool;
+        dropped = new AtomicLong();
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(queueCapacity);
+        }
+        running = true;
+        for (int i = 0; i < threads; ++i) {
+            Thread thread = new Thread(workers[i],
+                    getClass().getSimpleName() + " " + i);
+            // applications that never close the stack can still exit
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues the message, between position and limit, for processing by
+     * messageReceiver. The buffer is not referenced once this method
+     * returns. If the selected queue is full, the message is dropped: sip
+     * retransmissions will bring it back.
+     */
+    public void dispatch(MessageReceiver messageReceiver, ByteBuffer message,
+            InetAddress sourceIp, int sourcePort, String transport) {
+        if (!running) {
+            return;
+        }
+        String key = getCallId(message);
+        if (key == null) {
+            key = getTopViaBranch(message);
+        }
+        int shard = getShard(key);
+        ByteBuffer copy;
+        if (message.remaining() <= byteBufferPool.getBufferSize()) {
+            copy = byteBufferPool.acquire();
+        } else {
+            copy = ByteBuffer.allocate(message.remaining());
+        }
+        copy.put(message.duplicate());
+        copy.flip();
+        Task task = new Task(messageReceiver, copy, sourceIp, sourcePort,
+                transport);
+        if (!workers[shard].queue.offer(task)) {
+            dropped.incrementAndGet();
+            byteBufferPool.release(copy);
+            LOG.warn("dispatch queue " + shard + " full, message dropped");
+        }
+    }
+
+    int getShard(String key) {
+        if (key == null) {
+            return 0;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % workers.length;
+    }
+
+    /**
+     * Stops workers once they have processed their current message,
+     * queued messages are discarded and their buffers returned to the pool.
+     */
+    public void close() {
+        running = false;
+        for (Worker worker: workers) {
+            Thread thread = worker.thread;
+            if (thread != null) {
+                thread.interrupt();
+            }
+            worker.discard();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    /**
+     * @return number of messages waiting in each worker queue.
+     */
+    public int[] getQueueDepths() {
+        int[] queueDepths = new int[workers.length];
+        for (int i = 0; i < workers.length; ++i) {
+            queueDepths[i] = workers[i].queue.size();
+        }
+        return queueDepths;
+    }
+
+    public int getQueueDepth(int shard) {
+        return workers[shard].queue.size();
+    }
+
+    /**
+     * @return number of messages dropped because their queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // raw message scanning
+
+    /**
+     * @return Call-ID header value, or null if not found.
+     */
+    public static String getCallId(ByteBuffer message) {
+        return getValue(message, CALL_ID, (byte)'i');
+    }
+
+    /**
+     * @return CSeq header value, or null if there is none
+     */
+    public static String getCSeq(ByteBuffer message) {
+        // CSeq has no compact form
+        return getValue(message, CSEQ, (byte)0);
+    }
+
+    /**
+     * @return value of the first header named name, without surrounding
+     *         white spaces, or null if there is none
+     */
+    private static String getValue(ByteBuffer message, byte[] name,
+            byte compactName) {
+        int start = findHeader(message, name, compactName);
+        if (start < 0) {
+            return null;
+        }
+        int end = start;
+        int limit = message.limit();
+        while (end < limit && !isLineEnd(message.get(end))) {
+            ++end;
+        }
+        while (end > start && isWhiteSpace(message.get(end - 1))) {
+            --end;
+        }
+        return getString(message, start, end);
+    }
+
+    /**
+     * @return branch parameter of the first Via header value, or null if
+     *         not found.
+     */
+    public static String getTopViaBranch(ByteBuffer message) {
+        int i = findHeader(message, VIA, (byte)'v');
+        if (i < 0) {
+            return null;
+        }
+        int limit = message.limit();
+        while (i < limit) {
+            byte b = message.get(i);
+            if (isLineEnd(b) || b == ',') {
+                return null;
+            }
+            ++i;
+            if (b != ';') {
+                continue;
+            }
+            String branch = getParam(message, i, BRANCH);
+            if (branch != null) {
+                return branch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return tag parameter of the To header, or null if not found.
+     */
+    public static String getToTag(ByteBuffer message) {
+        int i = findHeader(message, TO, (byte)'t');
+        if (i < 0) {
+            return null;
+        }
+        int limit = message.limit();
+        boolean quoted = false;
+        boolean inUri = false;
+        while (i < limit) {
+            byte b = message.get(i);
+            if (isLineEnd(b)) {
+                return null;
+            }
+            ++i;
+            if (quoted) {
+                if (b == '\\') {
+                    ++i;
+                } else if (b == '"') {
+                    quoted = false;
+                }
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == '<') {
+                // uri parameters are not header parameters
+                inUri = true;
+            } else if (b == '>') {
+                inUri = false;
+            } else if (b == ';' && !inUri) {
+                String tag = getParam(message, i, TAG);
+                if (tag != null) {
+                    return tag;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param i index following a parameter separator
+     * @return value of the parameter at i if its name is name, or null
+     */
+    private static String getParam(ByteBuffer message, int i, byte[] name) {
+        int limit = message.limit();
+        while (i < limit && isWhiteSpace(message.get(i))) {
+            ++i;
+        }
+        int end = matchName(message, i, name);
+        if (end < 0 || end >= limit || message.get(end) != '=') {
+            return null;
+        }
+        int start = end + 1;
+        end = start;
+        while (end < limit) {
+            byte b = message.get(end);
+            if (isLineEnd(b) || isWhiteSpace(b) || b == ';' || b == ',') {
+                break;
+            }
+            ++end;
+        }
+        return getString(message, start, end);
+    }
+
+    /**
+     * @param name lower case full header name
+     * @return index of the first character of the header value, or -1
+     */
+    private static int findHeader(ByteBuffer message, byte[] name,
+            byte compactName) {
+        int limit = message.limit();
+        int i = nextLine(message, message.position());
+        while (i < limit) {
+            byte b = message.get(i);
+            if (isLineEnd(b)) {
+                // empty line, end of headers
+                return -1;
+            }
+            if (!isWhiteSpace(b)) {
+                int end = matchName(message, i, name);
+                if (end < 0 && i + 1 < limit
+                        && toLowerCase(b) == compactName) {
+                    end = i + 1;
+                }
+                if (end >= 0) {
+                    while (end < limit && isWhiteSpace(message.get(end))) {
+                        ++end;
+                    }
+                    if (end < limit && message.get(end) == ':') {
+                        ++end;
+                        while (end < limit && isWhiteSpace(message.get(end))) {
+                            ++end;
+                        }
+                        return end;
+                    }
+                }
+            }
+            i = nextLine(message, i);
+        }
+        return -1;
+    }
+
+    /**
+     * @return index following name, case-insensitively matched at start,
+     *         or -1
+     */
+    private static int matchName(ByteBuffer message, int start, byte[] name) {
+        if (start + name.length > message.limit()) {
+            return -1;
+        }
+        for (int j = 0; j < name.length; ++j) {
+            if (toLowerCase(message.get(start + j)) != name[j]) {
+                return -1;
+            }
+        }
+        return start + name.length;
+    }
+
+    private static int nextLine(ByteBuffer message, int i) {
+        int limit = message.limit();
+        while (i < limit && message.get(i) != '\n') {
+            ++i;
+        }
+        return i + 1;
+    }
+
+    private static byte toLowerCase(byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return (byte)(b + 'a' - 'A');
+        }
+        return b;
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\r' || b == '\n';
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static String getString(ByteBuffer message, int start, int end) {
+        if (end <= start) {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer duplicate = message.duplicate();
+        duplicate.position(start);
+        duplicate.get(bytes);
+        try {
+            return new String(bytes, MessageReceiver.CHARACTER_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            LOG.error("unsupported encoding", e);
+            return null;
+        }
+    }
+
+    class Task {
+
+        private MessageReceiver messageReceiver;
+        private ByteBuffer message;
+        private InetAddress sourceIp;
+        private int sourcePort;
+        private String transport;
+        private long queued;
+
+        Task(MessageReceiver messageReceiver, ByteBuffer message,
+                InetAddress sourceIp, int sourcePort, String transport) {
+            this.messageReceiver = messageReceiver;
+            this.message = message;
+            this.sourceIp = sourceIp;
+            this.sourcePort = sourcePort;
+            this.transport = transport;
+            queued = System.nanoTime();
+        }
+
+        void run() {
+            try {
+                messageReceiver.processSipMessage(message, sourceIp,
+                        sourcePort, transport);
+                // time spent in queue is part of the processing latency
+                TransportManager transportManager =
+                    messageReceiver.transportManager;
+                OverloadController overloadController = null;
+                if (transportManager != null) {
+                    overloadController =
+                        transportManager.getOverloadController();
+                }
+                if (overloadController != null) {
+                    overloadController.messageProcessed(
+                            System.nanoTime() - queued);
+                }
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+            } catch (RuntimeException e) {
+                // one faulty message must not stop the worker
+                LOG.error("cannot process message", e);
+            } finally {
+                byteBufferPool.release(message);
+            }
+        }
+
+    }
+
+    class Worker implements Runnable {
+
+        private BlockingQueue<Task> queue;
+        private volatile Thread thread;
+
+        Worker(int queueCapacity) {
+            queue = new LinkedBlockingQueue<Task>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (running) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                task.run();
+            }
+            discard();
+        }
+
+        void discard() {
+            Task task;
+            while ((task = queue.poll()) != null) {
+                byteBufferPool.release(task.message);
+            }
+        }
+
+    }
+
+}
@@ -19,21 +19,21 @@
 
 package dk.apaq.peers.sip.transport;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 import dk.apaq.peers.Config;
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.resolver.SipResolver;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
-import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.syntaxencoding.SipParserException;
+import dk.apaq.peers.sip.syntaxencoding.ViaHeader;
 import dk.apaq.peers.sip.transaction.ClientTransaction;
 import dk.apaq.peers.sip.transaction.ServerTransaction;
+import dk.apaq.peers.sip.transaction.Transaction;
 import dk.apaq.peers.sip.transaction.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,8 +41,11 @@ import org.slf4j.LoggerFactory;
 public abstract class MessageReceiver implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageReceiver.class);
-    public static final int BUFFER_SIZE = 2048;//FIXME should correspond to MTU 1024;
+    public static final int BUFFER_SIZE = RFC3261.TRANSPORT_UDP_MAX_SIZE;
     public static final String CHARACTER_ENCODING = "US-ASCII";
+
+    private static final byte[] SIP_VERSION =
+        RFC3261.DEFAULT_SIP_VERSION.getBytes();
     
     protected int port;
     private boolean isListening;
@@ -50,8 +53,8 @@ public abstract class MessageReceiver implements Runnable {
     //private UAS uas;
     private SipServerTransportUser sipServerTransportUser;
     private TransactionManager transactionManager;
-    private TransportManager transportManager;
-    private Config config;
+    protected TransportManager transportManager;
+    protected Config config;
 
     public MessageReceiver(int port, TransactionManager transactionManager, TransportManager transportManager, Config config) {
         super();
@@ -73,6 +76,14 @@ public abstract class MessageReceiver implements Runnable {
     }
 
     protected abstract void listen() throws IOException;
+
+    /**
+     * @return reliable connection messages are read from, null for
+     *         datagram receivers.
+     */
+    protected TcpMessageSender getConnection() {
+        return null;
+    }
     
     protected boolean isRequest(byte[] message) {
         String beginning = null;
@@ -90,19 +101,22 @@ public abstract class MessageReceiver implements Runnable {
     
     protected void processMessage(byte[] message, InetAddress sourceIp,
             int sourcePort, String transport) throws IOException {
-        ByteArrayInputStream byteArrayInputStream =
-            new ByteArrayInputStream(message);
-        InputStreamReader inputStreamReader = new InputStreamReader(
-                byteArrayInputStream);
-        BufferedReader reader = new BufferedReader(inputStreamReader);
-        String startLine = reader.readLine();
-        while ("".equals(startLine)) {
-            startLine = reader.readLine();
-        }
-        if (startLine == null) {
-            return;
-        }
-        if (!startLine.contains(RFC3261.DEFAULT_SIP_VERSION)) {
+        processMessage(ByteBuffer.wrap(message), sourceIp, sourcePort,
+                transport);
+    }
+
+    /**
+     * @param message buffer holding the message between its position and
+     *                its limit. It is read in place, or copied if processing
+     *                is handed over to a {@link MessageDispatcher}: the
+     *                caller may reuse it once this method returns.
+     */
+    protected void processMessage(ByteBuffer message, InetAddress sourceIp,
+            int sourcePort, String transport) throws IOException {
+        if (!isSipMessage(message)) {
+            if (!message.hasRemaining()) {
+                return;
+            }
             // keep-alive, send back to sender
             SipTransportConnection sipTransportConnection =
                 new SipTransportConnection(config.getLocalInetAddress(),
@@ -110,24 +124,135 @@ public abstract class MessageReceiver implements Runnable {
             MessageSender messageSender = transportManager.getMessageSender(
                     sipTransportConnection);
             if (messageSender != null) {
-                messageSender.sendBytes(message);
+                byte[] bytes = new byte[message.remaining()];
+                message.duplicate().get(bytes);
+                messageSender.sendBytes(bytes);
             }
             return;
         }
-        StringBuffer direction = new StringBuffer();
-        direction.append("RECEIVED from ").append(sourceIp.getHostAddress());
-        direction.append("/").append(sourcePort);
-        LOG.debug(new String(message) + "\nDirection: " + direction.toString());
+        if (LOG.isDebugEnabled()) {
+            byte[] bytes = new byte[message.remaining()];
+            message.duplicate().get(bytes);
+            StringBuffer direction = new StringBuffer();
+            direction.append("RECEIVED from ").append(sourceIp.getHostAddress());
+            direction.append("/").append(sourcePort);
+            LOG.debug(new String(bytes) + "\nDirection: " + direction.toString());
+        }
         //LOG.traceNetwork(new String(message), direction.toString());
-        SipMessage sipMessage = null;
+        SipTraceRecorder sipTraceRecorder =
+            transportManager.getSipTraceRecorder();
+        if (sipTraceRecorder != null) {
+            sipTraceRecorder.record(message, sourceIp, sourcePort,
+                    config.getLocalInetAddress(), port);
+        }
+        OverloadController overloadController =
+            transportManager.getOverloadController();
+        if (overloadController != null && overloadController.isOverloaded()
+                && overloadController.isRejectable(message)
+                && reject(message, sourceIp, sourcePort, transport,
+                        overloadController)) {
+            return;
+        }
+        MessageDispatcher messageDispatcher =
+            transportManager.getMessageDispatcher();
+        if (messageDispatcher != null) {
+            messageDispatcher.dispatch(this, message, sourceIp, sourcePort,
+                    transport);
+        } else {
+            long start = System.nanoTime();
+            processSipMessage(message, sourceIp, sourcePort, transport);
+            if (overloadController != null) {
+                overloadController.messageProcessed(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Sends a stateless 503 response to a new request, without creating
+     * any transaction.
+     *
+     * @return false if the request is a retransmission that must reach its
+     *         existing transaction.
+     */
+    private boolean reject(ByteBuffer message, InetAddress sourceIp,
+            int sourcePort, String transport,
+            OverloadController overloadController) throws IOException {
+        if (getRetransmittedTransaction(message) != null) {
+            return false;
+        }
+        SipMessage sipMessage = parse(message, sourceIp, sourcePort,
+                transport);
+        if (!(sipMessage instanceof SipRequest)) {
+            return sipMessage == null;
+        }
+        SipRequest sipRequest = (SipRequest)sipMessage;
+        if (transactionManager.getServerTransaction(sipRequest) != null) {
+            return false;
+        }
+        processTopVia(sipRequest, sourceIp, sourcePort, transport);
+        SipResponse sipResponse =
+            overloadController.createServiceUnavailable(sipRequest);
+        if (sipResponse != null) {
+            transportManager.sendResponse(sipResponse,
+                    sipRequest.getConnection());
+        }
+        return true;
+    }
+
+    /**
+     * @return null if message cannot be parsed. Requests read far enough
+     *         to be answered are then rejected with a stateless response.
+     */
+    private SipMessage parse(ByteBuffer message, InetAddress sourceIp,
+            int sourcePort, String transport) throws IOException {
         try {
-            sipMessage = transportManager.sipParser.parse(
-                    new ByteArrayInputStream(message));
-        } catch (IOException e) {
-            LOG.error("input/output error", e);
+            return transportManager.sipParser.parse(message);
         } catch (SipParserException e) {
-            LOG.error("SIP parser error", e);
+            LOG.error("SIP parser error from " + sourceIp.getHostAddress()
+                    + "/" + sourcePort + ": " + e.getMessage());
+            if (e.getSipMessage() instanceof SipRequest) {
+                SipRequest sipRequest = (SipRequest)e.getSipMessage();
+                SipResponse sipResponse = Utils.generateStatelessResponse(
+                        sipRequest, e.getStatusCode(),
+                        getReasonPhrase(e.getStatusCode()));
+                ViaHeader topVia = sipRequest.getTopVia();
+                if (sipResponse != null && topVia.getHost() != null) {
+                    processTopVia(sipRequest, sourceIp, sourcePort, transport);
+                    transportManager.sendResponse(sipResponse,
+                            sipRequest.getConnection());
+                }
+            }
         }
+        return null;
+    }
+
+    private String getReasonPhrase(int statusCode) {
+        switch (statusCode) {
+        case RFC3261.CODE_413_REQUEST_ENTITY_TOO_LARGE:
+            return RFC3261.REASON_413_REQUEST_ENTITY_TOO_LARGE;
+        case RFC3261.CODE_513_MESSAGE_TOO_LARGE:
+            return RFC3261.REASON_513_MESSAGE_TOO_LARGE;
+        default:
+            return RFC3261.REASON_400_BAD_REQUEST;
+        }
+    }
+
+    /**
+     * Parses a sip message and passes it to its transaction, or to the
+     * transport user if there is none.
+     */
+    void processSipMessage(ByteBuffer message, InetAddress sourceIp,
+            int sourcePort, String transport) throws IOException {
+        ServerTransaction retransmittedTransaction =
+            getRetransmittedTransaction(message);
+        if (retransmittedTransaction != null) {
+            // the transaction resends its last response or drops the request
+            retransmittedTransaction.receivedRequest(
+                    ((Transaction)retransmittedTransaction).getRequest());
+            return;
+        }
+        SipMessage sipMessage = parse(message, sourceIp, sourcePort,
+                transport);
         if (sipMessage == null) {
             return;
         }
@@ -136,32 +261,7 @@ public abstract class MessageReceiver implements Runnable {
 
         if (sipMessage instanceof SipRequest) {
             SipRequest sipRequest = (SipRequest)sipMessage;
-            
-            
-            SipHeaderFieldValue topVia = Utils.getTopVia(sipRequest);
-            String sentBy =
-                topVia.getParam(new SipHeaderParamName(RFC3261.PARAM_SENTBY));
-            if (sentBy != null) {
-                int colonPos = sentBy.indexOf(RFC3261.TRANSPORT_PORT_SEP);
-                if (colonPos < 0) {
-                    colonPos = sentBy.length();
-                }
-                sentBy = sentBy.substring(0, colonPos);
-                if (!InetAddress.getByName(sentBy).equals(sourceIp)) {
-                    topVia.addParam(new SipHeaderParamName(
-                            RFC3261.PARAM_RECEIVED),
-                            sourceIp.getHostAddress());
-                }
-            }
-            //RFC3581
-            //TODO check rport configuration
-            SipHeaderParamName rportName = new SipHeaderParamName(
-                    RFC3261.PARAM_RPORT);
-            String rport = topVia.getParam(rportName);
-            if (rport != null && "".equals(rport)) {
-                topVia.removeParam(rportName);
-                topVia.addParam(rportName, String.valueOf(sourcePort));
-            }
+            processTopVia(sipRequest, sourceIp, sourcePort, transport);
             
             ServerTransaction serverTransaction =
                 transactionManager.getServerTransaction(sipRequest);
@@ -184,7 +284,134 @@ public abstract class MessageReceiver implements Runnable {
             }
         }
     }
+
+    /**
+     * Recognizes, on raw bytes, the retransmission of a request that still
+     * has a server transaction (RFC3261 17.2.3), so that it is absorbed
+     * without being parsed. ACK is left to the parser: it changes the state
+     * of an INVITE transaction, or belongs to the transaction user.
+     *
+     * @return null if message is not such a retransmission
+     */
+    private ServerTransaction getRetransmittedTransaction(ByteBuffer message) {
+        if (startsWith(message, SIP_VERSION)) {
+            return null;
+        }
+        String branchId = MessageDispatcher.getTopViaBranch(message);
+        if (branchId == null
+                || !branchId.startsWith(RFC3261.BRANCHID_MAGIC_COOKIE)) {
+            return null;
+        }
+        String cseq = MessageDispatcher.getCSeq(message);
+        if (cseq == null) {
+            return null;
+        }
+        int spacePos = 0;
+        while (spacePos < cseq.length() && cseq.charAt(spacePos) != ' '
+                && cseq.charAt(spacePos) != '\t') {
+            ++spacePos;
+        }
+        String method = cseq.substring(spacePos).trim();
+        if (RFC3261.METHOD_ACK.equals(method)) {
+            return null;
+        }
+        ServerTransaction serverTransaction =
+            transactionManager.getServerTransaction(branchId, method);
+        if (serverTransaction == null) {
+            return null;
+        }
+        SipRequest sipRequest = ((Transaction)serverTransaction).getRequest();
+        int number;
+        try {
+            number = Integer.parseInt(cseq.substring(0, spacePos));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (sipRequest == null || sipRequest.getCSeq().getNumber() != number) {
+            return null;
+        }
+        return serverTransaction;
+    }
+
+    private boolean startsWith(ByteBuffer message, byte[] prefix) {
+        int position = message.position();
+        if (message.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (message.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void processTopVia(SipRequest sipRequest, InetAddress sourceIp,
+            int sourcePort, String transport) {
+        sipRequest.setConnection(getConnection());
+        ViaHeader viaHeader = sipRequest.getTopVia();
+        SipHeaderFieldValue topVia = viaHeader.getFieldValue();
+        String host = viaHeader.getHost();
+        if (host != null) {
+            // a domain name is not resolved, received is always added
+            if (!sourceIp.equals(SipResolver.getNumericAddress(host))) {
+                topVia.addParam(ViaHeader.RECEIVED,
+                        sourceIp.getHostAddress());
+            }
+        }
+        //RFC3581
+        //TODO check rport configuration
+        String rport = viaHeader.getRport();
+        if (rport != null && "".equals(rport)) {
+            topVia.removeParam(ViaHeader.RPORT);
+            topVia.addParam(ViaHeader.RPORT, String.valueOf(sourcePort));
+        }
+        if (RFC3261.TRANSPORT_TCP.equals(transport)
+                && topVia.getParam(ViaHeader.ALIAS) != null) {
+            transportManager.addConnectionAlias(viaHeader.getSentBy(),
+                    new SipTransportConnection(config.getLocalInetAddress(),
+                            port, sourceIp, sourcePort, transport));
+        }
+        OverloadController overloadController =
+            transportManager.getOverloadController();
+        if (overloadController != null) {
+            overloadController.addFeedback(topVia);
+        }
+    }
     
+    /**
+     * Checks, on raw bytes, that the first non empty line contains the sip
+     * version. Leading empty lines are skipped: the buffer position is
+     * moved to the start line, or to the limit if there is none.
+     */
+    private boolean isSipMessage(ByteBuffer message) {
+        int limit = message.limit();
+        int start = message.position();
+        while (start < limit && (message.get(start) == '\r'
+                || message.get(start) == '\n')) {
+            ++start;
+        }
+        message.position(start);
+        int versionLength = SIP_VERSION.length;
+        for (int i = start; i < limit; ++i) {
+            byte b = message.get(i);
+            if (b == '\r' || b == '\n') {
+                return false;
+            }
+            if (b == SIP_VERSION[0] && i + versionLength <= limit) {
+                int j = 1;
+                while (j < versionLength
+                        && message.get(i + j) == SIP_VERSION[j]) {
+                    ++j;
+                }
+                if (j == versionLength) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public synchronized void setListening(boolean isListening) {
         this.isListening = isListening;
     }
@@ -21,11 +21,11 @@ package dk.apaq.peers.sip.transport;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,24 +40,41 @@ public abstract class MessageSender {
     protected int localPort;
     private Config config;
     private String transportName;
-    private Timer timer;
+    private Timeout keepAlive;
+    private volatile SipTraceRecorder sipTraceRecorder;
     
     public MessageSender(int localPort, InetAddress inetAddress,
             int port, Config config, String transportName) {
+        this(localPort, inetAddress, port, config, transportName,
+                HashedWheelTimer.getDefault());
+    }
+
+    public MessageSender(int localPort, InetAddress inetAddress,
+            int port, Config config, String transportName,
+            HashedWheelTimer timer) {
         super();
         this.localPort = localPort;
         this.inetAddress = inetAddress;
         this.port = port;
         this.config = config;
         this.transportName = transportName;
-        timer = new Timer(getClass().getSimpleName() + " " + Timer.class.getSimpleName());
         //TODO check config
-        timer.scheduleAtFixedRate(new KeepAlive(), 0, 1000 * KEEY_ALIVE_INTERVAL);
+        keepAlive = timer.scheduleAtFixedRate(new KeepAlive(), 0,
+                1000 * KEEY_ALIVE_INTERVAL);
     }
     
     public abstract void sendMessage(SipMessage sipMessage) throws IOException;
     public abstract void sendBytes(byte[] bytes) throws IOException;
 
+    /**
+     * Sends bytes of a message already sent with sendMessage again, as
+     * they were, without encoding nor logging the message.
+     */
+    public void resend(byte[] bytes) throws IOException {
+        sendBytes(bytes);
+        trace(bytes);
+    }
+
     public String getContact() {
         StringBuffer buf = new StringBuffer();
         InetAddress myAddress = config.getPublicInetAddress();
@@ -79,11 +96,30 @@ public abstract class MessageSender {
         return localPort;
     }
 
+    public String getTransportName() {
+        return transportName;
+    }
+
+    public void setSipTraceRecorder(SipTraceRecorder sipTraceRecorder) {
+        this.sipTraceRecorder = sipTraceRecorder;
+    }
+
+    /**
+     * Records a sent message, if a trace recorder is set.
+     */
+    protected void trace(byte[] message) {
+        SipTraceRecorder sipTraceRecorder = this.sipTraceRecorder;
+        if (sipTraceRecorder != null) {
+            sipTraceRecorder.record(message, config.getLocalInetAddress(),
+                    localPort, inetAddress, port);
+        }
+    }
+
     public void stopKeepAlives() {
-        timer.cancel();
+        keepAlive.cancel();
     }
 
-    class KeepAlive extends TimerTask {
+    class KeepAlive implements Runnable {
 
         @Override
         public void run() {
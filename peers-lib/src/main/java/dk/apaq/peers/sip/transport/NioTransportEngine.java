@@ -0,0 +1,257 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.apaq.peers.sip.RFC3261;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives non-blocking SIP channels from a small, fixed set of I/O threads.
+ * Each thread owns its own {@link Selector} and channels are spread over
+ * threads round-robin when they are registered, so the number of threads
+ * does not depend on the number of sockets. Closing the engine wakes all
+ * selectors up: shutdown does not wait for a socket timeout.
+ */
+public class NioTransportEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioTransportEngine.class);
+    public static final int CLOSE_TIMEOUT = RFC3261.TIMER_T1;
+
+    private IoLoop[] ioLoops;
+    private AtomicInteger nextIoLoop;
+    private Map<SelectableChannel, IoLoop> owners;
+    private volatile boolean running;
+
+    public NioTransportEngine(int ioThreads) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("at least one I/O thread needed");
+        }
+        ioLoops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; ++i) {
+            ioLoops[i] = new IoLoop(Selector.open());
+        }
+        nextIoLoop = new AtomicInteger();
+        owners = new ConcurrentHashMap<SelectableChannel, IoLoop>();
+        running = true;
+        for (int i = 0; i < ioThreads; ++i) {
+            new Thread(ioLoops[i], getClass().getSimpleName() + " " + i).start();
+        }
+    }
+
+    /**
+     * Switches the channel to non-blocking mode and hands it over to one of
+     * the I/O threads. Registration itself is performed by the I/O thread,
+     * so this method never blocks on a selector.
+     */
+    public void register(final SelectableChannel channel,
+            final int interestOps, final SelectionHandler selectionHandler)
+            throws IOException {
+        if (!running) {
+            throw new IOException("transport engine is closed");
+        }
+        channel.configureBlocking(false);
+        int index = (nextIoLoop.getAndIncrement() & Integer.MAX_VALUE)
+            % ioLoops.length;
+        final IoLoop ioLoop = ioLoops[index];
+        owners.put(channel, ioLoop);
+        ioLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.register(ioLoop.selector, interestOps,
+                            selectionHandler);
+                } catch (ClosedChannelException e) {
+                    LOG.debug("channel closed before registration " + channel);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes a channel and releases its socket before returning. A channel
+     * registered with a selector keeps its socket until the selector has
+     * deregistered it, so deregistration is done by the owning I/O thread.
+     */
+    public void close(final SelectableChannel channel) {
+        IoLoop owner = owners.remove(channel);
+        if (owner == null || !running || owner.isCurrentThread()) {
+            closeQuietly(channel);
+            return;
+        }
+        final Selector selector = owner.selector;
+        final CountDownLatch closed = new CountDownLatch(1);
+        owner.execute(new Runnable() {
+            @Override
+            public void run() {
+                SelectionKey selectionKey = channel.keyFor(selector);
+                if (selectionKey != null) {
+                    selectionKey.cancel();
+                }
+                try {
+                    selector.selectNow();
+                } catch (IOException e) {
+                    LOG.error("input/output error", e);
+                }
+                closeQuietly(channel);
+                closed.countDown();
+            }
+        });
+        try {
+            if (!closed.await(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                closeQuietly(channel);
+            }
+        } catch (InterruptedException e) {
+            closeQuietly(channel);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs task on the I/O thread serving channel, after its registration.
+     *
+     * @return false if channel is not registered with this engine.
+     */
+    public boolean execute(SelectableChannel channel, Runnable task) {
+        IoLoop owner = owners.get(channel);
+        if (owner == null || !running) {
+            return false;
+        }
+        owner.execute(task);
+        return true;
+    }
+
+    /**
+     * @return key of a registered channel, to be used on its I/O thread.
+     */
+    public SelectionKey keyFor(SelectableChannel channel) {
+        IoLoop owner = owners.get(channel);
+        if (owner == null) {
+            return null;
+        }
+        return channel.keyFor(owner.selector);
+    }
+
+    public void close() {
+        running = false;
+        for (IoLoop ioLoop: ioLoops) {
+            ioLoop.selector.wakeup();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getIoThreads() {
+        return ioLoops.length;
+    }
+
+    private void closeQuietly(SelectableChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.error("input/output error", e);
+        }
+    }
+
+    class IoLoop implements Runnable {
+
+        private Selector selector;
+        private Queue<Runnable> tasks;
+        private volatile Thread thread;
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+            tasks = new ConcurrentLinkedQueue<Runnable>();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        boolean isCurrentThread() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    LOG.error("input/output error", e);
+                    break;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // a faulty task must not stop the whole I/O thread
+                        LOG.error("task " + task + " failed", e);
+                    }
+                }
+                Iterator<SelectionKey> iterator =
+                    selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+                    if (!selectionKey.isValid()) {
+                        continue;
+                    }
+                    SelectionHandler selectionHandler =
+                        (SelectionHandler)selectionKey.attachment();
+                    try {
+                        selectionHandler.handle(selectionKey);
+                    } catch (IOException e) {
+                        LOG.error("input/output error", e);
+                    } catch (RuntimeException e) {
+                        // a faulty message must not stop the whole I/O thread
+                        LOG.error("cannot handle " + selectionKey.channel(), e);
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+            }
+        }
+
+    }
+
+}
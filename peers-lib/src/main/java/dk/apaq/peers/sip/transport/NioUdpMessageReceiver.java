@@ -0,0 +1,89 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+/**
+ * UDP receiver driven by a {@link NioTransportEngine}. It does not own a
+ * thread: the engine calls {@link #handle(SelectionKey)} when datagrams are
+ * pending on the channel, or when the channel becomes writable while its
+ * {@link DatagramSendQueue} is waiting for room in the socket send buffer.
+ */
+public class NioUdpMessageReceiver extends MessageReceiver
+        implements SelectionHandler {
+
+    // bounds the time spent on one channel before other channels registered
+    // on the same I/O thread get a chance to be served
+    public static final int MAX_READS_PER_SELECT = 64;
+
+    private DatagramChannel datagramChannel;
+    private DatagramSendQueue datagramSendQueue;
+
+    public NioUdpMessageReceiver(DatagramChannel datagramChannel,
+            DatagramSendQueue datagramSendQueue,
+            TransactionManager transactionManager,
+            TransportManager transportManager, Config config) {
+        super(datagramChannel.socket().getLocalPort(), transactionManager,
+                transportManager, config);
+        this.datagramChannel = datagramChannel;
+        this.datagramSendQueue = datagramSendQueue;
+    }
+
+    @Override
+    public void handle(SelectionKey selectionKey) throws IOException {
+        if (selectionKey.isWritable()) {
+            datagramSendQueue.writable(selectionKey);
+        }
+        if (selectionKey.isValid() && selectionKey.isReadable()) {
+            listen();
+        }
+    }
+
+    @Override
+    protected void listen() throws IOException {
+        ByteBufferPool byteBufferPool = transportManager.getByteBufferPool();
+        ByteBuffer buffer = byteBufferPool.acquire();
+        try {
+            for (int i = 0; i < MAX_READS_PER_SELECT && isListening(); ++i) {
+                buffer.clear();
+                InetSocketAddress source =
+                    (InetSocketAddress)datagramChannel.receive(buffer);
+                if (source == null) {
+                    return;
+                }
+                buffer.flip();
+                processMessage(buffer, source.getAddress(),
+                        source.getPort(), RFC3261.TRANSPORT_UDP);
+            }
+        } finally {
+            byteBufferPool.release(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.HashedWheelTimer;
+import dk.apaq.peers.sip.RFC3261;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+public class NioUdpMessageSender extends MessageSender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioUdpMessageSender.class);
+
+    private DatagramSendQueue datagramSendQueue;
+    private InetSocketAddress destination;
+
+    public NioUdpMessageSender(InetAddress inetAddress, int port,
+            DatagramChannel datagramChannel,
+            DatagramSendQueue datagramSendQueue, Config config,
+            HashedWheelTimer timer) {
+        super(datagramChannel.socket().getLocalPort(), inetAddress, port,
+                config, RFC3261.TRANSPORT_UDP, timer);
+        this.datagramSendQueue = datagramSendQueue;
+        destination = new InetSocketAddress(inetAddress, port);
+    }
+
+    @Override
+    public void sendMessage(SipMessage sipMessage) throws IOException {
+        if (sipMessage == null) {
+            return;
+        }
+        byte[] buf = sipMessage.getBytes();
+        sendBytes(buf);
+        trace(buf);
+        if (LOG.isDebugEnabled()) {
+            StringBuffer direction = new StringBuffer();
+            direction.append("SENT to ").append(inetAddress.getHostAddress());
+            direction.append("/").append(port);
+            LOG.debug(new String(buf) + "\nDirection: " + direction.toString());
+        }
+    }
+
+    // queued, the channel I/O thread sends it: no lock, no socket wait
+    @Override
+    public void sendBytes(byte[] bytes) throws IOException {
+        datagramSendQueue.send(bytes, destination);
+    }
+
+}
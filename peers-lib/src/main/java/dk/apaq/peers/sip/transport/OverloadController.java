@@ -0,0 +1,271 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.RFC7339;
+import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the load of the receive path: depth of dispatch queues and time
+ * between reception and end of processing of messages. While overloaded,
+ * new out-of-dialog INVITE and REGISTER requests are rejected with a
+ * stateless 503 before any transaction is created, other messages are
+ * still processed. Peers supporting RFC7339 receive the requested traffic
+ * reduction in the Via header of responses.
+ */
+public class OverloadController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OverloadController.class);
+
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 256;
+    public static final int DEFAULT_MAX_LATENCY = 200; // milliseconds
+    public static final int DEFAULT_RETRY_AFTER = 10; // seconds
+    public static final int DEFAULT_VALIDITY = 2000; // milliseconds
+    // overload ends when the load falls below this ratio of the limits
+    public static final double LOW_WATERMARK = 0.8;
+    public static final int MIN_REDUCTION = 10; // percent
+
+    // weight of a new sample in the latency moving average
+    private static final double LATENCY_WEIGHT = 0.1;
+    // latency measures older than this are not representative anymore
+    private static final long SAMPLE_VALIDITY = TimeUnit.SECONDS.toNanos(1);
+
+    private static final byte[] INVITE =
+        (RFC3261.METHOD_INVITE + " ").getBytes();
+    private static final byte[] REGISTER =
+        (RFC3261.METHOD_REGISTER + " ").getBytes();
+
+    // null when messages are processed by socket reading threads
+    private MessageDispatcher messageDispatcher;
+    private volatile int maxQueueDepth;
+    private volatile long maxLatency; // nanoseconds
+    private volatile int retryAfter;
+    private volatile int validity;
+    // updates may be lost when workers finish messages at the same time,
+    // this is acceptable for a moving average
+    private volatile long averageLatency; // nanoseconds
+    private volatile long lastSample;
+    private volatile boolean overloaded;
+    private AtomicLong rejected;
+
+    public OverloadController(MessageDispatcher messageDispatcher) {
+        this.messageDispatcher = messageDispatcher;
+        maxQueueDepth = DEFAULT_MAX_QUEUE_DEPTH;
+        maxLatency = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_LATENCY);
+        retryAfter = DEFAULT_RETRY_AFTER;
+        validity = DEFAULT_VALIDITY;
+        rejected = new AtomicLong();
+    }
+
+    /**
+     * @param latency nanoseconds between reception and end of processing
+     */
+    public void messageProcessed(long latency) {
+        long now = System.nanoTime();
+        if (now - lastSample > SAMPLE_VALIDITY) {
+            // one slow message after a quiet period is not an overload
+            averageLatency = 0;
+        }
+        averageLatency += (long)((latency - averageLatency) * LATENCY_WEIGHT);
+        lastSample = now;
+    }
+
+    /**
+     * @return ratio of the current queue depth or latency to its limit,
+     *         whichever is higher. Above 1, the receive path is overloaded.
+     */
+    public double getLoad() {
+        double load = 0;
+        if (messageDispatcher != null) {
+            int queueDepth = 0;
+            for (int depth: messageDispatcher.getQueueDepths()) {
+                queueDepth = Math.max(queueDepth, depth);
+            }
+            load = (double)queueDepth / maxQueueDepth;
+        }
+        if (System.nanoTime() - lastSample <= SAMPLE_VALIDITY) {
+            load = Math.max(load, (double)averageLatency / maxLatency);
+        }
+        return load;
+    }
+
+    public boolean isOverloaded() {
+        double load = getLoad();
+        if (overloaded) {
+            if (load < LOW_WATERMARK) {
+                overloaded = false;
+                LOG.info("end of overload");
+            }
+        } else if (load >= 1) {
+            overloaded = true;
+            LOG.warn("overload, load " + load);
+        }
+        return overloaded;
+    }
+
+    /**
+     * @return percentage of requests peers are asked not to send, 0 when
+     *         not overloaded.
+     */
+    public int getReduction() {
+        if (!isOverloaded()) {
+            return 0;
+        }
+        // traffic to shed so that load falls back to 1
+        double load = getLoad();
+        int reduction = (int)Math.ceil((1 - 1 / load) * 100);
+        return Math.min(100, Math.max(MIN_REDUCTION, reduction));
+    }
+
+    /**
+     * Checks, on raw bytes, that message is a request starting a new
+     * dialog or registration: INVITE or REGISTER without To tag.
+     */
+    public boolean isRejectable(ByteBuffer message) {
+        if (!startsWith(message, INVITE) && !startsWith(message, REGISTER)) {
+            return false;
+        }
+        return MessageDispatcher.getToTag(message) == null;
+    }
+
+    private boolean startsWith(ByteBuffer message, byte[] prefix) {
+        int position = message.position();
+        if (message.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (message.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates a stateless 503 response to sipRequest, asking the sender
+     * to retry later.
+     * 
+     * @return null if sipRequest lacks headers needed for a response
+     */
+    public SipResponse createServiceUnavailable(SipRequest sipRequest) {
+        rejected.incrementAndGet();
+        SipResponse sipResponse = Utils.generateStatelessResponse(sipRequest,
+                RFC3261.CODE_503_SERVICE_UNAVAILABLE,
+                RFC3261.REASON_503_SERVICE_UNAVAILABLE);
+        if (sipResponse != null) {
+            sipResponse.getSipHeaders().add(SipHeaderFieldName.RETRY_AFTER,
+                    new SipHeaderFieldValue(String.valueOf(retryAfter)));
+        }
+        return sipResponse;
+    }
+
+    /**
+     * Fills RFC7339 parameters in a request top Via if its sender supports
+     * overload control. Responses copy this Via and carry the feedback.
+     */
+    public void addFeedback(SipHeaderFieldValue topVia) {
+        SipHeaderParamName ocName = new SipHeaderParamName(RFC7339.PARAM_OC);
+        if (topVia.getParam(ocName) == null) {
+            return;
+        }
+        String algo = topVia.getParam(new SipHeaderParamName(
+                RFC7339.PARAM_OC_ALGO));
+        if (algo != null && !algo.contains(RFC7339.ALGO_LOSS)) {
+            // loss is mandatory, this should not happen
+            return;
+        }
+        int reduction = getReduction();
+        long now = System.currentTimeMillis();
+        topVia.addParam(ocName, String.valueOf(reduction));
+        // validity 0 tells the peer that overload control is not active
+        topVia.addParam(new SipHeaderParamName(RFC7339.PARAM_OC_VALIDITY),
+                String.valueOf(reduction > 0 ? validity : 0));
+        topVia.addParam(new SipHeaderParamName(RFC7339.PARAM_OC_SEQ),
+                now / 1000 + "." + String.format("%03d", now % 1000));
+        topVia.addParam(new SipHeaderParamName(RFC7339.PARAM_OC_ALGO),
+                "\"" + RFC7339.ALGO_LOSS + "\"");
+    }
+
+    /**
+     * @return number of requests rejected since creation.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return moving average of the processing latency, in microseconds.
+     */
+    public long getAverageLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(averageLatency);
+    }
+
+    public void setMaxQueueDepth(int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @param maxLatency in milliseconds
+     */
+    public void setMaxLatency(int maxLatency) {
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+    }
+
+    public int getMaxLatency() {
+        return (int)TimeUnit.NANOSECONDS.toMillis(maxLatency);
+    }
+
+    /**
+     * @param retryAfter Retry-After value of 503 responses, in seconds
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param validity oc-validity value, in milliseconds
+     */
+    public void setValidity(int validity) {
+        this.validity = validity;
+    }
+
+    public int getValidity() {
+        return validity;
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes sip messages as udp datagrams in pcap files that can be opened
+ * with Wireshark. Ip and udp headers are synthesized from message source
+ * and destination. When a file reaches maxFileSize, a new one is started,
+ * and only the last maxFiles files are kept: prefix-0.pcap, prefix-1.pcap...
+ * Not thread safe.
+ */
+public class PcapWriter {
+
+    public static final int MAGIC_NUMBER = 0xa1b2c3d4;
+    // raw ip packets, version read in ip header
+    public static final int LINKTYPE_RAW = 101;
+    public static final int SNAPLEN = 65535;
+    public static final int GLOBAL_HEADER_SIZE = 24;
+    public static final int RECORD_HEADER_SIZE = 16;
+    public static final int IPV4_HEADER_SIZE = 20;
+    public static final int IPV6_HEADER_SIZE = 40;
+    public static final int UDP_HEADER_SIZE = 8;
+    public static final int PROTOCOL_UDP = 17;
+    public static final int TTL = 64;
+
+    private File directory;
+    private String prefix;
+    private long maxFileSize;
+    private int maxFiles;
+    private int fileIndex;
+    private OutputStream outputStream;
+    private long fileSize;
+    private ByteBuffer header;
+
+    public PcapWriter(File directory, String prefix, long maxFileSize,
+            int maxFiles) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        header = ByteBuffer.allocate(RECORD_HEADER_SIZE + IPV6_HEADER_SIZE
+                + UDP_HEADER_SIZE);
+    }
+
+    /**
+     * @param timestamp milliseconds since epoch
+     */
+    public void write(long timestamp, InetAddress sourceIp, int sourcePort,
+            InetAddress destinationIp, int destinationPort, byte[] payload,
+            int length) throws IOException {
+        byte[] source = sourceIp.getAddress();
+        byte[] destination = destinationIp.getAddress();
+        boolean ipv4 = sourceIp instanceof Inet4Address
+            && destinationIp instanceof Inet4Address;
+        if (!ipv4) {
+            source = toIpv6(source);
+            destination = toIpv6(destination);
+        }
+        int ipHeaderSize = ipv4 ? IPV4_HEADER_SIZE : IPV6_HEADER_SIZE;
+        int udpLength = UDP_HEADER_SIZE + length;
+        int packetLength = ipHeaderSize + udpLength;
+        int capturedLength = Math.min(packetLength, SNAPLEN);
+        int capturedPayload = capturedLength - ipHeaderSize - UDP_HEADER_SIZE;
+
+        if (outputStream == null
+                || fileSize + RECORD_HEADER_SIZE + capturedLength > maxFileSize
+                && fileSize > GLOBAL_HEADER_SIZE) {
+            rotate();
+        }
+
+        header.clear();
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt((int)(timestamp / 1000));
+        header.putInt((int)(timestamp % 1000) * 1000);
+        header.putInt(capturedLength);
+        header.putInt(packetLength);
+        header.order(ByteOrder.BIG_ENDIAN);
+        if (ipv4) {
+            int start = header.position();
+            header.put((byte)0x45);
+            header.put((byte)0);
+            header.putShort((short)Math.min(packetLength, 0xffff));
+            header.putShort((short)0);
+            // don't fragment
+            header.putShort((short)0x4000);
+            header.put((byte)TTL);
+            header.put((byte)PROTOCOL_UDP);
+            header.putShort((short)0);
+            header.put(source);
+            header.put(destination);
+            header.putShort(start + 10, checksum(header, start,
+                    IPV4_HEADER_SIZE));
+        } else {
+            header.putInt(0x60000000);
+            header.putShort((short)Math.min(udpLength, 0xffff));
+            header.put((byte)PROTOCOL_UDP);
+            header.put((byte)TTL);
+            header.put(source);
+            header.put(destination);
+        }
+        header.putShort((short)sourcePort);
+        header.putShort((short)destinationPort);
+        header.putShort((short)Math.min(udpLength, 0xffff));
+        // no udp checksum
+        header.putShort((short)0);
+        outputStream.write(header.array(), 0, header.position());
+        outputStream.write(payload, 0, capturedPayload);
+        fileSize += header.position() + capturedPayload;
+    }
+
+    public void flush() throws IOException {
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+    }
+
+    public void close() throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+            outputStream = null;
+        }
+    }
+
+    public File getFile(int index) {
+        return new File(directory, prefix + "-" + index + ".pcap");
+    }
+
+    /**
+     * @return index of the file being written, -1 if none.
+     */
+    public int getFileIndex() {
+        return fileIndex - 1;
+    }
+
+    private void rotate() throws IOException {
+        close();
+        if (fileIndex >= maxFiles) {
+            File oldest = getFile(fileIndex - maxFiles);
+            if (oldest.exists() && !oldest.delete()) {
+                throw new IOException("cannot delete " + oldest);
+            }
+        }
+        File file = getFile(fileIndex++);
+        outputStream = new FileOutputStream(file);
+        ByteBuffer globalHeader = ByteBuffer.allocate(GLOBAL_HEADER_SIZE);
+        globalHeader.order(ByteOrder.LITTLE_ENDIAN);
+        globalHeader.putInt(MAGIC_NUMBER);
+        globalHeader.putShort((short)2);
+        globalHeader.putShort((short)4);
+        // gmt offset and timestamp accuracy
+        globalHeader.putInt(0);
+        globalHeader.putInt(0);
+        globalHeader.putInt(SNAPLEN);
+        globalHeader.putInt(LINKTYPE_RAW);
+        outputStream.write(globalHeader.array());
+        fileSize = GLOBAL_HEADER_SIZE;
+    }
+
+    private byte[] toIpv6(byte[] address) {
+        if (address.length == 16) {
+            return address;
+        }
+        // ipv4-mapped ipv6 address
+        byte[] ipv6 = new byte[16];
+        ipv6[10] = (byte)0xff;
+        ipv6[11] = (byte)0xff;
+        System.arraycopy(address, 0, ipv6, 12, 4);
+        return ipv6;
+    }
+
+    private short checksum(ByteBuffer buffer, int start, int length) {
+        int sum = 0;
+        for (int i = start; i < start + length; i += 2) {
+            sum += buffer.getShort(i) & 0xffff;
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+        return (short)~sum;
+    }
+
+}
@@ -20,15 +20,30 @@
 package dk.apaq.peers.sip.transport;
 
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.AddressHeader;
+import dk.apaq.peers.sip.syntaxencoding.CSeqHeader;
+import dk.apaq.peers.sip.syntaxencoding.SipEncoder;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldMultiValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
+import dk.apaq.peers.sip.syntaxencoding.ViaHeader;
 
 public abstract class SipMessage {
     
     protected String sipVersion;
     protected SipHeaders sipHeaders;
     protected byte[] body;
+    // body can be a slice of a larger buffer, see setBody(byte[], int, int)
+    private int bodyOffset;
+    private int bodyLength;
+    // typed views, replaced when the underlying header value is replaced
+    private ViaHeader topVia;
+    private CSeqHeader cseq;
+    private AddressHeader from;
+    private AddressHeader to;
+    private AddressHeader contact;
+    private volatile Encoded encoded;
 
     public SipMessage() {
         sipVersion = RFC3261.DEFAULT_SIP_VERSION;
@@ -47,23 +62,155 @@ public abstract class SipMessage {
         return sipHeaders;
     }
 
+    /**
+     * @return first value of a header, null if absent
+     */
+    private SipHeaderFieldValue getFirstValue(SipHeaderFieldName name) {
+        SipHeaderFieldValue value = sipHeaders.get(name);
+        if (value instanceof SipHeaderFieldMultiValue) {
+            value = ((SipHeaderFieldMultiValue)value).getValues().get(0);
+        }
+        return value;
+    }
+
+    public ViaHeader getTopVia() {
+        SipHeaderFieldValue value = getFirstValue(SipHeaderFieldName.VIA);
+        if (value == null) {
+            return null;
+        }
+        ViaHeader viaHeader = topVia;
+        if (viaHeader == null || viaHeader.getFieldValue() != value) {
+            viaHeader = new ViaHeader(value);
+            topVia = viaHeader;
+        }
+        return viaHeader;
+    }
+
+    public CSeqHeader getCSeq() {
+        SipHeaderFieldValue value = sipHeaders.get(SipHeaderFieldName.CSEQ);
+        if (value == null) {
+            return null;
+        }
+        CSeqHeader cseqHeader = cseq;
+        if (cseqHeader == null || cseqHeader.getFieldValue() != value) {
+            cseqHeader = new CSeqHeader(value);
+            cseq = cseqHeader;
+        }
+        return cseqHeader;
+    }
+
+    public AddressHeader getFrom() {
+        from = getAddressHeader(SipHeaderFieldName.FROM, from);
+        return from;
+    }
+
+    public AddressHeader getTo() {
+        to = getAddressHeader(SipHeaderFieldName.TO, to);
+        return to;
+    }
+
+    /**
+     * @return first contact, null if absent
+     */
+    public AddressHeader getContact() {
+        contact = getAddressHeader(SipHeaderFieldName.CONTACT, contact);
+        return contact;
+    }
+
+    private AddressHeader getAddressHeader(SipHeaderFieldName name,
+            AddressHeader cached) {
+        SipHeaderFieldValue value = getFirstValue(name);
+        if (value == null) {
+            return null;
+        }
+        if (cached != null && cached.getFieldValue() == value) {
+            return cached;
+        }
+        return new AddressHeader(value);
+    }
+
     public byte[] getBody() {
+        if (body != null && (bodyOffset != 0 || bodyLength != body.length)) {
+            byte[] aux = new byte[bodyLength];
+            System.arraycopy(body, bodyOffset, aux, 0, bodyLength);
+            bodyOffset = 0;
+            body = aux;
+        }
         return body;
     }
 
+    /**
+     * @return body length, without copying the body.
+     */
+    public int getBodyLength() {
+        if (body == null) {
+            return 0;
+        }
+        return bodyLength;
+    }
+
     public void setBody(byte[] body) {
+        setBody(body, 0, body.length);
+    }
+
+    /**
+     * Uses length bytes of buffer, from offset, as body. buffer is not
+     * copied, it must not be modified as long as this message is used.
+     */
+    public void setBody(byte[] buffer, int offset, int length) {
         SipHeaderFieldName contentLengthName =
-            new SipHeaderFieldName(RFC3261.HDR_CONTENT_LENGTH);
+            SipHeaderFieldName.CONTENT_LENGTH;
         SipHeaderFieldValue contentLengthValue =
             sipHeaders.get(contentLengthName);
         if (contentLengthValue == null) {
             contentLengthValue = new SipHeaderFieldValue(
-                    String.valueOf(body.length));
+                    String.valueOf(length));
             sipHeaders.add(contentLengthName, contentLengthValue);
         } else {
-            contentLengthValue.setValue(String.valueOf(body.length));
+            contentLengthValue.setValue(String.valueOf(length));
+        }
+        body = buffer;
+        bodyOffset = offset;
+        bodyLength = length;
+    }
+
+    /**
+     * @return start line, including CRLF, encoded for the wire
+     */
+    protected abstract byte[] getStartLineBytes();
+
+    /**
+     * Wire form of this message, the same as toString() but without
+     * building strings. It is kept until a header, a header value or the
+     * body is changed, so that retransmissions and size checks do not
+     * encode the message again.
+     * 
+     * @return message bytes, must not be modified
+     */
+    public byte[] getBytes() {
+        byte[] headers = sipHeaders.getBytes();
+        Encoded encoded = this.encoded;
+        if (encoded != null && encoded.headers == headers
+                && encoded.body == body && encoded.bodyOffset == bodyOffset
+                && encoded.bodyLength == bodyLength) {
+            return encoded.bytes;
         }
-        this.body = body;
+        byte[] startLine = getStartLineBytes();
+        int length = startLine.length + headers.length
+            + SipEncoder.CRLF.length;
+        if (body != null) {
+            length += bodyLength;
+        }
+        byte[] bytes = new byte[length];
+        int pos = SipEncoder.write(startLine, bytes, 0);
+        pos = SipEncoder.write(headers, bytes, pos);
+        pos = SipEncoder.write(SipEncoder.CRLF, bytes, pos);
+        if (body != null) {
+            System.arraycopy(body, bodyOffset, bytes, pos, bodyLength);
+        }
+        this.encoded = new Encoded(headers, body, bodyOffset, bodyLength,
+                bytes);
+        return bytes;
     }
 
     @Override
@@ -72,9 +219,28 @@ public abstract class SipMessage {
         buf.append(sipHeaders.toString());
         buf.append(RFC3261.CRLF);
         if (body != null) {
-            buf.append(new String(body));
+            buf.append(new String(body, bodyOffset, bodyLength));
         }
         return buf.toString();
     }
+
+    private static class Encoded {
+
+        private byte[] headers;
+        private byte[] body;
+        private int bodyOffset;
+        private int bodyLength;
+        private byte[] bytes;
+
+        Encoded(byte[] headers, byte[] body, int bodyOffset, int bodyLength,
+                byte[] bytes) {
+            this.headers = headers;
+            this.body = body;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.bytes = bytes;
+        }
+
+    }
     
 }
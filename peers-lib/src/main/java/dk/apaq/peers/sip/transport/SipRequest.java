@@ -20,12 +20,16 @@
 package dk.apaq.peers.sip.transport;
 
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.SipEncoder;
 import dk.apaq.peers.sip.syntaxencoding.SipURI;
 
 public class SipRequest extends SipMessage {
     protected String method;
     protected SipURI requestUri;
     //protected String requestUri;
+    private byte[] startLine;
+    // reliable connection the request was received on
+    private TcpMessageSender connection;
     
     public SipRequest(String method, SipURI requestUri) {
         super();
@@ -42,6 +46,15 @@ public class SipRequest extends SipMessage {
         return buf.toString();
     }
 
+    @Override
+    protected byte[] getStartLineBytes() {
+        if (startLine == null) {
+            startLine = SipEncoder.getBytes(method + ' ' + requestUri + ' '
+                    + RFC3261.DEFAULT_SIP_VERSION + RFC3261.CRLF);
+        }
+        return startLine;
+    }
+
     public String getMethod() {
         return method;
     }
@@ -49,5 +62,18 @@ public class SipRequest extends SipMessage {
     public SipURI getRequestUri() {
         return requestUri;
     }
+
+    /**
+     * @return connection the request was received on, responses must be
+     *         sent on it while it is open (RFC3261 18.2.2). Null for
+     *         requests received as datagrams or created locally.
+     */
+    public TcpMessageSender getConnection() {
+        return connection;
+    }
+
+    void setConnection(TcpMessageSender connection) {
+        this.connection = connection;
+    }
     
 }
@@ -20,10 +20,12 @@
 package dk.apaq.peers.sip.transport;
 
 import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.SipEncoder;
 
 public class SipResponse extends SipMessage {
     protected int statusCode;
     protected String reasonPhrase;
+    private byte[] startLine;
     
     public SipResponse(int statusCode, String reasonPhrase) {
         this.statusCode = statusCode;
@@ -39,6 +41,15 @@ public class SipResponse extends SipMessage {
         return buf.toString();
     }
 
+    @Override
+    protected byte[] getStartLineBytes() {
+        if (startLine == null) {
+            startLine = SipEncoder.getBytes(RFC3261.DEFAULT_SIP_VERSION + ' '
+                    + statusCode + ' ' + reasonPhrase + RFC3261.CRLF);
+        }
+        return startLine;
+    }
+
     public int getStatusCode() {
         return statusCode;
     }
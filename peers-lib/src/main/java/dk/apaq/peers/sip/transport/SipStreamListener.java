@@ -0,0 +1,43 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives messages framed by a {@link SipStreamParser}.
+ */
+public interface SipStreamListener {
+
+    /**
+     * @param message buffer holding a complete message between its
+     *                position and its limit, only valid until this method
+     *                returns.
+     */
+    public void messageReceived(ByteBuffer message) throws IOException;
+
+    /**
+     * A double CRLF keep-alive ping has been received between messages
+     * (RFC5626 3.5.1).
+     */
+    public void pingReceived() throws IOException;
+
+}
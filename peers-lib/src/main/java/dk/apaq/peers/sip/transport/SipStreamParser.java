@@ -0,0 +1,263 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.SipParserException;
+
+/**
+ * Frames sip messages received on a stream transport, following RFC3261
+ * 18.3: headers end with an empty line and the body length is given by
+ * Content-Length. Bytes are pushed as they are read, in chunks of any
+ * size, and complete messages are passed to a listener, so that no
+ * thread has to block on a connection.
+ * 
+ * A parser buffers at most one message, in a buffer that grows up to
+ * the maximum headers and body sizes and is given back once a large
+ * message has been received. Not thread safe, one parser must be used
+ * per connection.
+ */
+public class SipStreamParser {
+
+    public static final int INITIAL_BUFFER_SIZE = 2048;
+
+    private static final int IDLE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+
+    private SipStreamListener sipStreamListener;
+    private int maxHeadersSize;
+    private int maxBodySize;
+
+    private int state;
+    private byte[] buffer;
+    private int size;
+    // headers are scanned from this position on
+    private int scanPos;
+    private int lineStart;
+    private int contentLength;
+    private int messageEnd;
+    // line feeds received between messages
+    private int newLines;
+
+    public SipStreamParser(SipStreamListener sipStreamListener,
+            int maxHeadersSize, int maxBodySize) {
+        this.sipStreamListener = sipStreamListener;
+        this.maxHeadersSize = maxHeadersSize;
+        this.maxBodySize = maxBodySize;
+        buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxHeadersSize)];
+        state = IDLE;
+    }
+
+    public void feed(ByteBuffer data) throws IOException, SipParserException {
+        if (data.hasArray()) {
+            feed(data.array(), data.arrayOffset() + data.position(),
+                    data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            feed(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Consumes length bytes of data, from offset. Listener is called for
+     * each message or ping completed by these bytes.
+     * 
+     * @throws SipParserException if a message exceeds size limits, the
+     *         stream cannot be framed anymore and must be closed.
+     */
+    public void feed(byte[] data, int offset, int length)
+            throws IOException, SipParserException {
+        int end = offset + length;
+        while (offset < end) {
+            switch (state) {
+            case IDLE:
+                byte b = data[offset];
+                if (b != '\r' && b != '\n') {
+                    newLines = 0;
+                    state = HEADERS;
+                    break;
+                }
+                ++offset;
+                if (b == '\n' && ++newLines == 2) {
+                    newLines = 0;
+                    sipStreamListener.pingReceived();
+                }
+                break;
+            case HEADERS:
+                if (size == buffer.length) {
+                    if (size >= maxHeadersSize) {
+                        throw new SipParserException("headers too large");
+                    }
+                    grow(Math.min(size * 2, maxHeadersSize));
+                }
+                int copied = Math.min(end - offset, buffer.length - size);
+                System.arraycopy(data, offset, buffer, size, copied);
+                int headersEnd = scanHeaders(size + copied);
+                if (headersEnd < 0) {
+                    size += copied;
+                    offset += copied;
+                    break;
+                }
+                // bytes after headers are copied again, as body
+                offset += headersEnd - size;
+                size = headersEnd;
+                if (contentLength > maxBodySize) {
+                    throw new SipParserException("body too large: "
+                            + contentLength);
+                }
+                messageEnd = headersEnd + contentLength;
+                state = BODY;
+                if (size == messageEnd) {
+                    messageComplete();
+                }
+                break;
+            case BODY:
+                if (buffer.length < messageEnd) {
+                    grow(messageEnd);
+                }
+                copied = Math.min(end - offset, messageEnd - size);
+                System.arraycopy(data, offset, buffer, size, copied);
+                size += copied;
+                offset += copied;
+                if (size == messageEnd) {
+                    messageComplete();
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown state " + state);
+            }
+        }
+    }
+
+    /**
+     * @return true if a message has been partially received
+     */
+    public boolean isWithinMessage() {
+        return state != IDLE;
+    }
+
+    private void grow(int newSize) {
+        byte[] newBuffer = new byte[newSize];
+        System.arraycopy(buffer, 0, newBuffer, 0, size);
+        buffer = newBuffer;
+    }
+
+    /**
+     * Looks for the empty line ending headers, from scanPos to end, and
+     * reads Content-Length on each complete line.
+     * 
+     * @return position after the empty line, -1 if not found
+     */
+    private int scanHeaders(int end) {
+        while (scanPos < end) {
+            if (buffer[scanPos++] != '\n') {
+                continue;
+            }
+            int lineEnd = scanPos - 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                --lineEnd;
+            }
+            if (lineEnd == lineStart) {
+                return scanPos;
+            }
+            int length = parseContentLength(lineStart, lineEnd);
+            if (length > -1) {
+                contentLength = length;
+            }
+            lineStart = scanPos;
+        }
+        return -1;
+    }
+
+    private int parseContentLength(int start, int end) {
+        int colonPos = start;
+        while (colonPos < end
+                && buffer[colonPos] != RFC3261.FIELD_NAME_SEPARATOR) {
+            ++colonPos;
+        }
+        if (colonPos == end) {
+            return -1;
+        }
+        int nameEnd = colonPos;
+        while (nameEnd > start && isWhiteSpace(buffer[nameEnd - 1])) {
+            --nameEnd;
+        }
+        if (!equalsIgnoreCase(start, nameEnd, RFC3261.HDR_CONTENT_LENGTH)
+                && !equalsIgnoreCase(start, nameEnd, String.valueOf(
+                        RFC3261.COMPACT_HDR_CONTENT_LENGTH))) {
+            return -1;
+        }
+        int value = 0;
+        boolean digits = false;
+        for (int i = colonPos + 1; i < end; ++i) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                if (value > (Integer.MAX_VALUE - 9) / 10) {
+                    return Integer.MAX_VALUE;
+                }
+                value = value * 10 + b - '0';
+                digits = true;
+            } else if (!isWhiteSpace(b)) {
+                return -1;
+            }
+        }
+        return digits ? value : -1;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); ++i) {
+            if (Character.toLowerCase((char)buffer[start + i])
+                    != Character.toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private void messageComplete() throws IOException {
+        int messageSize = size;
+        size = 0;
+        scanPos = 0;
+        lineStart = 0;
+        contentLength = 0;
+        state = IDLE;
+        byte[] message = buffer;
+        if (buffer.length > INITIAL_BUFFER_SIZE) {
+            // memory of idle connections is kept low
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        sipStreamListener.messageReceived(
+                ByteBuffer.wrap(message, 0, messageSize));
+    }
+
+}
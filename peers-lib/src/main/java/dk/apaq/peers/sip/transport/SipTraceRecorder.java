@@ -0,0 +1,301 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records sent and received sip messages in pcap files, see
+ * {@link PcapWriter}. Transport threads only copy message bytes into a
+ * ring buffer, without locking, and a background thread writes them to
+ * disk. When the ring buffer is full, messages are not recorded. A
+ * disabled recorder costs one volatile read per message.
+ *
+ * Whole calls can be selected: with sampling n, one Call-ID out of n is
+ * recorded, and when Call-ID filters are set only those calls are.
+ */
+public class SipTraceRecorder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SipTraceRecorder.class);
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 10;
+    public static final long IDLE_WAIT = 10; // milliseconds
+    public static final int FLUSH_PERIOD = 1000; // milliseconds
+
+    private AtomicReferenceArray<Record> ring;
+    private AtomicLong producerSequence;
+    // next record to be written, only modified by the writer thread
+    private volatile long consumerSequence;
+    private PcapWriter pcapWriter;
+    private volatile boolean enabled;
+    private volatile boolean running;
+    private volatile int sampling;
+    private Set<String> callIdFilters;
+    private AtomicLong recorded;
+    private AtomicLong dropped;
+    private Thread thread;
+
+    public SipTraceRecorder(File directory, String prefix) {
+        this(directory, prefix, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_SIZE,
+                DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param capacity    maximum number of messages waiting to be written
+     * @param maxFileSize bytes
+     */
+    public SipTraceRecorder(File directory, String prefix, int capacity,
+            long maxFileSize, int maxFiles) {
+        ring = new AtomicReferenceArray<Record>(capacity);
+        producerSequence = new AtomicLong();
+        pcapWriter = new PcapWriter(directory, prefix, maxFileSize, maxFiles);
+        sampling = 1;
+        callIdFilters = ConcurrentHashMap.newKeySet();
+        recorded = new AtomicLong();
+        dropped = new AtomicLong();
+        running = true;
+        enabled = true;
+        thread = new Thread(new Writer(), getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param message recorded between position and limit, the buffer is
+     *                not modified.
+     */
+    public void record(ByteBuffer message, InetAddress sourceIp,
+            int sourcePort, InetAddress destinationIp, int destinationPort) {
+        if (!enabled || !isSelected(message)) {
+            return;
+        }
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        publish(new Record(bytes, sourceIp, sourcePort, destinationIp,
+                destinationPort));
+    }
+
+    /**
+     * @param message not copied, must not be modified afterwards.
+     */
+    public void record(byte[] message, InetAddress sourceIp,
+            int sourcePort, InetAddress destinationIp, int destinationPort) {
+        if (!enabled || !isSelected(ByteBuffer.wrap(message))) {
+            return;
+        }
+        publish(new Record(message, sourceIp, sourcePort, destinationIp,
+                destinationPort));
+    }
+
+    private boolean isSelected(ByteBuffer message) {
+        int sampling = this.sampling;
+        if (sampling <= 1 && callIdFilters.isEmpty()) {
+            return true;
+        }
+        String callId = MessageDispatcher.getCallId(message);
+        if (callId == null) {
+            return false;
+        }
+        if (!callIdFilters.isEmpty() && !callIdFilters.contains(callId)) {
+            return false;
+        }
+        return sampling <= 1
+            || (callId.hashCode() & Integer.MAX_VALUE) % sampling == 0;
+    }
+
+    private void publish(Record record) {
+        long sequence;
+        do {
+            sequence = producerSequence.get();
+            // slot still holding a record from previous round: writer is
+            // late. The sequence is not claimed, so that the writer never
+            // waits for a record that will not come.
+            if (sequence - consumerSequence >= ring.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!producerSequence.compareAndSet(sequence, sequence + 1));
+        ring.set((int)(sequence % ring.length()), record);
+    }
+
+    /**
+     * Stops recording, writes pending messages and closes the current file.
+     */
+    public void close() {
+        enabled = false;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(FLUSH_PERIOD);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled && running;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param sampling record one call out of sampling, 1 records all calls.
+     */
+    public void setSampling(int sampling) {
+        if (sampling < 1) {
+            throw new IllegalArgumentException("sampling must be positive");
+        }
+        this.sampling = sampling;
+    }
+
+    public int getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Restricts recording to the given calls, filters are cumulative.
+     */
+    public void addCallIdFilter(String callId) {
+        callIdFilters.add(callId);
+    }
+
+    public void removeCallIdFilter(String callId) {
+        callIdFilters.remove(callId);
+    }
+
+    public void clearCallIdFilters() {
+        callIdFilters.clear();
+    }
+
+    /**
+     * @return number of messages written.
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * @return number of messages lost because the writer was late.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public PcapWriter getPcapWriter() {
+        return pcapWriter;
+    }
+
+    static class Record {
+
+        private byte[] message;
+        private InetAddress sourceIp;
+        private int sourcePort;
+        private InetAddress destinationIp;
+        private int destinationPort;
+        private long timestamp;
+
+        Record(byte[] message, InetAddress sourceIp, int sourcePort,
+                InetAddress destinationIp, int destinationPort) {
+            this.message = message;
+            this.sourceIp = sourceIp;
+            this.sourcePort = sourcePort;
+            this.destinationIp = destinationIp;
+            this.destinationPort = destinationPort;
+            timestamp = System.currentTimeMillis();
+        }
+
+    }
+
+    class Writer implements Runnable {
+
+        private long lastFlush;
+
+        @Override
+        public void run() {
+            while (running) {
+                if (!writePending()) {
+                    LockSupport.parkNanos(
+                            TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT));
+                }
+                if (System.currentTimeMillis() - lastFlush > FLUSH_PERIOD) {
+                    flush();
+                }
+            }
+            writePending();
+            try {
+                pcapWriter.close();
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+            }
+        }
+
+        /**
+         * @return false if there was nothing to write.
+         */
+        private boolean writePending() {
+            boolean written = false;
+            while (true) {
+                int index = (int)(consumerSequence % ring.length());
+                Record record = ring.getAndSet(index, null);
+                if (record == null) {
+                    // nothing pending, or claimed slot not filled yet
+                    return written;
+                }
+                ++consumerSequence;
+                written = true;
+                try {
+                    pcapWriter.write(record.timestamp, record.sourceIp,
+                            record.sourcePort, record.destinationIp,
+                            record.destinationPort, record.message,
+                            record.message.length);
+                    recorded.incrementAndGet();
+                } catch (IOException e) {
+                    LOG.error("input/output error", e);
+                }
+            }
+        }
+
+        private void flush() {
+            lastFlush = System.currentTimeMillis();
+            try {
+                pcapWriter.flush();
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+            }
+        }
+
+    }
+
+}
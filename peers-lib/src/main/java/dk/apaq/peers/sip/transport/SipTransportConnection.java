@@ -58,7 +58,18 @@ public class SipTransportConnection {
             return localInetAddress.equals(other.localInetAddress) &&
                 localPort == other.localPort;
         }
-        return false;
+        // connection oriented transports: one connection per remote end
+        return equals(localInetAddress, other.localInetAddress) &&
+            localPort == other.localPort &&
+            equals(remoteInetAddress, other.remoteInetAddress) &&
+            remotePort == other.remotePort;
+    }
+
+    private boolean equals(InetAddress inetAddress1, InetAddress inetAddress2) {
+        if (inetAddress1 == null) {
+            return inetAddress2 == null;
+        }
+        return inetAddress1.equals(inetAddress2);
     }
     
     @Override
@@ -0,0 +1,64 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+/**
+ * Listening point for TCP: accepts connections and hands them over to the
+ * transport manager, which pools them and starts their receivers.
+ */
+public class TcpConnectionAcceptor extends MessageReceiver {
+
+    private ServerSocket serverSocket;
+
+    public TcpConnectionAcceptor(ServerSocket serverSocket,
+            TransactionManager transactionManager,
+            TransportManager transportManager, Config config) {
+        super(serverSocket.getLocalPort(), transactionManager,
+                transportManager, config);
+        this.serverSocket = serverSocket;
+    }
+
+    @Override
+    protected void listen() throws IOException {
+        Socket socket;
+        try {
+            socket = serverSocket.accept();
+        } catch (SocketTimeoutException e) {
+            return;
+        } catch (SocketException e) {
+            if (serverSocket.isClosed()) {
+                setListening(false);
+                return;
+            }
+            throw e;
+        }
+        transportManager.tcpConnectionAccepted(port, socket);
+    }
+
+}
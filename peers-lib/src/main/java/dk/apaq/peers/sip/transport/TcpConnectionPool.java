@@ -0,0 +1,171 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+
+import dk.apaq.peers.sip.HashedWheelTimer;
+import dk.apaq.peers.sip.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent TCP connections, keyed by {@link SipTransportConnection}. A
+ * connection may be registered under several keys: its actual remote end
+ * and the sent-by of an RFC5923 alias. Connections without traffic for
+ * longer than the idle timeout are closed by a periodic sweep.
+ */
+public class TcpConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpConnectionPool.class);
+    public static final int DEFAULT_IDLE_TIMEOUT = 300000; // milliseconds
+    public static final int EVICTION_PERIOD = 10000; // milliseconds
+
+    private Hashtable<SipTransportConnection, TcpMessageSender> connections;
+    private volatile int idleTimeout;
+    private HashedWheelTimer timer;
+    private Timeout idleEviction;
+
+    public TcpConnectionPool(HashedWheelTimer timer) {
+        this.timer = timer;
+        connections = new Hashtable<SipTransportConnection, TcpMessageSender>();
+        idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    }
+
+    /**
+     * @return open connection registered under this key, or null.
+     */
+    public TcpMessageSender get(SipTransportConnection sipTransportConnection) {
+        TcpMessageSender tcpMessageSender =
+            connections.get(sipTransportConnection);
+        if (tcpMessageSender != null && !tcpMessageSender.isOpen()) {
+            remove(tcpMessageSender);
+            return null;
+        }
+        return tcpMessageSender;
+    }
+
+    /**
+     * Registers a connection unless an open one already exists for this
+     * key, in which case the existing connection is returned.
+     */
+    public synchronized TcpMessageSender put(
+            SipTransportConnection sipTransportConnection,
+            TcpMessageSender tcpMessageSender) {
+        TcpMessageSender existing = get(sipTransportConnection);
+        if (existing != null) {
+            return existing;
+        }
+        connections.put(sipTransportConnection, tcpMessageSender);
+        if (idleEviction == null) {
+            idleEviction = timer.scheduleAtFixedRate(new IdleEviction(),
+                    EVICTION_PERIOD, EVICTION_PERIOD);
+        }
+        return tcpMessageSender;
+    }
+
+    /**
+     * Removes a connection under all the keys it is registered with.
+     */
+    public void remove(TcpMessageSender tcpMessageSender) {
+        synchronized (connections) {
+            Iterator<TcpMessageSender> iterator =
+                connections.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == tcpMessageSender) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return distinct open connections, a copy.
+     */
+    public List<TcpMessageSender> getConnections() {
+        List<TcpMessageSender> tcpMessageSenders =
+            new ArrayList<TcpMessageSender>();
+        synchronized (connections) {
+            for (TcpMessageSender tcpMessageSender: connections.values()) {
+                if (!tcpMessageSenders.contains(tcpMessageSender)) {
+                    tcpMessageSenders.add(tcpMessageSender);
+                }
+            }
+        }
+        return tcpMessageSenders;
+    }
+
+    public synchronized void closeAll() {
+        if (idleEviction != null) {
+            idleEviction.cancel();
+            idleEviction = null;
+        }
+        List<TcpMessageSender> tcpMessageSenders;
+        synchronized (connections) {
+            tcpMessageSenders =
+                new ArrayList<TcpMessageSender>(connections.values());
+            connections.clear();
+        }
+        for (TcpMessageSender tcpMessageSender: tcpMessageSenders) {
+            tcpMessageSender.close();
+        }
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    class IdleEviction implements Runnable {
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            List<TcpMessageSender> idle = new ArrayList<TcpMessageSender>();
+            synchronized (connections) {
+                for (TcpMessageSender tcpMessageSender: connections.values()) {
+                    if (now - tcpMessageSender.getLastActivity() > idleTimeout
+                            || !tcpMessageSender.isOpen()) {
+                        idle.add(tcpMessageSender);
+                    }
+                }
+            }
+            for (TcpMessageSender tcpMessageSender: idle) {
+                LOG.debug("closing idle connection to "
+                        + tcpMessageSender.inetAddress + ":"
+                        + tcpMessageSender.port);
+                remove(tcpMessageSender);
+                tcpMessageSender.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.SipParserException;
+import dk.apaq.peers.sip.syntaxencoding.SipParserLimits;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads messages from a TCP connection. Bytes are read in chunks and
+ * framed by a {@link SipStreamParser}. A double CRLF received between
+ * messages is a keep-alive ping (RFC5626 3.5.1) and is answered with a
+ * single CRLF.
+ */
+public class TcpMessageReceiver extends MessageReceiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpMessageReceiver.class);
+    public static final int READ_BUFFER_SIZE = 4096;
+
+    private static final byte[] PONG = RFC3261.CRLF.getBytes();
+
+    private Socket socket;
+    private InputStream inputStream;
+    private TcpMessageSender tcpMessageSender;
+    private SipTransportConnection sipTransportConnection;
+    private SipStreamParser sipStreamParser;
+    private byte[] readBuffer;
+
+    public TcpMessageReceiver(SipTransportConnection sipTransportConnection,
+            Socket socket, TcpMessageSender tcpMessageSender,
+            TransactionManager transactionManager,
+            TransportManager transportManager, Config config)
+            throws IOException {
+        super(sipTransportConnection.getLocalPort(), transactionManager,
+                transportManager, config);
+        this.sipTransportConnection = sipTransportConnection;
+        this.socket = socket;
+        this.tcpMessageSender = tcpMessageSender;
+        inputStream = socket.getInputStream();
+        // messages are framed within the limits enforced by the parser
+        SipParserLimits limits = transportManager.getSipParser().getLimits();
+        sipStreamParser = new SipStreamParser(new StreamListener(),
+                limits.getMaxMessageSize(), limits.getMaxBodySize());
+        readBuffer = new byte[READ_BUFFER_SIZE];
+    }
+
+    @Override
+    protected void listen() throws IOException {
+        int read;
+        try {
+            read = inputStream.read(readBuffer);
+            if (read < 0 && sipStreamParser.isWithinMessage()) {
+                throw new EOFException("connection closed within message");
+            }
+            if (read > 0) {
+                sipStreamParser.feed(readBuffer, 0, read);
+            }
+        } catch (SipParserException e) {
+            LOG.error("cannot frame message on connection "
+                    + sipTransportConnection + ": " + e.getMessage());
+            read = -1;
+        } catch (IOException e) {
+            if (isListening() && !socket.isClosed()) {
+                LOG.debug("connection " + sipTransportConnection
+                        + " lost: " + e.getMessage());
+            }
+            read = -1;
+        }
+        if (read < 0) {
+            setListening(false);
+            tcpMessageSender.close();
+            transportManager.tcpConnectionClosed(tcpMessageSender);
+        }
+    }
+
+    class StreamListener implements SipStreamListener {
+
+        @Override
+        public void messageReceived(ByteBuffer message) throws IOException {
+            tcpMessageSender.touch();
+            processMessage(message, socket.getInetAddress(), socket.getPort(),
+                    RFC3261.TRANSPORT_TCP);
+        }
+
+        @Override
+        public void pingReceived() throws IOException {
+            tcpMessageSender.sendBytes(PONG);
+        }
+
+    }
+
+    @Override
+    protected TcpMessageSender getConnection() {
+        return tcpMessageSender;
+    }
+
+    public InetAddress getRemoteInetAddress() {
+        return socket.getInetAddress();
+    }
+
+}
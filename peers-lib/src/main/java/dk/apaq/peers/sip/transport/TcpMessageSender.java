@@ -0,0 +1,173 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.HashedWheelTimer;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.SerialExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends messages over one persistent TCP connection. The connection is
+ * shared through {@link TcpConnectionPool} by every transaction and every
+ * response going to the same remote end.
+ *
+ * Writes are queued and performed by a thread shared with other
+ * connections, so that senders never block on a slow remote end, the
+ * timer thread sending keep-alives and retransmissions in particular.
+ * Write errors close the connection.
+ */
+public class TcpMessageSender extends MessageSender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpMessageSender.class);
+    // the connection is closed when more bytes are waiting to be written
+    public static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    private static ExecutorService writers;
+
+    private Socket socket;
+    private OutputStream outputStream;
+    private volatile long lastActivity;
+    // messages from several threads must not interleave on the stream
+    private SerialExecutor writer;
+    private AtomicInteger pendingBytes;
+
+    private static synchronized ExecutorService getWriters() {
+        if (writers == null) {
+            // threads are only kept while connections are written to
+            writers = Executors.newCachedThreadPool(new ThreadFactory() {
+                private AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            TcpMessageSender.class.getSimpleName() + " "
+                            + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return writers;
+    }
+
+    /**
+     * @param localPort sip port advertised in contacts, not the possibly
+     *                  ephemeral local port of the socket.
+     */
+    public TcpMessageSender(int localPort, Socket socket, Config config,
+            HashedWheelTimer timer) throws IOException {
+        super(localPort, socket.getInetAddress(), socket.getPort(), config,
+                RFC3261.TRANSPORT_TCP, timer);
+        this.socket = socket;
+        outputStream = socket.getOutputStream();
+        lastActivity = System.currentTimeMillis();
+        writer = new SerialExecutor(getWriters());
+        pendingBytes = new AtomicInteger();
+    }
+
+    @Override
+    public void sendMessage(SipMessage sipMessage) throws IOException {
+        if (sipMessage == null) {
+            return;
+        }
+        byte[] buf = sipMessage.getBytes();
+        sendBytes(buf);
+        trace(buf);
+        touch();
+        if (LOG.isDebugEnabled()) {
+            StringBuffer direction = new StringBuffer();
+            direction.append("SENT to ").append(inetAddress.getHostAddress());
+            direction.append("/").append(port).append("/TCP");
+            LOG.debug(new String(buf) + "\nDirection: " + direction.toString());
+        }
+    }
+
+    /**
+     * Queues bytes to be written, without waiting for the remote end.
+     */
+    @Override
+    public void sendBytes(final byte[] bytes) throws IOException {
+        if (socket.isClosed()) {
+            throw new IOException("Cannot send data because socket is closed.");
+        }
+        if (pendingBytes.addAndGet(bytes.length) > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-bytes.length);
+            close();
+            throw new IOException("remote end " + inetAddress.getHostAddress()
+                    + "/" + port + " does not read, connection closed");
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(bytes);
+            }
+        });
+    }
+
+    private void write(byte[] bytes) {
+        pendingBytes.addAndGet(-bytes.length);
+        if (socket.isClosed()) {
+            return;
+        }
+        try {
+            outputStream.write(bytes);
+            outputStream.flush();
+        } catch (IOException e) {
+            // the receiver of this connection removes it from the pool
+            LOG.error("input/output error", e);
+            close();
+        }
+    }
+
+    /**
+     * Marks the connection as used, keep-alives do not count.
+     */
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    public void close() {
+        stopKeepAlives();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.error("input/output error", e);
+        }
+    }
+
+}
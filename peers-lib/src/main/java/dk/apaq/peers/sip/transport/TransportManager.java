@@ -37,18 +37,36 @@ import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketOption;
 import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
 
 import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.resolver.JndiDnsBackend;
+import dk.apaq.peers.sip.resolver.SipResolver;
+import dk.apaq.peers.sip.resolver.SipResolverCallback;
+import dk.apaq.peers.sip.resolver.SipTarget;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaders;
 import dk.apaq.peers.sip.syntaxencoding.SipParser;
+import dk.apaq.peers.sip.syntaxencoding.SipURI;
+import dk.apaq.peers.sip.syntaxencoding.SipUriSyntaxException;
+import dk.apaq.peers.sip.syntaxencoding.ViaHeader;
 import dk.apaq.peers.sip.transaction.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +76,8 @@ public class TransportManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(TransportManager.class);
     public static final int SOCKET_TIMEOUT = RFC3261.TIMER_T1;
+    public static final int TCP_CONNECT_TIMEOUT = RFC3261.TIMER_T2;
+    public static final int MAX_POOLED_BUFFERS = 64;
 
     private static int NO_TTL = -1;
     
@@ -65,23 +85,82 @@ public class TransportManager {
     private SipServerTransportUser sipServerTransportUser;
     
     protected SipParser sipParser;
+    private ByteBufferPool byteBufferPool;
     
     private Hashtable<SipTransportConnection, DatagramSocket> datagramSockets;
+    private Hashtable<SipTransportConnection, DatagramChannel> datagramChannels;
+    // additional channels bound to a server port with SO_REUSEPORT
+    private List<DatagramChannel> sharedPortChannels;
+    private Hashtable<DatagramChannel, DatagramSendQueue> datagramSendQueues;
+    private Hashtable<SipTransportConnection, ServerSocket> serverSockets;
     private Hashtable<SipTransportConnection, MessageSender> messageSenders;
     private Hashtable<SipTransportConnection, MessageReceiver> messageReceivers;
+    private TcpConnectionPool tcpConnectionPool;
 
     private TransactionManager transactionManager;
+    private HashedWheelTimer timer;
+
+    // null when sockets are served by one blocking thread each
+    private NioTransportEngine nioTransportEngine;
+    private boolean ownsNioTransportEngine;
+    // null when messages are processed by socket reading threads
+    private MessageDispatcher messageDispatcher;
+    // null unless messages are recorded
+    private volatile SipTraceRecorder sipTraceRecorder;
+    private SipResolver sipResolver;
+    // null unless overload control is enabled
+    private volatile OverloadController overloadController;
 
     private Config config;
     private int sipPort;
 
     public TransportManager(TransactionManager transactionManager, Config config) {
+        this(transactionManager, config, null);
+        if (config.getIoThreads() > 0) {
+            try {
+                nioTransportEngine = new NioTransportEngine(
+                        config.getIoThreads());
+                ownsNioTransportEngine = true;
+            } catch (IOException e) {
+                LOG.error("cannot start non-blocking transport, "
+                        + "falling back to one thread per socket", e);
+            }
+        }
+    }
+
+    /**
+     * Uses the provided engine for all sockets, so that several
+     * transport managers can share the same I/O threads. The engine is
+     * not closed by {@link #closeTransports()}.
+     */
+    public TransportManager(TransactionManager transactionManager,
+            Config config, NioTransportEngine nioTransportEngine) {
         sipParser = new SipParser();
+        // heap buffers: the parser reads their backing array in place
+        byteBufferPool = new ByteBufferPool(MessageReceiver.BUFFER_SIZE,
+                MAX_POOLED_BUFFERS, false);
         datagramSockets = new Hashtable<SipTransportConnection, DatagramSocket>();
+        datagramChannels = new Hashtable<SipTransportConnection, DatagramChannel>();
+        sharedPortChannels = new Vector<DatagramChannel>();
+        datagramSendQueues = new Hashtable<DatagramChannel, DatagramSendQueue>();
+        serverSockets = new Hashtable<SipTransportConnection, ServerSocket>();
         messageSenders = new Hashtable<SipTransportConnection, MessageSender>();
         messageReceivers = new Hashtable<SipTransportConnection, MessageReceiver>();
         this.transactionManager = transactionManager;
+        // one timer for the whole stack
+        timer = transactionManager.getTimer();
+        tcpConnectionPool = new TcpConnectionPool(timer);
+        sipResolver = new SipResolver(new JndiDnsBackend());
         this.config = config;
+        this.nioTransportEngine = nioTransportEngine;
+        if (config.getDispatchThreads() > 0) {
+            messageDispatcher = new MessageDispatcher(
+                    config.getDispatchThreads(),
+                    MessageDispatcher.DEFAULT_QUEUE_CAPACITY, byteBufferPool);
+        }
+        if (config.isOverloadControl()) {
+            overloadController = new OverloadController(messageDispatcher);
+        }
     }
     
     public MessageSender createClientTransport(SipRequest sipRequest, InetAddress inetAddress, int port, String transport) throws IOException {
@@ -97,7 +176,7 @@ public class TransportManager {
         SipHeaderFieldValue via = Utils.getTopVia(sipRequest);
         StringBuffer buf = new StringBuffer(DEFAULT_SIP_VERSION);
         buf.append(TRANSPORT_VIA_SEP);
-        if (sipRequest.toString().getBytes().length > TRANSPORT_UDP_USUAL_MAX_SIZE) {
+        if (sipRequest.getBytes().length > TRANSPORT_UDP_USUAL_MAX_SIZE) {
             transport = TRANSPORT_TCP;
         }
         buf.append(transport);
@@ -111,7 +190,7 @@ public class TransportManager {
         }
         //RFC3581
         //TODO check config
-        via.addParam(new SipHeaderParamName(RFC3261.PARAM_RPORT), "");
+        via.addParam(ViaHeader.RPORT, "");
 
         buf.append(TRANSPORT_VIA_SEP2);//space
         
@@ -143,9 +222,16 @@ public class TransportManager {
         
         SipTransportConnection connection = new SipTransportConnection(config.getLocalInetAddress(), sipPort, inetAddress, port, transport);
 
-        MessageSender messageSender = messageSenders.get(connection);
-        if (messageSender == null) {
-            messageSender = createMessageSender(connection);
+        MessageSender messageSender;
+        if (TRANSPORT_TCP.equals(transport)) {
+            //RFC5923 the server may reuse this connection to reach us
+            via.addParam(ViaHeader.ALIAS, "");
+            messageSender = getTcpMessageSender(connection);
+        } else {
+            messageSender = messageSenders.get(connection);
+            if (messageSender == null) {
+                messageSender = createMessageSender(connection);
+            }
         }
         return messageSender;
     }
@@ -162,62 +248,195 @@ public class TransportManager {
         MessageReceiver messageReceiver = messageReceivers.get(conn);
         if (messageReceiver == null) {
             messageReceiver = createMessageReceiver(conn);
-            new Thread(messageReceiver, threadName(port)).start();
+            startMessageReceiver(messageReceiver, port);
         }
         if (!messageReceiver.isListening()) {
+            startMessageReceiver(messageReceiver, port);
+        }
+    }
+
+    private void startMessageReceiver(MessageReceiver messageReceiver,
+            int port) {
+        // non-blocking receivers are driven by the engine I/O threads
+        if (!(messageReceiver instanceof SelectionHandler)) {
             new Thread(messageReceiver, threadName(port)).start();
         }
     }
     
-    public void sendResponse(SipResponse sipResponse) throws IOException {
+    /**
+     * @return sender used, to retransmit the response, null if the
+     *         response could not be sent
+     */
+    public MessageSender sendResponse(SipResponse sipResponse)
+            throws IOException {
+        return sendResponse(sipResponse, null);
+    }
+
+    /**
+     * @param connection connection the request was received on, the
+     *                   response is sent on it while it is open, or null.
+     * @return sender used, to retransmit the response, null if the
+     *         response could not be sent, or is sent once the top via
+     *         sent-by domain name is resolved
+     */
+    public MessageSender sendResponse(final SipResponse sipResponse,
+            TcpMessageSender connection) throws IOException {
+        if (connection != null && connection.isOpen()) {
+            send(sipResponse, connection);
+            return connection;
+        }
         //18.2.2
-        SipHeaderFieldValue topVia = Utils.getTopVia(sipResponse);
-        String topViaValue = topVia.getValue();
-        StringBuffer buf = new StringBuffer(topViaValue);
-        String hostport = null;
-        int i = topViaValue.length() - 1;
-        while (i > 0) {
-            char c = buf.charAt(i);
-            if (c == ' ' || c == '\t') {
-                hostport = buf.substring(i + 1);
-                break;
+        ViaHeader topVia = sipResponse.getTopVia();
+        String host = topVia.getHost();
+        if (host == null) {
+            throw new RuntimeException("host or ip address not found in top via");
+        }
+        int port = topVia.getPort();
+        
+        final String transport = topVia.getTransport();
+        if (!RFC3261.TRANSPORT_TCP.equals(transport)
+                && !RFC3261.TRANSPORT_UDP.equals(transport)) {
+            LOG.error("no transport found in top via header, discarding response");
+            return null;
+        }
+        
+        String received = topVia.getReceived();
+        if (received != null) {
+            host = received;
+        }
+        //RFC3581
+        //TODO check config
+        String rport = topVia.getRport();
+        if (rport != null && !"".equals(rport.trim())) {
+            port = Integer.parseInt(rport);
+        }
+        InetAddress inetAddress = SipResolver.getNumericAddress(host);
+        if (inetAddress == null) {
+            // RFC3263 5, resolved off the receiving thread
+            resolveAndSend(sipResponse, host, port, transport);
+            return null;
+        }
+        if (port < 0) {
+            port = RFC3261.TRANSPORT_DEFAULT_PORT;
+        }
+        MessageSender messageSender = getMessageSender(inetAddress, port,
+                transport);
+        send(sipResponse, messageSender);
+        return messageSender;
+    }
+
+    private void resolveAndSend(final SipResponse sipResponse, String host,
+            int port, final String transport) {
+        StringBuffer buf = new StringBuffer(RFC3261.SIP_SCHEME);
+        buf.append(RFC3261.SCHEME_SEPARATOR).append(host);
+        if (port >= 0) {
+            buf.append(TRANSPORT_PORT_SEP).append(port);
+        }
+        buf.append(RFC3261.PARAM_SEPARATOR).append(RFC3261.PARAM_TRANSPORT);
+        buf.append(RFC3261.PARAM_ASSIGNMENT);
+        buf.append(transport.toLowerCase());
+        SipURI sipUri;
+        try {
+            sipUri = new SipURI(buf.toString());
+        } catch (SipUriSyntaxException e) {
+            LOG.error("invalid sent-by " + host, e);
+            return;
+        }
+        sipResolver.resolve(sipUri, new SipResolverCallback() {
+            @Override
+            public void resolved(List<SipTarget> sipTargets) {
+                SipTarget sipTarget = sipTargets.get(0);
+                try {
+                    send(sipResponse, getMessageSender(
+                            sipTarget.getInetAddress(), sipTarget.getPort(),
+                            transport));
+                } catch (IOException e) {
+                    LOG.error("input/output error", e);
+                }
+            }
+            @Override
+            public void failed(String host, IOException cause) {
+                LOG.error("cannot resolve " + host + ", response discarded",
+                        cause);
+            }
+        });
+    }
+
+    private void send(SipResponse sipResponse, MessageSender messageSender)
+            throws IOException {
+        //add contact header
+        SipHeaderFieldName contactName = SipHeaderFieldName.CONTACT;
+        SipHeaders respHeaders = sipResponse.getSipHeaders();
+        StringBuffer contactBuf = new StringBuffer();
+        contactBuf.append(RFC3261.LEFT_ANGLE_BRACKET);
+        contactBuf.append(RFC3261.SIP_SCHEME);
+        contactBuf.append(RFC3261.SCHEME_SEPARATOR);
+        contactBuf.append(messageSender.getContact());
+        contactBuf.append(RFC3261.RIGHT_ANGLE_BRACKET);
+        respHeaders.add(contactName, new SipHeaderFieldValue(contactBuf.toString()));
+        messageSender.sendMessage(sipResponse);
+    }
+
+    /**
+     * @return sender to the destination of a response.
+     */
+    private MessageSender getMessageSender(InetAddress inetAddress, int port,
+            String transport) throws IOException {
+        SipTransportConnection connection = new SipTransportConnection(
+                config.getLocalInetAddress(), sipPort, inetAddress, port,
+                transport);
+        
+        //actual sending
+        
+        //TODO manage maddr parameter in top via for multicast
+        MessageSender messageSender;
+        if (RFC3261.TRANSPORT_TCP.equals(transport)) {
+            // open a new connection to received and sent-by port, unless
+            // one is already open
+            messageSender = tcpConnectionPool.get(connection);
+            if (messageSender == null) {
+                messageSender = getTcpMessageSender(connection);
+            }
+        } else {
+            messageSender = messageSenders.get(connection);
+            if (messageSender == null) {
+                messageSender = createMessageSender(connection);
             }
-            --i;
         }
-        if (hostport == null) {
+        return messageSender;
+    }
+
+    /**
+     * @return sender to the destination of the top via, null if there is
+     *         none.
+     */
+    private MessageSender getResponseSender(SipResponse sipResponse)
+            throws IOException {
+        //18.2.2
+        ViaHeader topVia = sipResponse.getTopVia();
+        String host = topVia.getHost();
+        if (host == null) {
             throw new RuntimeException("host or ip address not found in top via");
         }
-        String host;
-        int port;
-        int colonPos = hostport.indexOf(RFC3261.TRANSPORT_PORT_SEP);
-        if (colonPos > -1) {
-            host = hostport.substring(0, colonPos);
-            port = Integer.parseInt(
-                    hostport.substring(colonPos + 1, hostport.length()));
-        } else {
-            host = hostport;
+        int port = topVia.getPort();
+        if (port < 0) {
             port = RFC3261.TRANSPORT_DEFAULT_PORT;
         }
         
-        String transport;
-        if (buf.indexOf(RFC3261.TRANSPORT_TCP) > -1) {
-            transport = RFC3261.TRANSPORT_TCP;
-        } else if (buf.indexOf(RFC3261.TRANSPORT_UDP) > -1) {
-            transport = RFC3261.TRANSPORT_UDP;
-        } else {
+        String transport = topVia.getTransport();
+        if (!RFC3261.TRANSPORT_TCP.equals(transport)
+                && !RFC3261.TRANSPORT_UDP.equals(transport)) {
             LOG.error("no transport found in top via header, discarding response");
-            return;
+            return null;
         }
         
-        String received =
-            topVia.getParam(new SipHeaderParamName(RFC3261.PARAM_RECEIVED));
+        String received = topVia.getReceived();
         if (received != null) {
             host = received;
         }
         //RFC3581
         //TODO check config
-        String rport = topVia.getParam(new SipHeaderParamName(
-                RFC3261.PARAM_RPORT));
+        String rport = topVia.getRport();
         if (rport != null && !"".equals(rport.trim())) {
             port = Integer.parseInt(rport);
         }
@@ -228,59 +447,125 @@ public class TransportManager {
                     port, transport);
         } catch (UnknownHostException e) {
             LOG.error("unknwon host", e);
-            return;
+            return null;
         }
         
         //actual sending
         
         //TODO manage maddr parameter in top via for multicast
-        if (buf.indexOf(RFC3261.TRANSPORT_TCP) > -1) {
-//            Socket socket = (Socket)factory.connections.get(connection);
-//            if (!socket.isClosed()) {
-//                try {
-//                    socket.getOutputStream().write(data);
-//                } catch (IOException e) {
-//                    e.printStackTrace();
-//                    return;
-//                    //TODO
-//                }
-//            } else {
-//                try {
-//                    socket = new Socket(host, port);
-//                    factory.connections.put(connection, socket);
-//                    socket.getOutputStream().write(data);
-//                } catch (IOException e) {
-//                    // TODO Auto-generated catch block
-//                    e.printStackTrace();
-//                    /*
-//                     * TODO
-//                     * If connection attempt fails, use the procedures in RFC3263
-//                     * for servers in order to determine the IP address and
-//                     * port to open the connection and send the response to.
-//                     */
-//                    return;
-//                }
-//            }
+        MessageSender messageSender;
+        if (RFC3261.TRANSPORT_TCP.equals(transport)) {
+            // use the connection the request was received on, if still open,
+            // or open a new one to received and sent-by port
+            messageSender = tcpConnectionPool.get(connection);
+            if (messageSender == null) {
+                messageSender = getTcpMessageSender(connection);
+            }
         } else {
-            MessageSender messageSender = messageSenders.get(connection);
+            messageSender = messageSenders.get(connection);
             if (messageSender == null) {
                 messageSender = createMessageSender(connection);
             }
-            //add contact header
-            SipHeaderFieldName contactName = new SipHeaderFieldName(RFC3261.HDR_CONTACT);
-            SipHeaders respHeaders = sipResponse.getSipHeaders();
-            StringBuffer contactBuf = new StringBuffer();
-            contactBuf.append(RFC3261.LEFT_ANGLE_BRACKET);
-            contactBuf.append(RFC3261.SIP_SCHEME);
-            contactBuf.append(RFC3261.SCHEME_SEPARATOR);
-            contactBuf.append(messageSender.getContact());
-            contactBuf.append(RFC3261.RIGHT_ANGLE_BRACKET);
-            respHeaders.add(contactName, new SipHeaderFieldValue(contactBuf.toString()));
-            messageSender.sendMessage(sipResponse);
+        }
+        return messageSender;
+    }
 
+    private TcpMessageSender getTcpMessageSender(SipTransportConnection conn)
+            throws IOException {
+        TcpMessageSender tcpMessageSender = tcpConnectionPool.get(conn);
+        if (tcpMessageSender == null) {
+            Socket socket = new Socket();
+            try {
+                socket.bind(new InetSocketAddress(conn.getLocalInetAddress(), 0));
+                socket.connect(new InetSocketAddress(conn.getRemoteInetAddress(),
+                        conn.getRemotePort()), TCP_CONNECT_TIMEOUT);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            tcpMessageSender = addTcpConnection(conn, socket);
+        }
+        return tcpMessageSender;
+    }
+
+    private TcpMessageSender addTcpConnection(SipTransportConnection conn,
+            Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        TcpMessageSender tcpMessageSender = new TcpMessageSender(
+                conn.getLocalPort(), socket, config, timer);
+        tcpMessageSender.setSipTraceRecorder(sipTraceRecorder);
+        TcpMessageSender pooled = tcpConnectionPool.put(conn, tcpMessageSender);
+        if (pooled != tcpMessageSender) {
+            // another thread connected to the same destination meanwhile
+            tcpMessageSender.close();
+            return pooled;
+        }
+        TcpMessageReceiver tcpMessageReceiver = new TcpMessageReceiver(conn,
+                socket, tcpMessageSender, transactionManager, this, config);
+        tcpMessageReceiver.setSipServerTransportUser(sipServerTransportUser);
+        new Thread(tcpMessageReceiver, threadName(conn.getLocalPort()) + " "
+                + conn.getRemoteInetAddress().getHostAddress() + ":"
+                + conn.getRemotePort()).start();
+        LOG.info("added tcp connection " + conn);
+        return tcpMessageSender;
+    }
+
+    void tcpConnectionAccepted(int localPort, Socket socket) {
+        SipTransportConnection conn = new SipTransportConnection(
+                config.getLocalInetAddress(), localPort,
+                socket.getInetAddress(), socket.getPort(), TRANSPORT_TCP);
+        try {
+            addTcpConnection(conn, socket);
+        } catch (IOException e) {
+            LOG.error("input/output error", e);
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                LOG.error("input/output error", ioe);
+            }
+        }
+    }
+
+    void tcpConnectionClosed(TcpMessageSender tcpMessageSender) {
+        tcpConnectionPool.remove(tcpMessageSender);
+    }
+
+    /**
+     * RFC5923: requests to the via sent-by of the request received on this
+     * connection can reuse it. Only accepted when sent-by is the source
+     * address, so that a remote end cannot capture other destinations.
+     */
+    void addConnectionAlias(String sentBy, SipTransportConnection connection) {
+        if (sentBy == null) {
+            return;
+        }
+        String host;
+        int port;
+        int colonPos = sentBy.indexOf(RFC3261.TRANSPORT_PORT_SEP);
+        try {
+            if (colonPos > -1) {
+                host = sentBy.substring(0, colonPos);
+                port = Integer.parseInt(sentBy.substring(colonPos + 1));
+            } else {
+                host = sentBy;
+                port = RFC3261.TRANSPORT_DEFAULT_PORT;
+            }
+        } catch (NumberFormatException e) {
+            LOG.debug("invalid sent-by " + sentBy);
+            return;
+        }
+        InetAddress remoteInetAddress = connection.getRemoteInetAddress();
+        if (!host.equals(remoteInetAddress.getHostAddress())
+                || port == connection.getRemotePort()) {
+            return;
+        }
+        TcpMessageSender tcpMessageSender = tcpConnectionPool.get(connection);
+        if (tcpMessageSender != null) {
+            tcpConnectionPool.put(new SipTransportConnection(
+                    connection.getLocalInetAddress(),
+                    connection.getLocalPort(), remoteInetAddress, port,
+                    connection.getTransport()), tcpMessageSender);
         }
-        
-        
     }
     
     private MessageSender createMessageSender(SipTransportConnection conn)
@@ -288,23 +573,40 @@ public class TransportManager {
         MessageSender messageSender = null;
         Object socket = null;
         if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
-            //TODO use Utils.getMyAddress to create socket on appropriate NIC
-            DatagramSocket datagramSocket = datagramSockets.get(conn);
-            if (datagramSocket == null) {
-                LOG.debug("new DatagramSocket(" + conn.getLocalPort()
-                        + ", " + conn.getLocalInetAddress() + ")");
-                datagramSocket = new DatagramSocket(conn.getLocalPort(),
-                        conn.getLocalInetAddress());
-                datagramSocket.setSoTimeout(SOCKET_TIMEOUT);
-                datagramSockets.put(conn, datagramSocket);
-                LOG.info("added datagram socket " + conn);
+            if (nioTransportEngine != null) {
+                DatagramChannel datagramChannel = datagramChannels.get(conn);
+                if (datagramChannel == null) {
+                    datagramChannel = openDatagramChannel(conn, false);
+                    datagramChannels.put(conn, datagramChannel);
+                    LOG.info("added datagram channel " + conn);
+                }
+                socket = datagramChannel;
+                messageSender = new NioUdpMessageSender(
+                        conn.getRemoteInetAddress(), conn.getRemotePort(),
+                        datagramChannel, getDatagramSendQueue(datagramChannel),
+                        config, timer);
+            } else {
+                //TODO use Utils.getMyAddress to create socket on appropriate NIC
+                DatagramSocket datagramSocket = datagramSockets.get(conn);
+                if (datagramSocket == null) {
+                    LOG.debug("new DatagramSocket(" + conn.getLocalPort()
+                            + ", " + conn.getLocalInetAddress() + ")");
+                    datagramSocket = new DatagramSocket(conn.getLocalPort(),
+                            conn.getLocalInetAddress());
+                    datagramSocket.setSoTimeout(SOCKET_TIMEOUT);
+                    datagramSockets.put(conn, datagramSocket);
+                    LOG.info("added datagram socket " + conn);
+                }
+                socket = datagramSocket;
+                messageSender = new UdpMessageSender(conn.getRemoteInetAddress(), conn.getRemotePort(), datagramSocket, config, timer);
             }
-            socket = datagramSocket;
-            messageSender = new UdpMessageSender(conn.getRemoteInetAddress(), conn.getRemotePort(), datagramSocket, config);
         } else {
             // TODO
             // messageReceiver = new TcpMessageReceiver(port);
         }
+        if (messageSender != null) {
+            messageSender.setSipTraceRecorder(sipTraceRecorder);
+        }
         messageSenders.put(conn, messageSender);
         //when a mesage is sent over a transport, the transport layer
         //must also be able to receive messages on this transport
@@ -314,7 +616,7 @@ public class TransportManager {
         MessageReceiver messageReceiver = messageReceivers.get(conn);
         if (messageReceiver == null) {
         	messageReceiver = createMessageReceiver(conn, socket);
-        	new Thread(messageReceiver, threadName(conn.getLocalPort())).start();
+        	startMessageReceiver(messageReceiver, conn.getLocalPort());
         }
 //        if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
 //            messageSender = new UdpMessageSender(conn.getRemoteInetAddress(),
@@ -327,7 +629,10 @@ public class TransportManager {
     private MessageReceiver createMessageReceiver(SipTransportConnection conn,
             Object socket) throws IOException {
         MessageReceiver messageReceiver = null;
-        if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
+        if (socket instanceof DatagramChannel) {
+            messageReceiver = createNioUdpMessageReceiver(
+                    (DatagramChannel)socket);
+        } else if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
             DatagramSocket datagramSocket = (DatagramSocket)socket;
             messageReceiver = new UdpMessageReceiver(datagramSocket, transactionManager, this, config);
             messageReceiver.setSipServerTransportUser(sipServerTransportUser);
@@ -340,7 +645,48 @@ public class TransportManager {
             throws SocketException {
         MessageReceiver messageReceiver = null;
         SipTransportConnection sipTransportConnection = conn;
-        if (RFC3261.TRANSPORT_UDP.equals(conn.getTransport())) {
+        if (RFC3261.TRANSPORT_UDP.equals(conn.getTransport())
+                && nioTransportEngine != null) {
+            DatagramChannel datagramChannel = datagramChannels.get(conn);
+            if (datagramChannel == null) {
+                boolean sharedPort = config.getUdpChannels() > 1;
+                datagramChannel = openDatagramChannel(conn, sharedPort);
+                int localPort = datagramChannel.socket().getLocalPort();
+                if (conn.getLocalPort() == 0) {
+                    sipTransportConnection = new SipTransportConnection(
+                            conn.getLocalInetAddress(),
+                            localPort,
+                            conn.getRemoteInetAddress(),
+                            conn.getRemotePort(),
+                            conn.getTransport());
+                }
+                sipPort = localPort;
+                datagramChannels.put(sipTransportConnection, datagramChannel);
+                LOG.info("added datagram channel " + sipTransportConnection);
+                if (sharedPort
+                        && getReusePortOption(datagramChannel) != null) {
+                    openSharedPortChannels(sipTransportConnection);
+                }
+            }
+            messageReceiver = createNioUdpMessageReceiver(datagramChannel);
+        } else if (RFC3261.TRANSPORT_TCP.equals(conn.getTransport())) {
+            ServerSocket serverSocket = serverSockets.get(conn);
+            if (serverSocket == null) {
+                serverSocket = openServerSocket(conn);
+                if (conn.getLocalPort() == 0) {
+                    sipTransportConnection = new SipTransportConnection(
+                            conn.getLocalInetAddress(),
+                            serverSocket.getLocalPort(),
+                            conn.getRemoteInetAddress(),
+                            conn.getRemotePort(),
+                            conn.getTransport());
+                }
+                serverSockets.put(sipTransportConnection, serverSocket);
+                LOG.info("added server socket " + sipTransportConnection);
+            }
+            messageReceiver = new TcpConnectionAcceptor(serverSocket,
+                    transactionManager, this, config);
+        } else if (RFC3261.TRANSPORT_UDP.equals(conn.getTransport())) {
             DatagramSocket datagramSocket = datagramSockets.get(conn);
             if (datagramSocket == null) {
                 LOG.debug("new DatagramSocket(" + conn.getLocalPort()
@@ -374,6 +720,155 @@ public class TransportManager {
         return messageReceiver;
     }
 
+    private ServerSocket openServerSocket(SipTransportConnection conn)
+            throws SocketException {
+        ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket();
+        } catch (IOException e) {
+            throw socketException("cannot create server socket", e);
+        }
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(conn.getLocalInetAddress(),
+                    conn.getLocalPort()));
+            serverSocket.setSoTimeout(SOCKET_TIMEOUT);
+        } catch (IOException e) {
+            try {
+                serverSocket.close();
+            } catch (IOException ioe) {
+                LOG.error("input/output error", ioe);
+            }
+            if (e instanceof SocketException) {
+                throw (SocketException)e;
+            }
+            throw socketException("cannot bind server socket", e);
+        }
+        return serverSocket;
+    }
+
+    /**
+     * @param reusePort set SO_REUSEPORT before binding, if supported, so
+     *                  that other channels can be bound to the same port.
+     */
+    private DatagramChannel openDatagramChannel(SipTransportConnection conn,
+            boolean reusePort) throws SocketException {
+        LOG.debug("new DatagramChannel(" + conn.getLocalPort()
+                + ", " + conn.getLocalInetAddress() + ")");
+        DatagramChannel datagramChannel;
+        try {
+            datagramChannel = DatagramChannel.open();
+        } catch (IOException e) {
+            throw socketException("cannot open datagram channel", e);
+        }
+        try {
+            if (reusePort) {
+                SocketOption<Boolean> reusePortOption =
+                    getReusePortOption(datagramChannel);
+                if (reusePortOption != null) {
+                    datagramChannel.setOption(reusePortOption, true);
+                } else {
+                    LOG.warn("SO_REUSEPORT not supported, "
+                            + "sip port served by one channel");
+                }
+            }
+            datagramChannel.socket().bind(new InetSocketAddress(
+                    conn.getLocalInetAddress(), conn.getLocalPort()));
+        } catch (IOException e) {
+            closeChannel(datagramChannel);
+            if (e instanceof SocketException) {
+                throw (SocketException)e;
+            }
+            throw socketException("cannot bind datagram channel", e);
+        }
+        return datagramChannel;
+    }
+
+    /**
+     * Binds udpChannels - 1 more channels to the port of conn, each with
+     * its own receiver: the kernel spreads incoming datagrams over them.
+     * Messages are still sent from the first channel, bound to the same
+     * port, so that the source port of responses does not depend on the
+     * channel which received the request.
+     */
+    private void openSharedPortChannels(SipTransportConnection conn) {
+        for (int i = 1; i < config.getUdpChannels(); ++i) {
+            DatagramChannel datagramChannel = null;
+            try {
+                datagramChannel = openDatagramChannel(conn, true);
+                createNioUdpMessageReceiver(datagramChannel);
+            } catch (SocketException e) {
+                LOG.error("cannot share sip port " + conn.getLocalPort(), e);
+                if (datagramChannel != null) {
+                    closeChannel(datagramChannel);
+                }
+                return;
+            }
+            sharedPortChannels.add(datagramChannel);
+        }
+        LOG.info("sip port " + conn.getLocalPort() + " shared by "
+                + (sharedPortChannels.size() + 1) + " channels");
+    }
+
+    /**
+     * SO_REUSEPORT is looked up by name: it is not a standard socket option
+     * before Java 9.
+     *
+     * @return null if not supported by this platform.
+     */
+    @SuppressWarnings("unchecked")
+    static SocketOption<Boolean> getReusePortOption(NetworkChannel channel) {
+        for (SocketOption<?> socketOption: channel.supportedOptions()) {
+            if ("SO_REUSEPORT".equals(socketOption.name())
+                    && socketOption.type() == Boolean.class) {
+                return (SocketOption<Boolean>)socketOption;
+            }
+        }
+        return null;
+    }
+
+    private MessageReceiver createNioUdpMessageReceiver(
+            DatagramChannel datagramChannel) throws SocketException {
+        NioUdpMessageReceiver messageReceiver = new NioUdpMessageReceiver(
+                datagramChannel, getDatagramSendQueue(datagramChannel),
+                transactionManager, this, config);
+        messageReceiver.setSipServerTransportUser(sipServerTransportUser);
+        try {
+            nioTransportEngine.register(datagramChannel, SelectionKey.OP_READ,
+                    messageReceiver);
+        } catch (IOException e) {
+            throw socketException("cannot register datagram channel", e);
+        }
+        return messageReceiver;
+    }
+
+    private synchronized DatagramSendQueue getDatagramSendQueue(
+            DatagramChannel datagramChannel) {
+        DatagramSendQueue datagramSendQueue =
+            datagramSendQueues.get(datagramChannel);
+        if (datagramSendQueue == null) {
+            datagramSendQueue = new DatagramSendQueue(datagramChannel,
+                    nioTransportEngine, DatagramSendQueue.DEFAULT_CAPACITY,
+                    DatagramSendQueue.OverflowPolicy.DROP_NEWEST);
+            datagramSendQueues.put(datagramChannel, datagramSendQueue);
+        }
+        return datagramSendQueue;
+    }
+
+    private SocketException socketException(String message, IOException cause) {
+        SocketException socketException = new SocketException(message);
+        socketException.initCause(cause);
+        return socketException;
+    }
+
+    private void closeChannel(DatagramChannel datagramChannel) {
+        try {
+            datagramChannel.close();
+        } catch (IOException e) {
+            LOG.error("input/output error", e);
+        }
+    }
+
     public void setSipServerTransportUser(
             SipServerTransportUser sipServerTransportUser) {
         this.sipServerTransportUser = sipServerTransportUser;
@@ -386,27 +881,132 @@ public class TransportManager {
         for (MessageSender messageSender: messageSenders.values()) {
             messageSender.stopKeepAlives();
         }
-        try
-		{
-			Thread.sleep(SOCKET_TIMEOUT);
-		}
-		catch (InterruptedException e)
-		{
-			return;
-		}
+        if (nioTransportEngine != null) {
+            // no blocked receive to wait for, sockets are released at once
+            for (DatagramChannel datagramChannel: datagramChannels.values()) {
+                nioTransportEngine.close(datagramChannel);
+            }
+            datagramChannels.clear();
+            for (DatagramChannel datagramChannel: sharedPortChannels) {
+                nioTransportEngine.close(datagramChannel);
+            }
+            sharedPortChannels.clear();
+            datagramSendQueues.clear();
+            if (ownsNioTransportEngine) {
+                nioTransportEngine.close();
+            }
+        } else {
+            try
+            {
+                Thread.sleep(SOCKET_TIMEOUT);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
 		for (DatagramSocket datagramSocket: datagramSockets.values()) {
 			datagramSocket.close();
 		}
 		datagramSockets.clear();
+        for (ServerSocket serverSocket: serverSockets.values()) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                LOG.error("input/output error", e);
+            }
+        }
+        serverSockets.clear();
+        tcpConnectionPool.closeAll();
+        sipResolver.close();
+        if (messageDispatcher != null) {
+            messageDispatcher.close();
+        }
 		messageReceivers.clear();
 		messageSenders.clear();
     }
 
     public MessageSender getMessageSender(
             SipTransportConnection sipTransportConnection) {
+        if (TRANSPORT_TCP.equalsIgnoreCase(
+                sipTransportConnection.getTransport())) {
+            return tcpConnectionPool.get(sipTransportConnection);
+        }
         return messageSenders.get(sipTransportConnection);
     }
 
+    public MessageDispatcher getMessageDispatcher() {
+        return messageDispatcher;
+    }
+
+    /**
+     * @return outbound queues of non-blocking udp channels, to monitor
+     *         their size, drops and latency.
+     */
+    public Collection<DatagramSendQueue> getDatagramSendQueues() {
+        return datagramSendQueues.values();
+    }
+
+    /**
+     * Records all messages sent and received from now on, null stops
+     * recording. The recorder is not closed by this transport manager.
+     */
+    public void setSipTraceRecorder(SipTraceRecorder sipTraceRecorder) {
+        this.sipTraceRecorder = sipTraceRecorder;
+        for (MessageSender messageSender: messageSenders.values()) {
+            messageSender.setSipTraceRecorder(sipTraceRecorder);
+        }
+        for (MessageSender messageSender:
+                tcpConnectionPool.getConnections()) {
+            messageSender.setSipTraceRecorder(sipTraceRecorder);
+        }
+    }
+
+    /**
+     * @return resolver used to locate request destinations, see RFC3263.
+     */
+    public SipResolver getSipResolver() {
+        return sipResolver;
+    }
+
+    /**
+     * Replaces the resolver, for example to use another dns backend.
+     */
+    public void setSipResolver(SipResolver sipResolver) {
+        this.sipResolver = sipResolver;
+    }
+
+    /**
+     * @return parser of received messages, its limits and counters apply
+     *         to all transports.
+     */
+    public SipParser getSipParser() {
+        return sipParser;
+    }
+
+    public OverloadController getOverloadController() {
+        return overloadController;
+    }
+
+    /**
+     * Enables overload control on received messages, null disables it.
+     */
+    public void setOverloadController(OverloadController overloadController) {
+        this.overloadController = overloadController;
+    }
+
+    public SipTraceRecorder getSipTraceRecorder() {
+        return sipTraceRecorder;
+    }
+
+    public ByteBufferPool getByteBufferPool() {
+        return byteBufferPool;
+    }
+
+    public TcpConnectionPool getTcpConnectionPool() {
+        return tcpConnectionPool;
+    }
+
     public int getSipPort() {
         return sipPort;
     }
@@ -24,6 +24,7 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 import dk.apaq.peers.Config;
 import dk.apaq.peers.sip.RFC3261;
@@ -33,27 +34,33 @@ import dk.apaq.peers.sip.transaction.TransactionManager;
 public class UdpMessageReceiver extends MessageReceiver {
 
     private DatagramSocket datagramSocket;
+    private DatagramPacket packet;
     
     public UdpMessageReceiver(DatagramSocket datagramSocket, TransactionManager transactionManager, TransportManager transportManager, 
             Config config) throws SocketException {
         super(datagramSocket.getLocalPort(), transactionManager, transportManager, config);
         this.datagramSocket = datagramSocket;
+        packet = new DatagramPacket(new byte[0], 0);
     }
 
     @Override
     protected void listen() throws IOException {
-        byte[] buf = new byte[BUFFER_SIZE];
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        ByteBufferPool byteBufferPool = transportManager.getByteBufferPool();
+        ByteBuffer buffer = byteBufferPool.acquire();
         try {
-            datagramSocket.receive(packet);
-        } catch (SocketTimeoutException e) {
-            return;
+            packet.setData(buffer.array(), buffer.arrayOffset(),
+                    buffer.capacity());
+            try {
+                datagramSocket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                return;
+            }
+            buffer.limit(packet.getLength());
+            processMessage(buffer, packet.getAddress(),
+                    packet.getPort(), RFC3261.TRANSPORT_UDP);
+        } finally {
+            byteBufferPool.release(buffer);
         }
-        byte[] trimmedPacket = new byte[packet.getLength()];
-        System.arraycopy(packet.getData(), 0,
-                trimmedPacket, 0, trimmedPacket.length);
-        processMessage(trimmedPacket, packet.getAddress(),
-                packet.getPort(), RFC3261.TRANSPORT_UDP);
     }
 
 
@@ -26,6 +26,7 @@ import java.net.InetAddress;
 import java.net.SocketException;
 
 import dk.apaq.peers.Config;
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,45 +39,49 @@ public class UdpMessageSender extends MessageSender {
     private DatagramSocket datagramSocket;
     
     public UdpMessageSender(InetAddress inetAddress, int port, DatagramSocket datagramSocket, Config config) throws SocketException {
-        super(datagramSocket.getLocalPort(), inetAddress, port, config, RFC3261.TRANSPORT_UDP);
+        this(inetAddress, port, datagramSocket, config, HashedWheelTimer.getDefault());
+    }
+
+    public UdpMessageSender(InetAddress inetAddress, int port, DatagramSocket datagramSocket, Config config,
+            HashedWheelTimer timer) throws SocketException {
+        super(datagramSocket.getLocalPort(), inetAddress, port, config, RFC3261.TRANSPORT_UDP, timer);
         this.datagramSocket = datagramSocket;
     }
 
     @Override
-    public synchronized void sendMessage(SipMessage sipMessage) throws IOException {
+    public void sendMessage(SipMessage sipMessage) throws IOException {
         LOG.debug("UdpMessageSender.sendMessage");
         if (sipMessage == null) {
             return;
         }
-        byte[] buf = sipMessage.toString().getBytes();
+        byte[] buf = sipMessage.getBytes();
         sendBytes(buf);
-        StringBuffer direction = new StringBuffer();
-        direction.append("SENT to ").append(inetAddress.getHostAddress());
-        direction.append("/").append(port);
-        LOG.debug(new String(buf) + "\nDirection: " + direction.toString());
+        trace(buf);
+        if (LOG.isDebugEnabled()) {
+            StringBuffer direction = new StringBuffer();
+            direction.append("SENT to ").append(inetAddress.getHostAddress());
+            direction.append("/").append(port);
+            LOG.debug(new String(buf) + "\nDirection: " + direction.toString());
+        }
         //LOG.traceNetwork(new String(buf), direction.toString());
     }
 
+    // DatagramSocket.send is thread safe, concurrent senders need no lock
     @Override
-    public synchronized void sendBytes(byte[] bytes) throws IOException {
-        LOG.debug("UdpMessageSender.sendBytes");
-        
+    public void sendBytes(byte[] bytes) throws IOException {
+        // hot path for keep-alives and retransmissions, datagrams are
+        // traced by the trace recorder
         if(!datagramSocket.isBound() || datagramSocket.isClosed()) {
             throw new IOException("Cannot send data because socket is closed.");
         }
         
         DatagramPacket packet = new DatagramPacket(bytes, bytes.length,
                 inetAddress, port);
-        LOG.debug("UdpMessageSender.sendBytes " + bytes.length
-                + " " + inetAddress + ":" + port);
-        
-        LOG.debug(datagramSocket.getLocalAddress().toString());
         try {
             datagramSocket.send(packet);
         } catch (Throwable t) {
             LOG.error("throwable", new Exception(t));
         }
-        LOG.debug("UdpMessageSender.sendBytes packet sent");
     }
     
     
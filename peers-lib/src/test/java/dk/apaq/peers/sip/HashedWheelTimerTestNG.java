@@ -0,0 +1,166 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class HashedWheelTimerTestNG {
+
+    private HashedWheelTimer timer;
+
+    @BeforeClass
+    protected void init() {
+        // small wheel so that some timeouts need several rounds
+        timer = new HashedWheelTimer("test", 5, 8);
+    }
+
+    @AfterClass
+    protected void close() {
+        timer.stop();
+    }
+
+    @Test
+    public void testSchedule() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        Timeout timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 100);
+        assert !timeout.isExpired();
+        assert latch.await(2, TimeUnit.SECONDS);
+        assert System.currentTimeMillis() - start >= 95;
+        assert timeout.isExpired();
+        assert !timeout.cancel();
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        Timeout timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 50);
+        assert timeout.cancel();
+        assert timeout.isCancelled();
+        assert !timeout.cancel();
+        Thread.sleep(150);
+        assert runs.get() == 0;
+    }
+
+    @Test
+    public void testFixedRate() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(3);
+        Timeout timeout = timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 0, 20);
+        assert latch.await(2, TimeUnit.SECONDS);
+        assert timeout.cancel();
+    }
+
+    @Test
+    public void testCancelFixedRateWithinTick() throws InterruptedException {
+        final AtomicInteger lateRuns = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        // scheduled from the worker thread, so that both timeouts are
+        // transferred to the same bucket, the cancelling one first
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20; ++i) {
+                    final AtomicInteger cancelled = new AtomicInteger();
+                    final Timeout[] periodic = new Timeout[1];
+                    timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            periodic[0].cancel();
+                            cancelled.set(1);
+                            done.countDown();
+                        }
+                    }, 20);
+                    periodic[0] = timer.scheduleAtFixedRate(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (cancelled.get() == 1) {
+                                lateRuns.incrementAndGet();
+                            }
+                        }
+                    }, 20, 20);
+                }
+            }
+        }, 0);
+        assert done.await(2, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assert lateRuns.get() == 0 : lateRuns.get();
+    }
+
+    @Test
+    public void testFailingTask() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        }, 0);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 10);
+        assert latch.await(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testPending() {
+        HashedWheelTimer wheelTimer = new HashedWheelTimer("pending", 10, 16);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        Timeout first = wheelTimer.schedule(task, 60000);
+        wheelTimer.schedule(task, 60000);
+        assert wheelTimer.getPending() == 2;
+        first.cancel();
+        assert wheelTimer.getPending() == 1;
+        wheelTimer.stop();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testStopDefault() {
+        HashedWheelTimer.getDefault().stop();
+    }
+
+}
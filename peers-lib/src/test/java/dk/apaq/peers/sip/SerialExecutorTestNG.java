@@ -0,0 +1,102 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class SerialExecutorTestNG {
+
+    @Test
+    public void testCallerRuns() {
+        final SerialExecutor serialExecutor = new SerialExecutor(null);
+        final List<Integer> order = new ArrayList<Integer>();
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                order.add(1);
+                // queued, not nested
+                serialExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add(3);
+                    }
+                });
+                order.add(2);
+            }
+        });
+        // run before execute returns
+        assert order.size() == 3;
+        for (int i = 0; i < order.size(); ++i) {
+            assert order.get(i) == i + 1;
+        }
+    }
+
+    @Test
+    public void testSharedExecutor() throws InterruptedException {
+        final int executors = 50;
+        final int tasks = 500;
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        final CountDownLatch latch = new CountDownLatch(executors * tasks);
+        final AtomicBoolean concurrent = new AtomicBoolean();
+        final AtomicBoolean unordered = new AtomicBoolean();
+        try {
+            for (int i = 0; i < executors; ++i) {
+                SerialExecutor serialExecutor =
+                    new SerialExecutor(executorService);
+                final AtomicInteger running = new AtomicInteger();
+                final List<Integer> order =
+                    Collections.synchronizedList(new ArrayList<Integer>());
+                for (int j = 0; j < tasks; ++j) {
+                    final int index = j;
+                    serialExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (running.incrementAndGet() > 1) {
+                                concurrent.set(true);
+                            }
+                            if (order.size() != index) {
+                                unordered.set(true);
+                            }
+                            order.add(index);
+                            running.decrementAndGet();
+                            latch.countDown();
+                        }
+                    });
+                }
+            }
+            assert latch.await(5, TimeUnit.SECONDS);
+            assert !concurrent.get();
+            assert !unordered.get();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.core.useragent;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.resolver.DnsBackend;
+import dk.apaq.peers.sip.resolver.DnsRecord;
+import dk.apaq.peers.sip.resolver.SipResolver;
+import dk.apaq.peers.sip.transport.SipRequest;
+import dk.apaq.peers.sip.transport.SipResponse;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class InitialRequestManagerTestNG {
+
+    private UserAgent userAgent;
+    private volatile SipResponse error;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLocalHost());
+        userAgent = new UserAgent(new BaseSipListener() {
+            @Override
+            public void error(SipResponse sipResponse) {
+                error = sipResponse;
+            }
+        }, config, null);
+        userAgent.getTransportManager().setSipResolver(new SipResolver(
+                new DnsBackend() {
+            @Override
+            public List<DnsRecord> lookup(String name, int type)
+                    throws IOException {
+                throw new IOException("dns failure");
+            }
+        }));
+    }
+
+    @AfterClass
+    protected void close() {
+        userAgent.close();
+    }
+
+    @Test(timeOut = 3000)
+    public void resolutionFailure() throws Exception {
+        SipRequest invite = userAgent.getUac().invite(
+                "sip:bob@unresolvable.example.com", "resolutionFailure");
+        while (error == null) {
+            Thread.sleep(20);
+        }
+        // reported like a response, with the cause
+        assert error.getStatusCode() == RFC3261.CODE_503_SERVICE_UNAVAILABLE;
+        assert error.getReasonPhrase().indexOf("dns failure") > -1;
+        assert Utils.getMessageCallId(invite).equals(
+                Utils.getMessageCallId(error));
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.resolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.syntaxencoding.SipURI;
+import dk.apaq.peers.sip.syntaxencoding.SipUriSyntaxException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SipResolverTestNG {
+
+    private StubDnsBackend dnsBackend;
+    private SipResolver sipResolver;
+
+    @BeforeMethod
+    protected void init() {
+        dnsBackend = new StubDnsBackend();
+        sipResolver = new SipResolver(dnsBackend, 1);
+    }
+
+    @AfterMethod
+    protected void close() {
+        sipResolver.close();
+    }
+
+    @Test
+    public void testLiteral() throws Exception {
+        Callback callback = new Callback();
+        sipResolver.resolve(new SipURI("sip:bob@192.168.1.2:5070"), callback);
+        // literals are resolved synchronously
+        assert callback.sipTargets != null;
+        assert callback.sipTargets.size() == 1;
+        SipTarget sipTarget = callback.sipTargets.get(0);
+        assert "192.168.1.2".equals(sipTarget.getInetAddress().getHostAddress());
+        assert sipTarget.getPort() == 5070;
+        assert RFC3261.TRANSPORT_UDP.equals(sipTarget.getTransport());
+        assert dnsBackend.lookups == 0;
+    }
+
+    @Test
+    public void testNumericAddress() {
+        assert SipResolver.getNumericAddress("10.0.0.1") != null;
+        assert SipResolver.getNumericAddress("::1") != null;
+        assert SipResolver.getNumericAddress("example.com") == null;
+        assert SipResolver.getNumericAddress("10.0.0") == null;
+        assert SipResolver.getNumericAddress("10.0.0.256") == null;
+    }
+
+    @Test
+    public void testNaptr() throws Exception {
+        dnsBackend.add(DnsRecord.naptr("example.com", 60, 10, 10, "s",
+                "SIP+D2T", "_sip._tcp.example.com"));
+        dnsBackend.add(DnsRecord.naptr("example.com", 60, 20, 10, "s",
+                "SIP+D2U", "_sip._udp.example.com"));
+        dnsBackend.add(DnsRecord.srv("_sip._tcp.example.com", 60, 0, 0, 5080,
+                "tcp.example.com"));
+        dnsBackend.add(DnsRecord.srv("_sip._udp.example.com", 60, 0, 0, 5060,
+                "udp.example.com"));
+        dnsBackend.add(address("tcp.example.com", 60, "10.0.0.1"));
+        dnsBackend.add(address("udp.example.com", 60, "10.0.0.2"));
+        List<SipTarget> sipTargets = resolve("sip:bob@example.com");
+        assert sipTargets.size() == 2;
+        assert sipTargets.get(0).equals(target("10.0.0.1", 5080,
+                RFC3261.TRANSPORT_TCP));
+        assert sipTargets.get(1).equals(target("10.0.0.2", 5060,
+                RFC3261.TRANSPORT_UDP));
+    }
+
+    @Test
+    public void testSrv() throws Exception {
+        dnsBackend.add(DnsRecord.srv("_sip._udp.example.com", 60, 20, 0, 5062,
+                "backup.example.com"));
+        dnsBackend.add(DnsRecord.srv("_sip._udp.example.com", 60, 10, 0, 5061,
+                "primary.example.com"));
+        dnsBackend.add(address("primary.example.com", 60, "10.0.0.1"));
+        dnsBackend.add(address("backup.example.com", 60, "10.0.0.2"));
+        List<SipTarget> sipTargets = resolve("sip:bob@example.com");
+        assert sipTargets.size() == 2;
+        // lowest priority first
+        assert sipTargets.get(0).equals(target("10.0.0.1", 5061,
+                RFC3261.TRANSPORT_UDP));
+        assert sipTargets.get(1).equals(target("10.0.0.2", 5062,
+                RFC3261.TRANSPORT_UDP));
+    }
+
+    @Test
+    public void testTransportParam() throws Exception {
+        dnsBackend.add(DnsRecord.srv("_sip._tcp.example.com", 60, 0, 0, 5080,
+                "tcp.example.com"));
+        dnsBackend.add(address("tcp.example.com", 60, "10.0.0.1"));
+        List<SipTarget> sipTargets = resolve("sip:bob@example.com;transport=tcp");
+        assert sipTargets.size() == 1;
+        assert sipTargets.get(0).equals(target("10.0.0.1", 5080,
+                RFC3261.TRANSPORT_TCP));
+        // no naptr query when transport is given
+        assert !dnsBackend.queried("example.com", DnsRecord.TYPE_NAPTR);
+    }
+
+    @Test
+    public void testExplicitPort() throws Exception {
+        dnsBackend.add(address("example.com", 60, "10.0.0.1"));
+        List<SipTarget> sipTargets = resolve("sip:bob@example.com:5070");
+        assert sipTargets.size() == 1;
+        assert sipTargets.get(0).equals(target("10.0.0.1", 5070,
+                RFC3261.TRANSPORT_UDP));
+        assert dnsBackend.lookups == 1;
+    }
+
+    @Test
+    public void testAddressFallback() throws Exception {
+        dnsBackend.add(address("example.com", 60, "10.0.0.1"));
+        List<SipTarget> sipTargets = resolve("sip:bob@example.com");
+        assert sipTargets.size() == 1;
+        assert sipTargets.get(0).equals(target("10.0.0.1",
+                RFC3261.TRANSPORT_DEFAULT_PORT, RFC3261.TRANSPORT_UDP));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        dnsBackend.add(address("example.com", 60, "10.0.0.1"));
+        resolve("sip:bob@example.com:5070");
+        int lookups = dnsBackend.lookups;
+        Callback callback = new Callback();
+        sipResolver.resolve(new SipURI("sip:alice@example.com:5070"), callback);
+        // cache hits are resolved synchronously
+        assert callback.sipTargets != null;
+        assert dnsBackend.lookups == lookups;
+        assert sipResolver.getCacheSize() == 1;
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception {
+        Callback callback = resolveAndWait("sip:bob@unknown.example.com");
+        assert callback.sipTargets == null;
+        assert "unknown.example.com".equals(callback.host);
+        int lookups = dnsBackend.lookups;
+        assert lookups > 0;
+        callback = new Callback();
+        sipResolver.resolve(new SipURI("sip:bob@unknown.example.com"), callback);
+        assert callback.host != null;
+        assert dnsBackend.lookups == lookups;
+    }
+
+    @Test
+    public void testTtlExpiry() throws Exception {
+        dnsBackend.add(address("example.com", 0, "10.0.0.1"));
+        resolve("sip:bob@example.com:5070");
+        resolve("sip:bob@example.com:5070");
+        assert dnsBackend.lookups == 2;
+    }
+
+    @Test
+    public void testBackendFailure() throws Exception {
+        dnsBackend.failure = true;
+        Callback callback = resolveAndWait("sip:bob@example.com");
+        assert callback.cause instanceof IOException;
+        assert "example.com".equals(callback.host);
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        JndiDnsBackend jndiDnsBackend = new JndiDnsBackend();
+        DnsRecord srv = jndiDnsBackend.parse("_sip._udp.example.com",
+                DnsRecord.TYPE_SRV, "10 60 5060 sip.example.com.");
+        assert srv.getPriority() == 10;
+        assert srv.getWeight() == 60;
+        assert srv.getPort() == 5060;
+        assert "sip.example.com".equals(srv.getTarget());
+        DnsRecord naptr = jndiDnsBackend.parse("example.com",
+                DnsRecord.TYPE_NAPTR,
+                "50 51 \"s\" \"SIP+D2U\" \"\" _sip._udp.example.com.");
+        assert naptr.getOrder() == 50;
+        assert naptr.getPreference() == 51;
+        assert "s".equals(naptr.getFlags());
+        assert "SIP+D2U".equals(naptr.getService());
+        assert "_sip._udp.example.com".equals(naptr.getReplacement());
+    }
+
+    private List<SipTarget> resolve(String sipUri) throws Exception {
+        Callback callback = resolveAndWait(sipUri);
+        assert callback.sipTargets != null : callback.cause;
+        return callback.sipTargets;
+    }
+
+    private Callback resolveAndWait(String sipUri)
+            throws SipUriSyntaxException, InterruptedException {
+        Callback callback = new Callback();
+        sipResolver.resolve(new SipURI(sipUri), callback);
+        synchronized (callback) {
+            long end = System.currentTimeMillis() + 2000;
+            while (!callback.done && System.currentTimeMillis() < end) {
+                callback.wait(100);
+            }
+        }
+        assert callback.done;
+        return callback;
+    }
+
+    private DnsRecord address(String name, int ttl, String address)
+            throws IOException {
+        return DnsRecord.address(name, ttl, InetAddress.getByName(address));
+    }
+
+    private SipTarget target(String address, int port, String transport)
+            throws IOException {
+        return new SipTarget(InetAddress.getByName(address), port, transport);
+    }
+
+    static class Callback implements SipResolverCallback {
+
+        private List<SipTarget> sipTargets;
+        private String host;
+        private IOException cause;
+        private boolean done;
+
+        @Override
+        public synchronized void resolved(List<SipTarget> sipTargets) {
+            this.sipTargets = sipTargets;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void failed(String host, IOException cause) {
+            this.host = host;
+            this.cause = cause;
+            done = true;
+            notifyAll();
+        }
+
+    }
+
+    static class StubDnsBackend implements DnsBackend {
+
+        private Hashtable<String, List<DnsRecord>> records =
+            new Hashtable<String, List<DnsRecord>>();
+        private List<String> queries = new ArrayList<String>();
+        private volatile int lookups;
+        private volatile boolean failure;
+
+        void add(DnsRecord dnsRecord) {
+            String key = dnsRecord.getType() + " " + dnsRecord.getName();
+            List<DnsRecord> dnsRecords = records.get(key);
+            if (dnsRecords == null) {
+                dnsRecords = new ArrayList<DnsRecord>();
+                records.put(key, dnsRecords);
+            }
+            dnsRecords.add(dnsRecord);
+        }
+
+        boolean queried(String name, int type) {
+            return queries.contains(type + " " + name);
+        }
+
+        @Override
+        public synchronized List<DnsRecord> lookup(String name, int type)
+                throws IOException {
+            ++lookups;
+            queries.add(type + " " + name);
+            if (failure) {
+                throw new IOException("no dns server");
+            }
+            List<DnsRecord> dnsRecords = records.get(type + " " + name);
+            if (dnsRecords == null) {
+                return new ArrayList<DnsRecord>();
+            }
+            return new ArrayList<DnsRecord>(dnsRecords);
+        }
+
+    }
+
+}
@@ -27,6 +27,41 @@ public class SipHeaderFieldNameTestNG {
     @Test
     public void testEqualsObject() {
         assert new SipHeaderFieldName("From").equals(new SipHeaderFieldName("f"));
+        assert new SipHeaderFieldName("call-id").equals(SipHeaderFieldName.CALLID);
+        assert new SipHeaderFieldName("X-Custom").equals(
+                new SipHeaderFieldName("x-custom"));
+        assert new SipHeaderFieldName("X-Custom").hashCode()
+            == new SipHeaderFieldName("x-custom").hashCode();
+        assert !new SipHeaderFieldName("X-Custom").equals(SipHeaderFieldName.TO);
+    }
+
+    @Test
+    public void testValueOf() {
+        assert SipHeaderFieldName.valueOf("VIA") == SipHeaderFieldName.VIA;
+        assert SipHeaderFieldName.valueOf("v") == SipHeaderFieldName.VIA;
+        assert SipHeaderFieldName.valueOf("X-Custom").getId()
+            == SipHeaderFieldName.UNKNOWN_ID;
+        byte[] data = "xCSEQ: 1 INVITE".getBytes();
+        assert SipHeaderFieldName.valueOf(data, 1, 5) == SipHeaderFieldName.CSEQ;
+        assert SipHeaderFieldName.valueOf(data, 1, 4).getId()
+            == SipHeaderFieldName.UNKNOWN_ID;
+        assert SipHeaderFieldName.CSEQ.getId() < SipHeaderFieldName.getKnownCount();
+    }
+
+    @Test
+    public void testHeadersRemove() {
+        SipHeaders sipHeaders = new SipHeaders();
+        sipHeaders.add(SipHeaderFieldName.VIA, new SipHeaderFieldValue("a"));
+        sipHeaders.add(new SipHeaderFieldName("X-Custom"),
+                new SipHeaderFieldValue("b"));
+        sipHeaders.add(SipHeaderFieldName.TO, new SipHeaderFieldValue("c"), 0);
+        assert "To: c\r\nVia: a\r\nX-Custom: b\r\n".equals(sipHeaders.toString());
+        assert "b".equals(sipHeaders.get(new SipHeaderFieldName("x-custom")).toString());
+        sipHeaders.remove(new SipHeaderFieldName("x-custom"));
+        sipHeaders.remove(SipHeaderFieldName.TO);
+        assert !sipHeaders.contains(SipHeaderFieldName.TO);
+        assert sipHeaders.get(new SipHeaderFieldName("X-Custom")) == null;
+        assert sipHeaders.getCount() == 1;
     }
 
 }
@@ -29,6 +29,35 @@ public class SipHeaderFieldValueTestNG {
         SipHeaderFieldValue value = new SipHeaderFieldValue(";branch=13456787654");
         value.setValue("SIP/2.0/UDP 127.0.0.1:5060");
         assert "SIP/2.0/UDP 127.0.0.1:5060;branch=13456787654".equals(value.toString());
+        assert value.toString().equals(new String(value.getBytes()));
+    }
+
+    @Test
+    public void testGetBytes() {
+        SipHeaderFieldValue value = new SipHeaderFieldValue(
+                "<sip:alice@atlanta.com>;tag=1;lr");
+        byte[] bytes = value.getBytes();
+        assert value.toString().equals(new String(bytes));
+        assert bytes == value.getBytes();
+        value.removeParam(new SipHeaderParamName("tag"));
+        assert "<sip:alice@atlanta.com>;lr".equals(new String(value.getBytes()));
+    }
+
+    @Test
+    public void testParamOrder() {
+        String via = "SIP/2.0/UDP 10.0.0.1;rport;received=10.0.0.2;"
+            + "branch=z9hG4bK1;a=1;b=2;c=3;d=4;e=5;f=6";
+        SipHeaderFieldValue value = new SipHeaderFieldValue(via);
+        assert via.equals(value.toString());
+        assert "z9hG4bK1".equals(value.getParam(new SipHeaderParamName("BRANCH")));
+        assert "".equals(value.getParam(new SipHeaderParamName("rport")));
+        value.addParam(new SipHeaderParamName("rport"), "5060");
+        value.removeParam(new SipHeaderParamName("a"));
+        value.addParam(new SipHeaderParamName("g"), "7");
+        assert value.getParam(new SipHeaderParamName("a")) == null;
+        assert ("SIP/2.0/UDP 10.0.0.1;rport=5060;received=10.0.0.2;"
+            + "branch=z9hG4bK1;b=2;c=3;d=4;e=5;f=6;g=7").equals(value.toString());
+        assert "5".equals(new SipHeaderFieldValue("5").toString());
     }
 
 }
@@ -0,0 +1,98 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many messages per second a single parser instance parses,
+ * with one thread per core by default. Usage:
+ * SipParserBenchmarkMain [threads] [seconds]
+ */
+public class SipParserBenchmarkMain {
+
+    private static final String INVITE =
+        "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+        + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bKnashds8;rport\r\n"
+        + "Max-Forwards: 70\r\n"
+        + "To: Bob <sip:bob@biloxi.com>\r\n"
+        + "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+        + "Call-ID: a84b4c76e66710@pc33.atlanta.com\r\n"
+        + "CSeq: 314159 INVITE\r\n"
+        + "Contact: <sip:alice@pc33.atlanta.com>\r\n"
+        + "Content-Type: application/sdp\r\n"
+        + "Content-Length: 142\r\n"
+        + "\r\n"
+        + "v=0\r\n"
+        + "o=alice 2890844526 2890844526 IN IP4 pc33.atlanta.com\r\n"
+        + "s=-\r\n"
+        + "c=IN IP4 pc33.atlanta.com\r\n"
+        + "t=0 0\r\n"
+        + "m=audio 49172 RTP/AVP 0\r\n"
+        + "a=rtpmap:0 PCMU/8000\r\n";
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = 10;
+        if (args.length > 0) {
+            threads = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            seconds = Integer.parseInt(args[1]);
+        }
+        final SipParser sipParser = new SipParser();
+        final byte[] data = INVITE.getBytes();
+        final AtomicLong parsed = new AtomicLong();
+        final long warmUpEnd = System.currentTimeMillis() + 2000;
+        final long end = warmUpEnd + seconds * 1000L;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    try {
+                        while (System.currentTimeMillis() < warmUpEnd) {
+                            sipParser.parse(data, 0, data.length);
+                        }
+                        while (System.currentTimeMillis() < end) {
+                            for (int j = 0; j < 1000; ++j) {
+                                sipParser.parse(data, 0, data.length);
+                            }
+                            count += 1000;
+                        }
+                    } catch (SipParserException e) {
+                        e.printStackTrace();
+                    }
+                    parsed.addAndGet(count);
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker: workers) {
+            worker.join();
+        }
+        long perSecond = parsed.get() / seconds;
+        System.out.println(threads + " threads: " + perSecond
+                + " messages/s, " + perSecond / threads
+                + " messages/s per thread");
+    }
+
+}
@@ -28,7 +28,9 @@ import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldMultiValue;
 import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.transport.SipMessage;
@@ -261,6 +263,135 @@ public class SipParserTestNG {
         }
     }
     
+    @Test
+    public void testParseBytes() throws SipParserException {
+        String message = "INVITE sip:UAB@example.com SIP/2.0\r\n"
+            + "Content-Length: 5\r\n"
+            + "\r\n"
+            + "a=134";
+        byte[] data = ("xx" + message + "yy").getBytes();
+        SipMessage sipMessage = new SipParser().parse(data, 2,
+                message.length());
+        assert "INVITE".equals(((SipRequest)sipMessage).getMethod());
+        assert 5 == sipMessage.getBodyLength();
+        assert "a=134".equals(new String(sipMessage.getBody()));
+        assert sipMessage.toString().endsWith("\r\na=134");
+    }
+
+    @Test
+    public void testParseByteBuffer() throws SipParserException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put("garbage".getBytes());
+        int position = buffer.position();
+        buffer.put(("SIP/2.0 486 Busy Here\r\n"
+                + "Content-Length: 4\r\n"
+                + "\r\n"
+                + "body").getBytes());
+        buffer.flip();
+        buffer.position(position);
+        SipMessage sipMessage = new SipParser().parse(buffer);
+        assert buffer.position() == position;
+        SipResponse sipResponse = (SipResponse)sipMessage;
+        assert 486 == sipResponse.getStatusCode();
+        assert "Busy Here".equals(sipResponse.getReasonPhrase());
+        // body is copied, buffer can be reused
+        buffer.clear();
+        buffer.put(new byte[buffer.capacity()]);
+        assert "body".equals(new String(sipMessage.getBody()));
+    }
+
+    @Test
+    public void testLazyHeaderValues() throws SipParserException {
+        byte[] data = ("INVITE sip:UAB@example.com SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.1;branch=z9hG4bK1\r\n"
+                + "Route: <sip:alice@atlanta.com>\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.2;branch=z9hG4bK2\r\n"
+                + "\r\n").getBytes();
+        SipMessage sipMessage = new SipParser().parse(data, 0, data.length);
+        SipHeaders sipHeaders = sipMessage.getSipHeaders();
+        SipHeaderFieldName viaName = new SipHeaderFieldName(RFC3261.HDR_VIA);
+        // value decoded once, then modified in place
+        SipHeaderFieldValue via = sipHeaders.get(viaName);
+        assert via == sipHeaders.get(viaName);
+        List<SipHeaderFieldValue> values =
+            ((SipHeaderFieldMultiValue)via).getValues();
+        assert 2 == values.size();
+        assert "z9hG4bK2".equals(values.get(1).getParam(
+                new SipHeaderParamName(RFC3261.PARAM_BRANCH)));
+        // adding a value to an undecoded header
+        SipHeaderFieldName routeName = new SipHeaderFieldName(
+                RFC3261.HDR_ROUTE);
+        sipHeaders.add(routeName, new SipHeaderFieldValue(
+                "<sip:bob@biloxi.com>"));
+        assert "<sip:alice@atlanta.com>, <sip:bob@biloxi.com>".equals(
+                sipHeaders.get(routeName).toString());
+    }
+
+    @Test
+    public void testGetBytes() throws SipParserException {
+        byte[] data = ("INVITE sip:UAB@example.com SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.1;branch=z9hG4bK1\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.2;branch=z9hG4bK2\r\n"
+                + "From: \"Zo\u00e9\" <sip:zoe@example.com>;tag=1\r\n"
+                + "Content-Length: 4\r\n"
+                + "\r\n"
+                + "body").getBytes(SipEncoder.UTF_8);
+        SipMessage sipMessage = new SipParser().parse(data, 0, data.length);
+        byte[] bytes = sipMessage.getBytes();
+        assert sipMessage.toString().equals(new String(bytes, SipEncoder.UTF_8));
+        // cached until modified
+        assert bytes == sipMessage.getBytes();
+        SipHeaderFieldValue topVia =
+            ((SipHeaderFieldMultiValue)sipMessage.getSipHeaders().get(
+                    SipHeaderFieldName.VIA)).getValues().get(0);
+        topVia.addParam(new SipHeaderParamName(RFC3261.PARAM_RECEIVED),
+                "10.0.0.3");
+        bytes = sipMessage.getBytes();
+        assert new String(bytes).contains("received=10.0.0.3");
+        assert sipMessage.toString().equals(new String(bytes, SipEncoder.UTF_8));
+        sipMessage.getSipHeaders().add(SipHeaderFieldName.SUBJECT,
+                new SipHeaderFieldValue("test"));
+        sipMessage.setBody("other".getBytes());
+        bytes = sipMessage.getBytes();
+        assert sipMessage.toString().equals(new String(bytes, SipEncoder.UTF_8));
+    }
+
+    @Test
+    public void testConcurrentParse() throws InterruptedException {
+        final SipParser sipParser = new SipParser();
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final String callId = "call" + i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    byte[] data = ("BYE sip:UAB@example.com SIP/2.0\r\n"
+                            + "Call-ID: " + callId + "\r\n"
+                            + "\r\n").getBytes();
+                    for (int j = 0; j < 1000; ++j) {
+                        try {
+                            SipMessage sipMessage = sipParser.parse(data, 0,
+                                    data.length);
+                            if (!callId.equals(sipMessage.getSipHeaders().get(
+                                    new SipHeaderFieldName(RFC3261.HDR_CALLID))
+                                    .getValue())) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (SipParserException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        assert 0 == errors.get();
+    }
+
     @Test (expectedExceptions = SipParserException.class)
     public void shouldThrowIfBadMessage() throws SipParserException, IOException {
         // two characters for sip line is forbidden, minimum is 3:
@@ -287,6 +418,76 @@ public class SipParserTestNG {
                 "12345");
     }
     
+    @Test
+    public void testLimits() throws SipParserException {
+        String headers = "INVITE sip:bob@ietf.org SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 10.20.30.40:5060;branch=z9hG4bK1\r\n"
+            + "CSeq: 1 INVITE\r\n";
+        SipParser sipParser = new SipParser();
+        SipParserLimits limits = sipParser.getLimits();
+        limits.setMaxMessageSize(200);
+        limits.setMaxHeaders(3);
+        limits.setMaxLineLength(60);
+        limits.setMaxBodySize(20);
+        String body = "v=0\r\n";
+        parse(sipParser, headers + "Content-Length: " + body.length()
+                + "\r\n\r\n" + body);
+        assertRejected(sipParser, headers + "Content-Length: 30\r\n\r\n",
+                RFC3261.CODE_413_REQUEST_ENTITY_TOO_LARGE, true);
+        assertRejected(sipParser, headers + "Subject: a\r\nTo: b\r\n\r\n",
+                RFC3261.CODE_400_BAD_REQUEST, true);
+        // folded lines are limited as a whole
+        assertRejected(sipParser, headers + "Subject: 0123456789\r\n   "
+                + "01234567890123456789012345678901234567890123456789\r\n\r\n",
+                RFC3261.CODE_400_BAD_REQUEST, true);
+        StringBuffer buf = new StringBuffer();
+        while (buf.length() < 200) {
+            buf.append("0123456789");
+        }
+        assertRejected(sipParser, headers + "\r\n" + buf,
+                RFC3261.CODE_513_MESSAGE_TOO_LARGE, true);
+        assertRejected(sipParser, "INVITE sip:" + buf + " SIP/2.0\r\n",
+                RFC3261.CODE_400_BAD_REQUEST, false);
+        assert sipParser.getRejected() == 5;
+    }
+
+    @Test
+    public void testNegativeContentLength() throws SipParserException {
+        SipParser sipParser = new SipParser();
+        assertRejected(sipParser, "INVITE sip:bob@ietf.org SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 10.20.30.40:5060;branch=z9hG4bK1\r\n"
+                + "CSeq: 1 INVITE\r\n"
+                + "Content-Length: -5\r\n"
+                + "\r\n"
+                + "v=0\r\n", RFC3261.CODE_400_BAD_REQUEST, true);
+        assertRejected(sipParser, "SIP/2.0 200 OK\r\n"
+                + "Via: SIP/2.0/UDP 10.20.30.40:5060;branch=z9hG4bK1\r\n"
+                + "CSeq: 1 INVITE\r\n"
+                + "Content-Length: -5\r\n"
+                + "\r\n", RFC3261.CODE_400_BAD_REQUEST, true);
+        assert sipParser.getRejected() == 2;
+    }
+
+    private void assertRejected(SipParser sipParser, String message,
+            int statusCode, boolean headersRead) {
+        try {
+            parse(sipParser, message);
+            assert false : "message not rejected";
+        } catch (SipParserException e) {
+            assert e.getStatusCode() == statusCode : e.getStatusCode();
+            assert (e.getSipMessage() != null) == headersRead;
+            if (headersRead) {
+                assert e.getSipMessage().getCSeq() != null;
+            }
+        }
+    }
+
+    private SipMessage parse(SipParser sipParser, String message)
+            throws SipParserException {
+        byte[] bytes = message.getBytes();
+        return sipParser.parse(bytes, 0, bytes.length);
+    }
+
     private SipMessage parse(String message) throws SipParserException, IOException {
         ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
         SipParser sipParser = new SipParser();
@@ -21,7 +21,7 @@ package dk.apaq.peers.sip.syntaxencoding;
 
 import dk.apaq.peers.sip.syntaxencoding.SipURI;
 import dk.apaq.peers.sip.syntaxencoding.SipUriSyntaxException;
-import java.util.Hashtable;
+import java.util.Map;
 
 import org.testng.annotations.Test;
 
@@ -46,7 +46,7 @@ public class SipURITestNG {
     public void testSipUri3() throws SipUriSyntaxException {
         SipURI sipUri = new SipURI("sip:atlanta.com;a");
         assert "atlanta.com".equals(sipUri.getHost());
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 1 == params.size();
         assert params.containsKey("a");
@@ -58,7 +58,7 @@ public class SipURITestNG {
         SipURI sipUri = new SipURI("sip:alice@atlanta.com;a;br=3");
         assert "alice".equals(sipUri.getUserinfo());
         assert "atlanta.com".equals(sipUri.getHost());
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 2 == params.size();
         assert params.containsKey("a");
@@ -72,7 +72,7 @@ public class SipURITestNG {
         SipURI sipUri = new SipURI("sip:alice@atlanta.com;br=3;a");
         assert "alice".equals(sipUri.getUserinfo());
         assert "atlanta.com".equals(sipUri.getHost());
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 2 == params.size();
         assert params.containsKey("a");
@@ -94,7 +94,7 @@ public class SipURITestNG {
         assert "alice".equals(sipUri.getUserinfo());
         assert "atlanta.com".equals(sipUri.getHost());
         assert 5060 == sipUri.getPort();
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 3 == params.size();
         assert params.containsKey("transport");
@@ -105,9 +105,46 @@ public class SipURITestNG {
         assert "2".equals(params.get("otherParam"));
     }
     
+    @Test
+    public void testSipUriIpv6() throws SipUriSyntaxException {
+        SipURI sipUri = new SipURI("sip:bob@[2001:db8::1]:5070;lr");
+        assert "[2001:db8::1]".equals(sipUri.getHost());
+        assert 5070 == sipUri.getPort();
+        assert new SipURI("sip:[2001:db8::1]").getPort() == SipURI.DEFAULT_PORT;
+    }
+
+    @Test
+    public void testValueOf() throws SipUriSyntaxException {
+        SipURI sipUri = SipURI.valueOf("sip:alice@atlanta.com;transport=TCP");
+        assert sipUri == SipURI.valueOf("sip:alice@atlanta.com;transport=TCP");
+        assert "TCP".equals(sipUri.getUriParameters().get("transport"));
+        try {
+            sipUri.getUriParameters().put("lr", "");
+            assert false : "parameters can be modified";
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+    
+    @Test
+    public void testValueOfEviction() throws SipUriSyntaxException {
+        SipURI sipUri = SipURI.valueOf("sip:evicted@atlanta.com");
+        for (int i = 0; i < SipURI.INTERN_CACHE_SIZE; ++i) {
+            SipURI.valueOf("sip:user" + i + "@atlanta.com");
+        }
+        // the oldest uris are dropped once the cache is full
+        assert sipUri != SipURI.valueOf("sip:evicted@atlanta.com");
+        assert sipUri.toString().equals(
+                SipURI.valueOf("sip:evicted@atlanta.com").toString());
+    }
+    
     //FAILURE TESTS
     @Test (expectedExceptions = SipUriSyntaxException.class)
     public void shouldThrowIfBadSyntax() throws SipUriSyntaxException {
         new SipURI("mlsdj");
     }
+
+    @Test (expectedExceptions = SipUriSyntaxException.class)
+    public void shouldThrowIfBadPort() throws SipUriSyntaxException {
+        new SipURI("sip:atlanta.com:50a0");
+    }
 }
@@ -0,0 +1,87 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.syntaxencoding;
+
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.transport.SipRequest;
+
+import org.testng.annotations.Test;
+
+public class ViaHeaderTestNG {
+
+    @Test
+    public void testParse() {
+        ViaHeader viaHeader = new ViaHeader(new SipHeaderFieldValue(
+                "SIP/2.0/tcp 192.168.1.2:5070;branch=z9hG4bK1234;rport"));
+        assert RFC3261.TRANSPORT_TCP.equals(viaHeader.getTransport());
+        assert "192.168.1.2:5070".equals(viaHeader.getSentBy());
+        assert "192.168.1.2".equals(viaHeader.getHost());
+        assert viaHeader.getPort() == 5070;
+        assert "z9hG4bK1234".equals(viaHeader.getBranch());
+        assert "".equals(viaHeader.getRport());
+        assert viaHeader.getReceived() == null;
+    }
+
+    @Test
+    public void testIpv6NoPort() {
+        ViaHeader viaHeader = new ViaHeader(new SipHeaderFieldValue(
+                "SIP/2.0/UDP [2001:db8::1]"));
+        assert "2001:db8::1".equals(viaHeader.getHost());
+        assert viaHeader.getPort() == -1;
+    }
+
+    @Test
+    public void testValueReplaced() {
+        SipRequest sipRequest = new SipRequest(RFC3261.METHOD_OPTIONS, null);
+        SipHeaderFieldValue via = new SipHeaderFieldValue(
+                "SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK1");
+        sipRequest.getSipHeaders().add(SipHeaderFieldName.VIA, via);
+        ViaHeader viaHeader = sipRequest.getTopVia();
+        assert "10.0.0.1".equals(viaHeader.getHost());
+        assert sipRequest.getTopVia() == viaHeader;
+        via.setValue("SIP/2.0/TCP 10.0.0.2:5062");
+        assert "10.0.0.2".equals(viaHeader.getHost());
+        assert RFC3261.TRANSPORT_TCP.equals(viaHeader.getTransport());
+        sipRequest.getSipHeaders().add(SipHeaderFieldName.VIA,
+                new SipHeaderFieldValue("SIP/2.0/UDP 10.0.0.3"), 0);
+        assert sipRequest.getTopVia() == viaHeader;
+    }
+
+    @Test
+    public void testCSeqAndAddress() {
+        SipRequest sipRequest = new SipRequest(RFC3261.METHOD_INVITE, null);
+        SipHeaders sipHeaders = sipRequest.getSipHeaders();
+        sipHeaders.add(SipHeaderFieldName.CSEQ,
+                new SipHeaderFieldValue("314159 INVITE"));
+        sipHeaders.add(SipHeaderFieldName.FROM, new SipHeaderFieldValue(
+                "Alice <sip:alice@atlanta.com>;tag=1928301774"));
+        sipHeaders.add(SipHeaderFieldName.TO,
+                new SipHeaderFieldValue("sip:bob@biloxi.com"));
+        CSeqHeader cseq = sipRequest.getCSeq();
+        assert cseq.getNumber() == 314159;
+        assert RFC3261.METHOD_INVITE.equals(cseq.getMethod());
+        assert "sip:alice@atlanta.com".equals(sipRequest.getFrom().getUri());
+        assert "1928301774".equals(sipRequest.getFrom().getTag());
+        assert "sip:bob@biloxi.com".equals(sipRequest.getTo().getUri());
+        assert sipRequest.getTo().getTag() == null;
+        assert sipRequest.getContact() == null;
+    }
+
+}
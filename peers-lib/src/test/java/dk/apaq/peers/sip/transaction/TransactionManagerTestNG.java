@@ -31,13 +31,16 @@ import dk.apaq.peers.sip.transaction.ClientTransaction;
 import dk.apaq.peers.sip.transaction.NonInviteClientTransaction;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.UnknownHostException;
 import java.util.Random;
 
 import dk.apaq.peers.Config;
 import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.HashedWheelTimer;
 import dk.apaq.peers.sip.RFC3261;
 import dk.apaq.peers.sip.syntaxencoding.SipParser;
 import dk.apaq.peers.sip.syntaxencoding.SipParserException;
@@ -194,6 +197,202 @@ public class TransactionManagerTestNG {
         assert serverTransaction instanceof InviteServerTransaction;
     }
     
+    @Test
+    public void testResponseRetransmission()
+            throws IOException, SipParserException {
+        InetAddress localHost = InetAddress.getLocalHost();
+        DatagramSocket remote = new DatagramSocket(0, localHost);
+        remote.setSoTimeout(2000);
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: \r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        String response = "SIP/2.0 200 OK\r\n" +
+                "Via: SIP/2.0/UDP " + localHost.getHostAddress() + ":"
+                + remote.getLocalPort() + ";branch=z9hG4bKretrans\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipResponse sipResponse = (SipResponse)parse(response);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transportManager.setSipPort(port);
+        NonInviteServerTransaction serverTransaction =
+            (NonInviteServerTransaction)
+            transactionManager.createServerTransaction(sipResponse,
+                port, "UDP", new ServerTransactionUser() {
+                    public void transactionFailure() {
+                    }
+                }, sipRequest);
+        serverTransaction.responses.add(sipResponse);
+        serverTransaction.sendLastResponse();
+        byte[] first = sipResponse.getBytes();
+        serverTransaction.sendLastResponse();
+        // retransmitted as sent, contact is not added again
+        assert first == sipResponse.getBytes();
+        byte[] buf = new byte[4096];
+        for (int i = 0; i < 2; ++i) {
+            DatagramPacket packet =
+                new DatagramPacket(buf, buf.length);
+            remote.receive(packet);
+            assert new String(first).equals(new String(buf, 0,
+                    packet.getLength()));
+        }
+        remote.close();
+    }
+    
+    @Test
+    public void testTerminatedTransactionsRemoved()
+            throws IOException, SipParserException {
+        SipRequest sipRequest = (SipRequest)parse(
+                "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: \r\n" +
+                "\r\n");
+        SipResponse sipResponse = (SipResponse)parse("SIP/2.0 200 OK\r\n" +
+                "Via: SIP/2.0/UDP 127.0.0.1;branch=z9hG4bKterminated\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n");
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transportManager.setSipPort(port);
+        int serverCount = transactionManager.getServerTransactionCount();
+        NonInviteServerTransaction serverTransaction =
+            (NonInviteServerTransaction)
+            transactionManager.createServerTransaction(sipResponse,
+                port, "UDP", new ServerTransactionUser() {
+                    public void transactionFailure() {
+                    }
+                }, sipRequest);
+        assert transactionManager.getServerTransactionCount() == serverCount + 1;
+        assert transactionManager.getServerTransaction("z9hG4bKterminated",
+                "OPTIONS") == serverTransaction;
+        serverTransaction.setState(serverTransaction.TERMINATED);
+        assert transactionManager.getServerTransactionCount() == serverCount;
+        assert transactionManager.getServerTransaction("z9hG4bKterminated",
+                "OPTIONS") == null;
+
+        int clientCount = transactionManager.getClientTransactionCount();
+        NonInviteClientTransaction clientTransaction =
+            (NonInviteClientTransaction)
+            transactionManager.createClientTransaction(sipRequest,
+                InetAddress.getLocalHost(), port, "UDP",
+                RFC3261.BRANCHID_MAGIC_COOKIE + "terminated", null);
+        assert transactionManager.getClientTransactionCount() == clientCount + 1;
+        clientTransaction.setState(clientTransaction.TERMINATED);
+        assert transactionManager.getClientTransactionCount() == clientCount;
+    }
+
+    @Test
+    public void testTerminatedTransactionsCancelTimers()
+            throws IOException, SipParserException {
+        HashedWheelTimer timer = new HashedWheelTimer("test",
+                HashedWheelTimer.DEFAULT_TICK_DURATION, 64);
+        TransactionManager manager = new TransactionManager(timer);
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLocalHost());
+        TransportManager transport = new TransportManager(manager, config);
+        manager.setTransportManager(transport);
+        DatagramSocket remote = new DatagramSocket();
+        int port = remote.getLocalPort();
+        String[] methods = { "INVITE", "OPTIONS" };
+        for (String method: methods) {
+            SipRequest sipRequest = (SipRequest)parse(
+                    method + " sip:john@doe.co.uk SIP/2.0\r\n" +
+                    "Via: \r\n" +
+                    "CSeq: 1 " + method + "\r\n" +
+                    "\r\n");
+            ClientTransaction clientTransaction =
+                manager.createClientTransaction(sipRequest,
+                    InetAddress.getLocalHost(), port, "UDP", null, null);
+            int pending = timer.getPending();
+            clientTransaction.start();
+            // retransmission and transaction timeout
+            assert timer.getPending() == pending + 2 : timer.getPending();
+            if (clientTransaction instanceof InviteClientTransaction) {
+                InviteClientTransaction invite =
+                    (InviteClientTransaction)clientTransaction;
+                invite.setState(invite.TERMINATED);
+            } else {
+                NonInviteClientTransaction nonInvite =
+                    (NonInviteClientTransaction)clientTransaction;
+                nonInvite.setState(nonInvite.TERMINATED);
+            }
+            assert timer.getPending() == pending : timer.getPending();
+        }
+        remote.close();
+        transport.closeTransports();
+        timer.stop();
+    }
+
+    @Test
+    public void testLargeRequestSwitchedToTcp()
+            throws IOException, SipParserException, InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test",
+                HashedWheelTimer.DEFAULT_TICK_DURATION, 64);
+        TransactionManager manager = new TransactionManager(timer);
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLocalHost());
+        TransportManager transport = new TransportManager(manager, config);
+        manager.setTransportManager(transport);
+        ServerSocket remote = new ServerSocket(0, 50,
+                InetAddress.getLocalHost());
+        StringBuffer subject = new StringBuffer();
+        while (subject.length() <= RFC3261.TRANSPORT_UDP_USUAL_MAX_SIZE) {
+            subject.append("large request ");
+        }
+        SipRequest sipRequest = (SipRequest)parse(
+                "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: \r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "Subject: " + subject + "\r\n" +
+                "\r\n");
+        int count = manager.getClientTransactionCount();
+        NonInviteClientTransaction clientTransaction =
+            (NonInviteClientTransaction)manager.createClientTransaction(
+                sipRequest, InetAddress.getLocalHost(), remote.getLocalPort(),
+                "UDP", null, null);
+        int pending = timer.getPending();
+        clientTransaction.start();
+        // transaction timeout only, no retransmission over tcp
+        assert timer.getPending() == pending + 1 : timer.getPending();
+        clientTransaction.setState(clientTransaction.COMPLETED);
+        // timer K fires at once on reliable transports
+        for (int i = 0; i < 50
+                && manager.getClientTransactionCount() != count; ++i) {
+            Thread.sleep(20);
+        }
+        assert manager.getClientTransactionCount() == count;
+        assert timer.getPending() == pending : timer.getPending();
+        remote.close();
+        transport.closeTransports();
+        timer.stop();
+    }
+
+    @Test
+    public void testGetClientTransactionsFromCallId()
+            throws IOException, SipParserException {
+        SipRequest sipRequest = (SipRequest)parse(
+                "INVITE sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: \r\n" +
+                "Call-ID: index@localhost\r\n" +
+                "\r\n");
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transportManager.setSipPort(port);
+        InviteClientTransaction clientTransaction = (InviteClientTransaction)
+            transactionManager.createClientTransaction(sipRequest,
+                InetAddress.getLocalHost(), port, "UDP", null, null);
+        assert transactionManager.getClientTransactionsFromCallId(
+                "index@localhost", "INVITE").contains(clientTransaction);
+        assert transactionManager.getClientTransactionsFromCallId(
+                "index@localhost", "BYE").isEmpty();
+        clientTransaction.setState(clientTransaction.TERMINATED);
+        assert transactionManager.getClientTransactionsFromCallId(
+                "index@localhost", "INVITE").isEmpty();
+    }
+
     private SipMessage parse(String message) throws IOException, SipParserException {
         ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
         SipParser sipParser = new SipParser();
@@ -72,6 +72,26 @@ public class DialogManagerTestNG {
         assert "abc".equals(dialog.getLocalTag());
     }
     
+    @Test
+    public void testGetDialogFromCallId() throws IOException, SipParserException {
+        DialogManager dialogManager = new DialogManager();
+        String message = "SIP/2.0 200 OK\r\n" +
+                "From: sip:alice@atlanta.com;tag=abc\r\n" +
+                "To: Bob <sip:bob@biloxi.com>;tag=%s\r\n" +
+                "Call-ID: forked@somehost\r\n" +
+                "\r\n";
+        Dialog first = dialogManager.createDialog(
+                (SipResponse)parse(String.format(message, "1")));
+        Dialog second = dialogManager.createDialog(
+                (SipResponse)parse(String.format(message, "2")));
+        assert dialogManager.getDialog("forked@somehost") == first;
+        assert dialogManager.getDialog("unknown@somehost") == null;
+        dialogManager.removeDialog(first.getId());
+        assert dialogManager.getDialog("forked@somehost") == second;
+        dialogManager.removeDialog(second.getId());
+        assert dialogManager.getDialog("forked@somehost") == null;
+    }
+
     private SipMessage parse(String message) throws IOException, SipParserException {
         ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
         SipParser sipParser = new SipParser();
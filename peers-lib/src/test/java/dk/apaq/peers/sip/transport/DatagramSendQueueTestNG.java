@@ -0,0 +1,183 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class DatagramSendQueueTestNG {
+
+    public static final int THREADS = 4;
+    public static final int DATAGRAMS = 100;
+
+    private NioTransportEngine nioTransportEngine;
+    private DatagramSocket datagramSocket;
+    private InetSocketAddress destination;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        nioTransportEngine = new NioTransportEngine(1);
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        datagramSocket = new DatagramSocket(0, loopback);
+        datagramSocket.setReceiveBufferSize(1 << 20);
+        datagramSocket.setSoTimeout(2000);
+        destination = new InetSocketAddress(loopback,
+                datagramSocket.getLocalPort());
+    }
+
+    @AfterClass
+    protected void close() {
+        datagramSocket.close();
+        nioTransportEngine.close();
+    }
+
+    @Test
+    public void testConcurrentSenders() throws Exception {
+        final DatagramSendQueue datagramSendQueue = createQueue(
+                DatagramSendQueue.DEFAULT_CAPACITY,
+                DatagramSendQueue.OverflowPolicy.DROP_NEWEST);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < DATAGRAMS; ++j) {
+                        try {
+                            datagramSendQueue.send("x".getBytes(), destination);
+                        } catch (IOException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        for (int i = 0; i < THREADS * DATAGRAMS; ++i) {
+            receive();
+        }
+        assert datagramSendQueue.getSent() == THREADS * DATAGRAMS;
+        assert datagramSendQueue.getDropped() == 0;
+        assert datagramSendQueue.getSize() == 0;
+        assert datagramSendQueue.getMaxLatency()
+            >= datagramSendQueue.getAverageLatency();
+    }
+
+    @Test(dependsOnMethods = "testConcurrentSenders")
+    public void testDropNewest() throws Exception {
+        DatagramSendQueue datagramSendQueue = createQueue(2,
+                DatagramSendQueue.OverflowPolicy.DROP_NEWEST);
+        CountDownLatch release = blockIoThread();
+        for (int i = 0; i < 5; ++i) {
+            datagramSendQueue.send(String.valueOf(i).getBytes(), destination);
+        }
+        assert datagramSendQueue.getSize() == 2;
+        assert datagramSendQueue.getDropped() == 3;
+        release.countDown();
+        assert "0".equals(receive());
+        assert "1".equals(receive());
+    }
+
+    @Test(dependsOnMethods = "testDropNewest")
+    public void testDropOldest() throws Exception {
+        DatagramSendQueue datagramSendQueue = createQueue(2,
+                DatagramSendQueue.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch release = blockIoThread();
+        for (int i = 0; i < 5; ++i) {
+            datagramSendQueue.send(String.valueOf(i).getBytes(), destination);
+        }
+        assert datagramSendQueue.getSize() == 2;
+        assert datagramSendQueue.getDropped() == 3;
+        release.countDown();
+        assert "3".equals(receive());
+        assert "4".equals(receive());
+    }
+
+    private DatagramSendQueue createQueue(int capacity,
+            DatagramSendQueue.OverflowPolicy overflowPolicy) throws IOException {
+        DatagramChannel datagramChannel = DatagramChannel.open();
+        datagramChannel.socket().bind(new InetSocketAddress(
+                destination.getAddress(), 0));
+        final DatagramSendQueue datagramSendQueue = new DatagramSendQueue(
+                datagramChannel, nioTransportEngine, capacity, overflowPolicy);
+        nioTransportEngine.register(datagramChannel, SelectionKey.OP_READ,
+                new SelectionHandler() {
+                    @Override
+                    public void handle(SelectionKey selectionKey) {
+                        if (selectionKey.isWritable()) {
+                            datagramSendQueue.writable(selectionKey);
+                        }
+                    }
+                });
+        return datagramSendQueue;
+    }
+
+    // keeps the I/O thread busy, datagrams stay in queue meanwhile
+    private CountDownLatch blockIoThread() throws InterruptedException {
+        DatagramChannel datagramChannel = null;
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            datagramChannel = DatagramChannel.open();
+            nioTransportEngine.register(datagramChannel, 0,
+                    new SelectionHandler() {
+                        @Override
+                        public void handle(SelectionKey selectionKey) {
+                        }
+                    });
+        } catch (IOException e) {
+            assert false : e.getMessage();
+        }
+        nioTransportEngine.execute(datagramChannel, new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        assert blocked.await(2, TimeUnit.SECONDS);
+        return release;
+    }
+
+    private String receive() throws IOException {
+        byte[] buf = new byte[16];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        datagramSocket.receive(packet);
+        return new String(buf, 0, packet.getLength());
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import dk.apaq.peers.JavaConfig;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MessageDispatcherTestNG {
+
+    private MessageDispatcher messageDispatcher;
+
+    @BeforeClass
+    protected void init() {
+        messageDispatcher = new MessageDispatcher(4, 1000,
+                new ByteBufferPool(MessageReceiver.BUFFER_SIZE, 8, false));
+    }
+
+    @AfterClass
+    protected void close() {
+        messageDispatcher.close();
+    }
+
+    @Test
+    public void testGetCallId() {
+        assert "a84b4c76e66710@pc33.atlanta.com".equals(
+                MessageDispatcher.getCallId(buffer(
+                        "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                        + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+                        + "Call-ID: a84b4c76e66710@pc33.atlanta.com \r\n"
+                        + "\r\n")));
+        assert "1234".equals(MessageDispatcher.getCallId(buffer(
+                "SIP/2.0 200 OK\r\n"
+                + "CALL-ID :1234\r\n"
+                + "\r\n")));
+        assert "5678".equals(MessageDispatcher.getCallId(buffer(
+                "BYE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "In-Reply-To: 1234\r\n"
+                + "i: 5678\r\n"
+                + "\r\n")));
+        // body is not scanned
+        assert MessageDispatcher.getCallId(buffer(
+                "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n"
+                + "Content-Length: 10\r\n"
+                + "\r\n"
+                + "Call-ID: 1\r\n")) == null;
+    }
+
+    @Test
+    public void testGetTopViaBranch() {
+        assert "z9hG4bK776asdhds".equals(MessageDispatcher.getTopViaBranch(
+                buffer("INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                        + "Max-Forwards: 70\r\n"
+                        + "Via: SIP/2.0/UDP pc33.atlanta.com;rport ; BRANCH=z9hG4bK776asdhds;received=1.2.3.4\r\n"
+                        + "Via: SIP/2.0/UDP pc34.atlanta.com;branch=z9hG4bK2\r\n"
+                        + "\r\n")));
+        assert "z9hG4bK1".equals(MessageDispatcher.getTopViaBranch(buffer(
+                "SIP/2.0 200 OK\r\n"
+                + "v: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK1,"
+                + "SIP/2.0/UDP pc34.atlanta.com;branch=z9hG4bK2\r\n"
+                + "\r\n")));
+        // branch of the second via value
+        assert MessageDispatcher.getTopViaBranch(buffer(
+                "SIP/2.0 200 OK\r\n"
+                + "Via: SIP/2.0/UDP pc33.atlanta.com,"
+                + "SIP/2.0/UDP pc34.atlanta.com;branch=z9hG4bK2\r\n"
+                + "\r\n")) == null;
+    }
+
+    @Test
+    public void testGetToTag() {
+        assert "a6c85cf".equals(MessageDispatcher.getToTag(buffer(
+                "BYE sip:alice@pc33.atlanta.com SIP/2.0\r\n"
+                + "To: \"Alice; <Atlanta>\" <sip:alice@atlanta.com;tag=x>"
+                + " ;tag=a6c85cf\r\n"
+                + "\r\n")));
+        assert "1".equals(MessageDispatcher.getToTag(buffer(
+                "SIP/2.0 200 OK\r\n"
+                + "t: sip:bob@biloxi.com;tag=1\r\n"
+                + "\r\n")));
+        // uri parameter, not a header parameter
+        assert MessageDispatcher.getToTag(buffer(
+                "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "To: <sip:bob@biloxi.com;tag=1>\r\n"
+                + "\r\n")) == null;
+    }
+
+    @Test
+    public void testGetCSeq() {
+        assert "314159 INVITE".equals(MessageDispatcher.getCSeq(buffer(
+                "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds\r\n"
+                + "cseq:  314159 INVITE \r\n"
+                + "\r\n")));
+        assert MessageDispatcher.getCSeq(buffer(
+                "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n"
+                + "Call-ID: 1\r\n"
+                + "\r\n")) == null;
+    }
+
+    @Test
+    public void testDispatch() throws IOException, InterruptedException {
+        final List<String> processed =
+            Collections.synchronizedList(new ArrayList<String>());
+        MessageReceiver messageReceiver = new MessageReceiver(0, null, null,
+                new JavaConfig()) {
+            @Override
+            protected void listen() {
+            }
+            @Override
+            void processSipMessage(ByteBuffer message, InetAddress sourceIp,
+                    int sourcePort, String transport) {
+                String callId = MessageDispatcher.getCallId(message);
+                if ("slow".equals(callId)) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                processed.add(callId + " "
+                        + MessageDispatcher.getTopViaBranch(message));
+            }
+        };
+        InetAddress localHost = InetAddress.getLocalHost();
+        String slow = "slow";
+        String fast = "fast";
+        // make sure both calls go to different workers
+        for (int i = 0; messageDispatcher.getShard(fast)
+                == messageDispatcher.getShard(slow); ++i) {
+            fast = "fast" + i;
+        }
+        ByteBuffer message = ByteBuffer.allocate(MessageReceiver.BUFFER_SIZE);
+        for (int i = 0; i < 3; ++i) {
+            // receiver buffer reused for each message
+            message.clear();
+            message.put(request(slow, i).getBytes());
+            message.flip();
+            messageDispatcher.dispatch(messageReceiver, message, localHost,
+                    5060, "UDP");
+        }
+        message.clear();
+        message.put(request(fast, 0).getBytes());
+        message.flip();
+        messageDispatcher.dispatch(messageReceiver, message, localHost,
+                5060, "UDP");
+        assert messageDispatcher.getQueueDepth(
+                messageDispatcher.getShard(slow)) >= 1;
+        for (int i = 0; i < 100 && processed.size() < 4; ++i) {
+            Thread.sleep(20);
+        }
+        assert processed.size() == 4;
+        // a slow call does not delay other calls
+        assert processed.get(0).equals(fast + " z9hG4bK0");
+        assert processed.get(1).equals("slow z9hG4bK0");
+        assert processed.get(2).equals("slow z9hG4bK1");
+        assert processed.get(3).equals("slow z9hG4bK2");
+        for (int queueDepth: messageDispatcher.getQueueDepths()) {
+            assert queueDepth == 0;
+        }
+        assert messageDispatcher.getDropped() == 0;
+    }
+
+    @Test
+    public void testClose() throws IOException, InterruptedException {
+        ByteBufferPool byteBufferPool =
+            new ByteBufferPool(MessageReceiver.BUFFER_SIZE, 8, false);
+        MessageDispatcher dispatcher =
+            new MessageDispatcher(1, 10, byteBufferPool);
+        final CountDownLatch started = new CountDownLatch(1);
+        MessageReceiver messageReceiver = new MessageReceiver(0, null, null,
+                new JavaConfig()) {
+            @Override
+            protected void listen() {
+            }
+            @Override
+            void processSipMessage(ByteBuffer message, InetAddress sourceIp,
+                    int sourcePort, String transport) {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(
+                    MessageDispatcher.class.getSimpleName())) {
+                assert thread.isDaemon() : thread.getName();
+            }
+        }
+        InetAddress localHost = InetAddress.getLocalHost();
+        for (int i = 0; i < 4; ++i) {
+            dispatcher.dispatch(messageReceiver,
+                    buffer(request("close", i)), localHost, 5060, "UDP");
+        }
+        assert started.await(2, TimeUnit.SECONDS);
+        assert byteBufferPool.getAllocated() == 4;
+        dispatcher.close();
+        Thread.sleep(100);
+        // the processed and the queued buffers are back in the pool
+        for (int i = 0; i < 4; ++i) {
+            byteBufferPool.acquire();
+        }
+        assert byteBufferPool.getAllocated() == 4;
+    }
+
+    private String request(String callId, int cseq) {
+        return "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK" + cseq + "\r\n"
+            + "Call-ID: " + callId + "\r\n"
+            + "CSeq: " + cseq + " OPTIONS\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+    }
+
+    private ByteBuffer buffer(String message) {
+        return ByteBuffer.wrap(message.getBytes());
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.transaction.ServerTransaction;
+import dk.apaq.peers.sip.transaction.ServerTransactionUser;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MessageReceiverTestNG {
+
+    private TransactionManager transactionManager;
+    private TransportManager transportManager;
+    private InetAddress localHost;
+    private int sipPort;
+    private AtomicInteger received;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        localHost = InetAddress.getLocalHost();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        transactionManager = new TransactionManager();
+        transportManager = new TransportManager(transactionManager, config);
+        transactionManager.setTransportManager(transportManager);
+        received = new AtomicInteger();
+        transportManager.setSipServerTransportUser(new SipServerTransportUser() {
+            @Override
+            public void messageReceived(SipMessage sipMessage) {
+                received.incrementAndGet();
+                // answers as a user agent would, within a transaction
+                SipRequest sipRequest = (SipRequest)sipMessage;
+                SipResponse sipResponse = Utils.generateStatelessResponse(
+                        sipRequest, RFC3261.CODE_200_OK,
+                        RFC3261.REASON_200_OK);
+                ServerTransaction serverTransaction =
+                    transactionManager.createServerTransaction(sipResponse,
+                            sipPort, RFC3261.TRANSPORT_UDP,
+                            new ServerTransactionUser() {
+                                @Override
+                                public void transactionFailure() {
+                                }
+                            }, sipRequest);
+                serverTransaction.start();
+                serverTransaction.receivedRequest(sipRequest);
+                serverTransaction.sendReponse(sipResponse);
+            }
+        });
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+        sipPort = transportManager.getSipPort();
+    }
+
+    @AfterClass
+    protected void close() {
+        transportManager.closeTransports();
+    }
+
+    @Test
+    public void testRetransmissionAbsorbed() throws IOException {
+        DatagramSocket datagramSocket = new DatagramSocket(0, localHost);
+        datagramSocket.setSoTimeout(2000);
+        byte[] request = ("OPTIONS sip:bob@" + localHost.getHostAddress()
+                + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP " + localHost.getHostAddress() + ":"
+                + datagramSocket.getLocalPort() + ";branch=z9hG4bK5678\r\n"
+                + "From: <sip:alice@atlanta.com>;tag=1\r\n"
+                + "To: <sip:bob@biloxi.com>\r\n"
+                + "Call-ID: 5678@127.0.0.1\r\n"
+                + "CSeq: 1 OPTIONS\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n").getBytes();
+        try {
+            String response = sendAndReceive(datagramSocket, request);
+            assert response.startsWith("SIP/2.0 200 OK");
+            String retransmittedResponse =
+                sendAndReceive(datagramSocket, request);
+            // resent by the transaction, same bytes
+            assert response.equals(retransmittedResponse);
+            assert received.get() == 1;
+        } finally {
+            datagramSocket.close();
+        }
+    }
+
+    private String sendAndReceive(DatagramSocket datagramSocket,
+            byte[] request) throws IOException {
+        datagramSocket.send(new DatagramPacket(request, request.length,
+                localHost, sipPort));
+        byte[] buf = new byte[RFC3261.TRANSPORT_UDP_MAX_SIZE];
+        String message;
+        do {
+            // message senders send keep-alives to their destination
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            datagramSocket.receive(packet);
+            message = new String(buf, 0, packet.getLength());
+        } while (message.trim().length() == 0);
+        return message;
+    }
+
+}
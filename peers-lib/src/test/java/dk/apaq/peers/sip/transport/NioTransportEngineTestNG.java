@@ -0,0 +1,152 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class NioTransportEngineTestNG {
+
+    private NioTransportEngine nioTransportEngine;
+    private TransportManager transportManager;
+    private InetAddress localHost;
+    private int sipPort;
+    private volatile SipMessage receivedMessage;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        localHost = InetAddress.getLocalHost();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        nioTransportEngine = new NioTransportEngine(1);
+        transportManager = new TransportManager(new TransactionManager(),
+                config, nioTransportEngine);
+        transportManager.setSipServerTransportUser(new SipServerTransportUser() {
+            @Override
+            public void messageReceived(SipMessage sipMessage) {
+                receivedMessage = sipMessage;
+            }
+        });
+        transportManager.createServerTransport("UDP", 0);
+        sipPort = transportManager.getSipPort();
+    }
+
+    @AfterClass
+    protected void close() {
+        nioTransportEngine.close();
+    }
+
+    @Test
+    public void receiveRequest() throws IOException, InterruptedException {
+        assert sipPort > 0;
+        SipRequest sipRequest = sendOptions("");
+        assert sipRequest.getBody() == null || sipRequest.getBody().length == 0;
+    }
+
+    @Test(dependsOnMethods = "receiveRequest")
+    public void receiveLargeDatagram() throws IOException, InterruptedException {
+        StringBuffer body = new StringBuffer();
+        while (body.length() < 20000) {
+            body.append("a=x-padding:0123456789\r\n");
+        }
+        SipRequest sipRequest = sendOptions(body.toString());
+        assert sipRequest.getBody().length == body.length();
+        // one buffer is enough for messages received one after the other
+        assert transportManager.getByteBufferPool().getAllocated() == 1;
+    }
+
+    @Test(dependsOnMethods = "receiveLargeDatagram")
+    public void failingTask() throws IOException, InterruptedException {
+        DatagramChannel channel = DatagramChannel.open();
+        nioTransportEngine.register(channel, SelectionKey.OP_READ,
+                new SelectionHandler() {
+            @Override
+            public void handle(SelectionKey selectionKey) {
+            }
+        });
+        final CountDownLatch executed = new CountDownLatch(1);
+        assert nioTransportEngine.execute(channel, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failing task");
+            }
+        });
+        assert nioTransportEngine.execute(channel, new Runnable() {
+            @Override
+            public void run() {
+                executed.countDown();
+            }
+        });
+        assert executed.await(1, TimeUnit.SECONDS);
+        nioTransportEngine.close(channel);
+        sendOptions("");
+    }
+
+    @Test(dependsOnMethods = "failingTask")
+    public void closeTransports() {
+        long start = System.currentTimeMillis();
+        transportManager.closeTransports();
+        assert System.currentTimeMillis() - start < TransportManager.SOCKET_TIMEOUT;
+        try {
+            new DatagramSocket(sipPort, localHost).close();
+        } catch (SocketException e) {
+            assert false : "port not released: " + e.getMessage();
+        }
+        assert nioTransportEngine.isRunning();
+    }
+
+    private SipRequest sendOptions(String body)
+            throws IOException, InterruptedException {
+        receivedMessage = null;
+        byte[] request = ("OPTIONS sip:bob@" + localHost.getHostAddress()
+                + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK1234\r\n"
+                + "Call-ID: 1234@127.0.0.1\r\n"
+                + "CSeq: 1 OPTIONS\r\n"
+                + "Content-Length: " + body.length() + "\r\n"
+                + "\r\n" + body).getBytes();
+        DatagramSocket datagramSocket = new DatagramSocket();
+        datagramSocket.send(new DatagramPacket(request, request.length,
+                localHost, sipPort));
+        datagramSocket.close();
+        for (int i = 0; i < 50 && receivedMessage == null; ++i) {
+            Thread.sleep(20);
+        }
+        assert receivedMessage instanceof SipRequest;
+        assert "OPTIONS".equals(((SipRequest)receivedMessage).getMethod());
+        return (SipRequest)receivedMessage;
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.RFC7339;
+import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldValue;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderParamName;
+import dk.apaq.peers.sip.syntaxencoding.SipParser;
+import dk.apaq.peers.sip.syntaxencoding.SipParserException;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class OverloadControllerTestNG {
+
+    private TransportManager transportManager;
+    private OverloadController overloadController;
+    private InetAddress localHost;
+    private int sipPort;
+    private volatile SipMessage receivedMessage;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        localHost = InetAddress.getLocalHost();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        config.setOverloadControl(true);
+        transportManager = new TransportManager(new TransactionManager(),
+                config);
+        transportManager.setSipServerTransportUser(new SipServerTransportUser() {
+            @Override
+            public void messageReceived(SipMessage sipMessage) {
+                receivedMessage = sipMessage;
+            }
+        });
+        transportManager.createServerTransport("UDP", 0);
+        sipPort = transportManager.getSipPort();
+        overloadController = transportManager.getOverloadController();
+        assert overloadController != null;
+    }
+
+    @AfterClass
+    protected void close() {
+        transportManager.closeTransports();
+    }
+
+    @Test
+    public void testIsRejectable() {
+        assert overloadController.isRejectable(buffer(
+                "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "To: <sip:bob@biloxi.com>\r\n"
+                + "\r\n"));
+        assert overloadController.isRejectable(buffer(
+                "REGISTER sip:biloxi.com SIP/2.0\r\n"
+                + "To: <sip:bob@biloxi.com>\r\n"
+                + "\r\n"));
+        // re-INVITE
+        assert !overloadController.isRejectable(buffer(
+                "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "To: <sip:bob@biloxi.com>;tag=1234\r\n"
+                + "\r\n"));
+        assert !overloadController.isRejectable(buffer(
+                "BYE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "To: <sip:bob@biloxi.com>\r\n"
+                + "\r\n"));
+        assert !overloadController.isRejectable(buffer(
+                "SIP/2.0 200 OK\r\n"
+                + "To: <sip:bob@biloxi.com>\r\n"
+                + "\r\n"));
+    }
+
+    @Test
+    public void testLoad() {
+        OverloadController overloadController = new OverloadController(null);
+        overloadController.setMaxLatency(100);
+        assert !overloadController.isOverloaded();
+        assert overloadController.getReduction() == 0;
+        for (int i = 0; i < 100; ++i) {
+            overloadController.messageProcessed(millis(400));
+        }
+        assert overloadController.isOverloaded();
+        int reduction = overloadController.getReduction();
+        assert reduction >= 70 && reduction <= 80 : reduction;
+        // hysteresis: still overloaded just below the limit
+        for (int i = 0; i < 100; ++i) {
+            overloadController.messageProcessed(millis(90));
+        }
+        assert overloadController.isOverloaded();
+        assert overloadController.getReduction()
+            == OverloadController.MIN_REDUCTION;
+        for (int i = 0; i < 100; ++i) {
+            overloadController.messageProcessed(millis(10));
+        }
+        assert !overloadController.isOverloaded();
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception {
+        SipRequest sipRequest = (SipRequest)parse(
+                "INVITE sip:bob@biloxi.com SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bKnashds8\r\n"
+                + "To: Bob <sip:bob@biloxi.com>\r\n"
+                + "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n"
+                + "Call-ID: a84b4c76e66710\r\n"
+                + "CSeq: 314159 INVITE\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n");
+        SipResponse sipResponse =
+            overloadController.createServiceUnavailable(sipRequest);
+        assert sipResponse.getStatusCode()
+            == RFC3261.CODE_503_SERVICE_UNAVAILABLE;
+        assert String.valueOf(overloadController.getRetryAfter()).equals(
+                getHeader(sipResponse, RFC3261.HDR_RETRY_AFTER).getValue());
+        assert getHeader(sipResponse, RFC3261.HDR_TO).getParam(
+                new SipHeaderParamName(RFC3261.PARAM_TAG)) != null;
+        assert "a84b4c76e66710".equals(Utils.getMessageCallId(sipResponse));
+        assert "z9hG4bKnashds8".equals(Utils.getTopVia(sipResponse).getParam(
+                new SipHeaderParamName(RFC3261.PARAM_BRANCH)));
+    }
+
+    @Test
+    public void testFeedback() {
+        SipHeaderFieldValue topVia = new SipHeaderFieldValue(
+                "SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK1;oc;oc-algo=\"loss\"");
+        overloadController.addFeedback(topVia);
+        assert "0".equals(topVia.getParam(
+                new SipHeaderParamName(RFC7339.PARAM_OC)));
+        assert "0".equals(topVia.getParam(
+                new SipHeaderParamName(RFC7339.PARAM_OC_VALIDITY)));
+        assert topVia.getParam(
+                new SipHeaderParamName(RFC7339.PARAM_OC_SEQ)) != null;
+        // peer without overload control support
+        topVia = new SipHeaderFieldValue(
+                "SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK1");
+        overloadController.addFeedback(topVia);
+        assert topVia.getParam(
+                new SipHeaderParamName(RFC7339.PARAM_OC)) == null;
+    }
+
+    @Test(dependsOnMethods = { "testIsRejectable", "testServiceUnavailable",
+            "testFeedback" })
+    public void testReject() throws Exception {
+        long rejected = overloadController.getRejected();
+        overloadController.setMaxLatency(100);
+        for (int i = 0; i < 100; ++i) {
+            overloadController.messageProcessed(millis(1000));
+        }
+        assert overloadController.isOverloaded();
+        DatagramSocket datagramSocket = new DatagramSocket(0, localHost);
+        datagramSocket.setSoTimeout(2000);
+        try {
+            receivedMessage = null;
+            send(datagramSocket, "INVITE", ";oc");
+            SipResponse sipResponse = (SipResponse)receive(datagramSocket);
+            assert sipResponse.getStatusCode()
+                == RFC3261.CODE_503_SERVICE_UNAVAILABLE;
+            String reduction = Utils.getTopVia(sipResponse).getParam(
+                    new SipHeaderParamName(RFC7339.PARAM_OC));
+            assert Integer.parseInt(reduction)
+                >= OverloadController.MIN_REDUCTION;
+            assert overloadController.getRejected() == rejected + 1;
+            // other requests are still processed
+            send(datagramSocket, "BYE", "");
+            for (int i = 0; i < 50 && receivedMessage == null; ++i) {
+                Thread.sleep(20);
+            }
+            assert receivedMessage instanceof SipRequest;
+            assert RFC3261.METHOD_BYE.equals(
+                    ((SipRequest)receivedMessage).getMethod());
+        } finally {
+            datagramSocket.close();
+        }
+    }
+
+    private void send(DatagramSocket datagramSocket, String method,
+            String viaParams) throws IOException {
+        String localAddress = localHost.getHostAddress();
+        byte[] request = (method + " sip:bob@" + localAddress + " SIP/2.0\r\n"
+                + "Via: SIP/2.0/UDP " + localAddress + ":"
+                + datagramSocket.getLocalPort() + ";branch=z9hG4bK"
+                + method + viaParams + "\r\n"
+                + "To: <sip:bob@" + localAddress + ">\r\n"
+                + "From: <sip:alice@" + localAddress + ">;tag=1234\r\n"
+                + "Call-ID: " + method + "@" + localAddress + "\r\n"
+                + "CSeq: 1 " + method + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "\r\n").getBytes();
+        datagramSocket.send(new DatagramPacket(request, request.length,
+                localHost, sipPort));
+    }
+
+    private SipMessage receive(DatagramSocket datagramSocket)
+            throws IOException, SipParserException {
+        byte[] buf = new byte[MessageReceiver.BUFFER_SIZE];
+        DatagramPacket packet;
+        do {
+            // message senders send keep-alives to their destination
+            packet = new DatagramPacket(buf, buf.length);
+            datagramSocket.receive(packet);
+        } while (new String(buf, 0, packet.getLength()).trim().length() == 0);
+        return new SipParser().parse(new ByteArrayInputStream(buf, 0,
+                packet.getLength()));
+    }
+
+    private SipMessage parse(String message)
+            throws IOException, SipParserException {
+        return new SipParser().parse(
+                new ByteArrayInputStream(message.getBytes()));
+    }
+
+    private SipHeaderFieldValue getHeader(SipMessage sipMessage, String name) {
+        return sipMessage.getSipHeaders().get(new SipHeaderFieldName(name));
+    }
+
+    private long millis(long millis) {
+        return millis * 1000000;
+    }
+
+    private ByteBuffer buffer(String message) {
+        return ByteBuffer.wrap(message.getBytes());
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class SharedPortTestNG {
+
+    public static final int CHANNELS = 4;
+    public static final int MESSAGES = 40;
+
+    private NioTransportEngine nioTransportEngine;
+    private TransportManager transportManager;
+    private InetAddress localHost;
+    private int sipPort;
+    private AtomicInteger received;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        DatagramChannel datagramChannel = DatagramChannel.open();
+        boolean supported = TransportManager.getReusePortOption(
+                datagramChannel) != null;
+        datagramChannel.close();
+        if (!supported) {
+            throw new SkipException("SO_REUSEPORT not supported");
+        }
+        localHost = InetAddress.getLocalHost();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        config.setUdpChannels(CHANNELS);
+        received = new AtomicInteger();
+        nioTransportEngine = new NioTransportEngine(CHANNELS);
+        transportManager = new TransportManager(new TransactionManager(),
+                config, nioTransportEngine);
+        transportManager.setSipServerTransportUser(new SipServerTransportUser() {
+            @Override
+            public void messageReceived(SipMessage sipMessage) {
+                received.incrementAndGet();
+            }
+        });
+        transportManager.createServerTransport("UDP", 0);
+        sipPort = transportManager.getSipPort();
+    }
+
+    @AfterClass
+    protected void close() {
+        if (nioTransportEngine != null) {
+            nioTransportEngine.close();
+        }
+    }
+
+    @Test
+    public void receiveOnAllChannels() throws IOException, InterruptedException {
+        assert sipPort > 0;
+        for (int i = 0; i < MESSAGES; ++i) {
+            // a new source port each time, for the kernel to spread them
+            byte[] request = ("OPTIONS sip:bob@" + localHost.getHostAddress()
+                    + " SIP/2.0\r\n"
+                    + "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK" + i + "\r\n"
+                    + "Call-ID: " + i + "@127.0.0.1\r\n"
+                    + "CSeq: 1 OPTIONS\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "\r\n").getBytes();
+            DatagramSocket datagramSocket = new DatagramSocket();
+            datagramSocket.send(new DatagramPacket(request, request.length,
+                    localHost, sipPort));
+            datagramSocket.close();
+        }
+        for (int i = 0; i < 50 && received.get() < MESSAGES; ++i) {
+            Thread.sleep(20);
+        }
+        assert received.get() == MESSAGES : received.get() + " received";
+    }
+
+    @Test(dependsOnMethods = "receiveOnAllChannels")
+    public void closeTransports() {
+        transportManager.closeTransports();
+        try {
+            // fails if any channel is still bound with SO_REUSEPORT
+            new DatagramSocket(sipPort, localHost).close();
+        } catch (SocketException e) {
+            assert false : "port not released: " + e.getMessage();
+        }
+    }
+
+}
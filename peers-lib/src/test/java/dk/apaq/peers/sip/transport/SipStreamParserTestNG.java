@@ -0,0 +1,140 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.apaq.peers.sip.syntaxencoding.SipParserException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SipStreamParserTestNG {
+
+    private static final String HEADERS = "OPTIONS sip:bob@127.0.0.1 SIP/2.0\r\n"
+        + "Via: SIP/2.0/TCP 127.0.0.1:5060;branch=z9hG4bK1234\r\n"
+        + "Call-ID: 1234@127.0.0.1\r\n"
+        + "CSeq: 1 OPTIONS\r\n";
+
+    private List<String> messages;
+    private int pings;
+    private SipStreamParser sipStreamParser;
+
+    @BeforeMethod
+    public void init() {
+        messages = new ArrayList<String>();
+        pings = 0;
+        sipStreamParser = new SipStreamParser(new SipStreamListener() {
+            @Override
+            public void messageReceived(ByteBuffer message) {
+                messages.add(new String(message.array(), message.position(),
+                        message.remaining()));
+            }
+            @Override
+            public void pingReceived() {
+                ++pings;
+            }
+        }, 4096, 8192);
+    }
+
+    @Test
+    public void testByteByByte() throws IOException, SipParserException {
+        String message = message("v=0\r\n");
+        byte[] bytes = message.getBytes();
+        for (int i = 0; i < bytes.length; ++i) {
+            sipStreamParser.feed(bytes, i, 1);
+            assert sipStreamParser.isWithinMessage() == (i < bytes.length - 1);
+        }
+        assert messages.size() == 1;
+        assert message.equals(messages.get(0));
+    }
+
+    @Test
+    public void testSeveralMessagesInOneChunk()
+            throws IOException, SipParserException {
+        String first = message("");
+        String second = message("v=0\r\n");
+        String third = HEADERS + "l: 3\r\n\r\nabc";
+        feed(first + second + third);
+        assert messages.size() == 3;
+        assert first.equals(messages.get(0));
+        assert second.equals(messages.get(1));
+        assert third.equals(messages.get(2));
+        assert !sipStreamParser.isWithinMessage();
+    }
+
+    @Test
+    public void testBodyAcrossChunks() throws IOException, SipParserException {
+        StringBuffer body = new StringBuffer();
+        while (body.length() < 5000) {
+            body.append("a=x-padding:0123456789\r\n");
+        }
+        String message = message(body.toString());
+        int split = HEADERS.length() + 10;
+        feed(message.substring(0, split));
+        feed(message.substring(split, split + 3000));
+        assert messages.isEmpty();
+        feed(message.substring(split + 3000));
+        assert messages.size() == 1;
+        assert message.equals(messages.get(0));
+    }
+
+    @Test
+    public void testPing() throws IOException, SipParserException {
+        feed("\r\n\r\n");
+        assert pings == 1;
+        feed("\r\n");
+        assert pings == 1;
+        String message = message("");
+        feed("\r\n" + message + "\r\n\r\n");
+        assert pings == 3;
+        assert messages.size() == 1;
+        assert message.equals(messages.get(0));
+    }
+
+    @Test(expectedExceptions = SipParserException.class)
+    public void shouldThrowIfHeadersTooLarge()
+            throws IOException, SipParserException {
+        StringBuffer headers = new StringBuffer(HEADERS);
+        while (headers.length() < 5000) {
+            headers.append("Subject: 0123456789\r\n");
+        }
+        feed(headers.toString());
+    }
+
+    @Test(expectedExceptions = SipParserException.class)
+    public void shouldThrowIfBodyTooLarge()
+            throws IOException, SipParserException {
+        feed(HEADERS + "Content-Length: 10000\r\n\r\n");
+    }
+
+    private String message(String body) {
+        return HEADERS + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    private void feed(String data) throws IOException, SipParserException {
+        byte[] bytes = data.getBytes();
+        sipStreamParser.feed(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SipTraceRecorderTestNG {
+
+    private File directory;
+    private InetAddress local;
+    private InetAddress remote;
+
+    @BeforeMethod
+    protected void init() throws IOException {
+        directory = Files.createTempDirectory("peers-trace").toFile();
+        directory.deleteOnExit();
+        local = InetAddress.getByName("192.168.1.2");
+        remote = InetAddress.getByName("192.168.1.3");
+    }
+
+    @Test
+    public void testRecord() throws IOException {
+        SipTraceRecorder sipTraceRecorder = new SipTraceRecorder(directory,
+                "test");
+        String request = message("1");
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(("\r\n" + request).getBytes());
+        buffer.flip();
+        buffer.position(2);
+        sipTraceRecorder.record(buffer, remote, 5060, local, 5070);
+        assert buffer.position() == 2;
+        sipTraceRecorder.record(request.getBytes(), local, 5070,
+                InetAddress.getByName("::1"), 5060);
+        sipTraceRecorder.close();
+        assert sipTraceRecorder.getRecorded() == 2;
+        assert sipTraceRecorder.getDropped() == 0;
+
+        ByteBuffer pcap = read(sipTraceRecorder.getPcapWriter().getFile(0));
+        assert pcap.getInt() == PcapWriter.MAGIC_NUMBER;
+        pcap.position(PcapWriter.GLOBAL_HEADER_SIZE - 4);
+        assert pcap.getInt() == PcapWriter.LINKTYPE_RAW;
+
+        // ipv4 record
+        pcap.getInt();
+        pcap.getInt();
+        int capturedLength = pcap.getInt();
+        assert capturedLength == PcapWriter.IPV4_HEADER_SIZE
+            + PcapWriter.UDP_HEADER_SIZE + request.length();
+        assert pcap.getInt() == capturedLength;
+        pcap.order(ByteOrder.BIG_ENDIAN);
+        int ipStart = pcap.position();
+        assert pcap.get(ipStart) == 0x45;
+        assert pcap.get(ipStart + 9) == PcapWriter.PROTOCOL_UDP;
+        assert checksum(pcap, ipStart, PcapWriter.IPV4_HEADER_SIZE) == 0;
+        assert pcap.getShort(ipStart + 20) == 5060;
+        assert pcap.getShort(ipStart + 22) == 5070;
+        byte[] payload = new byte[request.length()];
+        pcap.position(ipStart + PcapWriter.IPV4_HEADER_SIZE
+                + PcapWriter.UDP_HEADER_SIZE);
+        pcap.get(payload);
+        assert request.equals(new String(payload));
+
+        // ipv6 record, ipv4 source mapped
+        pcap.order(ByteOrder.LITTLE_ENDIAN);
+        pcap.getInt();
+        pcap.getInt();
+        assert pcap.getInt() == PcapWriter.IPV6_HEADER_SIZE
+            + PcapWriter.UDP_HEADER_SIZE + request.length();
+        pcap.getInt();
+        assert (pcap.get(pcap.position()) & 0xf0) == 0x60;
+        assert pcap.get(pcap.position() + 8 + 10) == (byte)0xff;
+    }
+
+    @Test
+    public void testFilters() throws IOException {
+        SipTraceRecorder sipTraceRecorder = new SipTraceRecorder(directory,
+                "filters");
+        sipTraceRecorder.addCallIdFilter("2");
+        for (int i = 0; i < 4; ++i) {
+            sipTraceRecorder.record(message(String.valueOf(i)).getBytes(),
+                    remote, 5060, local, 5060);
+        }
+        sipTraceRecorder.clearCallIdFilters();
+        sipTraceRecorder.setSampling(2);
+        List<String> sampled = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            String callId = "call" + i;
+            if ((callId.hashCode() & Integer.MAX_VALUE) % 2 == 0) {
+                sampled.add(callId);
+            }
+            sipTraceRecorder.record(message(callId).getBytes(), remote, 5060,
+                    local, 5060);
+        }
+        sipTraceRecorder.setEnabled(false);
+        sipTraceRecorder.setSampling(1);
+        sipTraceRecorder.record(message("2").getBytes(), remote, 5060,
+                local, 5060);
+        sipTraceRecorder.close();
+        assert sipTraceRecorder.getRecorded() == 1 + sampled.size();
+    }
+
+    @Test
+    public void testRotation() throws IOException {
+        String message = message("1");
+        int recordSize = PcapWriter.RECORD_HEADER_SIZE
+            + PcapWriter.IPV4_HEADER_SIZE + PcapWriter.UDP_HEADER_SIZE
+            + message.length();
+        // two messages per file
+        SipTraceRecorder sipTraceRecorder = new SipTraceRecorder(directory,
+                "rotation", 16,
+                PcapWriter.GLOBAL_HEADER_SIZE + 2 * recordSize, 2);
+        for (int i = 0; i < 7; ++i) {
+            sipTraceRecorder.record(message.getBytes(), remote, 5060, local,
+                    5060);
+        }
+        sipTraceRecorder.close();
+        PcapWriter pcapWriter = sipTraceRecorder.getPcapWriter();
+        assert pcapWriter.getFileIndex() == 3;
+        assert !pcapWriter.getFile(0).exists();
+        assert !pcapWriter.getFile(1).exists();
+        assert pcapWriter.getFile(2).length()
+            == PcapWriter.GLOBAL_HEADER_SIZE + 2 * recordSize;
+        assert pcapWriter.getFile(3).length()
+            == PcapWriter.GLOBAL_HEADER_SIZE + recordSize;
+    }
+
+    @Test
+    public void testOverflow() throws IOException, InterruptedException {
+        SipTraceRecorder sipTraceRecorder = new SipTraceRecorder(directory,
+                "overflow", 4, SipTraceRecorder.DEFAULT_MAX_FILE_SIZE, 1);
+        byte[] message = message("burst").getBytes();
+        int sent = 0;
+        while (sipTraceRecorder.getDropped() == 0 && sent < 1000000) {
+            sipTraceRecorder.record(message, remote, 5060, local, 5060);
+            ++sent;
+        }
+        assert sipTraceRecorder.getDropped() > 0;
+        for (int i = 0; i < 100 && sipTraceRecorder.getRecorded()
+                + sipTraceRecorder.getDropped() < sent; ++i) {
+            Thread.sleep(20);
+        }
+        // messages following the burst are not stuck behind dropped ones
+        for (int i = 0; i < 3; ++i) {
+            sipTraceRecorder.record(message("after" + i).getBytes(), remote,
+                    5060, local, 5060);
+        }
+        sipTraceRecorder.close();
+        assert sipTraceRecorder.getRecorded() + sipTraceRecorder.getDropped()
+            == sent + 3;
+        PcapWriter pcapWriter = sipTraceRecorder.getPcapWriter();
+        ByteBuffer pcap = read(pcapWriter.getFile(pcapWriter.getFileIndex()));
+        String content = new String(pcap.array(), "ISO-8859-1");
+        for (int i = 0; i < 3; ++i) {
+            assert content.contains("Call-ID: after" + i + "\r\n");
+        }
+    }
+
+    private String message(String callId) {
+        return "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n"
+            + "Call-ID: " + callId + "\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n";
+    }
+
+    private ByteBuffer read(File file) throws IOException {
+        file.deleteOnExit();
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private int checksum(ByteBuffer buffer, int start, int length) {
+        int sum = 0;
+        for (int i = start; i < start + length; i += 2) {
+            sum += buffer.getShort(i) & 0xffff;
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+        return ~sum & 0xffff;
+    }
+
+}
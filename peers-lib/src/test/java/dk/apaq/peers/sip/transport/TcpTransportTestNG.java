@@ -0,0 +1,208 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package dk.apaq.peers.sip.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dk.apaq.peers.Config;
+import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.HashedWheelTimer;
+import dk.apaq.peers.sip.RFC3261;
+import dk.apaq.peers.sip.Utils;
+import dk.apaq.peers.sip.syntaxencoding.SipHeaderFieldName;
+import dk.apaq.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TcpTransportTestNG {
+
+    private TransportManager transportManager;
+    private InetAddress localHost;
+    private int port;
+    private List<SipMessage> receivedMessages;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        localHost = InetAddress.getLocalHost();
+        ServerSocket serverSocket = new ServerSocket(0, 0, localHost);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        receivedMessages = new CopyOnWriteArrayList<SipMessage>();
+        transportManager = new TransportManager(new TransactionManager(),
+                config);
+        transportManager.setSipPort(port);
+        transportManager.setSipServerTransportUser(new SipServerTransportUser() {
+            @Override
+            public void messageReceived(SipMessage sipMessage) {
+                receivedMessages.add(sipMessage);
+            }
+        });
+        transportManager.createServerTransport(RFC3261.TRANSPORT_TCP, port);
+    }
+
+    @AfterClass
+    protected void close() {
+        transportManager.closeTransports();
+    }
+
+    @Test
+    public void framingAndConnectionReuse() throws Exception {
+        Socket socket = new Socket(localHost, port);
+        socket.setSoTimeout(2000);
+        OutputStream outputStream = socket.getOutputStream();
+        InputStream inputStream = socket.getInputStream();
+
+        // keep-alive ping, answered with a single CRLF
+        outputStream.write("\r\n\r\n".getBytes());
+        Thread.sleep(100);
+        assert inputStream.available() > 0;
+        assert inputStream.read() == '\r';
+        assert inputStream.read() == '\n';
+
+        // two messages in one segment, the first one with a body
+        String body = "v=0\r\n";
+        outputStream.write((request("1", body) + request("2", "")).getBytes());
+        for (int i = 0; i < 100 && receivedMessages.size() < 2; ++i) {
+            Thread.sleep(20);
+        }
+        assert receivedMessages.size() == 2;
+        SipRequest first = (SipRequest)receivedMessages.get(0);
+        assert body.equals(new String(first.getBody()));
+        assert "2".equals(Utils.getMessageCallId(receivedMessages.get(1)));
+        assert transportManager.getTcpConnectionPool().size() > 0;
+
+        // response goes back on the same connection
+        SipResponse sipResponse = new SipResponse(200, "OK");
+        sipResponse.getSipHeaders().add(
+                new SipHeaderFieldName(RFC3261.HDR_VIA),
+                Utils.getTopVia(first));
+        transportManager.sendResponse(sipResponse);
+        byte[] buf = new byte[RFC3261.DEFAULT_SIP_VERSION.length()];
+        int b;
+        // skip keep-alives
+        while ((b = inputStream.read()) == '\r' || b == '\n');
+        buf[0] = (byte)b;
+        int offset = 1;
+        while (offset < buf.length) {
+            offset += inputStream.read(buf, offset, buf.length - offset);
+        }
+        assert RFC3261.DEFAULT_SIP_VERSION.equals(new String(buf));
+        socket.close();
+    }
+
+    @Test(dependsOnMethods = "framingAndConnectionReuse")
+    public void responseOnReceivingConnection() throws Exception {
+        // same host and sent-by, without rport
+        Socket first = new Socket(localHost, port);
+        Socket second = new Socket(localHost, port);
+        first.setSoTimeout(300);
+        second.setSoTimeout(2000);
+        receivedMessages.clear();
+        first.getOutputStream().write(
+                request("3", "").replace(";rport", "").getBytes());
+        for (int i = 0; i < 100 && receivedMessages.size() < 1; ++i) {
+            Thread.sleep(20);
+        }
+        second.getOutputStream().write(
+                request("4", "").replace(";rport", "").getBytes());
+        for (int i = 0; i < 100 && receivedMessages.size() < 2; ++i) {
+            Thread.sleep(20);
+        }
+        assert receivedMessages.size() == 2;
+        SipRequest sipRequest = (SipRequest)receivedMessages.get(1);
+        assert sipRequest.getConnection() != null;
+        SipResponse sipResponse = new SipResponse(200, "OK");
+        sipResponse.getSipHeaders().add(
+                new SipHeaderFieldName(RFC3261.HDR_VIA),
+                Utils.getTopVia(sipRequest));
+        assert transportManager.sendResponse(sipResponse,
+                sipRequest.getConnection()) == sipRequest.getConnection();
+        InputStream inputStream = second.getInputStream();
+        int b;
+        // skip keep-alives
+        while ((b = inputStream.read()) == '\r' || b == '\n');
+        assert b == RFC3261.DEFAULT_SIP_VERSION.charAt(0);
+        try {
+            while ((b = first.getInputStream().read()) == '\r' || b == '\n');
+            assert b < 0 : "response sent on another connection";
+        } catch (SocketTimeoutException e) {
+            // nothing but keep-alives
+        }
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void stalledRemoteEnd() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 0, localHost);
+        serverSocket.setReceiveBufferSize(4096);
+        Socket socket = new Socket(localHost, serverSocket.getLocalPort());
+        // accepted but never read
+        Socket remote = serverSocket.accept();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        TcpMessageSender tcpMessageSender = new TcpMessageSender(port, socket,
+                config, HashedWheelTimer.getDefault());
+        byte[] bytes = new byte[64 * 1024];
+        IOException exception = null;
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < 1024 && exception == null; ++i) {
+                try {
+                    tcpMessageSender.sendBytes(bytes);
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+            // senders do not wait for the remote end
+            assert System.currentTimeMillis() - start < 2000;
+            assert exception != null;
+            assert !tcpMessageSender.isOpen();
+        } finally {
+            tcpMessageSender.close();
+            remote.close();
+            serverSocket.close();
+        }
+    }
+
+    private String request(String callId, String body) {
+        return "OPTIONS sip:bob@" + localHost.getHostAddress() + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/TCP " + localHost.getHostAddress()
+            + ":5070;branch=z9hG4bK" + callId + ";rport\r\n"
+            + "Call-ID: " + callId + "\r\n"
+            + "CSeq: 1 OPTIONS\r\n"
+            + "l: " + body.length() + "\r\n"
+            + "\r\n"
+            + body;
+    }
+
+}
@@ -25,13 +25,19 @@ import dk.apaq.peers.sip.transport.SipMessage;
 import dk.apaq.peers.sip.transport.TransportManager;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 import dk.apaq.peers.Config;
 import dk.apaq.peers.JavaConfig;
+import dk.apaq.peers.sip.resolver.DnsBackend;
+import dk.apaq.peers.sip.resolver.DnsRecord;
+import dk.apaq.peers.sip.resolver.SipResolver;
 import dk.apaq.peers.sip.syntaxencoding.SipParser;
 import dk.apaq.peers.sip.syntaxencoding.SipParserException;
 import dk.apaq.peers.sip.transaction.TransactionManager;
@@ -81,7 +87,40 @@ public class TransportManagerTestNG {
     
     //TODO test createClientTransport with ttl
     
-    //TODO test sendResponse
+    @Test
+    public void sendResponseToDomainName() throws Exception {
+        final InetAddress localHost = InetAddress.getLocalHost();
+        transportManager.setSipResolver(new SipResolver(new DnsBackend() {
+            @Override
+            public List<DnsRecord> lookup(String name, int type) {
+                List<DnsRecord> dnsRecords = new ArrayList<DnsRecord>();
+                DnsRecord dnsRecord = DnsRecord.address(name, 60, localHost);
+                if ("sender.example.com".equals(name)
+                        && dnsRecord.getType() == type) {
+                    dnsRecords.add(dnsRecord);
+                }
+                return dnsRecords;
+            }
+        }));
+        DatagramSocket remote = new DatagramSocket(0, localHost);
+        remote.setSoTimeout(2000);
+        SipResponse sipResponse = (SipResponse)parse("SIP/2.0 200 OK\r\n"
+                + "Via: SIP/2.0/UDP sender.example.com:"
+                + remote.getLocalPort() + ";branch=z9hG4bKdomain\r\n"
+                + "CSeq: 1 OPTIONS\r\n"
+                + "\r\n");
+        // sent once resolved, without blocking the caller
+        assert transportManager.sendResponse(sipResponse) == null;
+        byte[] buf = new byte[4096];
+        String received;
+        do {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            remote.receive(packet);
+            received = new String(buf, 0, packet.getLength());
+        } while (received.trim().isEmpty());
+        assert received.startsWith("SIP/2.0 200 OK") : received;
+        remote.close();
+    }
     
     @Test (expectedExceptions = SocketException.class)
     public void checkServerConnection()